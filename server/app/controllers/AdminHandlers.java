@@ -26,7 +26,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.typesafe.config.ConfigRenderOptions;
 import org.grouplens.samantha.server.common.JsonHelpers;
+import org.grouplens.samantha.server.common.SolverExecutorService;
 import org.grouplens.samantha.server.config.SamanthaConfigService;
+import org.grouplens.samantha.server.space.RedisSpaceCache;
 import play.Configuration;
 import play.libs.Json;
 import play.mvc.Controller;
@@ -39,6 +41,8 @@ import javax.inject.Inject;
  */
 public class AdminHandlers extends Controller {
     private final SamanthaConfigService samanthaConfigService;
+    private final RedisSpaceCache spaceCache;
+    private final SolverExecutorService solverExecutorService;
 
     /**
      * Constructor of AdminHandler.
@@ -47,10 +51,15 @@ public class AdminHandlers extends Controller {
      * whenever relevant request urls come.
      *
      * @param samanthaConfigService must be injected with play injector. singleton.
+     * @param spaceCache must be injected with play injector. singleton.
+     * @param solverExecutorService must be injected with play injector. singleton.
      */
     @Inject
-    public AdminHandlers(SamanthaConfigService samanthaConfigService) {
+    public AdminHandlers(SamanthaConfigService samanthaConfigService, RedisSpaceCache spaceCache,
+                         SolverExecutorService solverExecutorService) {
         this.samanthaConfigService = samanthaConfigService;
+        this.spaceCache = spaceCache;
+        this.solverExecutorService = solverExecutorService;
     }
 
     /**
@@ -82,4 +91,53 @@ public class AdminHandlers extends Controller {
         resp.set("config", conf);
         return ok(resp);
     }
+
+    /**
+     * Handler for getting the statistics of the local cache in front of the redis based spaces.
+     *
+     * @return a HTTP response with the keys "status" and "spaceCache" where the value of "spaceCache" has the size,
+     * hit/miss counts and eviction count of the cache. See {@link RedisSpaceCache#getStats()}.
+     */
+    public Result getSpaceCacheStats() {
+        ObjectNode resp = JsonHelpers.successJson();
+        resp.set("spaceCache", spaceCache.getStats());
+        return ok(resp);
+    }
+
+    /**
+     * Handler for getting the statistics of the solver executors of the engines.
+     *
+     * @return a HTTP response with the keys "status" and "solverExecutors" where the value of "solverExecutors" has
+     * the number of workers, active workers, queue depth and instances/sec of the last pass for each engine.
+     */
+    public Result getSolverExecutorStats() {
+        ObjectNode resp = JsonHelpers.successJson();
+        resp.set("solverExecutors", solverExecutorService.getStats());
+        return ok(resp);
+    }
+
+    /**
+     * Handler for cancelling the training running on the solver executor of an engine.
+     *
+     * @param engine the name of the engine.
+     * @return a HTTP response with the keys "status" and "cancelled", which is false if nothing was running.
+     */
+    public Result cancelSolverExecutor(String engine) {
+        ObjectNode resp = JsonHelpers.successJson();
+        resp.put("cancelled", solverExecutorService.cancel(engine));
+        return ok(resp);
+    }
+
+    /**
+     * Handler for changing the number of workers of the solver executor of an engine, e.g. to throttle the training
+     * running next to serving.
+     *
+     * @param engine the name of the engine.
+     * @param numThreads the new number of workers.
+     * @return a HTTP response with the key "status" only.
+     */
+    public Result throttleSolverExecutor(String engine, int numThreads) {
+        solverExecutorService.throttle(engine, numThreads);
+        return ok(JsonHelpers.successJson());
+    }
 }
@@ -109,4 +109,9 @@ public class GBDT extends StandardFeaturizer implements BoostedPredictiveModel {
         indexSpace.publishSpaceVersion();
         variableSpace.publishSpaceVersion();
     }
+
+    public void publishWrites() {
+        indexSpace.publishWrites();
+        variableSpace.publishWrites();
+    }
 }
@@ -84,4 +84,9 @@ public class RegressionTreeGBCent extends AbstractGBCent implements PredictiveMo
         indexSpace.publishSpaceVersion();
         variableSpace.publishSpaceVersion();
     }
+
+    public void publishWrites() {
+        indexSpace.publishWrites();
+        variableSpace.publishWrites();
+    }
 }
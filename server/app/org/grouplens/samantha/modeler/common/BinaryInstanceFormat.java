@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.common;
+
+import org.grouplens.samantha.modeler.featurizer.StandardLearningInstance;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureInstance;
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary records of {@link LearningInstance}s in the instance caches of the optimizers, in place of Java
+ * serialization. A record is a type byte and then the fields of the instance, with the feature indices as ints and
+ * the feature values as floats. {@link SVDFeatureInstance} and {@link StandardLearningInstance} have their own
+ * records; the other instances are Java serialized into the record.
+ */
+public final class BinaryInstanceFormat {
+    static private final byte SVDFEATURE_INSTANCE = 0;
+    static private final byte STANDARD_INSTANCE = 1;
+    static private final byte SERIALIZED_INSTANCE = 2;
+
+    private BinaryInstanceFormat() {}
+
+    /**
+     * @return a buffer with at least size bytes remaining, which is the given one if it already has them.
+     */
+    static public ByteBuffer ensureRemaining(ByteBuffer buffer, int size) {
+        if (buffer.remaining() >= size) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + size);
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    static public int getGroupSize(String group) {
+        return Integer.BYTES + (group == null ? 0 : group.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    static public void putGroup(ByteBuffer buffer, String group) {
+        if (group == null) {
+            buffer.putInt(-1);
+        } else {
+            byte[] bytes = group.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    static public String getGroup(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the record of the instance at the position of the buffer.
+     *
+     * @return the buffer written, which is a larger copy of the given one if it does not have enough space.
+     */
+    static public ByteBuffer write(ByteBuffer buffer, LearningInstance instance) {
+        if (instance instanceof SVDFeatureInstance) {
+            SVDFeatureInstance svdfeaIns = (SVDFeatureInstance) instance;
+            buffer = ensureRemaining(buffer, 1 + svdfeaIns.getBinarySize());
+            buffer.put(SVDFEATURE_INSTANCE);
+            svdfeaIns.writeBinary(buffer);
+        } else if (instance instanceof StandardLearningInstance) {
+            StandardLearningInstance standardIns = (StandardLearningInstance) instance;
+            buffer = ensureRemaining(buffer, 1 + standardIns.getBinarySize());
+            buffer.put(STANDARD_INSTANCE);
+            standardIns.writeBinary(buffer);
+        } else {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream stream = new ObjectOutputStream(bytes);
+                stream.writeUnshared(instance);
+                stream.close();
+                buffer = ensureRemaining(buffer, 1 + Integer.BYTES + bytes.size());
+                buffer.put(SERIALIZED_INSTANCE);
+                buffer.putInt(bytes.size());
+                buffer.put(bytes.toByteArray());
+            } catch (IOException e) {
+                throw new BadRequestException(e);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Read the record of an instance from the position of the buffer.
+     */
+    static public LearningInstance read(ByteBuffer buffer) {
+        byte type = buffer.get();
+        if (type == SVDFEATURE_INSTANCE) {
+            return SVDFeatureInstance.readBinary(buffer);
+        } else if (type == STANDARD_INSTANCE) {
+            return StandardLearningInstance.readBinary(buffer);
+        } else if (type == SERIALIZED_INSTANCE) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            try {
+                ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                return (LearningInstance) stream.readUnshared();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new BadRequestException(e);
+            }
+        } else {
+            throw new BadRequestException("Unknown type of binary learning instance record: " + type);
+        }
+    }
+}
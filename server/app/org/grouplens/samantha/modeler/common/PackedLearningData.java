@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.common;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.grouplens.samantha.modeler.featurizer.Feature;
+import org.grouplens.samantha.modeler.featurizer.StandardLearningInstance;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The instances of a {@link LearningData} featurized once and kept in memory as packed primitive columns, for the
+ * optimizers making many passes over a data set which fits in memory. The instances are kept in the lists the given
+ * data returns, e.g. the groups of grouped data, and {@link #getLearningInstance()} returns one such list at a time.
+ *
+ * The lists are claimed with an atomic cursor, so the threads of a parallel optimizer can share the data without
+ * locking. With shuffling, {@link #startNewIteration()} permutes the order of the lists in place. Instances other
+ * than {@link SVDFeatureInstance} and {@link StandardLearningInstance} are kept as they are.
+ */
+public class PackedLearningData implements LearningData {
+    static private final byte SVDFEATURE_INSTANCE = 0;
+    static private final byte STANDARD_INSTANCE = 1;
+    static private final byte OTHER_INSTANCE = 2;
+    static private final int NUM_SEGMENTS = 3;
+
+    private final int numUnits;
+    private final int[] unitOffsets;
+    private final byte[] types;
+    private final double[] labels;
+    private final double[] weights;
+    private final int[] groupIds;
+    private final String[] groups;
+    private final int[] feaOffsets;
+    private final int[] feaIndexes;
+    private final double[] feaValues;
+    private final Int2ObjectMap<LearningInstance> others = new Int2ObjectOpenHashMap<>();
+    private final int[] order;
+    private final boolean shuffle;
+    private final long seed;
+    private final AtomicInteger cursor = new AtomicInteger(0);
+    private int iteration = 0;
+
+    /**
+     * Read through the given learning data once and pack its instances.
+     *
+     * @param shuffle whether to permute the order of the lists of instances in every iteration.
+     * @param seed the seed of the permutations, which differs between iterations.
+     */
+    public PackedLearningData(LearningData learningData, boolean shuffle, long seed) {
+        this.shuffle = shuffle;
+        this.seed = seed;
+        IntArrayList unitOffsetList = new IntArrayList();
+        ByteArrayList typeList = new ByteArrayList();
+        DoubleArrayList labelList = new DoubleArrayList();
+        DoubleArrayList weightList = new DoubleArrayList();
+        IntArrayList groupIdList = new IntArrayList();
+        Object2IntMap<String> groupIndex = new Object2IntOpenHashMap<>();
+        groupIndex.defaultReturnValue(-1);
+        List<String> groupList = new ArrayList<>();
+        IntArrayList feaOffsetList = new IntArrayList();
+        IntArrayList feaIndexList = new IntArrayList();
+        DoubleArrayList feaValueList = new DoubleArrayList();
+        unitOffsetList.add(0);
+        feaOffsetList.add(0);
+        learningData.startNewIteration();
+        List<LearningInstance> instances;
+        while ((instances = learningData.getLearningInstance()).size() > 0) {
+            for (LearningInstance ins : instances) {
+                String group = null;
+                if (ins instanceof SVDFeatureInstance) {
+                    SVDFeatureInstance svdfeaIns = (SVDFeatureInstance) ins;
+                    typeList.add(SVDFEATURE_INSTANCE);
+                    addFeatures(svdfeaIns.getBiasFeatures(), feaIndexList, feaValueList, feaOffsetList);
+                    addFeatures(svdfeaIns.getUserFeatures(), feaIndexList, feaValueList, feaOffsetList);
+                    addFeatures(svdfeaIns.getItemFeatures(), feaIndexList, feaValueList, feaOffsetList);
+                    group = svdfeaIns.getGroup();
+                } else if (ins instanceof StandardLearningInstance) {
+                    StandardLearningInstance standardIns = (StandardLearningInstance) ins;
+                    typeList.add(STANDARD_INSTANCE);
+                    for (Int2DoubleMap.Entry entry : standardIns.getFeatures().int2DoubleEntrySet()) {
+                        feaIndexList.add(entry.getIntKey());
+                        feaValueList.add(entry.getDoubleValue());
+                    }
+                    for (int i=0; i<NUM_SEGMENTS; i++) {
+                        feaOffsetList.add(feaIndexList.size());
+                    }
+                    group = standardIns.getGroup();
+                } else {
+                    others.put(typeList.size(), ins);
+                    typeList.add(OTHER_INSTANCE);
+                    for (int i=0; i<NUM_SEGMENTS; i++) {
+                        feaOffsetList.add(feaIndexList.size());
+                    }
+                }
+                labelList.add(ins.getLabel());
+                weightList.add(ins.getWeight());
+                int groupId = -1;
+                if (group != null) {
+                    groupId = groupIndex.getInt(group);
+                    if (groupId < 0) {
+                        groupId = groupList.size();
+                        groupIndex.put(group, groupId);
+                        groupList.add(group);
+                    }
+                }
+                groupIdList.add(groupId);
+            }
+            unitOffsetList.add(typeList.size());
+        }
+        numUnits = unitOffsetList.size() - 1;
+        unitOffsets = unitOffsetList.toIntArray();
+        types = typeList.toByteArray();
+        labels = labelList.toDoubleArray();
+        weights = weightList.toDoubleArray();
+        groupIds = groupIdList.toIntArray();
+        groups = groupList.toArray(new String[groupList.size()]);
+        feaOffsets = feaOffsetList.toIntArray();
+        feaIndexes = feaIndexList.toIntArray();
+        feaValues = feaValueList.toDoubleArray();
+        order = new int[numUnits];
+        for (int i=0; i<numUnits; i++) {
+            order[i] = i;
+        }
+    }
+
+    static private void addFeatures(List<Feature> features, IntArrayList feaIndexList,
+                                    DoubleArrayList feaValueList, IntArrayList feaOffsetList) {
+        for (Feature fea : features) {
+            feaIndexList.add(fea.getIndex());
+            feaValueList.add(fea.getValue());
+        }
+        feaOffsetList.add(feaIndexList.size());
+    }
+
+    private List<Feature> getFeatures(int segment) {
+        int start = feaOffsets[segment];
+        int end = feaOffsets[segment + 1];
+        List<Feature> features = new ArrayList<>(end - start);
+        for (int i=start; i<end; i++) {
+            features.add(new Feature(feaIndexes[i], feaValues[i]));
+        }
+        return features;
+    }
+
+    private LearningInstance getInstance(int idx) {
+        byte type = types[idx];
+        String group = groupIds[idx] < 0 ? null : groups[groupIds[idx]];
+        int segment = idx * NUM_SEGMENTS;
+        if (type == SVDFEATURE_INSTANCE) {
+            return new SVDFeatureInstance(getFeatures(segment), getFeatures(segment + 1),
+                    getFeatures(segment + 2), labels[idx], weights[idx], group);
+        } else if (type == STANDARD_INSTANCE) {
+            int start = feaOffsets[segment];
+            int end = feaOffsets[segment + 1];
+            Int2DoubleMap features = new Int2DoubleOpenHashMap(end - start);
+            for (int i=start; i<end; i++) {
+                features.put(feaIndexes[i], feaValues[i]);
+            }
+            return new StandardLearningInstance(features, labels[idx], weights[idx], group);
+        } else {
+            return others.get(idx);
+        }
+    }
+
+    private List<LearningInstance> getUnit(int unit) {
+        int start = unitOffsets[unit];
+        int end = unitOffsets[unit + 1];
+        List<LearningInstance> instances = new ArrayList<>(end - start);
+        for (int i=start; i<end; i++) {
+            instances.add(getInstance(i));
+        }
+        return instances;
+    }
+
+    public int getNumInstances() {
+        return types.length;
+    }
+
+    /**
+     * @return the number of lists of instances, which is the number of instances if the data is not grouped.
+     */
+    public int getNumUnits() {
+        return numUnits;
+    }
+
+    public List<LearningInstance> getLearningInstance() {
+        if (cursor.get() >= numUnits) {
+            return new ArrayList<>(0);
+        }
+        int idx = cursor.getAndIncrement();
+        if (idx >= numUnits) {
+            return new ArrayList<>(0);
+        }
+        return getUnit(order[idx]);
+    }
+
+    synchronized public void startNewIteration() {
+        if (shuffle) {
+            Random random = new Random(seed * 31 + iteration);
+            for (int i=numUnits - 1; i>0; i--) {
+                int j = random.nextInt(i + 1);
+                int unit = order[i];
+                order[i] = order[j];
+                order[j] = unit;
+            }
+        }
+        iteration++;
+        cursor.set(0);
+    }
+}
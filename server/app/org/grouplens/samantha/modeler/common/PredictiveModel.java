@@ -24,6 +24,8 @@ package org.grouplens.samantha.modeler.common;
 
 import org.grouplens.samantha.modeler.space.SpaceModel;
 
+import java.util.List;
+
 /**
  * The interface representing a predictive model, which takes in an {@link LearningInstance} and produces a value.
  */
@@ -38,4 +40,19 @@ public interface PredictiveModel extends SpaceModel {
      * @return the predicted value based on the model.
      */
     double predict(LearningInstance ins);
+
+    /**
+     * Make predictions on a list of instances, e.g. the candidates of one request. Models override this when the
+     * instances share work, e.g. the features of the same user.
+     *
+     * @param instances the learning instances to make prediction on.
+     * @return the predicted values in the order of the instances.
+     */
+    default double[] predict(List<LearningInstance> instances) {
+        double[] preds = new double[instances.size()];
+        for (int i=0; i<instances.size(); i++) {
+            preds[i] = predict(instances.get(i));
+        }
+        return preds;
+    }
 }
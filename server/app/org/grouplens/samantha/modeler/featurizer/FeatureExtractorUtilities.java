@@ -47,13 +47,13 @@ public class FeatureExtractorUtilities {
                                                      IndexSpace indexSpace,
                                                      String indexName, Object key,
                                                      double val) {
-        if (indexSpace.containsKey(indexName, key)) {
-            Feature feature = new Feature(indexSpace.getIndexForKey(indexName, key), val);
-            features.add(feature);
-        } else if (update) {
+        if (update) {
             int index = indexSpace.setKey(indexName, key);
             Feature feature = new Feature(index, val);
             features.add(feature);
+        } else if (indexSpace.containsKey(indexName, key)) {
+            Feature feature = new Feature(indexSpace.getIndexForKey(indexName, key), val);
+            features.add(feature);
         }
     }
 
@@ -23,8 +23,12 @@
 package org.grouplens.samantha.modeler.featurizer;
 
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.grouplens.samantha.modeler.common.BinaryInstanceFormat;
 import org.grouplens.samantha.modeler.common.LearningInstance;
 
+import java.nio.ByteBuffer;
+
 public class StandardLearningInstance extends AbstractLearningInstance {
     private static final long serialVersionUID = 1L;
     public static double defaultWeight = 1.0;
@@ -63,4 +67,38 @@ public class StandardLearningInstance extends AbstractLearningInstance {
     public void setWeight(double weight) {
         this.weight = weight;
     }
+
+    /**
+     * @return the size of the record written by {@link #writeBinary(ByteBuffer)}.
+     */
+    public int getBinarySize() {
+        return 2 * Double.BYTES + BinaryInstanceFormat.getGroupSize(group) +
+                Integer.BYTES + features.size() * (Integer.BYTES + Float.BYTES);
+    }
+
+    /**
+     * Write the instance as a record of {@link BinaryInstanceFormat}, with the feature values as floats.
+     */
+    public void writeBinary(ByteBuffer buffer) {
+        buffer.putDouble(label);
+        buffer.putDouble(weight);
+        BinaryInstanceFormat.putGroup(buffer, group);
+        buffer.putInt(features.size());
+        for (Int2DoubleMap.Entry entry : features.int2DoubleEntrySet()) {
+            buffer.putInt(entry.getIntKey());
+            buffer.putFloat((float) entry.getDoubleValue());
+        }
+    }
+
+    static public StandardLearningInstance readBinary(ByteBuffer buffer) {
+        double label = buffer.getDouble();
+        double weight = buffer.getDouble();
+        String group = BinaryInstanceFormat.getGroup(buffer);
+        int size = buffer.getInt();
+        Int2DoubleMap features = new Int2DoubleOpenHashMap(size);
+        for (int i=0; i<size; i++) {
+            features.put(buffer.getInt(), buffer.getFloat());
+        }
+        return new StandardLearningInstance(features, label, weight, group);
+    }
 }
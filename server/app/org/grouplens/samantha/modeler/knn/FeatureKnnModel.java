@@ -22,27 +22,45 @@
 
 package org.grouplens.samantha.modeler.knn;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Ordering;
-
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
-import org.grouplens.samantha.modeler.featurizer.FeatureExtractorUtilities;
+import org.grouplens.samantha.modeler.solver.ObjectiveRunnable;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
 import org.grouplens.samantha.modeler.space.IndexSpace;
 import org.grouplens.samantha.modeler.space.IndexedVectorModel;
+import org.grouplens.samantha.modeler.space.RowAccumulator;
 import org.grouplens.samantha.modeler.space.VariableSpace;
 import org.grouplens.samantha.modeler.svdfeature.SVDFeature;
-import org.grouplens.samantha.modeler.svdfeature.SVDFeatureKey;
-import org.grouplens.samantha.modeler.tree.SortingUtilities;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureItemMatrix;
 import play.Logger;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
+/**
+ * The numNeighbors most similar, or most dissimilar if reverse, items of every item by the cosine similarities of
+ * their factors in a {@link SVDFeature} model, where the items are the factor features made of exactly the feature
+ * attributes with at least minSupport. The neighbors of an item are kept as pairs of the index of the neighbor and
+ * the similarity in the vector of the item, from the most to the least similar, or dissimilar. The pairs not filled
+ * since there are fewer other items than numNeighbors have the index -1.
+ *
+ * Building takes a snapshot of the item factors as a {@link SVDFeatureItemMatrix} and normalizes it once. Blocks of
+ * ROW_BLOCK_SIZE items are then compared against tiles of COLUMN_BLOCK_SIZE items, which stay in the cache while the
+ * rows of the block go through them, keeping the neighbors of every row in a {@link TopNHeap}. The blocks are taken in
+ * turn by as many runnables as the workers of the given {@link SolverExecutor}, i.e. the one of the engine.
+ *
+ * The normalized factors the neighbors were computed from are kept in the variable space too, so that
+ * {@link #updateModel(SVDFeature, double, SolverExecutor)} only recomputes the neighbors of the items that changed since.
+ */
 public class FeatureKnnModel extends IndexedVectorModel {
     private static final long serialVersionUID = 1L;
+    static private final int ROW_BLOCK_SIZE = 64;
+    static private final int COLUMN_BLOCK_SIZE = 512;
+
     final private List<String> feaAttrs;
     transient final private SVDFeature svdFeature;
     final private int numNeighbors;
@@ -63,65 +81,309 @@ public class FeatureKnnModel extends IndexedVectorModel {
         this.minSupport = minSupport;
     }
 
-    private List<double[]> getNeighbors(int curIndex, IntList svdIndices, SVDFeature svdFeature) {
-        List<double[]> raw = new ArrayList<>(svdIndices.size());
-        for (int target : svdIndices) {
-            if (target != curIndex) {
-                double[] pair = new double[2];
-                pair[0] = target;
-                pair[1] = svdFeature.getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), target)
-                        .cosine(svdFeature.getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), curIndex));
-                raw.add(pair);
+    private String getFactorsName() {
+        return modelName + ".factors";
+    }
+
+    static private float[] normalizeRows(float[] vectors, int numRows, int dim) {
+        for (int i=0; i<numRows; i++) {
+            int offset = i * dim;
+            double norm = 0.0;
+            for (int f=0; f<dim; f++) {
+                norm += vectors[offset + f] * vectors[offset + f];
+            }
+            if (norm > 0.0) {
+                norm = Math.sqrt(norm);
+                for (int f=0; f<dim; f++) {
+                    vectors[offset + f] /= norm;
+                }
             }
         }
-        Ordering<double[]> pairDoubleOrdering = SortingUtilities.pairDoubleSecondOrdering();
-        List<double[]> neighbors;
-        if (reverse) {
-            neighbors = pairDoubleOrdering.leastOf(raw, numNeighbors);
-        } else {
-            neighbors = pairDoubleOrdering.greatestOf(raw, numNeighbors);
+        return vectors;
+    }
+
+    private int[] ensureKeys(SVDFeatureItemMatrix itemMatrix) {
+        int[] simIndices = new int[itemMatrix.getNumItems()];
+        for (int i=0; i<simIndices.length; i++) {
+            simIndices[i] = ensureKey(itemMatrix.getItemKey(i));
         }
-        return neighbors;
+        return simIndices;
     }
 
-    public FeatureKnnModel buildModel() {
-        List<String> features = Lists.newArrayList(svdFeature.getFactorFeatures(minSupport).keySet());
-        IntList svdIndices = new IntArrayList();
-        IntList simIndices = new IntArrayList(features.size());
-        for (int i=0; i<features.size(); i++) {
-            String feature = features.get(i);
-            Map<String, String> attrVals = FeatureExtractorUtilities.decomposeKey(feature);
-            boolean ifModel = true;
-            if (attrVals.size() == feaAttrs.size()) {
-                for (String attr : feaAttrs) {
-                    if (!attrVals.containsKey(attr)) {
-                        ifModel = false;
+    /**
+     * Offer the similarities between the rows from from (inclusive) to to (exclusive) and the columns, which are both
+     * rows of the normalized vectors, to the heaps of the rows tile by tile. The heaps keep the indices of the
+     * neighbors in this model. The similarities are negated if reverse so that the heaps keep the least similar ones.
+     */
+    private void offerNeighbors(float[] vectors, int dim, int[] simIndices, int[] rows, int from, int to,
+                                int[] cols, TopNHeap[] heaps) {
+        double sign = reverse ? -1.0 : 1.0;
+        for (int colStart=0; colStart<cols.length; colStart+=COLUMN_BLOCK_SIZE) {
+            int colEnd = Math.min(colStart + COLUMN_BLOCK_SIZE, cols.length);
+            for (int i=from; i<to; i++) {
+                int row = rows[i];
+                TopNHeap heap = heaps[i - from];
+                int rowOffset = row * dim;
+                for (int j=colStart; j<colEnd; j++) {
+                    int col = cols[j];
+                    if (col == row) {
+                        continue;
+                    }
+                    int colOffset = col * dim;
+                    double sim = 0.0;
+                    for (int f=0; f<dim; f++) {
+                        sim += vectors[rowOffset + f] * vectors[colOffset + f];
+                    }
+                    sim *= sign;
+                    if (!heap.isFull() || sim > heap.getMinScore()) {
+                        heap.offer(simIndices[col], sim);
                     }
                 }
-            } else {
-                ifModel = false;
             }
-            if (ifModel) {
-                svdIndices.add(i);
-                ensureKey(feature);
-                simIndices.add(getIndexByKey(feature));
-            } else {
-                simIndices.add(-1);
+        }
+    }
+
+    /**
+     * Offer the current neighbors of the item to the heap except the stale ones, which are offered again with their
+     * recomputed similarities among the columns, so that an entry is only evicted when it is beaten by another one.
+     *
+     * @return the score in the heap of the last current neighbor, which no item missing from the neighbors and not
+     * stale beats, or negative infinity if the neighbors are not full, i.e. none is missing.
+     */
+    private double keepNeighbors(int simIdx, boolean[] stale, TopNHeap heap) {
+        double sign = reverse ? -1.0 : 1.0;
+        RealVector sims = getIndexVector(simIdx);
+        double minScore = Double.POSITIVE_INFINITY;
+        for (int j=0; j<sims.getDimension(); j+=2) {
+            int idx = (int) sims.getEntry(j);
+            if (idx < 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            double score = sign * sims.getEntry(j + 1);
+            minScore = Math.min(minScore, score);
+            if (!stale[idx]) {
+                heap.offer(idx, score);
             }
         }
-        Logger.info("Total number of items to compute similarity model {}: {}",
-                modelName, svdIndices.size());
-        svdIndices.parallelStream().forEach(curIdx -> {
-            int simIdx = simIndices.getInt(curIdx);
-            List<double[]> neighbors = getNeighbors(curIdx, svdIndices, svdFeature);
-            RealVector sims = getIndexVector(simIdx);
-            for (int j=0; j<neighbors.size(); j++) {
-                double[] neighbor = neighbors.get(j);
-                sims.setEntry(j*2, simIndices.getInt((int)neighbor[0]));
-                sims.setEntry(j*2+1, neighbor[1]);
+        return minScore;
+    }
+
+    private void setNeighbors(int simIdx, TopNHeap heap, int[] ids, double[] sims) {
+        int num = heap.drainSorted(ids, sims);
+        double[] values = new double[2 * numNeighbors];
+        for (int j=num; j<numNeighbors; j++) {
+            values[j * 2] = -1;
+        }
+        for (int j=0; j<num; j++) {
+            values[j * 2] = ids[j];
+            values[j * 2 + 1] = reverse ? -sims[j] : sims[j];
+        }
+        setIndexVector(simIdx, new ArrayRealVector(values, false));
+    }
+
+    /**
+     * Set the neighbors of the rows from from (inclusive) to to (exclusive) to the most similar ones among the columns.
+     *
+     * @param stale null to replace the neighbors of the rows, or which items of this model changed, i.e. the columns,
+     *              to merge into the current neighbors of the rows. The rows whose merged neighbors end below their
+     *              last current neighbor, since a neighbor changed to be less similar, could be missing an item which
+     *              is not a current neighbor, so their neighbors are recomputed against all the items instead.
+     */
+    private void refreshBlock(float[] vectors, int dim, int[] simIndices, int[] rows, int from, int to, int[] cols,
+                              boolean[] stale) {
+        TopNHeap[] heaps = new TopNHeap[to - from];
+        double[] minScores = new double[to - from];
+        for (int i=from; i<to; i++) {
+            heaps[i - from] = new TopNHeap(numNeighbors);
+            if (stale != null) {
+                minScores[i - from] = keepNeighbors(simIndices[rows[i]], stale, heaps[i - from]);
+            }
+        }
+        offerNeighbors(vectors, dim, simIndices, rows, from, to, cols, heaps);
+        if (stale != null) {
+            int[] allCols = null;
+            for (int i=from; i<to; i++) {
+                TopNHeap heap = heaps[i - from];
+                if (heap.isFull() && heap.getMinScore() >= minScores[i - from]) {
+                    continue;
+                }
+                if (allCols == null) {
+                    allCols = IntStream.range(0, vectors.length / dim).toArray();
+                }
+                heaps[i - from] = new TopNHeap(numNeighbors);
+                offerNeighbors(vectors, dim, simIndices, rows, i, i + 1, allCols,
+                        new TopNHeap[] {heaps[i - from]});
+            }
+        }
+        int[] ids = new int[numNeighbors];
+        double[] sims = new double[numNeighbors];
+        for (int i=from; i<to; i++) {
+            setNeighbors(simIndices[rows[i]], heaps[i - from], ids, sims);
+        }
+    }
+
+    /**
+     * Refreshes the blocks of rows it takes in turn. It goes through no instances, so the statistics of the last
+     * learning pass on the executor are kept.
+     */
+    private class NeighborRunnable implements ObjectiveRunnable {
+        private final float[] vectors;
+        private final int dim;
+        private final int[] simIndices;
+        private final int[] rows;
+        private final int[] cols;
+        private final boolean[] stale;
+        private final AtomicInteger nextBlock;
+
+        private NeighborRunnable(float[] vectors, int dim, int[] simIndices, int[] rows, int[] cols,
+                                 boolean[] stale, AtomicInteger nextBlock) {
+            this.vectors = vectors;
+            this.dim = dim;
+            this.simIndices = simIndices;
+            this.rows = rows;
+            this.cols = cols;
+            this.stale = stale;
+            this.nextBlock = nextBlock;
+        }
+
+        public void run() {
+            int block;
+            while ((block = nextBlock.getAndIncrement()) * ROW_BLOCK_SIZE < rows.length) {
+                SolverExecutor.checkInterrupted();
+                int from = block * ROW_BLOCK_SIZE;
+                int to = Math.min(from + ROW_BLOCK_SIZE, rows.length);
+                refreshBlock(vectors, dim, simIndices, rows, from, to, cols, stale);
+            }
+        }
+
+        public double getObjVal() {
+            return 0.0;
+        }
+
+        public long getNumInstances() {
+            return 0L;
+        }
+    }
+
+    /**
+     * Set the neighbors of the rows to the most similar ones among the columns, in parallel over blocks of the rows on
+     * the executor, see {@link #refreshBlock(float[], int, int[], int[], int, int, int[], boolean[])}.
+     */
+    private void refreshNeighbors(float[] vectors, int dim, int[] simIndices, int[] rows, int[] cols,
+                                  boolean[] stale, SolverExecutor executor) {
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        List<NeighborRunnable> runnables = new ArrayList<>(executor.getNumThreads());
+        for (int i=0; i<executor.getNumThreads(); i++) {
+            runnables.add(new NeighborRunnable(vectors, dim, simIndices, rows, cols, stale, nextBlock));
+        }
+        executor.run("neighbors", runnables);
+    }
+
+    /**
+     * @return whether the normalized factors of the last build or update are there in the dimension.
+     */
+    private boolean ensureFactorVar(int dim) {
+        String name = getFactorsName();
+        boolean kept = variableSpace.hasVectorVar(name) && variableSpace.getVectorVarDimensionByName(name) == dim;
+        if (!kept) {
+            variableSpace.requestVectorVar(name, 0, dim, 0.0, false, false);
+        }
+        variableSpace.ensureVectorVar(name, getIndexSize(), dim, 0.0, false, false);
+        return kept;
+    }
+
+    private float[] readFactors(int size, int dim) {
+        float[] factors = new float[size * dim];
+        variableSpace.reduceVectorVarByName(getFactorsName(), 0, size, new RowAccumulator() {
+            public void accumulate(int index, double var) {}
+
+            public void accumulate(int index, double[] vars, int offset, int width) {
+                for (int f=0; f<width; f++) {
+                    factors[index * width + f] = (float) vars[offset + f];
+                }
             }
-            setIndexVector(simIdx, sims);
         });
+        return factors;
+    }
+
+    private void storeFactors(float[] vectors, int dim, int[] simIndices, int[] rows) {
+        double[] factor = new double[dim];
+        for (int row : rows) {
+            for (int f=0; f<dim; f++) {
+                factor[f] = vectors[row * dim + f];
+            }
+            variableSpace.combineVectorVarByNameIndex(getFactorsName(), simIndices[row], 0.0, 1.0, factor);
+        }
+    }
+
+    /**
+     * @param executor where the blocks of items are compared, e.g. the solver executor of the engine.
+     */
+    public FeatureKnnModel buildModel(SolverExecutor executor) {
+        SVDFeatureItemMatrix itemMatrix = new SVDFeatureItemMatrix(svdFeature, feaAttrs, minSupport);
+        int numItems = itemMatrix.getNumItems();
+        int dim = itemMatrix.getFactorDim();
+        int[] simIndices = ensureKeys(itemMatrix);
+        Logger.info("Total number of items to compute similarity model {}: {}",
+                modelName, numItems);
+        float[] vectors = normalizeRows(itemMatrix.getItemVectors(false), numItems, dim);
+        int[] rows = IntStream.range(0, numItems).toArray();
+        refreshNeighbors(vectors, dim, simIndices, rows, rows, null, executor);
+        ensureFactorVar(dim);
+        storeFactors(vectors, dim, simIndices, rows);
+        return this;
+    }
+
+    /**
+     * Recompute the neighbors of only the items that are new, i.e. newly reached minSupport, or whose normalized
+     * factors moved by more than changeThreshold in Euclidean distance, i.e. sqrt(2 - 2 * cosine), since the last
+     * build or update. The changed items are then merged into the neighbors of the other items with their recomputed
+     * similarities, and the lists which that leaves possibly missing an item are recomputed against all the items, see
+     * {@link #refreshBlock(float[], int, int[], int[], int, int, int[], boolean[])}. The lists are then exact but for
+     * the moves of the unchanged items within changeThreshold.
+     *
+     * @param svdFeature the current SVDFeature model, which is not kept once this model is dumped and loaded.
+     * @param executor where the blocks of items are compared, e.g. the solver executor of the engine.
+     */
+    public FeatureKnnModel updateModel(SVDFeature svdFeature, double changeThreshold, SolverExecutor executor) {
+        SVDFeatureItemMatrix itemMatrix = new SVDFeatureItemMatrix(svdFeature, feaAttrs, minSupport);
+        int numItems = itemMatrix.getNumItems();
+        int dim = itemMatrix.getFactorDim();
+        int oldSize = getIndexSize();
+        int[] simIndices = ensureKeys(itemMatrix);
+        float[] vectors = normalizeRows(itemMatrix.getItemVectors(false), numItems, dim);
+        float[] oldFactors = ensureFactorVar(dim) ? readFactors(oldSize, dim) : null;
+        double maxDistance = changeThreshold * changeThreshold;
+        boolean[] stale = new boolean[getIndexSize()];
+        IntList changedRows = new IntArrayList();
+        IntList otherRows = new IntArrayList();
+        for (int row=0; row<numItems; row++) {
+            int simIdx = simIndices[row];
+            boolean changed = oldFactors == null || simIdx >= oldSize;
+            if (!changed) {
+                double distance = 0.0;
+                for (int f=0; f<dim; f++) {
+                    double diff = vectors[row * dim + f] - oldFactors[simIdx * dim + f];
+                    distance += diff * diff;
+                }
+                changed = distance > maxDistance;
+            }
+            if (changed) {
+                stale[simIdx] = true;
+                changedRows.add(row);
+            } else {
+                otherRows.add(row);
+            }
+        }
+        Logger.info("Number of changed items to update similarity model {}: {} out of {}",
+                modelName, changedRows.size(), numItems);
+        if (changedRows.size() == 0) {
+            return this;
+        }
+        int[] changed = changedRows.toIntArray();
+        refreshNeighbors(vectors, dim, simIndices, changed, IntStream.range(0, numItems).toArray(), null, executor);
+        refreshNeighbors(vectors, dim, simIndices, otherRows.toIntArray(), changed, stale, executor);
+        storeFactors(vectors, dim, simIndices, changed);
         return this;
     }
 }
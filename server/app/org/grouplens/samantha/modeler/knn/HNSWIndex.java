@@ -0,0 +1,716 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.knn;
+
+import org.grouplens.samantha.modeler.solver.ObjectiveRunnable;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.RowAccumulator;
+import org.grouplens.samantha.modeler.space.SpaceModel;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An approximate nearest neighbor index over vectors with keys, as a hierarchical navigable small world graph (HNSW,
+ * Malkov and Yashunin). Every vector is a node on the layers up to its random level, linked on each layer to at most
+ * maxNeighbors nodes (twice that on the bottom layer) chosen by the neighbor selection heuristic. A search walks down
+ * greedily from the entry point on the top layer and then keeps the efSearch most similar nodes of a beam search on
+ * the bottom layer, so a larger efSearch trades speed for recall.
+ *
+ * The graph does not navigate well on raw inner products, where the vectors of large norms become the neighbors of
+ * everything. For {@link SimilarityMetric#INNER_PRODUCT}, every vector x is extended with sqrt(M^2 - |x|^2), where M is
+ * the largest norm, and queries with zero, so that all the vectors have the same norm and the inner products, which do
+ * not change, rank as the cosine similarities (Bachrach et al., RecSys 2014).
+ *
+ * The keys, vectors, levels and neighbor lists are kept in the index and variable spaces under names prefixed by the
+ * model name, so the index is dumped and loaded as the other space models. Searches run on a primitive copy of the
+ * graph, taken from the spaces on the first search after loading.
+ */
+public class HNSWIndex implements SpaceModel {
+    private static final long serialVersionUID = 1L;
+    private static final int NODE_BLOCK_SIZE = 64;
+
+    final private String modelName;
+    final private SimilarityMetric metric;
+    final private int maxNeighbors;
+    final private int efConstruction;
+    final private long seed;
+    final private IndexSpace indexSpace;
+    final private VariableSpace variableSpace;
+    private int dim = 0;
+    private int numLayers = 0;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    transient private volatile Graph graph;
+
+    static private class VisitedMarks {
+        private final int[] marks;
+        private int stamp = 0;
+
+        private VisitedMarks(int numNodes) {
+            marks = new int[numNodes];
+        }
+
+        private void clear() {
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                stamp = 1;
+            }
+        }
+
+        private boolean visit(int node) {
+            if (marks[node] == stamp) {
+                return false;
+            }
+            marks[node] = stamp;
+            return true;
+        }
+    }
+
+    /**
+     * The candidates to expand in a beam search, as a max-heap on primitive arrays.
+     */
+    static private class CandidateHeap {
+        private int[] ids = new int[64];
+        private double[] scores = new double[64];
+        private int size = 0;
+
+        private void push(int id, double score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int pos = size++;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (scores[parent] >= score) {
+                    break;
+                }
+                ids[pos] = ids[parent];
+                scores[pos] = scores[parent];
+                pos = parent;
+            }
+            ids[pos] = id;
+            scores[pos] = score;
+        }
+
+        private int pop() {
+            int top = ids[0];
+            int id = ids[--size];
+            double score = scores[size];
+            int pos = 0;
+            int half = size >>> 1;
+            while (pos < half) {
+                int child = 2 * pos + 1;
+                if (child + 1 < size && scores[child + 1] > scores[child]) {
+                    child++;
+                }
+                if (score >= scores[child]) {
+                    break;
+                }
+                ids[pos] = ids[child];
+                scores[pos] = scores[child];
+                pos = child;
+            }
+            ids[pos] = id;
+            scores[pos] = score;
+            return top;
+        }
+    }
+
+    /**
+     * The graph in primitive arrays. The neighbor lists of a layer are rows of the width of the layer ended by -1 if
+     * not full. The bottom layer has a row for every node and the others for the nodes on them, see layerRows.
+     */
+    static private class Graph {
+        private final int numNodes;
+        private final int dim;
+        private final float[] vectors;
+        private final int[] levels;
+        private final int[][] neighbors;
+        private final int[][] layerRows;
+        private final ThreadLocal<VisitedMarks> visited;
+        private volatile Object[] locks;
+        private int entryPoint;
+        private int maxLevel;
+
+        private Graph(int numNodes, int dim, float[] vectors, int[] levels, int[][] neighbors, int[][] layerRows,
+                      int entryPoint, int maxLevel) {
+            this.numNodes = numNodes;
+            this.dim = dim;
+            this.vectors = vectors;
+            this.levels = levels;
+            this.neighbors = neighbors;
+            this.layerRows = layerRows;
+            this.entryPoint = entryPoint;
+            this.maxLevel = maxLevel;
+            this.visited = ThreadLocal.withInitial(() -> new VisitedMarks(numNodes));
+        }
+
+        private int getRow(int layer, int node) {
+            return layer == 0 ? node : layerRows[layer][node];
+        }
+    }
+
+    public HNSWIndex(String modelName, SimilarityMetric metric, int maxNeighbors, int efConstruction, long seed,
+                     IndexSpace indexSpace, VariableSpace variableSpace) {
+        this.modelName = modelName;
+        this.metric = metric;
+        this.maxNeighbors = maxNeighbors;
+        this.efConstruction = efConstruction;
+        this.seed = seed;
+        this.indexSpace = indexSpace;
+        this.variableSpace = variableSpace;
+    }
+
+    private String getVectorsName() {
+        return modelName + ".vectors";
+    }
+
+    private String getLevelsName() {
+        return modelName + ".levels";
+    }
+
+    private String getLayerName(int layer) {
+        return modelName + ".layer" + layer;
+    }
+
+    private int getNodeDim(int dim) {
+        return metric == SimilarityMetric.INNER_PRODUCT ? dim + 1 : dim;
+    }
+
+    private int getLayerWidth(int layer) {
+        return layer == 0 ? 2 * maxNeighbors : maxNeighbors;
+    }
+
+    static private double dot(double[] query, float[] vectors, int node, int dim) {
+        int offset = node * dim;
+        double product = 0.0;
+        for (int f=0; f<dim; f++) {
+            product += query[f] * vectors[offset + f];
+        }
+        return product;
+    }
+
+    static private double dot(float[] vectors, int left, int right, int dim) {
+        int leftOffset = left * dim;
+        int rightOffset = right * dim;
+        double product = 0.0;
+        for (int f=0; f<dim; f++) {
+            product += vectors[leftOffset + f] * vectors[rightOffset + f];
+        }
+        return product;
+    }
+
+    static private void normalize(float[] vector, int offset, int dim) {
+        double norm = 0.0;
+        for (int f=0; f<dim; f++) {
+            norm += vector[offset + f] * vector[offset + f];
+        }
+        if (norm > 0.0) {
+            norm = Math.sqrt(norm);
+            for (int f=0; f<dim; f++) {
+                vector[offset + f] /= norm;
+            }
+        }
+    }
+
+    private int readNeighbors(Graph graph, int layer, int node, int[] outIds) {
+        int width = getLayerWidth(layer);
+        int offset = graph.getRow(layer, node) * width;
+        int[] ids = graph.neighbors[layer];
+        Object[] locks = graph.locks;
+        if (locks != null) {
+            synchronized (locks[node % locks.length]) {
+                System.arraycopy(ids, offset, outIds, 0, width);
+            }
+        } else {
+            System.arraycopy(ids, offset, outIds, 0, width);
+        }
+        int num = 0;
+        while (num < width && outIds[num] >= 0) {
+            num++;
+        }
+        return num;
+    }
+
+    private int searchGreedy(Graph graph, double[] query, int entry, int layer, int[] buffer) {
+        int cur = entry;
+        double best = dot(query, graph.vectors, cur, graph.dim);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int num = readNeighbors(graph, layer, cur, buffer);
+            for (int i=0; i<num; i++) {
+                double score = dot(query, graph.vectors, buffer[i], graph.dim);
+                if (score > best) {
+                    best = score;
+                    cur = buffer[i];
+                    changed = true;
+                }
+            }
+        }
+        return cur;
+    }
+
+    private TopNHeap searchLayer(Graph graph, double[] query, int entry, int ef, int layer) {
+        VisitedMarks visited = graph.visited.get();
+        visited.clear();
+        CandidateHeap candidates = new CandidateHeap();
+        TopNHeap results = new TopNHeap(ef);
+        int[] buffer = new int[getLayerWidth(0)];
+        double score = dot(query, graph.vectors, entry, graph.dim);
+        visited.visit(entry);
+        candidates.push(entry, score);
+        results.offer(entry, score);
+        while (candidates.size > 0) {
+            if (results.isFull() && candidates.scores[0] < results.getMinScore()) {
+                break;
+            }
+            int cur = candidates.pop();
+            int num = readNeighbors(graph, layer, cur, buffer);
+            for (int i=0; i<num; i++) {
+                int next = buffer[i];
+                if (visited.visit(next)) {
+                    score = dot(query, graph.vectors, next, graph.dim);
+                    if (!results.isFull() || score > results.getMinScore()) {
+                        candidates.push(next, score);
+                        results.offer(next, score);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Keep a candidate, in the order of descending similarities to the base node, only if it is more similar to the
+     * base node than to all the ones kept, so that the links spread in different directions.
+     */
+    private int selectNeighbors(Graph graph, int base, int[] ids, double[] scores, int num, int max,
+                                int[] outIds) {
+        int count = 0;
+        for (int i=0; i<num && count<max; i++) {
+            int cand = ids[i];
+            if (cand == base) {
+                continue;
+            }
+            boolean keep = true;
+            for (int j=0; j<count; j++) {
+                if (dot(graph.vectors, cand, outIds[j], graph.dim) > scores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                outIds[count++] = cand;
+            }
+        }
+        return count;
+    }
+
+    static private void sortBySimilarity(int[] ids, double[] scores, int num) {
+        for (int i=1; i<num; i++) {
+            int id = ids[i];
+            double score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                ids[j + 1] = ids[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            scores[j + 1] = score;
+        }
+    }
+
+    private void connect(Graph graph, int node, int layer, int[] selected, int count) {
+        int width = getLayerWidth(layer);
+        int[] ids = graph.neighbors[layer];
+        Object[] locks = graph.locks;
+        synchronized (locks[node % locks.length]) {
+            int offset = graph.getRow(layer, node) * width;
+            for (int i=0; i<width; i++) {
+                ids[offset + i] = i < count ? selected[i] : -1;
+            }
+        }
+        int[] candIds = new int[width + 1];
+        double[] candScores = new double[width + 1];
+        int[] kept = new int[width];
+        for (int i=0; i<count; i++) {
+            int other = selected[i];
+            synchronized (locks[other % locks.length]) {
+                int offset = graph.getRow(layer, other) * width;
+                int num = 0;
+                while (num < width && ids[offset + num] >= 0) {
+                    num++;
+                }
+                if (num < width) {
+                    ids[offset + num] = node;
+                    continue;
+                }
+                for (int j=0; j<width; j++) {
+                    candIds[j] = ids[offset + j];
+                    candScores[j] = dot(graph.vectors, other, candIds[j], graph.dim);
+                }
+                candIds[width] = node;
+                candScores[width] = dot(graph.vectors, other, node, graph.dim);
+                sortBySimilarity(candIds, candScores, width + 1);
+                int numKept = selectNeighbors(graph, other, candIds, candScores, width + 1, width, kept);
+                for (int j=0; j<width; j++) {
+                    ids[offset + j] = j < numKept ? kept[j] : -1;
+                }
+            }
+        }
+    }
+
+    private void insert(Graph graph, int node) {
+        double[] query = new double[graph.dim];
+        for (int f=0; f<graph.dim; f++) {
+            query[f] = graph.vectors[node * graph.dim + f];
+        }
+        int level = graph.levels[node];
+        int entry;
+        int curMaxLevel;
+        synchronized (graph) {
+            if (graph.entryPoint < 0) {
+                graph.entryPoint = node;
+                graph.maxLevel = level;
+                return;
+            }
+            entry = graph.entryPoint;
+            curMaxLevel = graph.maxLevel;
+        }
+        int[] buffer = new int[getLayerWidth(0)];
+        for (int layer=curMaxLevel; layer>level; layer--) {
+            entry = searchGreedy(graph, query, entry, layer, buffer);
+        }
+        int[] selected = new int[maxNeighbors];
+        for (int layer=Math.min(level, curMaxLevel); layer>=0; layer--) {
+            TopNHeap results = searchLayer(graph, query, entry, efConstruction, layer);
+            int[] ids = new int[results.size()];
+            double[] scores = new double[results.size()];
+            int num = results.drainSorted(ids, scores);
+            int count = selectNeighbors(graph, node, ids, scores, num, maxNeighbors, selected);
+            connect(graph, node, layer, selected, count);
+            entry = ids[0];
+        }
+        if (level > curMaxLevel) {
+            synchronized (graph) {
+                if (level > graph.maxLevel) {
+                    graph.maxLevel = level;
+                    graph.entryPoint = node;
+                }
+            }
+        }
+    }
+
+    private class InsertRunnable implements ObjectiveRunnable {
+        private final Graph graph;
+        private final AtomicInteger nextBlock;
+
+        private InsertRunnable(Graph graph, AtomicInteger nextBlock) {
+            this.graph = graph;
+            this.nextBlock = nextBlock;
+        }
+
+        public void run() {
+            int block;
+            while ((block = nextBlock.getAndIncrement()) * NODE_BLOCK_SIZE < graph.numNodes) {
+                SolverExecutor.checkInterrupted();
+                int from = block * NODE_BLOCK_SIZE;
+                int to = Math.min(from + NODE_BLOCK_SIZE, graph.numNodes);
+                for (int node=from; node<to; node++) {
+                    insert(graph, node);
+                }
+            }
+        }
+
+        public double getObjVal() {
+            return 0.0;
+        }
+
+        public long getNumInstances() {
+            return 0L;
+        }
+    }
+
+    /**
+     * Build the index of the vectors with the keys, replacing what the index had.
+     *
+     * @param vectors the vectors in the order of the keys, row-major with the dimension as the stride.
+     * @param numThreads the number of runnables inserting blocks of the vectors into the graph in parallel.
+     * @param executor the workers running the runnables, e.g. the {@link SolverExecutor} of the engine.
+     */
+    public void build(List<String> keys, float[] vectors, int dim, int numThreads, SolverExecutor executor) {
+        int numNodes = keys.size();
+        int nodeDim = getNodeDim(dim);
+        float[] nodeVectors = new float[numNodes * nodeDim];
+        for (int i=0; i<numNodes; i++) {
+            System.arraycopy(vectors, i * dim, nodeVectors, i * nodeDim, dim);
+        }
+        if (metric == SimilarityMetric.COSINE) {
+            for (int i=0; i<numNodes; i++) {
+                normalize(nodeVectors, i * nodeDim, nodeDim);
+            }
+        } else {
+            double[] norms = new double[numNodes];
+            double maxNorm = 0.0;
+            for (int i=0; i<numNodes; i++) {
+                for (int f=0; f<dim; f++) {
+                    norms[i] += vectors[i * dim + f] * vectors[i * dim + f];
+                }
+                maxNorm = Math.max(maxNorm, norms[i]);
+            }
+            for (int i=0; i<numNodes; i++) {
+                nodeVectors[i * nodeDim + dim] = (float) Math.sqrt(maxNorm - norms[i]);
+            }
+        }
+        Random random = new Random(seed);
+        double levelMultiplier = 1.0 / Math.log(Math.max(maxNeighbors, 2));
+        int[] levels = new int[numNodes];
+        int topLevel = 0;
+        for (int i=0; i<numNodes; i++) {
+            levels[i] = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+            topLevel = Math.max(topLevel, levels[i]);
+        }
+        int[][] neighbors = new int[topLevel + 1][];
+        int[][] layerRows = new int[topLevel + 1][];
+        neighbors[0] = new int[numNodes * getLayerWidth(0)];
+        for (int layer=1; layer<=topLevel; layer++) {
+            layerRows[layer] = new int[numNodes];
+            int numRows = 0;
+            for (int i=0; i<numNodes; i++) {
+                layerRows[layer][i] = levels[i] >= layer ? numRows++ : -1;
+            }
+            neighbors[layer] = new int[numRows * getLayerWidth(layer)];
+        }
+        for (int[] ids : neighbors) {
+            Arrays.fill(ids, -1);
+        }
+        Graph built = new Graph(numNodes, nodeDim, nodeVectors, levels, neighbors, layerRows, -1, -1);
+        Object[] locks = new Object[Math.max(1, Math.min(numNodes, 4096))];
+        for (int i=0; i<locks.length; i++) {
+            locks[i] = new Object();
+        }
+        built.locks = locks;
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        List<InsertRunnable> runnables = new ArrayList<>(numThreads);
+        for (int i=0; i<Math.max(1, numThreads); i++) {
+            runnables.add(new InsertRunnable(built, nextBlock));
+        }
+        executor.run("inserting", runnables);
+        built.locks = null;
+        writeGraph(built, keys);
+        synchronized (this) {
+            this.dim = dim;
+            this.numLayers = topLevel + 1;
+            this.entryPoint = built.entryPoint;
+            this.maxLevel = built.maxLevel;
+            this.graph = built;
+        }
+    }
+
+    private void writeRows(String name, int numRows, int width, double[] row, RowFiller filler) {
+        variableSpace.requestVectorVar(name, 0, width, 0.0, false, false);
+        variableSpace.ensureVectorVar(name, numRows, width, 0.0, false, false);
+        for (int i=0; i<numRows; i++) {
+            filler.fill(i, row);
+            variableSpace.combineVectorVarByNameIndex(name, i, 0.0, 1.0, row);
+        }
+    }
+
+    private interface RowFiller {
+        void fill(int row, double[] outRow);
+    }
+
+    private void writeGraph(Graph graph, List<String> keys) {
+        indexSpace.requestKeyMap(modelName);
+        for (String key : keys) {
+            indexSpace.setKey(modelName, key);
+        }
+        int dim = graph.dim;
+        writeRows(getVectorsName(), graph.numNodes, dim, new double[dim], (node, row) -> {
+            for (int f=0; f<dim; f++) {
+                row[f] = graph.vectors[node * dim + f];
+            }
+        });
+        variableSpace.requestScalarVar(getLevelsName(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(getLevelsName(), graph.numNodes, 0.0, false);
+        for (int i=0; i<graph.numNodes; i++) {
+            variableSpace.setScalarVarByNameIndex(getLevelsName(), i, graph.levels[i]);
+        }
+        for (int layer=0; layer<graph.neighbors.length; layer++) {
+            int width = getLayerWidth(layer);
+            int[] ids = graph.neighbors[layer];
+            if (layer > 0) {
+                indexSpace.requestKeyMap(getLayerName(layer));
+                for (int node=0; node<graph.numNodes; node++) {
+                    if (graph.layerRows[layer][node] >= 0) {
+                        indexSpace.setKey(getLayerName(layer), node);
+                    }
+                }
+            }
+            writeRows(getLayerName(layer), ids.length / width, width, new double[width], (row, outRow) -> {
+                for (int j=0; j<width; j++) {
+                    outRow[j] = ids[row * width + j];
+                }
+            });
+        }
+    }
+
+    private Graph readGraph() {
+        int nodeDim = getNodeDim(dim);
+        if (numLayers == 0) {
+            return new Graph(0, nodeDim, new float[0], new int[0], new int[0][], new int[0][], -1, -1);
+        }
+        int numNodes = indexSpace.getKeyMapSize(modelName);
+        float[] vectors = new float[numNodes * nodeDim];
+        variableSpace.reduceVectorVarByName(getVectorsName(), 0, numNodes, new RowAccumulator() {
+            public void accumulate(int index, double var) {}
+
+            public void accumulate(int index, double[] vars, int offset, int width) {
+                for (int f=0; f<width; f++) {
+                    vectors[index * width + f] = (float) vars[offset + f];
+                }
+            }
+        });
+        int[] levels = new int[numNodes];
+        variableSpace.reduceScalarVarByName(getLevelsName(), 0, numNodes, new RowAccumulator() {
+            public void accumulate(int index, double var) {
+                levels[index] = (int) var;
+            }
+
+            public void accumulate(int index, double[] vars, int offset, int width) {}
+        });
+        int[][] neighbors = new int[numLayers][];
+        int[][] layerRows = new int[numLayers][];
+        for (int layer=0; layer<numLayers; layer++) {
+            String name = getLayerName(layer);
+            int numRows = variableSpace.getVectorVarSizeByName(name);
+            int[] ids = new int[numRows * getLayerWidth(layer)];
+            variableSpace.reduceVectorVarByName(name, 0, numRows, new RowAccumulator() {
+                public void accumulate(int index, double var) {}
+
+                public void accumulate(int index, double[] vars, int offset, int width) {
+                    for (int j=0; j<width; j++) {
+                        ids[index * width + j] = (int) vars[offset + j];
+                    }
+                }
+            });
+            neighbors[layer] = ids;
+            if (layer > 0) {
+                layerRows[layer] = new int[numNodes];
+                Arrays.fill(layerRows[layer], -1);
+                for (int row=0; row<numRows; row++) {
+                    layerRows[layer][(Integer) indexSpace.getKeyForIndex(name, row)] = row;
+                }
+            }
+        }
+        return new Graph(numNodes, nodeDim, vectors, levels, neighbors, layerRows, entryPoint, maxLevel);
+    }
+
+    private Graph getGraph() {
+        Graph cur = graph;
+        if (cur == null) {
+            synchronized (this) {
+                if (graph == null) {
+                    graph = readGraph();
+                }
+                cur = graph;
+            }
+        }
+        return cur;
+    }
+
+    /**
+     * Find the k nodes most similar to the query.
+     *
+     * @param efSearch the number of nodes kept in the beam search, at least k.
+     * @param outIndices filled with the indices of the nodes in the order of descending similarities, see
+     *                   {@link #getKeyByIndex(int)}.
+     * @param outScores filled with the similarities.
+     * @return the number of nodes found, at most k.
+     */
+    public int search(double[] query, int k, int efSearch, int[] outIndices, double[] outScores) {
+        Graph cur = getGraph();
+        if (cur.entryPoint < 0 || k <= 0) {
+            return 0;
+        }
+        double[] normalized = new double[cur.dim];
+        double norm = 0.0;
+        for (int f=0; f<dim; f++) {
+            normalized[f] = query[f];
+            norm += query[f] * query[f];
+        }
+        if (metric == SimilarityMetric.COSINE && norm > 0.0) {
+            norm = Math.sqrt(norm);
+            for (int f=0; f<dim; f++) {
+                normalized[f] /= norm;
+            }
+        }
+        int entry = cur.entryPoint;
+        int[] buffer = new int[getLayerWidth(0)];
+        for (int layer=cur.maxLevel; layer>0; layer--) {
+            entry = searchGreedy(cur, normalized, entry, layer, buffer);
+        }
+        TopNHeap results = searchLayer(cur, normalized, entry, Math.max(efSearch, k), 0);
+        int[] ids = new int[results.size()];
+        double[] scores = new double[results.size()];
+        int num = Math.min(k, results.drainSorted(ids, scores));
+        System.arraycopy(ids, 0, outIndices, 0, num);
+        System.arraycopy(scores, 0, outScores, 0, num);
+        return num;
+    }
+
+    public int getIndexSize() {
+        return getGraph().numNodes;
+    }
+
+    public String getKeyByIndex(int index) {
+        return (String) indexSpace.getKeyForIndex(modelName, index);
+    }
+
+    public SimilarityMetric getMetric() {
+        return metric;
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    public void publishModel() {
+        indexSpace.publishSpaceVersion();
+        variableSpace.publishSpaceVersion();
+    }
+
+    public void publishWrites() {
+        indexSpace.publishWrites();
+        variableSpace.publishWrites();
+    }
+}
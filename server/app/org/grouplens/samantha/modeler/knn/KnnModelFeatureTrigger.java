@@ -66,6 +66,9 @@ public class KnnModelFeatureTrigger {
             RealVector sims = knnModel.getKeyVector(key);
             for (int i=0; i<sims.getDimension(); i+=2) {
                 int idx = (int)sims.getEntry(i);
+                if (idx < 0) {
+                    break;
+                }
                 double sim = sims.getEntry(i+1);
                 String recItem = knnModel.getKeyByIndex(idx);
                 double oldVal = item2score.getOrDefault(recItem, 0.0);
@@ -80,6 +83,9 @@ public class KnnModelFeatureTrigger {
             RealVector sims = knnModel.getKeyVector(key);
             for (int i=0; i<sims.getDimension(); i+=2) {
                 int idx = (int)sims.getEntry(i);
+                if (idx < 0) {
+                    break;
+                }
                 String recItem = knnModel.getKeyByIndex(idx);
                 items.add(recItem);
             }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.knn;
+
+/**
+ * Keeps the n ids of the largest scores offered, as a min-heap on primitive arrays so that offering a score below the
+ * current n-th largest one is one comparison. Not thread-safe: every thread keeps its own heap and they are merged.
+ */
+public class TopNHeap {
+    private final int[] ids;
+    private final double[] scores;
+    private int size = 0;
+
+    public TopNHeap(int n) {
+        ids = new int[n];
+        scores = new double[n];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    /**
+     * @return the smallest score kept, which a new score needs to beat once the heap is full.
+     */
+    public double getMinScore() {
+        return scores[0];
+    }
+
+    public void offer(int id, double score) {
+        if (size < ids.length) {
+            int pos = size++;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                ids[pos] = ids[parent];
+                scores[pos] = scores[parent];
+                pos = parent;
+            }
+            ids[pos] = id;
+            scores[pos] = score;
+        } else if (size > 0 && score > scores[0]) {
+            siftDown(id, score);
+        }
+    }
+
+    private void siftDown(int id, double score) {
+        int pos = 0;
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            if (child + 1 < size && scores[child + 1] < scores[child]) {
+                child++;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            ids[pos] = ids[child];
+            scores[pos] = scores[child];
+            pos = child;
+        }
+        ids[pos] = id;
+        scores[pos] = score;
+    }
+
+    public void merge(TopNHeap other) {
+        for (int i=0; i<other.size; i++) {
+            offer(other.ids[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * Empty the heap into the arrays in the order of descending scores.
+     *
+     * @return the number of ids, i.e. the size of the heap before.
+     */
+    public int drainSorted(int[] outIds, double[] outScores) {
+        int num = size;
+        while (size > 0) {
+            int last = --size;
+            outIds[last] = ids[0];
+            outScores[last] = scores[0];
+            if (size > 0) {
+                siftDown(ids[last], scores[last]);
+            }
+        }
+        return num;
+    }
+}
@@ -39,7 +39,7 @@ import org.grouplens.samantha.modeler.space.VariableSpace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class LinearUCB extends AbstractLearningModel implements Featurizer {
@@ -77,20 +77,24 @@ public class LinearUCB extends AbstractLearningModel implements Featurizer {
     }
 
     public List<StochasticOracle> getStochasticOracle(List<LearningInstance> instances) {
-        List<StochasticOracle> oracles = new ArrayList<>(instances.size());
-        for (LearningInstance ins : instances) {
-            StochasticOracle orc = new StochasticOracle();
-            StandardLearningInstance instance = (StandardLearningInstance) ins;
+        List<StochasticOracle> oracles = StochasticOraclePool.getThreadPool().getOracles(instances.size());
+        int aId = StochasticOracle.getVariableId(LinearUCBKey.A.get());
+        int bId = StochasticOracle.getVariableId(LinearUCBKey.B.get());
+        int dim = features.size();
+        double[] x = new double[dim];
+        for (int k=0; k<instances.size(); k++) {
+            StandardLearningInstance instance = (StandardLearningInstance) instances.get(k);
+            StochasticOracle orc = oracles.get(k);
             orc.setValues(-instance.getLabel(), instance.getLabel(), instance.getWeight());
-            int dim = features.size();
-            RealVector x = extractDenseVector(dim, ins);
-            RealMatrix increA = x.outerProduct(x);
-            RealVector increB = x.mapMultiplyToSelf(instance.getLabel());
+            Arrays.fill(x, 0.0);
+            for (Int2DoubleMap.Entry entry : instance.getFeatures().int2DoubleEntrySet()) {
+                x[entry.getIntKey()] = entry.getDoubleValue();
+            }
+            int xGrad = orc.addVectorGradient(x);
             for (int i = 0; i < dim; i++) {
-                orc.addScalarOracle(LinearUCBKey.B.get(), i, -increB.getEntry(i));
-                orc.addVectorOracle(LinearUCBKey.A.get(), i, increA.getRowVector(i).mapMultiplyToSelf(-1.0));
+                orc.addScalarOracle(bId, i, -x[i] * instance.getLabel());
+                orc.addVectorOracle(aId, i, xGrad, dim, -x[i]);
             }
-            oracles.add(orc);
         }
         return oracles;
     }
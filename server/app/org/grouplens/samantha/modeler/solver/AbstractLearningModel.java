@@ -25,22 +25,43 @@ package org.grouplens.samantha.modeler.solver;
 import org.apache.commons.math3.linear.RealVector;
 
 import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.LockMode;
+import org.grouplens.samantha.modeler.space.RowAccumulator;
 import org.grouplens.samantha.modeler.space.VariableSpace;
 
+import java.util.ArrayList;
 import java.util.List;
 
 abstract public class AbstractLearningModel implements LearningModel {
+    static public final String AUXILIARY_VAR_PREFIX = "aux.";
+
     final protected VariableSpace variableSpace;
     final protected IndexSpace indexSpace;
+    private transient volatile long spaceVersion = 0L;
 
     protected AbstractLearningModel(IndexSpace indexSpace, VariableSpace variableSpace) {
         this.variableSpace = variableSpace;
         this.indexSpace = indexSpace;
     }
 
-    public void publishModel() {
+    synchronized public void publishModel() {
         indexSpace.publishSpaceVersion();
         variableSpace.publishSpaceVersion();
+        spaceVersion++;
+    }
+
+    synchronized public void publishWrites() {
+        indexSpace.publishWrites();
+        variableSpace.publishWrites();
+        spaceVersion++;
+    }
+
+    /**
+     * @return how many times the spaces of the model have been published in this process, i.e. after building or
+     * updating it, so that snapshots of its variables know when to be taken again.
+     */
+    public long getSpaceVersion() {
+        return spaceVersion;
     }
 
     public RealVector getScalarVarByName(String name) {
@@ -83,11 +104,75 @@ abstract public class AbstractLearningModel implements LearningModel {
         variableSpace.setVectorVarByNameIndex(name, index, var);
     }
 
+    public void getVectorVarByNameIndex(String name, int index, double[] outVar) {
+        variableSpace.getVectorVarByNameIndex(name, index, outVar);
+    }
+
+    public double dotVectorVarByNameIndex(String name, int index, double[] vec) {
+        return variableSpace.dotVectorVarByNameIndex(name, index, vec);
+    }
+
+    public void accumulateVectorVarByNameIndex(String name, int index, double alpha, double[] outVec) {
+        variableSpace.accumulateVectorVarByNameIndex(name, index, alpha, outVec);
+    }
+
+    public void combineVectorVarByNameIndex(String name, int index, double scale, double alpha, double[] vec) {
+        variableSpace.combineVectorVarByNameIndex(name, index, scale, alpha, vec);
+    }
+
+    public void reduceScalarVarByName(String name, int from, int to, RowAccumulator accumulator) {
+        variableSpace.reduceScalarVarByName(name, from, to, accumulator);
+    }
+
+    public void reduceVectorVarByName(String name, int from, int to, RowAccumulator accumulator) {
+        variableSpace.reduceVectorVarByName(name, from, to, accumulator);
+    }
+
+    public void setLockMode(LockMode lockMode, int numStripes) {
+        variableSpace.setLockMode(lockMode, numStripes);
+    }
+
+    public LockMode getLockMode() {
+        return variableSpace.getLockMode();
+    }
+
+    public int getNumStripes() {
+        return variableSpace.getNumStripes();
+    }
+
+    static private List<String> removeAuxiliaryVarNames(List<String> names) {
+        List<String> varNames = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (!name.startsWith(AUXILIARY_VAR_PREFIX)) {
+                varNames.add(name);
+            }
+        }
+        return varNames;
+    }
+
     public List<String> getAllScalarVarNames() {
-        return variableSpace.getAllScalarVarNames();
+        return removeAuxiliaryVarNames(variableSpace.getAllScalarVarNames());
     }
 
     public List<String> getAllVectorVarNames() {
-        return variableSpace.getAllVectorVarNames();
+        return removeAuxiliaryVarNames(variableSpace.getAllVectorVarNames());
+    }
+
+    public void ensureAuxiliaryScalarVar(String name, int size) {
+        synchronized (variableSpace) {
+            if (!variableSpace.hasScalarVar(name)) {
+                variableSpace.requestScalarVar(name, 0, 0.0, false);
+            }
+            variableSpace.ensureScalarVar(name, size, 0.0, false);
+        }
+    }
+
+    public void ensureAuxiliaryVectorVar(String name, int size, int dim) {
+        synchronized (variableSpace) {
+            if (!variableSpace.hasVectorVar(name)) {
+                variableSpace.requestVectorVar(name, 0, dim, 0.0, false, false);
+            }
+            variableSpace.ensureVectorVar(name, size, dim, 0.0, false, false);
+        }
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+/**
+ * AdaGrad (Duchi et al. 2011): every coordinate steps by the learning rate divided by the root of the sum of its
+ * squared gradients so far, so that the steps of the frequently updated coordinates shrink faster.
+ */
+public class AdaGrad extends AdaptiveGradientMethod {
+    static private final String SUM_SQUARES = "sumSquares";
+    final private double epsilon;
+
+    public AdaGrad() {
+        this(50, 2, 0.0, 0.01, 5.0, 1e-8);
+    }
+
+    /**
+     * @param epsilon added to the root of the sum of squared gradients to keep the steps finite.
+     */
+    public AdaGrad(int maxIter, int minIter, double l2coef, double learningRate, double tol, double epsilon) {
+        super(tol, maxIter, minIter, l2coef, learningRate, SUM_SQUARES);
+        this.epsilon = epsilon;
+    }
+
+    protected String getName() {
+        return "adagrad";
+    }
+
+    protected double updateCoordinate(double var, double grad, double[] stats, int numSteps) {
+        grad += 2 * l2coef * var;
+        stats[0] += grad * grad;
+        return var - lr * grad / (Math.sqrt(stats[0]) + epsilon);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+/**
+ * Adam (Kingma and Ba 2015): every coordinate steps along the moving average of its gradients divided by the root of
+ * the moving average of its squared gradients, both corrected for their initial bias. The averages of a coordinate
+ * only move when it has a gradient, and the correction uses the number of updates of its scalar or vector row, i.e.
+ * the lazy version of Adam for sparse gradients.
+ */
+public class Adam extends AdaptiveGradientMethod {
+    static private final String FIRST_MOMENT = "firstMoment";
+    static private final String SECOND_MOMENT = "secondMoment";
+    final private double beta1;
+    final private double beta2;
+    final private double epsilon;
+    private int correctedStep = -1;
+    private double stepSize;
+
+    public Adam() {
+        this(50, 2, 0.0, 0.001, 5.0, 0.9, 0.999, 1e-8);
+    }
+
+    /**
+     * @param beta1 the decay rate of the moving average of the gradients.
+     * @param beta2 the decay rate of the moving average of the squared gradients.
+     * @param epsilon added to the root of the second moment to keep the steps finite.
+     */
+    public Adam(int maxIter, int minIter, double l2coef, double learningRate, double tol,
+                double beta1, double beta2, double epsilon) {
+        super(tol, maxIter, minIter, l2coef, learningRate, FIRST_MOMENT, SECOND_MOMENT);
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    protected String getName() {
+        return "adam";
+    }
+
+    protected double updateCoordinate(double var, double grad, double[] stats, int numSteps) {
+        if (numSteps != correctedStep) {
+            int step = numSteps + 1;
+            stepSize = lr * Math.sqrt(1.0 - Math.pow(beta2, step)) / (1.0 - Math.pow(beta1, step));
+            correctedStep = numSteps;
+        }
+        grad += 2 * l2coef * var;
+        stats[0] = beta1 * stats[0] + (1.0 - beta1) * grad;
+        stats[1] = beta2 * stats[1] + (1.0 - beta2) * grad * grad;
+        return var - stepSize * stats[0] / (Math.sqrt(stats[1]) + epsilon);
+    }
+}
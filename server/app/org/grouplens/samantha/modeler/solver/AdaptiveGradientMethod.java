@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stochastic gradient methods with a step size per coordinate, adapted from statistics of the past gradients of the
+ * coordinate, so that the coordinates of rare features, e.g. the biases and factors of the users and items in
+ * {@link org.grouplens.samantha.modeler.svdfeature.SVDFeature SVDFeature}, take larger steps than the ones of the
+ * frequent features.
+ *
+ * The statistics are kept in auxiliary variables of the model with the same sizes as its variables, see
+ * {@link LearningModel#ensureAuxiliaryScalarVar(String, int)}, so they are saved with the model and later updates
+ * continue from them. A subclass defines the statistics and the update of one coordinate.
+ */
+abstract public class AdaptiveGradientMethod extends AbstractOptimizationMethod
+        implements OnlineOptimizationMethod {
+    private static Logger logger = LoggerFactory.getLogger(AdaptiveGradientMethod.class);
+    static private final String STEPS = "steps";
+
+    final protected double l2coef;
+    final protected double lr;
+    private final String[] statNames;
+    private final Map<String, String[]> auxNames = new HashMap<>();
+    private final Object2IntMap<String> auxSizes = new Object2IntOpenHashMap<>();
+    private double[] stats;
+    private double[] row;
+    private double[] grad;
+    private double[][] statRows;
+
+    /**
+     * @param statNames the names of the per-coordinate statistics of the method.
+     */
+    protected AdaptiveGradientMethod(double tol, int maxIter, int minIter, double l2coef, double learningRate,
+                                     String... statNames) {
+        super(tol, maxIter, minIter);
+        this.l2coef = l2coef;
+        this.lr = learningRate;
+        this.statNames = statNames;
+        this.stats = new double[statNames.length];
+        this.statRows = new double[statNames.length][0];
+    }
+
+    /**
+     * @return the short name of the method, which is part of the names of the auxiliary variables.
+     */
+    abstract protected String getName();
+
+    /**
+     * Update one coordinate of a variable.
+     *
+     * @param var the current value of the coordinate.
+     * @param grad the gradient of the objective with respect to the coordinate, without the regularization.
+     * @param stats the statistics of the coordinate in the order of the names given, to update in place.
+     * @param numSteps the number of earlier updates of the scalar or the vector row the coordinate belongs to.
+     * @return the new value of the coordinate.
+     */
+    abstract protected double updateCoordinate(double var, double grad, double[] stats, int numSteps);
+
+    /**
+     * @return the names of the auxiliary variables of the variable: the one of the step counts and then the ones of
+     * the statistics.
+     */
+    private String[] getAuxiliaryVarNames(String varName) {
+        String[] names = auxNames.get(varName);
+        if (names == null) {
+            names = new String[statNames.length + 1];
+            String prefix = AbstractLearningModel.AUXILIARY_VAR_PREFIX + getName() + ".";
+            names[0] = prefix + STEPS + "." + varName;
+            for (int i=0; i<statNames.length; i++) {
+                names[i + 1] = prefix + statNames[i] + "." + varName;
+            }
+            auxNames.put(varName, names);
+        }
+        return names;
+    }
+
+    private String[] ensureScalarStats(LearningModel model, String name, int index) {
+        String[] names = getAuxiliaryVarNames(name);
+        if (index < auxSizes.getInt(name)) {
+            return names;
+        }
+        int size = Math.max(index + 1, model.getScalarVarSizeByName(name));
+        for (String auxName : names) {
+            model.ensureAuxiliaryScalarVar(auxName, size);
+        }
+        auxSizes.put(name, size);
+        return names;
+    }
+
+    private String[] ensureVectorStats(LearningModel model, String name, int index) {
+        String[] names = getAuxiliaryVarNames(name);
+        if (index < auxSizes.getInt(name)) {
+            return names;
+        }
+        int size = Math.max(index + 1, model.getVectorVarSizeByName(name));
+        int dim = model.getVectorVarDimensionByName(name);
+        model.ensureAuxiliaryScalarVar(names[0], size);
+        for (int i=1; i<names.length; i++) {
+            model.ensureAuxiliaryVectorVar(names[i], size, dim);
+        }
+        auxSizes.put(name, size);
+        return names;
+    }
+
+    private void updateScalar(LearningModel model, String name, int index, double grad) {
+        String[] names = ensureScalarStats(model, name, index);
+        for (int i=0; i<statNames.length; i++) {
+            stats[i] = model.getScalarVarByNameIndex(names[i + 1], index);
+        }
+        int numSteps = (int) model.getScalarVarByNameIndex(names[0], index);
+        double var = updateCoordinate(model.getScalarVarByNameIndex(name, index), grad, stats, numSteps);
+        model.setScalarVarByNameIndex(name, index, var);
+        for (int i=0; i<statNames.length; i++) {
+            model.setScalarVarByNameIndex(names[i + 1], index, stats[i]);
+        }
+        model.setScalarVarByNameIndex(names[0], index, numSteps + 1);
+    }
+
+    private void updateVector(LearningModel model, String name, int index, double[] grad) {
+        String[] names = ensureVectorStats(model, name, index);
+        int dim = grad.length;
+        if (row.length != dim) {
+            row = new double[dim];
+            for (int i=0; i<statNames.length; i++) {
+                statRows[i] = new double[dim];
+            }
+        }
+        model.getVectorVarByNameIndex(name, index, row);
+        for (int i=0; i<statNames.length; i++) {
+            model.getVectorVarByNameIndex(names[i + 1], index, statRows[i]);
+        }
+        int numSteps = (int) model.getScalarVarByNameIndex(names[0], index);
+        for (int j=0; j<dim; j++) {
+            for (int i=0; i<statNames.length; i++) {
+                stats[i] = statRows[i][j];
+            }
+            row[j] = updateCoordinate(row[j], grad[j], stats, numSteps);
+            for (int i=0; i<statNames.length; i++) {
+                statRows[i][j] = stats[i];
+            }
+        }
+        model.combineVectorVarByNameIndex(name, index, 0.0, 1.0, row);
+        for (int i=0; i<statNames.length; i++) {
+            model.combineVectorVarByNameIndex(names[i + 1], index, 0.0, 1.0, statRows[i]);
+        }
+        model.setScalarVarByNameIndex(names[0], index, numSteps + 1);
+    }
+
+    /**
+     * @param learningData the instances are used one after another by the calling thread.
+     */
+    synchronized public double update(LearningModel model, LearningData learningData) {
+        ObjectiveFunction objFunc = model.getObjectiveFunction();
+        learningData.startNewIteration();
+        auxSizes.clear();
+        row = new double[0];
+        grad = new double[0];
+        int cnt = 0;
+        double objVal = 0.0;
+        List<LearningInstance> instances;
+        while ((instances = learningData.getLearningInstance()).size() > 0) {
+            List<StochasticOracle> oracles = model.getStochasticOracle(instances);
+            oracles = objFunc.wrapOracle(oracles);
+            for (StochasticOracle orc : oracles) {
+                objVal += orc.getObjectiveValue();
+                if (Double.isNaN(objVal)) {
+                    logger.error("Objective value becomes NaN at {}th instance.", cnt);
+                    throw new BadRequestException("Got NaN error.");
+                }
+                for (int i=0; i<orc.numScalars; i++) {
+                    updateScalar(model, orc.getScalarVarName(i), orc.scalarIndexes[i], orc.scalarGrads[i]);
+                }
+                for (int i=0; i<orc.numVectors; i++) {
+                    if (grad.length != orc.vectorDims[i]) {
+                        grad = new double[orc.vectorDims[i]];
+                    }
+                    orc.getVectorGradient(i, grad);
+                    double scale = orc.vectorScales[i];
+                    for (int j=0; j<grad.length; j++) {
+                        grad[j] *= scale;
+                    }
+                    updateVector(model, orc.getVectorVarName(i), orc.vectorIndexes[i], grad);
+                }
+                cnt++;
+                if (cnt % 100000 == 0) {
+                    logger.info("Updated the model using {} instances.", cnt);
+                }
+            }
+        }
+        return objVal;
+    }
+}
@@ -23,6 +23,7 @@
 package org.grouplens.samantha.modeler.solver;
 
 import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.space.LockMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,20 +35,44 @@ public class AsyncParallelSGD extends AbstractOptimizationMethod  implements Onl
     final private double l2coef;
     final private double lr;
     final private int numThreads;
+    final private LockMode lockMode;
+    final private int numStripes;
+    final private SolverExecutor executor;
 
     public AsyncParallelSGD() {
         super(5.0, 50, 2);
         l2coef = 0.0;
         lr = 0.001;
         numThreads = Runtime.getRuntime().availableProcessors();
+        lockMode = null;
+        numStripes = 0;
+        executor = SolverExecutor.getDefault();
     }
 
     public AsyncParallelSGD(int maxIter, int minIter, double l2coef,
                             double learningRate, double tol, int numThreads) {
+        this(maxIter, minIter, l2coef, learningRate, tol, numThreads, null, 0, SolverExecutor.getDefault());
+    }
+
+    /**
+     * @param lockMode how the model variables are guarded while the threads update them. {@link LockMode#NONE} is
+     *                 the lock-free Hogwild! mode. The previous mode of the model is restored after every pass,
+     *                 so that serving and online updates get the locks back. If null, the current mode of the model
+     *                 is used.
+     * @param numStripes the number of locks shared by all the rows with {@link LockMode#STRIPED}, or 0 for the
+     *                   current number of the model if it is striped already, otherwise the default one.
+     * @param executor where the numThreads runnables of each pass run, which may have fewer workers.
+     */
+    public AsyncParallelSGD(int maxIter, int minIter, double l2coef,
+                            double learningRate, double tol, int numThreads,
+                            LockMode lockMode, int numStripes, SolverExecutor executor) {
         super(tol, maxIter, minIter);
         this.l2coef = l2coef;
         this.lr = learningRate;
         this.numThreads = numThreads;
+        this.lockMode = lockMode;
+        this.numStripes = numStripes;
+        this.executor = executor;
     }
 
     /**
@@ -55,17 +80,24 @@ public class AsyncParallelSGD extends AbstractOptimizationMethod  implements Onl
      */
     public double update(LearningModel model, LearningData learningData) {
         learningData.startNewIteration();
-        logger.info("Using numThreads={}", numThreads);
-        List<Thread> threads = new ArrayList<>(numThreads);
-        List<ObjectiveRunnable> runnables = new ArrayList<>(numThreads);
-        for (int i=0; i<numThreads; i++) {
-            SGDRunnable sgdRunnable = new SGDRunnable(model, learningData, l2coef, lr);
-            runnables.add(sgdRunnable);
-            Thread thread = new Thread(sgdRunnable);
-            threads.add(thread);
-            thread.start();
+        LockMode previousMode = model.getLockMode();
+        int previousStripes = model.getNumStripes();
+        boolean switched = lockMode != null && (previousMode != lockMode ||
+                (lockMode == LockMode.STRIPED && numStripes > 0 && numStripes != previousStripes));
+        if (switched) {
+            model.setLockMode(lockMode, numStripes);
+        }
+        try {
+            logger.info("Using numThreads={}, lockMode={}", numThreads, model.getLockMode());
+            List<ObjectiveRunnable> runnables = new ArrayList<>(numThreads);
+            for (int i=0; i<numThreads; i++) {
+                runnables.add(new SGDRunnable(model, learningData, l2coef, lr));
+            }
+            return executor.run("learning", runnables);
+        } finally {
+            if (switched) {
+                model.setLockMode(previousMode, previousStripes);
+            }
         }
-        double objVal = SolverUtilities.joinObjectiveRunnableThreads(numThreads, runnables, threads);
-        return objVal;
     }
 }
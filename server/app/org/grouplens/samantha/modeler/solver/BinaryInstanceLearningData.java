@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.grouplens.samantha.modeler.common.BinaryInstanceFormat;
+import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reads the learning instances of a binary instance cache file written by {@link BinaryInstanceWriter}. A whole block
+ * is read with one positional read into a reused buffer and decoded at once. With shuffling, the order of the blocks
+ * and the order of the instances in each block are permuted in every iteration, seeded by the seed and the number of
+ * the iteration so that runs are reproducible.
+ */
+public class BinaryInstanceLearningData implements LearningData {
+    static private final int BATCH_SIZE = 128;
+
+    private final String filePath;
+    private final boolean shuffle;
+    private final long seed;
+    private final LongArrayList blockPositions = new LongArrayList();
+    private final List<LearningInstance> blockInstances = new ArrayList<>();
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BinaryInstanceWriter.BLOCK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private int[] blockOrder = new int[0];
+    private int iteration = 0;
+    private int nextBlock = 0;
+    private int nextInstance = 0;
+
+    public BinaryInstanceLearningData(String filePath, boolean shuffle, long seed) {
+        this.filePath = filePath;
+        this.shuffle = shuffle;
+        this.seed = seed;
+        startNewIteration();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new BadRequestException("Unexpected end of the instance cache " + filePath);
+            }
+            position += read;
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        blockPositions.clear();
+        long size = channel.size();
+        long position = 0L;
+        ByteBuffer header = ByteBuffer.allocate(BinaryInstanceWriter.BLOCK_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (position < size) {
+            blockPositions.add(position);
+            header.clear();
+            readFully(header, position);
+            position += BinaryInstanceWriter.BLOCK_HEADER_BYTES + header.getInt(Integer.BYTES);
+        }
+        blockOrder = new int[blockPositions.size()];
+    }
+
+    private boolean readBlock() throws IOException {
+        blockInstances.clear();
+        nextInstance = 0;
+        if (nextBlock >= blockOrder.length) {
+            return false;
+        }
+        long position = blockPositions.getLong(blockOrder[nextBlock++]);
+        ByteBuffer header = ByteBuffer.allocate(BinaryInstanceWriter.BLOCK_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, position);
+        int numRecords = header.getInt(0);
+        int length = header.getInt(Integer.BYTES);
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        readFully(buffer, position + BinaryInstanceWriter.BLOCK_HEADER_BYTES);
+        buffer.flip();
+        for (int i=0; i<numRecords; i++) {
+            blockInstances.add(BinaryInstanceFormat.read(buffer));
+        }
+        if (shuffle) {
+            Collections.shuffle(blockInstances, new Random(seed * 31 + iteration * 17 + nextBlock));
+        }
+        return true;
+    }
+
+    public List<LearningInstance> getLearningInstance() {
+        try {
+            if (channel == null) {
+                return new ArrayList<>(0);
+            }
+            if (nextInstance >= blockInstances.size() && !readBlock()) {
+                close();
+                return new ArrayList<>(0);
+            }
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+        int end = Math.min(nextInstance + BATCH_SIZE, blockInstances.size());
+        List<LearningInstance> instances = new ArrayList<>(blockInstances.subList(nextInstance, end));
+        nextInstance = end;
+        return instances;
+    }
+
+    public void startNewIteration() {
+        try {
+            if (channel == null) {
+                open();
+            }
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+        iteration++;
+        for (int i=0; i<blockOrder.length; i++) {
+            blockOrder[i] = i;
+        }
+        if (shuffle) {
+            Random random = new Random(seed * 31 + iteration);
+            for (int i=blockOrder.length - 1; i>0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = blockOrder[i];
+                blockOrder[i] = blockOrder[j];
+                blockOrder[j] = tmp;
+            }
+        }
+        nextBlock = 0;
+        nextInstance = 0;
+        blockInstances.clear();
+    }
+
+    /**
+     * Close the file, which is also closed when all the instances of an iteration have been read.
+     */
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new BadRequestException(e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import org.grouplens.samantha.modeler.common.BinaryInstanceFormat;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes learning instances into a binary instance cache file, read by {@link BinaryInstanceLearningData}. The file
+ * is a sequence of blocks of about {@link #BLOCK_BYTES} bytes, each the number of records and the length of the
+ * records and then the records of {@link BinaryInstanceFormat}. The blocks are the unit of shuffling when reading.
+ */
+public class BinaryInstanceWriter implements Closeable {
+    static final int BLOCK_BYTES = 1 << 22;
+    static final int BLOCK_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BLOCK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private int numRecords = 0;
+
+    public BinaryInstanceWriter(String filePath) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.position(BLOCK_HEADER_BYTES);
+    }
+
+    public void write(LearningInstance instance) throws IOException {
+        buffer = BinaryInstanceFormat.write(buffer, instance);
+        numRecords++;
+        if (buffer.position() >= BLOCK_BYTES) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (numRecords == 0) {
+            return;
+        }
+        buffer.putInt(0, numRecords);
+        buffer.putInt(Integer.BYTES, buffer.position() - BLOCK_HEADER_BYTES);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (buffer.capacity() > BLOCK_BYTES) {
+            buffer = ByteBuffer.allocate(BLOCK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        buffer.position(BLOCK_HEADER_BYTES);
+        numRecords = 0;
+    }
+
+    public void close() throws IOException {
+        try {
+            flushBlock();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -28,9 +28,7 @@ import org.grouplens.samantha.server.exception.BadRequestException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.List;
 
 public class CacheInstanceRunnable implements ObjectiveRunnable {
@@ -46,21 +44,18 @@ public class CacheInstanceRunnable implements ObjectiveRunnable {
 
     @Override
     public void run() {
-        try {
-            ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(cachePath));
+        try (BinaryInstanceWriter writer = new BinaryInstanceWriter(cachePath)) {
             List<LearningInstance> instances;
             while ((instances = data.getLearningInstance()).size() > 0) {
+                SolverExecutor.checkInterrupted();
                 for (LearningInstance ins : instances) {
                     cnt++;
-                    outputStream.writeUnshared(ins);
-                    outputStream.reset();
+                    writer.write(ins);
                     if (cnt % 1000000 == 0) {
                         logger.info("Cached {} instances.", cnt);
                     }
                 }
             }
-            outputStream.flush();
-            outputStream.close();
         } catch (IOException e) {
             logger.error(e.getMessage());
             throw new BadRequestException(e);
@@ -70,4 +65,8 @@ public class CacheInstanceRunnable implements ObjectiveRunnable {
     public double getObjVal() {
         return cnt;
     }
+
+    public long getNumInstances() {
+        return cnt;
+    }
 }
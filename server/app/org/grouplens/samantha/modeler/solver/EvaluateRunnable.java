@@ -26,11 +26,11 @@ import org.grouplens.samantha.modeler.common.LearningData;
 
 public class EvaluateRunnable implements ObjectiveRunnable {
     private final LearningModel learningModel;
-    private final LearningData learningData;
+    private final CountingLearningData learningData;
     private double objVal = 0.0;
 
     EvaluateRunnable(LearningModel learningModel, LearningData learningData) {
-        this.learningData = learningData;
+        this.learningData = new CountingLearningData(learningData);
         this.learningModel = learningModel;
     }
 
@@ -41,4 +41,8 @@ public class EvaluateRunnable implements ObjectiveRunnable {
     public double getObjVal() {
         return objVal;
     }
+
+    public long getNumInstances() {
+        return learningData.getNumInstances();
+    }
 }
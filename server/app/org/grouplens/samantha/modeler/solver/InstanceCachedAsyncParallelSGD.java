@@ -37,6 +37,9 @@ public class InstanceCachedAsyncParallelSGD extends AbstractOptimizationMethod i
     final private int numThreads;
     final private double l2coef;
     final private double lr;
+    final private boolean shuffle;
+    final private SolverExecutor executor;
+    private int numPasses = 0;
 
     public InstanceCachedAsyncParallelSGD(String cachePath) {
         super(5.0, 50, 2);
@@ -44,30 +47,40 @@ public class InstanceCachedAsyncParallelSGD extends AbstractOptimizationMethod i
         this.numThreads = Runtime.getRuntime().availableProcessors();
         this.lr = 0.001;
         this.l2coef = 0.0;
+        this.shuffle = true;
+        this.executor = SolverExecutor.getDefault();
     }
 
     public InstanceCachedAsyncParallelSGD(int maxIter, int minIter, double l2coef,
                                           double learningRate, double tol,
                                           int numThreads, String cachePath) {
+        this(maxIter, minIter, l2coef, learningRate, tol, numThreads, cachePath, true,
+                SolverExecutor.getDefault());
+    }
+
+    /**
+     * @param shuffle whether to shuffle the cached instances in every pass, see {@link BinaryInstanceLearningData}.
+     * @param executor where the numThreads runnables of each pass run, which may have fewer workers.
+     */
+    public InstanceCachedAsyncParallelSGD(int maxIter, int minIter, double l2coef,
+                                          double learningRate, double tol,
+                                          int numThreads, String cachePath, boolean shuffle,
+                                          SolverExecutor executor) {
         super(tol, maxIter, minIter);
         this.cachePath = cachePath;
         this.numThreads = numThreads;
         this.l2coef = l2coef;
         this.lr = learningRate;
+        this.shuffle = shuffle;
+        this.executor = executor;
     }
 
     private void cacheLearningData(LearningData data, String prefix) {
-        List<Thread> threads = new ArrayList<>(numThreads);
         List<ObjectiveRunnable> runnables = new ArrayList<>(numThreads);
         for (int i=0; i<numThreads; i++) {
-            String oneCachePath = getCachePath(prefix, i);
-            ObjectiveRunnable runnable = new CacheInstanceRunnable(oneCachePath, data);
-            runnables.add(runnable);
-            Thread thread = new Thread(runnable);
-            threads.add(thread);
-            thread.start();
+            runnables.add(new CacheInstanceRunnable(getCachePath(prefix, i), data));
         }
-        double cnt = SolverUtilities.joinObjectiveRunnableThreads(numThreads, runnables, threads);
+        double cnt = executor.run("caching", runnables);
         logger.info("Done Caching. Cached {} instances totally.", cnt);
     }
 
@@ -83,6 +96,17 @@ public class InstanceCachedAsyncParallelSGD extends AbstractOptimizationMethod i
                 tstampStr + ".tmp";
     }
 
+    private List<ObjectiveRunnable> getSGDRunnables(LearningModel model, String prefix) {
+        List<ObjectiveRunnable> runnables = new ArrayList<>(numThreads);
+        numPasses++;
+        for (int i=0; i<numThreads; i++) {
+            LearningData learnData = new BinaryInstanceLearningData(getCachePath(prefix, i), shuffle,
+                    (long) numPasses * numThreads + i);
+            runnables.add(new SGDRunnable(model, learnData, l2coef, lr));
+        }
+        return runnables;
+    }
+
     public double minimize(LearningModel model, LearningData learningData, LearningData validData) {
         cacheLearningData(learningData, "learn");
         if (validData != null) {
@@ -94,59 +118,43 @@ public class InstanceCachedAsyncParallelSGD extends AbstractOptimizationMethod i
             validCrit = new TerminationCriterion(tol, maxIter, minIter);
         }
         logger.info("Using numThreads={}", numThreads);
-        List<Thread> threads = new ArrayList<>(numThreads);
-        List<ObjectiveRunnable> runnables = new ArrayList<>(numThreads);
         double learnObjVal = 0.0;
-        while (learnCrit.keepIterate()) {
-            if (validCrit != null && !(validCrit.keepIterate())) {
-                break;
-            }
-            threads.clear();
-            runnables.clear();
-            for (int i=0; i<numThreads; i++) {
-                String oneCachePath = getCachePath("learn", i);
-                SolverUtilities.startObjectiveRunnableThreads(oneCachePath, model, l2coef, lr,
-                        runnables, threads);
+        try {
+            while (learnCrit.keepIterate()) {
+                if (validCrit != null && !(validCrit.keepIterate())) {
+                    break;
+                }
+                learnObjVal = executor.run("learning", getSGDRunnables(model, "learn"));
+                learnCrit.addIteration(InstanceCachedAsyncParallelSGD.class.toString()
+                        + " -- Learning", learnObjVal);
+                if (validData != null) {
+                    List<ObjectiveRunnable> runnables = new ArrayList<>(numThreads);
+                    for (int i=0; i<numThreads; i++) {
+                        LearningData learnData = new BinaryInstanceLearningData(getCachePath("valid", i),
+                                false, 0L);
+                        runnables.add(new EvaluateRunnable(model, learnData));
+                    }
+                    double validObjVal = executor.run("validating", runnables);
+                    validCrit.addIteration(InstanceCachedAsyncParallelSGD.class.toString()
+                            + " -- Validating", validObjVal);
+                }
             }
-            learnObjVal = SolverUtilities.joinObjectiveRunnableThreads(numThreads, runnables, threads);
-            learnCrit.addIteration(InstanceCachedAsyncParallelSGD.class.toString()
-                    + " -- Learning", learnObjVal);
+        } finally {
+            clearCache("learn");
             if (validData != null) {
-                threads.clear();
-                runnables.clear();
-                for (int i=0; i<numThreads; i++) {
-                    String oneCachePath = getCachePath("valid", i);
-                    LearningData learnData = new ObjectStreamLearningData(oneCachePath);
-                    EvaluateRunnable runnable = new EvaluateRunnable(model, learnData);
-                    runnables.add(runnable);
-                    Thread thread = new Thread(runnable);
-                    threads.add(thread);
-                    thread.start();
-                }
-                double validObjVal = SolverUtilities.joinObjectiveRunnableThreads(numThreads, runnables, threads);
-                validCrit.addIteration(InstanceCachedAsyncParallelSGD.class.toString()
-                        + " -- Validating", validObjVal);
+                clearCache("valid");
             }
         }
-        clearCache("learn");
-        if (validData != null) {
-            clearCache("valid");
-        }
         return learnObjVal;
     }
 
     public double update(LearningModel learningModel, LearningData learningData) {
         cacheLearningData(learningData, "update");
-        List<Thread> threads = new ArrayList<>(numThreads);
-        List<ObjectiveRunnable> runnables = new ArrayList<>(numThreads);
         logger.info("Using numThreads={}", numThreads);
-        for (int i=0; i<numThreads; i++) {
-            String oneCachePath = getCachePath("update", i);
-            SolverUtilities.startObjectiveRunnableThreads(oneCachePath, learningModel, l2coef,
-                    lr, runnables, threads);
+        try {
+            return executor.run("learning", getSGDRunnables(learningModel, "update"));
+        } finally {
+            clearCache("update");
         }
-        double objVal = SolverUtilities.joinObjectiveRunnableThreads(numThreads, runnables, threads);
-        clearCache("update");
-        return objVal;
     }
 }
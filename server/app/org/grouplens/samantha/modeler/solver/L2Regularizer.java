@@ -41,6 +41,13 @@ public class L2Regularizer implements Regularizer {
         return 2 * var;
     }
 
+    /**
+     * @return the factor that one gradient step of size lr on the regularization term alone multiplies a variable by.
+     */
+    public double getShrinkage(double l2coef, double lr) {
+        return 1.0 - 2 * l2coef * lr;
+    }
+
     public RealVector addGradient(RealVector grad, RealVector var, double l2coef) {
         return grad.combineToSelf(1.0, 2 * l2coef, var);
     }
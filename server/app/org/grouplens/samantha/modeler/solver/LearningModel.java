@@ -25,6 +25,8 @@ package org.grouplens.samantha.modeler.solver;
 import org.apache.commons.math3.linear.RealVector;
 import org.grouplens.samantha.modeler.common.LearningInstance;
 import org.grouplens.samantha.modeler.common.PredictiveModel;
+import org.grouplens.samantha.modeler.space.LockMode;
+import org.grouplens.samantha.modeler.space.RowAccumulator;
 
 import java.util.List;
 
@@ -40,10 +42,42 @@ public interface LearningModel extends PredictiveModel {
     int getVectorVarDimensionByName(String name);
     RealVector getVectorVarByNameIndex(String name, int index);
     void setVectorVarByNameIndex(String name, int index, RealVector var);
+    void getVectorVarByNameIndex(String name, int index, double[] outVar);
+    double dotVectorVarByNameIndex(String name, int index, double[] vec);
+    void accumulateVectorVarByNameIndex(String name, int index, double alpha, double[] outVec);
+    void combineVectorVarByNameIndex(String name, int index, double scale, double alpha, double[] vec);
+
+    /**
+     * See {@link org.grouplens.samantha.modeler.space.VariableSpace#reduceScalarVarByName}.
+     */
+    void reduceScalarVarByName(String name, int from, int to, RowAccumulator accumulator);
+    void reduceVectorVarByName(String name, int from, int to, RowAccumulator accumulator);
+
+    void setLockMode(LockMode lockMode, int numStripes);
+    LockMode getLockMode();
+    int getNumStripes();
 
     List<String> getAllScalarVarNames();
     List<String> getAllVectorVarNames();
 
+    /**
+     * Make sure the model keeps an auxiliary scalar variable of at least the size, e.g. the per-coordinate statistics
+     * of an optimizer. It is saved with the model, is accessed by name as the other variables, starts as zeros and is
+     * not in {@link #getAllScalarVarNames()}.
+     *
+     * @param name must start with {@link AbstractLearningModel#AUXILIARY_VAR_PREFIX}.
+     */
+    void ensureAuxiliaryScalarVar(String name, int size);
+
+    /**
+     * The vector version of {@link #ensureAuxiliaryScalarVar(String, int)}.
+     */
+    void ensureAuxiliaryVectorVar(String name, int size, int dim);
+
+    /**
+     * @return the oracles of the instances, which may come from {@link StochasticOraclePool} and then are only valid
+     * until the next call in the same thread.
+     */
     List<StochasticOracle> getStochasticOracle(List<LearningInstance> instances);
     ObjectiveFunction getObjectiveFunction();
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stochastic gradient descent updating the model once per mini-batch of instances. The gradients of the oracles of a
+ * batch are summed into a {@link SparseGradientBuffer}, then every touched row is read and written once, instead of
+ * once per oracle touching it. Each touched row takes one step of {@link StochasticGradientDescent} with the mean
+ * of its gradients in the batch, so the learning rate means the same as there and the rows touched by many
+ * instances, e.g. a global bias, do not take steps growing with the batch size.
+ */
+public class MiniBatchSGD extends AbstractOptimizationMethod implements OnlineOptimizationMethod {
+    private static Logger logger = LoggerFactory.getLogger(MiniBatchSGD.class);
+    final private double l2coef;
+    final private double lr;
+    final private int batchSize;
+
+    public MiniBatchSGD() {
+        super(5.0, 50, 2);
+        l2coef = 0.0;
+        lr = 0.001;
+        batchSize = 128;
+    }
+
+    public MiniBatchSGD(int maxIter, int minIter, double l2coef, double learningRate, double tol, int batchSize) {
+        super(tol, maxIter, minIter);
+        this.l2coef = l2coef;
+        this.lr = learningRate;
+        this.batchSize = batchSize;
+    }
+
+    private void applyBuffer(LearningModel model, SparseGradientBuffer buffer, L2Regularizer l2term) {
+        double shrinkage = l2term.getShrinkage(l2coef, lr);
+        for (Map.Entry<String, SparseGradientBuffer.Rows> entry : buffer.getScalarRows().entrySet()) {
+            String name = entry.getKey();
+            SparseGradientBuffer.Rows rows = entry.getValue();
+            for (int i=0; i<rows.size; i++) {
+                int idx = rows.indexes[i];
+                double var = model.getScalarVarByNameIndex(name, idx);
+                model.setScalarVarByNameIndex(name, idx,
+                        var - lr * (rows.grads[i] / rows.counts[i] + l2coef * l2term.getGradient(var)));
+            }
+        }
+        for (Map.Entry<String, SparseGradientBuffer.Rows> entry : buffer.getVectorRows().entrySet()) {
+            String name = entry.getKey();
+            SparseGradientBuffer.Rows rows = entry.getValue();
+            double[] grad = new double[rows.dim];
+            for (int i=0; i<rows.size; i++) {
+                System.arraycopy(rows.grads, i * rows.dim, grad, 0, rows.dim);
+                model.combineVectorVarByNameIndex(name, rows.indexes[i], shrinkage, -lr / rows.counts[i], grad);
+            }
+        }
+        buffer.clear();
+    }
+
+    public double update(LearningModel model, LearningData learningData) {
+        L2Regularizer l2term = new L2Regularizer();
+        ObjectiveFunction objFunc = model.getObjectiveFunction();
+        SparseGradientBuffer buffer = new SparseGradientBuffer();
+        learningData.startNewIteration();
+        int cnt = 0;
+        int batchCnt = 0;
+        double objVal = 0.0;
+        List<LearningInstance> instances;
+        while ((instances = learningData.getLearningInstance()).size() > 0) {
+            List<StochasticOracle> oracles = model.getStochasticOracle(instances);
+            oracles = objFunc.wrapOracle(oracles);
+            for (StochasticOracle orc : oracles) {
+                objVal += orc.getObjectiveValue();
+                if (Double.isNaN(objVal)) {
+                    logger.error("Objective value becomes NaN at {}th instance.", cnt);
+                    throw new BadRequestException("Got NaN error.");
+                }
+                buffer.addOracle(orc);
+                cnt++;
+                if (++batchCnt >= batchSize) {
+                    applyBuffer(model, buffer, l2term);
+                    batchCnt = 0;
+                }
+                if (cnt % 100000 == 0) {
+                    logger.info("Updated the model using {} instances.", cnt);
+                }
+            }
+        }
+        if (batchCnt > 0) {
+            applyBuffer(model, buffer, l2term);
+        }
+        return objVal;
+    }
+}
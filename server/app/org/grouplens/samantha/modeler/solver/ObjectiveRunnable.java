@@ -24,4 +24,5 @@ package org.grouplens.samantha.modeler.solver;
 
 public interface ObjectiveRunnable extends Runnable {
     double getObjVal();
+    long getNumInstances();
 }
@@ -22,106 +22,348 @@
 
 package org.grouplens.samantha.modeler.solver;
 
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealVector;
 import org.grouplens.samantha.modeler.common.LearningData;
 import org.grouplens.samantha.modeler.common.LearningInstance;
-import org.grouplens.samantha.modeler.space.SpaceMode;
-import org.grouplens.samantha.modeler.space.SynchronizedVariableSpace;
-import org.grouplens.samantha.modeler.space.VariableSpace;
 
-import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * The proximal gradient method for L1 and L2 regularized objectives over the full gradient. The gradient pass runs
+ * on numThreads runnables, each summing the gradients of the instances it takes into its own dense primitive buffer.
+ * The buffers are then summed pairwise in parallel as a tree, and the proximal step is taken in parallel over blocks
+ * of rows. The objective of a pass adds the L1 and L2 regularization of the variables, summed in parallel in place,
+ * see {@link SolverUtilities#getRegularizationObjective}. The learning data must be synchronized when numThreads is
+ * more than one.
+ *
+ * Since every runnable's buffer grows to the size of the variables it has gradients for, i.e. up to the whole model,
+ * the memory for the gradients is numThreads times the model, so numThreads defaults to at most
+ * {@link #DEFAULT_MAX_THREADS} in the configuration.
+ */
 public class ProximalGradientMethod extends AbstractOptimizationMethod {
+    static private final int BLOCK_SIZE = 1024;
+    static public final int DEFAULT_MAX_THREADS = 4;
+
     final private double l1coef;
     final private double l2coef;
     final private double ro;
+    final private int numThreads;
+    final private SolverExecutor executor;
 
     public ProximalGradientMethod() {
         super(5.0, 50, 2);
         this.l1coef = 4.0;
         this.l2coef = 0.1;
         this.ro = 1000000.0;
+        this.numThreads = 1;
+        this.executor = SolverExecutor.getDefault();
     }
 
     public ProximalGradientMethod(int maxIter, int minIter, double tol, double l1coef, double l2coef, double ro) {
+        this(maxIter, minIter, tol, l1coef, l2coef, ro, 1, SolverExecutor.getDefault());
+    }
+
+    /**
+     * @param numThreads the number of runnables summing the gradients and taking the proximal step.
+     * @param executor where the runnables run, which may have fewer workers.
+     */
+    public ProximalGradientMethod(int maxIter, int minIter, double tol, double l1coef, double l2coef, double ro,
+                                  int numThreads, SolverExecutor executor) {
         super(tol, maxIter, minIter);
         this.l2coef = l2coef;
         this.l1coef = l1coef;
         this.ro = ro;
+        this.numThreads = numThreads;
+        this.executor = executor;
     }
 
-    protected double update(LearningModel model, LearningData learningData) {
-        VariableSpace variableSpace = new SynchronizedVariableSpace();
-        variableSpace.setSpaceState(Long.valueOf(System.currentTimeMillis()).toString(), SpaceMode.BUILDING);
-        List<String> allScalarVarNames = model.getAllScalarVarNames();
-        for (String name : allScalarVarNames) {
-            variableSpace.requestScalarVar(name, 0, 0.0, false);
+    /**
+     * The sums of the gradients of the rows of the variables, up to the largest row with a gradient.
+     */
+    static private class GradientBuffer {
+        private final Map<String, double[]> scalarGrads = new HashMap<>();
+        private final Map<String, Integer> scalarSizes = new HashMap<>();
+        private final Map<String, double[]> vectorGrads = new HashMap<>();
+        private final Map<String, Integer> vectorSizes = new HashMap<>();
+        private final Map<String, Integer> vectorDims = new HashMap<>();
+
+        static private double[] ensureCapacity(double[] grads, int length) {
+            if (grads == null) {
+                return new double[Math.max(length, 16)];
+            } else if (grads.length < length) {
+                double[] newGrads = new double[Math.max(length, grads.length * 2)];
+                System.arraycopy(grads, 0, newGrads, 0, grads.length);
+                return newGrads;
+            }
+            return grads;
         }
-        List<String> allVectorVarNames = model.getAllVectorVarNames();
-        for (String name : allVectorVarNames) {
-            int dim = model.getVectorVarDimensionByName(name);
-            variableSpace.requestVectorVar(name, 0, dim, 0.0, false, false);
+
+        private void addScalar(String name, int idx, double grad) {
+            double[] grads = ensureCapacity(scalarGrads.get(name), idx + 1);
+            scalarGrads.put(name, grads);
+            grads[idx] += grad;
+            if (getScalarSize(name) <= idx) {
+                scalarSizes.put(name, idx + 1);
+            }
         }
-        double objVal = 0.0;
-        List<LearningInstance> instances;
-        ObjectiveFunction objective = model.getObjectiveFunction();
-        learningData.startNewIteration();
-        while ((instances = learningData.getLearningInstance()).size() > 0) {
-            List<StochasticOracle> oracles = model.getStochasticOracle(instances);
-            oracles = objective.wrapOracle(oracles);
-            for (StochasticOracle oracle : oracles) {
-                objVal += oracle.getObjectiveValue();
-                for (int i = 0; i < oracle.scalarNames.size(); i++) {
-                    String name = oracle.scalarNames.get(i);
-                    int idx = oracle.scalarIndexes.getInt(i);
-                    double grad = oracle.scalarGrads.getDouble(i);
-                    variableSpace.ensureScalarVar(name, idx + 1, 0.0, false);
-                    variableSpace.setScalarVarByNameIndex(name, idx,
-                            variableSpace.getScalarVarByNameIndex(name, idx) + grad);
-                }
-                for (int i = 0; i < oracle.vectorNames.size(); i++) {
-                    String name = oracle.vectorNames.get(i);
-                    int idx = oracle.vectorIndexes.getInt(i);
-                    RealVector grad = oracle.vectorGrads.get(i);
-                    variableSpace.ensureVectorVar(name, idx + 1, grad.getDimension(),
-                            0.0, false, false);
-                    variableSpace.setVectorVarByNameIndex(name, idx, grad.combineToSelf(1.0, 1.0,
-                            variableSpace.getVectorVarByNameIndex(name, idx)));
-                }
+
+        private void addVector(String name, int idx, double scale, double[] grad) {
+            int dim = grad.length;
+            double[] grads = ensureCapacity(vectorGrads.get(name), (idx + 1) * dim);
+            vectorGrads.put(name, grads);
+            vectorDims.put(name, dim);
+            int offset = idx * dim;
+            for (int j=0; j<dim; j++) {
+                grads[offset + j] += scale * grad[j];
+            }
+            if (getVectorSize(name) <= idx) {
+                vectorSizes.put(name, idx + 1);
+            }
+        }
+
+        private int getScalarSize(String name) {
+            return scalarSizes.getOrDefault(name, 0);
+        }
+
+        private int getVectorSize(String name) {
+            return vectorSizes.getOrDefault(name, 0);
+        }
+
+        static private void add(Map<String, double[]> grads, Map<String, Integer> sizes, String name,
+                                double[] otherGrads, int otherSize, int dim) {
+            double[] cur = ensureCapacity(grads.get(name), otherSize * dim);
+            for (int i=0; i<otherSize * dim; i++) {
+                cur[i] += otherGrads[i];
             }
+            grads.put(name, cur);
+            sizes.put(name, Math.max(sizes.getOrDefault(name, 0), otherSize));
         }
-        for (String name : allScalarVarNames) {
-            for (int i=0; i<variableSpace.getScalarVarSizeByName(name); i++) {
-                double eta = variableSpace.getScalarVarByNameIndex(name, i) -
-                        model.getScalarVarByNameIndex(name, i) * ro;
-                double value = 0.0;
-                if (eta > l1coef) {
-                    value = (l1coef - eta) / (l2coef + ro);
-                } else if (eta < -l1coef) {
-                    value = (-eta - l1coef) / (l2coef + ro);
+
+        private void add(GradientBuffer other) {
+            for (Map.Entry<String, double[]> entry : other.scalarGrads.entrySet()) {
+                String name = entry.getKey();
+                add(scalarGrads, scalarSizes, name, entry.getValue(), other.getScalarSize(name), 1);
+            }
+            for (Map.Entry<String, double[]> entry : other.vectorGrads.entrySet()) {
+                String name = entry.getKey();
+                int dim = other.vectorDims.get(name);
+                vectorDims.put(name, dim);
+                add(vectorGrads, vectorSizes, name, entry.getValue(), other.getVectorSize(name), dim);
+            }
+        }
+    }
+
+    private class GradientRunnable implements ObjectiveRunnable {
+        private final LearningModel model;
+        private final CountingLearningData learningData;
+        private final GradientBuffer buffer = new GradientBuffer();
+        private double objVal = 0.0;
+
+        private GradientRunnable(LearningModel model, LearningData learningData) {
+            this.model = model;
+            this.learningData = new CountingLearningData(learningData);
+        }
+
+        public void run() {
+            ObjectiveFunction objective = model.getObjectiveFunction();
+            double[] vectorGrad = new double[0];
+            List<LearningInstance> instances;
+            while ((instances = learningData.getLearningInstance()).size() > 0) {
+                List<StochasticOracle> oracles = model.getStochasticOracle(instances);
+                oracles = objective.wrapOracle(oracles);
+                for (StochasticOracle oracle : oracles) {
+                    objVal += oracle.getObjectiveValue();
+                    for (int i = 0; i < oracle.getNumScalarOracles(); i++) {
+                        buffer.addScalar(oracle.getScalarVarName(i), oracle.getScalarIndex(i),
+                                oracle.getScalarGradient(i));
+                    }
+                    for (int i = 0; i < oracle.getNumVectorOracles(); i++) {
+                        if (vectorGrad.length != oracle.getVectorDimension(i)) {
+                            vectorGrad = new double[oracle.getVectorDimension(i)];
+                        }
+                        oracle.getVectorGradient(i, vectorGrad);
+                        buffer.addVector(oracle.getVectorVarName(i), oracle.getVectorIndex(i),
+                                oracle.getVectorScale(i), vectorGrad);
+                    }
                 }
-                model.setScalarVarByNameIndex(name, i, value);
             }
         }
-        for (String name : allVectorVarNames) {
-            int dim = variableSpace.getVectorVarDimensionByName(name);
-            for (int i=0; i<variableSpace.getVectorVarSizeByName(name); i++) {
-                RealVector etas = variableSpace.getVectorVarByNameIndex(name, i)
-                        .combineToSelf(1.0, -ro, model.getVectorVarByNameIndex(name, i));
-                RealVector value = MatrixUtils.createRealVector(new double[dim]);
-                for (int j=0; j<dim; j++) {
-                    double eta = etas.getEntry(j);
-                    if (eta > l1coef) {
-                        value.setEntry(j, (l1coef - eta) / (l2coef + ro));
-                    } else if (eta < -l1coef) {
-                        value.setEntry(j, (-eta - l1coef) / (l2coef + ro));
+
+        public double getObjVal() {
+            return objVal;
+        }
+
+        public long getNumInstances() {
+            return learningData.getNumInstances();
+        }
+    }
+
+    private class ReduceRunnable implements ObjectiveRunnable {
+        private final GradientBuffer buffer;
+        private final GradientBuffer other;
+
+        private ReduceRunnable(GradientBuffer buffer, GradientBuffer other) {
+            this.buffer = buffer;
+            this.other = other;
+        }
+
+        public void run() {
+            buffer.add(other);
+        }
+
+        public double getObjVal() {
+            return 0.0;
+        }
+
+        public long getNumInstances() {
+            return 0L;
+        }
+    }
+
+    /**
+     * A block of rows of a variable to take the proximal step on.
+     */
+    static private class Block {
+        private final String name;
+        private final boolean vector;
+        private final int from;
+        private final int to;
+
+        private Block(String name, boolean vector, int from, int to) {
+            this.name = name;
+            this.vector = vector;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private double getProximalValue(double grad, double var) {
+        double eta = grad - var * ro;
+        if (eta > l1coef) {
+            return (l1coef - eta) / (l2coef + ro);
+        } else if (eta < -l1coef) {
+            return (-eta - l1coef) / (l2coef + ro);
+        }
+        return 0.0;
+    }
+
+    private class ProximalRunnable implements ObjectiveRunnable {
+        private final LearningModel model;
+        private final GradientBuffer buffer;
+        private final List<Block> blocks;
+        private final AtomicInteger nextBlock;
+
+        private ProximalRunnable(LearningModel model, GradientBuffer buffer, List<Block> blocks,
+                                 AtomicInteger nextBlock) {
+            this.model = model;
+            this.buffer = buffer;
+            this.blocks = blocks;
+            this.nextBlock = nextBlock;
+        }
+
+        public void run() {
+            int idx;
+            double[] var = new double[0];
+            while ((idx = nextBlock.getAndIncrement()) < blocks.size()) {
+                SolverExecutor.checkInterrupted();
+                Block block = blocks.get(idx);
+                if (block.vector) {
+                    double[] grads = buffer.vectorGrads.get(block.name);
+                    int dim = buffer.vectorDims.get(block.name);
+                    if (var.length != dim) {
+                        var = new double[dim];
+                    }
+                    for (int i=block.from; i<block.to; i++) {
+                        model.getVectorVarByNameIndex(block.name, i, var);
+                        for (int j=0; j<dim; j++) {
+                            var[j] = getProximalValue(grads[i * dim + j], var[j]);
+                        }
+                        model.combineVectorVarByNameIndex(block.name, i, 0.0, 1.0, var);
+                    }
+                } else {
+                    double[] grads = buffer.scalarGrads.get(block.name);
+                    for (int i=block.from; i<block.to; i++) {
+                        model.setScalarVarByNameIndex(block.name, i,
+                                getProximalValue(grads[i], model.getScalarVarByNameIndex(block.name, i)));
                     }
                 }
-                model.setVectorVarByNameIndex(name, i, value);
             }
         }
+
+        public double getObjVal() {
+            return 0.0;
+        }
+
+        public long getNumInstances() {
+            return 0L;
+        }
+    }
+
+    static private void addBlocks(List<Block> blocks, String name, boolean vector, int size) {
+        for (int from=0; from<size; from+=BLOCK_SIZE) {
+            blocks.add(new Block(name, vector, from, Math.min(from + BLOCK_SIZE, size)));
+        }
+    }
+
+    /**
+     * The regularization of the variables before the proximal step, i.e. at the point the gradient is taken, so that
+     * the objective of a pass is the full objective the proximal step minimizes.
+     */
+    private double getRegularizationObjective(LearningModel model) {
+        double objVal = 0.0;
+        if (l1coef != 0.0) {
+            objVal += SolverUtilities.getRegularizationObjective(model, new L1Regularizer(), l1coef,
+                    numThreads, executor);
+        }
+        if (l2coef != 0.0) {
+            objVal += SolverUtilities.getRegularizationObjective(model, new L2Regularizer(), l2coef / 2,
+                    numThreads, executor);
+        }
+        return objVal;
+    }
+
+    protected double update(LearningModel model, LearningData learningData) {
+        learningData.startNewIteration();
+        List<GradientRunnable> gradRunnables = new ArrayList<>(numThreads);
+        for (int i=0; i<numThreads; i++) {
+            gradRunnables.add(new GradientRunnable(model, learningData));
+        }
+        double objVal = executor.run("gradient", gradRunnables);
+
+        List<GradientBuffer> buffers = new ArrayList<>(numThreads);
+        for (GradientRunnable runnable : gradRunnables) {
+            buffers.add(runnable.buffer);
+        }
+        for (int stride=1; stride<buffers.size(); stride*=2) {
+            List<ReduceRunnable> reduceRunnables = new ArrayList<>();
+            for (int i=0; i + stride<buffers.size(); i+=2 * stride) {
+                reduceRunnables.add(new ReduceRunnable(buffers.get(i), buffers.get(i + stride)));
+            }
+            executor.run("reducing", reduceRunnables);
+        }
+        GradientBuffer buffer = buffers.get(0);
+        objVal += getRegularizationObjective(model);
+
+        List<Block> blocks = new ArrayList<>();
+        for (String name : model.getAllScalarVarNames()) {
+            if (buffer.scalarGrads.containsKey(name)) {
+                addBlocks(blocks, name, false, buffer.getScalarSize(name));
+            }
+        }
+        for (String name : model.getAllVectorVarNames()) {
+            if (buffer.vectorGrads.containsKey(name)) {
+                addBlocks(blocks, name, true, buffer.getVectorSize(name));
+            }
+        }
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        List<ProximalRunnable> proxRunnables = new ArrayList<>(numThreads);
+        for (int i=0; i<numThreads; i++) {
+            proxRunnables.add(new ProximalRunnable(model, buffer, blocks, nextBlock));
+        }
+        executor.run("proximal", proxRunnables);
         return objVal;
     }
 }
@@ -93,6 +93,27 @@ public class RandomInitializer {
         }
     }
 
+    public void randInitDoubleArray(double[] values, int offset, int length, boolean normalize) {
+        double sum = 0.0;
+        for (int i=offset; i<offset + length; i++) {
+            double val;
+            if (normalize) {
+                val = rand.nextDouble();
+            } else {
+                val = (rand.nextDouble() - subtract) * multi;
+            }
+            values[i] = val;
+            if (normalize) {
+                sum += val;
+            }
+        }
+        if (normalize) {
+            for (int i=offset; i<offset + length; i++) {
+                values[i] /= sum;
+            }
+        }
+    }
+
     public void randInitMatrix(RealMatrix mat, boolean normalize) {
         int len = mat.getRowDimension();
         RealVector vec = MatrixUtils.createRealVector(new double[mat.getColumnDimension()]);
@@ -22,5 +22,54 @@
 
 package org.grouplens.samantha.modeler.solver;
 
-public class RegularizedDualAveraging {
+/**
+ * Regularized dual averaging in its FTRL-Proximal form (McMahan et al. 2013), with L1 and L2 regularization and a
+ * per-coordinate step size as in {@link AdaGrad}. Every coordinate keeps the sum of its gradients, adjusted so that
+ * the regularization is centered at its past values, and the sum of its squared gradients. Its value is then the
+ * closed-form minimizer of the regularized linear approximation, which is exactly zero while the adjusted sum of
+ * gradients is within the L1 coefficient, so the rarely useful coordinates stay at zero and the model is sparse.
+ *
+ * A coordinate first updated by this method starts from its current value, e.g. the random initialization of the
+ * factors of a model, instead of from zero.
+ */
+public class RegularizedDualAveraging extends AdaptiveGradientMethod {
+    static private final String SUM_GRADIENTS = "sumGradients";
+    static private final String SUM_SQUARES = "sumSquares";
+    final private double l1coef;
+    final private double beta;
+
+    public RegularizedDualAveraging() {
+        this(50, 2, 0.0, 0.0, 0.1, 1.0, 5.0);
+    }
+
+    /**
+     * @param l1coef the coefficient of the L1 norm of the variables in the objective.
+     * @param learningRate the alpha of the per-coordinate step size alpha / (beta + root of the sum of squares).
+     * @param beta the beta of the step size.
+     */
+    public RegularizedDualAveraging(int maxIter, int minIter, double l1coef, double l2coef,
+                                    double learningRate, double beta, double tol) {
+        super(tol, maxIter, minIter, l2coef, learningRate, SUM_GRADIENTS, SUM_SQUARES);
+        this.l1coef = l1coef;
+        this.beta = beta;
+    }
+
+    protected String getName() {
+        return "rda";
+    }
+
+    protected double updateCoordinate(double var, double grad, double[] stats, int numSteps) {
+        double l2 = 2 * l2coef;
+        if (stats[1] == 0.0 && var != 0.0) {
+            stats[0] = -var * (beta / lr + l2) - Math.signum(var) * l1coef;
+        }
+        double sumSquares = stats[1] + grad * grad;
+        double sigma = (Math.sqrt(sumSquares) - Math.sqrt(stats[1])) / lr;
+        stats[0] += grad - sigma * var;
+        stats[1] = sumSquares;
+        if (Math.abs(stats[0]) <= l1coef) {
+            return 0.0;
+        }
+        return -(stats[0] - Math.signum(stats[0]) * l1coef) / ((beta + Math.sqrt(sumSquares)) / lr + l2);
+    }
 }
@@ -31,4 +31,15 @@ public interface Regularizer {
     double getGradient(double var);
     double getObjective(double coef, RealVector var);
     double getObjective(double coef, List<RealVector> vars);
+
+    /**
+     * @return the sum of {@link #getValue(double)} over vars from offset to offset + dim, read in place.
+     */
+    default double getValue(double[] vars, int offset, int dim) {
+        double value = 0.0;
+        for (int i=offset; i<offset + dim; i++) {
+            value += getValue(vars[i]);
+        }
+        return value;
+    }
 }
@@ -26,13 +26,13 @@ import org.grouplens.samantha.modeler.common.LearningData;
 
 public class SGDRunnable implements ObjectiveRunnable {
     private final LearningModel learningModel;
-    private final LearningData learningData;
+    private final CountingLearningData learningData;
     private final double l2coef;
     private final double lr;
     private double objVal = 0.0;
 
     SGDRunnable(LearningModel learningModel, LearningData learningData, double l2coef, double lr) {
-        this.learningData = learningData;
+        this.learningData = new CountingLearningData(learningData);
         this.learningModel = learningModel;
         this.l2coef = l2coef;
         this.lr = lr;
@@ -48,4 +48,8 @@ public class SGDRunnable implements ObjectiveRunnable {
     public double getObjVal() {
         return objVal;
     }
+
+    public long getNumInstances() {
+        return learningData.getNumInstances();
+    }
 }
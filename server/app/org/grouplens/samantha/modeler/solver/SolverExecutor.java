@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import org.grouplens.samantha.modeler.space.SpaceUtilities;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A named pool of worker threads the parallel optimizers run their passes on, instead of starting new threads for
+ * every pass. The number of workers caps the CPU used by training, e.g. next to serving, and can be changed while a
+ * job is running to throttle it: the runnables of a pass beyond the number of workers wait in the queue. The
+ * workers run with a priority below the normal one. A running job can be cancelled, which interrupts its workers and
+ * fails the pass with a {@link BadRequestException}.
+ */
+public class SolverExecutor {
+    final private static Logger logger = LoggerFactory.getLogger(SolverExecutor.class);
+    final private static SolverExecutor defaultExecutor = new SolverExecutor("default",
+            Runtime.getRuntime().availableProcessors());
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final List<Future<?>> running = new ArrayList<>();
+    private volatile boolean cancelled = false;
+    private volatile String lastPass = null;
+    private volatile long lastPassInstances = 0L;
+    private volatile double lastPassSeconds = 0.0;
+
+    public SolverExecutor(String name, int numThreads) {
+        this.name = name;
+        AtomicInteger threadCnt = new AtomicInteger(0);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "samantha-solver-" + name + "-" + threadCnt.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the executor shared by the optimizers not given one, with a worker per processor.
+     */
+    static public SolverExecutor getDefault() {
+        return defaultExecutor;
+    }
+
+    /**
+     * Run the runnables of one pass on the workers and wait for all of them. The runnables run as writers of the
+     * spaces if the calling thread is one, see {@link SpaceUtilities#runAsWriter(Runnable)}.
+     *
+     * @param pass the name of the pass for logging and the statistics, e.g. learning or validating. The passes not
+     *             going through instances, e.g. reducing the gradients, do not replace the statistics of the last
+     *             pass going through instances.
+     * @return the sum of the objective values of the runnables.
+     */
+    public double run(String pass, List<? extends ObjectiveRunnable> runnables) {
+        List<Future<?>> futures = new ArrayList<>(runnables.size());
+        long start = System.nanoTime();
+        synchronized (running) {
+            if (cancelled) {
+                cancelled = false;
+                throw new BadRequestException("Learning on the solver executor " + name + " is cancelled.");
+            }
+            boolean writer = SpaceUtilities.isWriter();
+            for (ObjectiveRunnable runnable : runnables) {
+                if (writer) {
+                    futures.add(executor.submit(() -> SpaceUtilities.runAsWriter(runnable)));
+                } else {
+                    futures.add(executor.submit(runnable));
+                }
+            }
+            running.addAll(futures);
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (CancellationException e) {
+            throw new BadRequestException("Learning on the solver executor " + name + " is cancelled.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BadRequestException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new BadRequestException(e.getCause());
+        } finally {
+            synchronized (running) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+                running.removeAll(futures);
+                if (running.isEmpty()) {
+                    cancelled = false;
+                }
+            }
+        }
+        double objVal = 0.0;
+        long numInstances = 0L;
+        for (ObjectiveRunnable runnable : runnables) {
+            objVal += runnable.getObjVal();
+            numInstances += runnable.getNumInstances();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (numInstances > 0) {
+            lastPass = pass;
+            lastPassInstances = numInstances;
+            lastPassSeconds = seconds;
+            logger.info("Solver executor {} ran {} on {} instances at {} instances/sec.", name, pass,
+                    numInstances, (long) getLastPassInstancesPerSec());
+        } else {
+            logger.debug("Solver executor {} ran {} in {} seconds.", name, pass, seconds);
+        }
+        return objVal;
+    }
+
+    /**
+     * Run a task other than a pass on the workers, e.g. encoding the blocks of a model snapshot. The task is neither
+     * cancelled by {@link #cancel()} nor counted in the statistics of the passes.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Cancel the pass running on the workers, if any.
+     *
+     * @return whether there was a running pass to cancel.
+     */
+    public boolean cancel() {
+        synchronized (running) {
+            if (running.isEmpty()) {
+                return false;
+            }
+            cancelled = true;
+            for (Future<?> future : running) {
+                future.cancel(true);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Change the number of workers, which takes effect for the runnables not started yet.
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(numThreads);
+            executor.setCorePoolSize(numThreads);
+        } else {
+            executor.setCorePoolSize(numThreads);
+            executor.setMaximumPoolSize(numThreads);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    public String getLastPass() {
+        return lastPass;
+    }
+
+    public long getLastPassInstances() {
+        return lastPassInstances;
+    }
+
+    public double getLastPassInstancesPerSec() {
+        return lastPassSeconds > 0.0 ? lastPassInstances / lastPassSeconds : 0.0;
+    }
+
+    /**
+     * Throw if the current worker is interrupted, e.g. by {@link #cancel()}, to be called by the runnables between
+     * instance batches.
+     */
+    static public void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new BadRequestException("Learning is interrupted.");
+        }
+    }
+}
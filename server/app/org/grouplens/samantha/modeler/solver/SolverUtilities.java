@@ -22,34 +22,121 @@
 
 package org.grouplens.samantha.modeler.solver;
 
-import org.apache.commons.math3.linear.RealVector;
 import org.grouplens.samantha.modeler.common.LearningData;
 import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.modeler.space.RowAccumulator;
 import org.grouplens.samantha.server.exception.BadRequestException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SolverUtilities {
 
     private SolverUtilities() {}
 
     private static Logger logger = LoggerFactory.getLogger(SolverUtilities.class);
+    static private final int REGULARIZATION_RANGE_SIZE = 4096;
+
+    /**
+     * A range of rows of a variable for {@link RegularizationRunnable}.
+     */
+    static private class RowRange {
+        private final String name;
+        private final boolean vector;
+        private final int from;
+        private final int to;
+
+        private RowRange(String name, boolean vector, int from, int to) {
+            this.name = name;
+            this.vector = vector;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Sums the regularization values of the ranges of rows it takes in turn, reading the rows in place.
+     */
+    static private class RegularizationRunnable implements ObjectiveRunnable, RowAccumulator {
+        private final LearningModel model;
+        private final Regularizer regularizer;
+        private final double coef;
+        private final List<RowRange> ranges;
+        private final AtomicInteger nextRange;
+        private double value = 0.0;
+
+        private RegularizationRunnable(LearningModel model, Regularizer regularizer, double coef,
+                                       List<RowRange> ranges, AtomicInteger nextRange) {
+            this.model = model;
+            this.regularizer = regularizer;
+            this.coef = coef;
+            this.ranges = ranges;
+            this.nextRange = nextRange;
+        }
+
+        public void accumulate(int index, double var) {
+            value += regularizer.getValue(var);
+        }
+
+        public void accumulate(int index, double[] vars, int offset, int dim) {
+            value += regularizer.getValue(vars, offset, dim);
+        }
+
+        public void run() {
+            int idx;
+            while ((idx = nextRange.getAndIncrement()) < ranges.size()) {
+                SolverExecutor.checkInterrupted();
+                RowRange range = ranges.get(idx);
+                if (range.vector) {
+                    model.reduceVectorVarByName(range.name, range.from, range.to, this);
+                } else {
+                    model.reduceScalarVarByName(range.name, range.from, range.to, this);
+                }
+            }
+        }
+
+        public double getObjVal() {
+            return coef * value;
+        }
+
+        public long getNumInstances() {
+            return 0L;
+        }
+    }
+
+    static private void addRowRanges(List<RowRange> ranges, String name, boolean vector, int size) {
+        for (int from=0; from<size; from+=REGULARIZATION_RANGE_SIZE) {
+            ranges.add(new RowRange(name, vector, from, Math.min(from + REGULARIZATION_RANGE_SIZE, size)));
+        }
+    }
 
     public static double getRegularizationObjective(LearningModel model, Regularizer regularizer, double coef) {
-        double objVal = 0.0;
-        List<String> allScalarVarNames = model.getAllScalarVarNames();
-        for (String name : allScalarVarNames) {
-            RealVector var = model.getScalarVarByName(name);
-            objVal += regularizer.getObjective(coef, var);
+        SolverExecutor executor = SolverExecutor.getDefault();
+        return getRegularizationObjective(model, regularizer, coef, executor.getNumThreads(), executor);
+    }
+
+    /**
+     * Sum the regularization of all the variables of the model without copying them out of its variable space. The
+     * rows are cut into ranges taken in turn by numThreads runnables on the executor, each keeping its own sum.
+     */
+    public static double getRegularizationObjective(LearningModel model, Regularizer regularizer, double coef,
+                                                    int numThreads, SolverExecutor executor) {
+        List<RowRange> ranges = new ArrayList<>();
+        for (String name : model.getAllScalarVarNames()) {
+            addRowRanges(ranges, name, false, model.getScalarVarSizeByName(name));
         }
-        List<String> allVectorVarNames = model.getAllVectorVarNames();
-        for (String name : allVectorVarNames) {
-            List<RealVector> vars = model.getVectorVarByName(name);
-            objVal += regularizer.getObjective(coef, vars);
+        for (String name : model.getAllVectorVarNames()) {
+            addRowRanges(ranges, name, true, model.getVectorVarSizeByName(name));
         }
-        return objVal;
+        AtomicInteger nextRange = new AtomicInteger(0);
+        List<RegularizationRunnable> runnables = new ArrayList<>(numThreads);
+        for (int i=0; i<numThreads; i++) {
+            runnables.add(new RegularizationRunnable(model, regularizer, coef, ranges, nextRange));
+        }
+        return executor.run("regularization", runnables);
     }
 
     public static double stochasticGradientDescentUpdate(LearningModel model, ObjectiveFunction objFunc,
@@ -57,6 +144,8 @@ public class SolverUtilities {
                                                          double l2coef, double lr) {
         int cnt = 0;
         double objVal = 0.0;
+        double shrinkage = l2term.getShrinkage(l2coef, lr);
+        double[] vectorGrad = new double[0];
         List<LearningInstance> instances;
         while ((instances = learningData.getLearningInstance()).size() > 0) {
             List<StochasticOracle> oracles = model.getStochasticOracle(instances);
@@ -67,20 +156,20 @@ public class SolverUtilities {
                     logger.error("Objective value becomes NaN at {}th instance.", cnt);
                     throw new BadRequestException("Got NaN error.");
                 }
-                for (int i = 0; i < orc.scalarNames.size(); i++) {
-                    String name = orc.scalarNames.get(i);
-                    int idx = orc.scalarIndexes.getInt(i);
-                    double grad = orc.scalarGrads.getDouble(i);
+                for (int i = 0; i < orc.numScalars; i++) {
+                    String name = orc.getScalarVarName(i);
+                    int idx = orc.scalarIndexes[i];
+                    double grad = orc.scalarGrads[i];
                     double var = model.getScalarVarByNameIndex(name, idx);
                     model.setScalarVarByNameIndex(name, idx, var - lr * (grad + l2coef * l2term.getGradient(var)));
                 }
-                for (int i = 0; i < orc.vectorNames.size(); i++) {
-                    String name = orc.vectorNames.get(i);
-                    int idx = orc.vectorIndexes.getInt(i);
-                    RealVector var = model.getVectorVarByNameIndex(name, idx);
-                    RealVector grad = orc.vectorGrads.get(i);
-                    model.setVectorVarByNameIndex(name, idx, var.combineToSelf(1.0, -lr,
-                            l2term.addGradient(grad, var, l2coef)));
+                for (int i = 0; i < orc.numVectors; i++) {
+                    if (vectorGrad.length != orc.vectorDims[i]) {
+                        vectorGrad = new double[orc.vectorDims[i]];
+                    }
+                    orc.getVectorGradient(i, vectorGrad);
+                    model.combineVectorVarByNameIndex(orc.getVectorVarName(i), orc.vectorIndexes[i], shrinkage,
+                            -lr * orc.vectorScales[i], vectorGrad);
                 }
                 cnt++;
                 if (cnt % 100000 == 0) {
@@ -91,30 +180,6 @@ public class SolverUtilities {
         return objVal;
     }
 
-    public static double joinObjectiveRunnableThreads(int numThreads, List<ObjectiveRunnable> runnables, List<Thread> threads) {
-        double objVal = 0.0;
-        for (int i=0; i<numThreads; i++) {
-            try {
-                threads.get(i).join();
-                objVal += runnables.get(i).getObjVal();
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage());
-            }
-        }
-        return objVal;
-    }
-
-    public static void startObjectiveRunnableThreads(String oneCachePath, LearningModel learningModel,
-                                                     double l2coef, double lr, List<ObjectiveRunnable> runnables,
-                                                     List<Thread> threads) {
-        LearningData learnData = new ObjectStreamLearningData(oneCachePath);
-        SGDRunnable runnable = new SGDRunnable(learningModel, learnData, l2coef, lr);
-        runnables.add(runnable);
-        Thread thread = new Thread(runnable);
-        threads.add(thread);
-        thread.start();
-    }
-
     public static double evaluate(LearningModel model, LearningData validData) {
         double objVal = 0.0;
         ObjectiveFunction objFunc = model.getObjectiveFunction();
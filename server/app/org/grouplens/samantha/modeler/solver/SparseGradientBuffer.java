@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The sum of the gradients of the oracles of a mini-batch for each (variable, index) they touch, kept in flat primitive
+ * arrays which are reused across batches, so that every touched row is updated once per batch.
+ */
+public class SparseGradientBuffer {
+    private final Map<String, Rows> scalarRows = new HashMap<>();
+    private final Map<String, Rows> vectorRows = new HashMap<>();
+    private Rows[] scalarRowsById = new Rows[0];
+    private Rows[] vectorRowsById = new Rows[0];
+
+    /**
+     * The rows of one variable touched in the batch. Slot i is the i-th distinct index, whose gradient sum is at
+     * grads[i * dim] on and which is touched by counts[i] oracles.
+     */
+    static class Rows {
+        final Int2IntOpenHashMap slots = new Int2IntOpenHashMap();
+        final int dim;
+        int size = 0;
+        int[] indexes = new int[16];
+        int[] counts = new int[16];
+        double[] grads;
+
+        private Rows(int dim) {
+            this.dim = dim;
+            this.grads = new double[16 * dim];
+            slots.defaultReturnValue(-1);
+        }
+
+        private int getSlot(int index) {
+            int slot = slots.get(index);
+            if (slot < 0) {
+                slot = size++;
+                if (slot == indexes.length) {
+                    indexes = Arrays.copyOf(indexes, slot * 2);
+                    counts = Arrays.copyOf(counts, slot * 2);
+                    grads = Arrays.copyOf(grads, slot * 2 * dim);
+                }
+                slots.put(index, slot);
+                indexes[slot] = index;
+                counts[slot] = 0;
+                Arrays.fill(grads, slot * dim, (slot + 1) * dim, 0.0);
+            }
+            counts[slot]++;
+            return slot;
+        }
+
+        private void clear() {
+            slots.clear();
+            size = 0;
+        }
+    }
+
+    private static Rows getRows(Map<String, Rows> vars, Rows[] rowsById, int varId, int dim) {
+        Rows rows = rowsById[varId];
+        if (rows == null) {
+            rows = new Rows(dim);
+            rowsById[varId] = rows;
+            vars.put(StochasticOracle.getVariableName(varId), rows);
+        }
+        return rows;
+    }
+
+    private static Rows[] ensureIds(Rows[] rowsById, int[] varIds, int num) {
+        for (int i=0; i<num; i++) {
+            if (varIds[i] >= rowsById.length) {
+                rowsById = Arrays.copyOf(rowsById, varIds[i] + 1);
+            }
+        }
+        return rowsById;
+    }
+
+    public void addOracle(StochasticOracle orc) {
+        scalarRowsById = ensureIds(scalarRowsById, orc.scalarVarIds, orc.numScalars);
+        for (int i=0; i<orc.numScalars; i++) {
+            Rows rows = getRows(scalarRows, scalarRowsById, orc.scalarVarIds[i], 1);
+            int slot = rows.getSlot(orc.scalarIndexes[i]);
+            rows.grads[slot] += orc.scalarGrads[i];
+        }
+        vectorRowsById = ensureIds(vectorRowsById, orc.vectorVarIds, orc.numVectors);
+        double[] arena = orc.arena;
+        for (int i=0; i<orc.numVectors; i++) {
+            int dim = orc.vectorDims[i];
+            int from = orc.vectorOffsets[i];
+            double scale = orc.vectorScales[i];
+            Rows rows = getRows(vectorRows, vectorRowsById, orc.vectorVarIds[i], dim);
+            int offset = rows.getSlot(orc.vectorIndexes[i]) * rows.dim;
+            double[] grads = rows.grads;
+            for (int j=0; j<dim; j++) {
+                grads[offset + j] += scale * arena[from + j];
+            }
+        }
+    }
+
+    Map<String, Rows> getScalarRows() {
+        return scalarRows;
+    }
+
+    Map<String, Rows> getVectorRows() {
+        return vectorRows;
+    }
+
+    /**
+     * Empty the buffer for the next batch, keeping the allocated arrays.
+     */
+    public void clear() {
+        for (Rows rows : scalarRows.values()) {
+            rows.clear();
+        }
+        for (Rows rows : vectorRows.values()) {
+            rows.clear();
+        }
+    }
+}
@@ -22,23 +22,39 @@
 
 package org.grouplens.samantha.modeler.solver;
 
-import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-
-import it.unimi.dsi.fastutil.doubles.DoubleList;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The gradients of the variables of a model on one instance. They are kept in flat primitive arrays indexed by the
+ * position of the oracle and the vector gradients in one arena, so that an oracle can be reset and reused (see
+ * {@link StochasticOraclePool}) without allocating anything once the arrays have grown. The variables are identified
+ * by ids interned from their names with {@link #getVariableId(String)}.
+ */
+public class StochasticOracle {
+    static private final Map<String, Integer> VARIABLE_IDS = new ConcurrentHashMap<>();
+    static private volatile String[] variableNames = new String[0];
+
+    int numScalars = 0;
+    int[] scalarVarIds = new int[4];
+    int[] scalarIndexes = new int[4];
+    double[] scalarGrads = new double[4];
 
-public class StochasticOracle { 
-    final List<String> scalarNames = new ArrayList<>();
-    final IntList scalarIndexes = new IntArrayList();
-    final DoubleList scalarGrads = new DoubleArrayList();
-    final List<String> vectorNames = new ArrayList<>();
-    final IntList vectorIndexes = new IntArrayList();
-    final List<RealVector> vectorGrads = new ArrayList<>();
+    int numVectors = 0;
+    int[] vectorVarIds = new int[4];
+    int[] vectorIndexes = new int[4];
+    int[] vectorOffsets = new int[4];
+    int[] vectorDims = new int[4];
+    double[] vectorScales = new double[4];
+
+    int arenaSize = 0;
+    double[] arena = new double[64];
+    private double[] lastGrad = null;
+    private int lastGradOffset = 0;
 
     private double objVal = 0.0;
     private double gradient = 0.0;
@@ -54,16 +70,179 @@ public class StochasticOracle {
         this.weight = weight;
     }
 
+    /**
+     * @return the id of the variable name, which is the same for the name in the whole process.
+     */
+    static public int getVariableId(String name) {
+        Integer id = VARIABLE_IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (VARIABLE_IDS) {
+            id = VARIABLE_IDS.get(name);
+            if (id == null) {
+                String[] names = Arrays.copyOf(variableNames, variableNames.length + 1);
+                id = names.length - 1;
+                names[id] = name;
+                variableNames = names;
+                VARIABLE_IDS.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    static public String getVariableName(int id) {
+        return variableNames[id];
+    }
+
+    /**
+     * Clear the oracle to be reused for another instance, keeping the allocated arrays.
+     */
+    public void reset() {
+        numScalars = 0;
+        numVectors = 0;
+        arenaSize = 0;
+        lastGrad = null;
+        objVal = 0.0;
+        gradient = 0.0;
+        label = 0.0;
+        weight = 0.0;
+        modelOutput = 0.0;
+    }
+
     public void addScalarOracle(String name, int index, double grad) {
-        scalarIndexes.add(index);
-        scalarNames.add(name);
-        scalarGrads.add(grad);
+        addScalarOracle(getVariableId(name), index, grad);
+    }
+
+    public void addScalarOracle(int varId, int index, double grad) {
+        if (numScalars == scalarVarIds.length) {
+            int size = numScalars * 2;
+            scalarVarIds = Arrays.copyOf(scalarVarIds, size);
+            scalarIndexes = Arrays.copyOf(scalarIndexes, size);
+            scalarGrads = Arrays.copyOf(scalarGrads, size);
+        }
+        scalarVarIds[numScalars] = varId;
+        scalarIndexes[numScalars] = index;
+        scalarGrads[numScalars] = grad;
+        numScalars++;
     }
 
     public void addVectorOracle(String name, int index, RealVector grad) {
-        vectorIndexes.add(index);
-        vectorNames.add(name);
-        vectorGrads.add(grad);
+        if (grad instanceof ArrayRealVector) {
+            addVectorOracle(name, index, ((ArrayRealVector) grad).getDataRef(), 1.0);
+        } else {
+            addVectorOracle(name, index, grad.toArray(), 1.0);
+        }
+    }
+
+    /**
+     * The gradient of the vector variable is scale * grad. The grad array is copied into the arena of the oracle, but
+     * the oracles added one after another with the same array share one copy, e.g. all the factors of one side, so
+     * the array must not be changed between them.
+     */
+    public void addVectorOracle(String name, int index, double[] grad, double scale) {
+        int offset;
+        if (grad == lastGrad) {
+            offset = lastGradOffset;
+        } else {
+            offset = addVectorGradient(grad);
+            lastGrad = grad;
+            lastGradOffset = offset;
+        }
+        addVectorOracle(getVariableId(name), index, offset, grad.length, scale);
+    }
+
+    /**
+     * Copy the gradient into the arena of the oracle, to be shared by the vector oracles added with its offset.
+     *
+     * @return the offset of the gradient in the arena.
+     */
+    public int addVectorGradient(double[] grad) {
+        int offset = reserveVectorGradient(grad.length);
+        System.arraycopy(grad, 0, arena, offset, grad.length);
+        return offset;
+    }
+
+    /**
+     * Reserve space for a gradient of dim in the arena, to be filled in through {@link #getGradientArena()}.
+     *
+     * @return the offset of the gradient in the arena.
+     */
+    public int reserveVectorGradient(int dim) {
+        if (arenaSize + dim > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + dim));
+        }
+        int offset = arenaSize;
+        arenaSize += dim;
+        lastGrad = null;
+        return offset;
+    }
+
+    public double[] getGradientArena() {
+        return arena;
+    }
+
+    /**
+     * The gradient of the vector variable is scale times the dim values from offset on in the arena.
+     */
+    public void addVectorOracle(int varId, int index, int offset, int dim, double scale) {
+        if (numVectors == vectorVarIds.length) {
+            int size = numVectors * 2;
+            vectorVarIds = Arrays.copyOf(vectorVarIds, size);
+            vectorIndexes = Arrays.copyOf(vectorIndexes, size);
+            vectorOffsets = Arrays.copyOf(vectorOffsets, size);
+            vectorDims = Arrays.copyOf(vectorDims, size);
+            vectorScales = Arrays.copyOf(vectorScales, size);
+        }
+        vectorVarIds[numVectors] = varId;
+        vectorIndexes[numVectors] = index;
+        vectorOffsets[numVectors] = offset;
+        vectorDims[numVectors] = dim;
+        vectorScales[numVectors] = scale;
+        numVectors++;
+    }
+
+    public int getNumScalarOracles() {
+        return numScalars;
+    }
+
+    public String getScalarVarName(int i) {
+        return variableNames[scalarVarIds[i]];
+    }
+
+    public int getScalarIndex(int i) {
+        return scalarIndexes[i];
+    }
+
+    public double getScalarGradient(int i) {
+        return scalarGrads[i];
+    }
+
+    public int getNumVectorOracles() {
+        return numVectors;
+    }
+
+    public String getVectorVarName(int i) {
+        return variableNames[vectorVarIds[i]];
+    }
+
+    public int getVectorIndex(int i) {
+        return vectorIndexes[i];
+    }
+
+    public int getVectorDimension(int i) {
+        return vectorDims[i];
+    }
+
+    public double getVectorScale(int i) {
+        return vectorScales[i];
+    }
+
+    /**
+     * Copy the (unscaled) gradient of the i-th vector oracle into the first dimension entries of outGrad.
+     */
+    public void getVectorGradient(int i, double[] outGrad) {
+        System.arraycopy(arena, vectorOffsets[i], outGrad, 0, vectorDims[i]);
     }
 
     public double getModelOutput() {
@@ -92,11 +271,11 @@ public class StochasticOracle {
 
     public void setGradient(double gradient) {
         this.gradient = gradient;
-        for (int i=0; i<scalarGrads.size(); i++) {
-            scalarGrads.set(i, scalarGrads.getDouble(i) * gradient);
+        for (int i=0; i<numScalars; i++) {
+            scalarGrads[i] *= gradient;
         }
-        for (int i=0; i<vectorGrads.size(); i++) {
-            vectorGrads.get(i).mapMultiplyToSelf(gradient);
+        for (int i=0; i<numVectors; i++) {
+            vectorScales[i] *= gradient;
         }
     }
 
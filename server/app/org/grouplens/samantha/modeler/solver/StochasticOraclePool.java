@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-thread pools of {@link StochasticOracle}s for the models to reuse the oracles and the list of them across the
+ * calls of {@link LearningModel#getStochasticOracle(List)}. The oracles got from the pool of a thread are only valid
+ * until the next call of {@link #getOracles(int)} in the same thread, which the training loops satisfy since they are
+ * done with the oracles of an instance batch before asking for the next.
+ */
+public class StochasticOraclePool {
+    static private final ThreadLocal<StochasticOraclePool> POOLS =
+            ThreadLocal.withInitial(StochasticOraclePool::new);
+
+    private final List<StochasticOracle> pool = new ArrayList<>();
+    private final List<StochasticOracle> oracles = new ArrayList<>();
+
+    private StochasticOraclePool() {}
+
+    static public StochasticOraclePool getThreadPool() {
+        return POOLS.get();
+    }
+
+    /**
+     * @return the list of num reset oracles, which is also reused.
+     */
+    public List<StochasticOracle> getOracles(int num) {
+        while (pool.size() < num) {
+            pool.add(new StochasticOracle());
+        }
+        oracles.clear();
+        for (int i=0; i<num; i++) {
+            StochasticOracle orc = pool.get(i);
+            orc.reset();
+            oracles.add(orc);
+        }
+        return oracles;
+    }
+}
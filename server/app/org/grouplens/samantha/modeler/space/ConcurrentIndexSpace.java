@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link IndexSpace} where looking up keys and indices does not lock and setting keys only contends
+ * with the threads setting keys of the same bin in the same key map, see {@link ConcurrentKeyIndex}.
+ */
+public final class ConcurrentIndexSpace implements IndexSpace {
+    private static final long serialVersionUID = 1L;
+    private final ConcurrentHashMap<String, ConcurrentKeyIndex<Object>> keyMap = new ConcurrentHashMap<>();
+
+    @Inject
+    public ConcurrentIndexSpace() {}
+
+    public void setSpaceState(String spaceName, SpaceMode spaceMode) {}
+
+    public void publishSpaceVersion() {}
+
+    private ConcurrentKeyIndex<Object> getKeyIndex(String name) {
+        ConcurrentKeyIndex<Object> keyIndex = keyMap.get(name);
+        if (keyIndex == null) {
+            throw new BadRequestException("Key map " + name + " does not exist.");
+        }
+        return keyIndex;
+    }
+
+    public void requestKeyMap(String name) {
+        keyMap.put(name, new ConcurrentKeyIndex<>());
+    }
+
+    public boolean hasKeyMap(String name) {
+        return keyMap.containsKey(name);
+    }
+
+    public int getKeyMapSize(String name) {
+        return getKeyIndex(name).size();
+    }
+
+    public int setKey(String name, Object key) {
+        return getKeyIndex(name).setKey(key);
+    }
+
+    public boolean containsKey(String name, Object key) {
+        return getKeyIndex(name).containsKey(key);
+    }
+
+    public int getIndexForKey(String name, Object key) {
+        int index = getKeyIndex(name).getIndex(key);
+        if (index < 0) {
+            throw new BadRequestException("Key " + key + " does not exist in the key map " + name);
+        }
+        return index;
+    }
+
+    public Object getKeyForIndex(String name, int index) {
+        return getKeyIndex(name).getKey(index);
+    }
+
+    public List<String> getAllKeyMapNames() {
+        return new ArrayList<>(keyMap.keySet());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A key index where looking up keys and indices does not lock and a new key is atomically assigned the next index.
+ * Only the threads setting keys falling into the same bin of the underlying map wait for each other.
+ * The keys are kept in pages allocated on demand so that the index to key mapping never needs to be copied when it grows.
+ * The size only counts the indices up to which all the keys are stored, so iterating from zero to the size never meets
+ * an index whose key is still being stored by another thread.
+ */
+public class ConcurrentKeyIndex<K> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static private final int PAGE_SHIFT = 16;
+    static private final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    static private final int PAGE_MASK = PAGE_SIZE - 1;
+    static private final int MAX_PAGES = (Integer.MAX_VALUE >>> PAGE_SHIFT) + 1;
+
+    private final ConcurrentHashMap<K, Integer> key2idx = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<AtomicReferenceArray<K>> pages = new AtomicReferenceArray<>(MAX_PAGES);
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicInteger publishedSize = new AtomicInteger(0);
+
+    public ConcurrentKeyIndex() {}
+
+    private AtomicReferenceArray<K> getOrCreatePage(int pageIdx) {
+        AtomicReferenceArray<K> page = pages.get(pageIdx);
+        if (page == null) {
+            pages.compareAndSet(pageIdx, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = pages.get(pageIdx);
+        }
+        return page;
+    }
+
+    private Integer assignIndex(K key) {
+        int idx = size.getAndIncrement();
+        if (idx < 0) {
+            throw new BadRequestException("Too many keys in the key index.");
+        }
+        getOrCreatePage(idx >>> PAGE_SHIFT).set(idx & PAGE_MASK, key);
+        publish();
+        return idx;
+    }
+
+    /**
+     * Advance the published size over the keys already stored. A thread storing a key after a gap leaves it to the
+     * thread filling the gap, which then advances over both.
+     */
+    private void publish() {
+        int published;
+        while ((published = publishedSize.get()) < size.get() && getKey(published) != null) {
+            publishedSize.compareAndSet(published, published + 1);
+        }
+    }
+
+    /**
+     * @return the index of the key or -1 if the key is not in the index.
+     */
+    public int getIndex(K key) {
+        Integer idx = key2idx.get(key);
+        if (idx == null) {
+            return -1;
+        }
+        return idx;
+    }
+
+    /**
+     * @return the key or null if the index is not assigned yet, including when another thread is assigning it.
+     */
+    public K getKey(int idx) {
+        AtomicReferenceArray<K> page = pages.get(idx >>> PAGE_SHIFT);
+        if (page == null) {
+            return null;
+        }
+        return page.get(idx & PAGE_MASK);
+    }
+
+    public boolean containsKey(K key) {
+        return key2idx.containsKey(key);
+    }
+
+    public int size() {
+        return publishedSize.get();
+    }
+
+    public int setKey(K key) {
+        Integer idx = key2idx.get(key);
+        if (idx != null) {
+            return idx;
+        }
+        return key2idx.computeIfAbsent(key, this::assignIndex);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Marks of the rows of the variables in a space written since the last checkpoint, so that only the changed rows need
+ * to be written out, see {@link VariableSpace#checkpointScalarVar(String)}. The marks are bits in pages allocated on
+ * demand. Marking a row already marked only reads the bit, so the rows updated again and again do not contend.
+ */
+public class DirtyRowTracker {
+    static private final int PAGE_SHIFT = 16;
+    static private final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    static private final int MAX_PAGES = (Integer.MAX_VALUE >>> PAGE_SHIFT) + 1;
+
+    private final Map<String, DirtyRows> scalarRows = new ConcurrentHashMap<>();
+    private final Map<String, DirtyRows> vectorRows = new ConcurrentHashMap<>();
+
+    private static class DirtyRows {
+        private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(MAX_PAGES);
+
+        private void mark(int index) {
+            int pageIdx = index >>> PAGE_SHIFT;
+            AtomicLongArray page = pages.get(pageIdx);
+            if (page == null) {
+                pages.compareAndSet(pageIdx, null, new AtomicLongArray((PAGE_MASK + 1) >>> 6));
+                page = pages.get(pageIdx);
+            }
+            int word = (index & PAGE_MASK) >>> 6;
+            long bit = 1L << (index & 63);
+            long cur;
+            while (((cur = page.get(word)) & bit) == 0L && !page.compareAndSet(word, cur, cur | bit)) {}
+        }
+
+        private void drain(IntArrayList rows) {
+            for (int i=0; i<MAX_PAGES; i++) {
+                AtomicLongArray page = pages.get(i);
+                if (page == null) {
+                    continue;
+                }
+                for (int j=0; j<page.length(); j++) {
+                    if (page.get(j) == 0L) {
+                        continue;
+                    }
+                    long bits = page.getAndSet(j, 0L);
+                    while (bits != 0L) {
+                        int bit = Long.numberOfTrailingZeros(bits);
+                        rows.add((i << PAGE_SHIFT) + (j << 6) + bit);
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    static private void mark(Map<String, DirtyRows> vars, String name, int from, int to) {
+        DirtyRows rows = vars.get(name);
+        if (rows == null) {
+            rows = vars.computeIfAbsent(name, k -> new DirtyRows());
+        }
+        for (int i=from; i<to; i++) {
+            rows.mark(i);
+        }
+    }
+
+    static private int[] checkpoint(Map<String, DirtyRows> vars, String name) {
+        IntArrayList indices = new IntArrayList();
+        DirtyRows rows = vars.get(name);
+        if (rows != null) {
+            rows.drain(indices);
+        }
+        return indices.toIntArray();
+    }
+
+    public void markScalarRow(String name, int index) {
+        mark(scalarRows, name, index, index + 1);
+    }
+
+    public void markScalarRows(String name, int from, int to) {
+        mark(scalarRows, name, from, to);
+    }
+
+    public void markVectorRow(String name, int index) {
+        mark(vectorRows, name, index, index + 1);
+    }
+
+    public void markVectorRows(String name, int from, int to) {
+        mark(vectorRows, name, from, to);
+    }
+
+    public void freeScalarVar(String name) {
+        scalarRows.remove(name);
+    }
+
+    public void freeVectorVar(String name) {
+        vectorRows.remove(name);
+    }
+
+    /**
+     * @return the rows of the scalar variable marked since the last checkpoint in ascending order, which are cleared.
+     */
+    public int[] checkpointScalarVar(String name) {
+        return checkpoint(scalarRows, name);
+    }
+
+    /**
+     * @return the rows of the vector variable marked since the last checkpoint in ascending order, which are cleared.
+     */
+    public int[] checkpointVectorVar(String name) {
+        return checkpoint(vectorRows, name);
+    }
+
+    /**
+     * Move all the marks into the other tracker.
+     */
+    public void drainTo(DirtyRowTracker other) {
+        for (String name : scalarRows.keySet()) {
+            for (int index : checkpointScalarVar(name)) {
+                other.markScalarRow(name, index);
+            }
+        }
+        for (String name : vectorRows.keySet()) {
+            for (int index : checkpointVectorVar(name)) {
+                other.markVectorRow(name, index);
+            }
+        }
+    }
+}
@@ -26,14 +26,21 @@ import com.google.inject.ImplementedBy;
 import org.grouplens.samantha.server.space.RedisIndexSpace;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Every method needs to be thread-safe.
  */
-@ImplementedBy(SynchronizedIndexSpace.class)
+@ImplementedBy(ConcurrentIndexSpace.class)
 public interface IndexSpace extends Serializable {
     void setSpaceState(String spaceName, SpaceMode spaceMode);
     void publishSpaceVersion();
+
+    /**
+     * See {@link VariableSpace#publishWrites()}. Only {@link VersionedIndexSpace} implements it.
+     */
+    default void publishWrites() {}
+
     void requestKeyMap(String name);
     boolean hasKeyMap(String name);
     int setKey(String name, Object key);
@@ -41,4 +48,5 @@ public interface IndexSpace extends Serializable {
     int getIndexForKey(String name, Object key);
     Object getKeyForIndex(String name, int index);
     int getKeyMapSize(String name);
+    List<String> getAllKeyMapNames();
 }
@@ -28,8 +28,8 @@ public class IndexedVectorModel implements SpaceModel {
     private static final long serialVersionUID = 1L;
     final private String modelName;
     final protected int dim;
-    final private IndexSpace indexSpace;
-    final private VariableSpace variableSpace;
+    final protected IndexSpace indexSpace;
+    final protected VariableSpace variableSpace;
 
     public IndexedVectorModel(String modelName, int initialSize, int dim,
                               IndexSpace indexSpace, VariableSpace variableSpace) {
@@ -85,4 +85,9 @@ public class IndexedVectorModel implements SpaceModel {
         indexSpace.publishSpaceVersion();
         variableSpace.publishSpaceVersion();
     }
+
+    public void publishWrites() {
+        indexSpace.publishWrites();
+        variableSpace.publishWrites();
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+/**
+ * How a {@link VariableSpace} guards concurrent accesses of individual rows of its variables.
+ *
+ * ROW uses one lock per row, STRIPED shares a fixed number of locks among all the rows and NONE accesses the rows
+ * without any lock, i.e. lock-free racy updates as in Hogwild! parallel SGD. Structural changes of the space, e.g.
+ * ensuring a larger variable, are guarded in all the modes.
+ */
+public enum LockMode {
+    ROW("row"),
+    STRIPED("striped"),
+    NONE("none");
+
+    private final String key;
+
+    LockMode(String key) {
+        this.key = key;
+    }
+
+    public String get() {
+        return key;
+    }
+}
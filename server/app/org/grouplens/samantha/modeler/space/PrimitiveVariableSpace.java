@@ -0,0 +1,684 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.grouplens.samantha.modeler.solver.RandomInitializer;
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory variable space keeping every variable in one contiguous primitive array.
+ *
+ * A scalar variable is a plain double[] and a vector variable is a row-major double[] block with the dimension as
+ * the stride, so a model with millions of rows is a handful of arrays instead of millions of vector objects. The
+ * arrays grow geometrically when a variable is ensured to a larger size. Structural changes take the global write
+ * lock while row accesses take the global read lock plus one of a fixed number of striped row locks. To use it for
+ * all the in-memory models, bind it in {@link VariableSpace}'s {@link com.google.inject.ImplementedBy ImplementedBy}.
+ */
+public final class PrimitiveVariableSpace implements VariableSpace {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final Map<String, ScalarBlock> scalarVars = new HashMap<>();
+    private final Map<String, VectorBlock> vectorVars = new HashMap<>();
+    private final Lock readLock;
+    private final Lock writeLock;
+    private volatile LockMode lockMode = LockMode.STRIPED;
+    private transient DirtyRowTracker dirtyRows = new DirtyRowTracker();
+    private volatile ReentrantReadWriteLock[] stripes = SpaceUtilities.createStripes(
+            SpaceUtilities.DEFAULT_NUM_STRIPES);
+
+    private static class ScalarBlock implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private volatile double[] values;
+        private volatile int size = 0;
+
+        private ScalarBlock(int capacity) {
+            values = new double[capacity];
+        }
+    }
+
+    private static class VectorBlock implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int dim;
+        private volatile double[] values;
+        private volatile int size = 0;
+
+        private VectorBlock(int capacity, int dim) {
+            this.dim = dim;
+            values = new double[getLength(capacity, dim)];
+        }
+    }
+
+    @Inject
+    public PrimitiveVariableSpace() {
+        ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+        readLock = rwl.readLock();
+        writeLock = rwl.writeLock();
+    }
+
+    public void setLockMode(LockMode lockMode, int numStripes) {
+        writeLock.lock();
+        try {
+            if (lockMode != LockMode.NONE) {
+                stripes = SpaceUtilities.createStripes(numStripes);
+            }
+            this.lockMode = lockMode;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public LockMode getLockMode() {
+        return lockMode;
+    }
+
+    public int getNumStripes() {
+        ReentrantReadWriteLock[] current = stripes;
+        return current == null ? 0 : current.length;
+    }
+
+    public void setSpaceState(String spaceName, SpaceMode spaceMode) {}
+
+    public void publishSpaceVersion() {}
+
+    static private int getLength(int size, int dim) {
+        long length = (long) size * dim;
+        if (length > MAX_ARRAY_SIZE) {
+            throw new BadRequestException("Variable of size " + size + " and dimension " + dim +
+                    " exceeds the capacity of one primitive array.");
+        }
+        return (int) length;
+    }
+
+    static private double[] growArray(double[] values, int length) {
+        if (length <= values.length) {
+            return values;
+        }
+        long newLength = Math.max((long) values.length * 2, length);
+        return Arrays.copyOf(values, (int) Math.min(newLength, MAX_ARRAY_SIZE));
+    }
+
+    private Lock getStructureLock() {
+        if (lockMode == LockMode.NONE) {
+            return SpaceUtilities.NO_LOCK;
+        } else {
+            return readLock;
+        }
+    }
+
+    private Lock getRowReadLock(int index) {
+        if (lockMode == LockMode.NONE) {
+            return SpaceUtilities.NO_LOCK;
+        } else {
+            ReentrantReadWriteLock[] curStripes = stripes;
+            return curStripes[index % curStripes.length].readLock();
+        }
+    }
+
+    private Lock getRowWriteLock(int index) {
+        if (lockMode == LockMode.NONE) {
+            return SpaceUtilities.NO_LOCK;
+        } else {
+            ReentrantReadWriteLock[] curStripes = stripes;
+            return curStripes[index % curStripes.length].writeLock();
+        }
+    }
+
+    private void initializeScalars(ScalarBlock block, int from, int to, double initial, boolean randomize) {
+        if (randomize) {
+            RandomInitializer randInit = new RandomInitializer();
+            for (int i=from; i<to; i++) {
+                block.values[i] = randInit.randInitValue();
+            }
+        } else if (initial != 0.0) {
+            Arrays.fill(block.values, from, to, initial);
+        }
+    }
+
+    private void initializeVectors(VectorBlock block, int from, int to, double initial,
+                                   boolean randomize, boolean normalize) {
+        if (randomize) {
+            RandomInitializer randInit = new RandomInitializer();
+            for (int i=from; i<to; i++) {
+                randInit.randInitDoubleArray(block.values, i * block.dim, block.dim, normalize);
+            }
+        } else if (initial != 0.0) {
+            Arrays.fill(block.values, from * block.dim, to * block.dim, initial);
+        }
+    }
+
+    private void ensureScalarBlock(ScalarBlock block, int size, double initial, boolean randomize) {
+        int curSize = block.size;
+        if (curSize < size) {
+            block.values = growArray(block.values, size);
+            initializeScalars(block, curSize, size, initial, randomize);
+            block.size = size;
+        }
+    }
+
+    private void ensureVectorBlock(VectorBlock block, int size, double initial,
+                                   boolean randomize, boolean normalize) {
+        int curSize = block.size;
+        if (curSize < size) {
+            block.values = growArray(block.values, getLength(size, block.dim));
+            initializeVectors(block, curSize, size, initial, randomize, normalize);
+            block.size = size;
+        }
+    }
+
+    private VectorBlock getVectorBlock(String name, int index) {
+        VectorBlock block = vectorVars.get(name);
+        if (index >= block.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + block.size);
+        }
+        return block;
+    }
+
+    private RealVector getRow(VectorBlock block, int index) {
+        int offset = index * block.dim;
+        return MatrixUtils.createRealVector(Arrays.copyOfRange(block.values, offset, offset + block.dim));
+    }
+
+    final public void requestScalarVar(String name, int size, double initial, boolean randomize) {
+        ScalarBlock block = new ScalarBlock(size);
+        ensureScalarBlock(block, size, initial, randomize);
+        writeLock.lock();
+        try {
+            scalarVars.put(name, block);
+            dirtyRows.freeScalarVar(name);
+            dirtyRows.markScalarRows(name, 0, size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final public boolean hasScalarVar(String name) {
+        readLock.lock();
+        try {
+            return scalarVars.containsKey(name);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public void ensureScalarVar(String name, int size, double initial, boolean randomize) {
+        writeLock.lock();
+        try {
+            ScalarBlock block = scalarVars.get(name);
+            int curSize = block.size;
+            ensureScalarBlock(block, size, initial, randomize);
+            dirtyRows.markScalarRows(name, curSize, size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final public void requestVectorVar(String name, int size, int dim, double initial,
+                                       boolean randomize, boolean normalize) {
+        VectorBlock block = new VectorBlock(size, dim);
+        ensureVectorBlock(block, size, initial, randomize, normalize);
+        writeLock.lock();
+        try {
+            vectorVars.put(name, block);
+            dirtyRows.freeVectorVar(name);
+            dirtyRows.markVectorRows(name, 0, size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final public boolean hasVectorVar(String name) {
+        readLock.lock();
+        try {
+            return vectorVars.containsKey(name);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public void ensureVectorVar(String name, int size, int dim, double initial,
+                                      boolean randomize, boolean normalize) {
+        writeLock.lock();
+        try {
+            VectorBlock block = vectorVars.get(name);
+            int curSize = block.size;
+            ensureVectorBlock(block, size, initial, randomize, normalize);
+            dirtyRows.markVectorRows(name, curSize, size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final public RealVector getScalarVarByName(String name) {
+        readLock.lock();
+        try {
+            ScalarBlock block = scalarVars.get(name);
+            return MatrixUtils.createRealVector(Arrays.copyOf(block.values, block.size));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public int getScalarVarSizeByName(String name) {
+        readLock.lock();
+        try {
+            return scalarVars.get(name).size;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public void setScalarVarByName(String name, RealVector vars) {
+        writeLock.lock();
+        try {
+            ScalarBlock block = scalarVars.get(name);
+            for (int i=0; i<block.size; i++) {
+                block.values[i] = vars.getEntry(i);
+            }
+            dirtyRows.markScalarRows(name, 0, block.size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final public double getScalarVarByNameIndex(String name, int index) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            ScalarBlock block = scalarVars.get(name);
+            if (index >= block.size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + block.size);
+            }
+            return block.values[index];
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    final public void setScalarVarByNameIndex(String name, int index, double var) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowWriteLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            ScalarBlock block = scalarVars.get(name);
+            if (index >= block.size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + block.size);
+            }
+            block.values[index] = var;
+            dirtyRows.markScalarRow(name, index);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    final public List<RealVector> getVectorVarByName(String name) {
+        readLock.lock();
+        try {
+            VectorBlock block = vectorVars.get(name);
+            List<RealVector> vars = new ArrayList<>(block.size);
+            for (int i=0; i<block.size; i++) {
+                vars.add(getRow(block, i));
+            }
+            return vars;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public RealMatrix getMatrixVarByName(String name) {
+        readLock.lock();
+        try {
+            VectorBlock block = vectorVars.get(name);
+            RealMatrix matrix = MatrixUtils.createRealMatrix(block.size, block.dim);
+            for (int i=0; i<block.size; i++) {
+                int offset = i * block.dim;
+                for (int j=0; j<block.dim; j++) {
+                    matrix.setEntry(i, j, block.values[offset + j]);
+                }
+            }
+            return matrix;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public int getVectorVarSizeByName(String name) {
+        readLock.lock();
+        try {
+            return vectorVars.get(name).size;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public int getVectorVarDimensionByName(String name) {
+        readLock.lock();
+        try {
+            return vectorVars.get(name).dim;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public RealVector getVectorVarByNameIndex(String name, int index) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            return getRow(getVectorBlock(name, index), index);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    final public void setVectorVarByNameIndex(String name, int index, RealVector var) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowWriteLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            VectorBlock block = getVectorBlock(name, index);
+            int offset = index * block.dim;
+            for (int j=0; j<block.dim; j++) {
+                block.values[offset + j] = var.getEntry(j);
+            }
+            dirtyRows.markVectorRow(name, index);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    final public void getVectorVarByNameIndex(String name, int index, double[] outVar) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            VectorBlock block = getVectorBlock(name, index);
+            System.arraycopy(block.values, index * block.dim, outVar, 0, block.dim);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    final public double dotVectorVarByNameIndex(String name, int index, double[] vec) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            VectorBlock block = getVectorBlock(name, index);
+            double[] values = block.values;
+            int offset = index * block.dim;
+            double product = 0.0;
+            for (int j=0; j<block.dim; j++) {
+                product += values[offset + j] * vec[j];
+            }
+            return product;
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    final public void accumulateVectorVarByNameIndex(String name, int index, double alpha, double[] outVec) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            VectorBlock block = getVectorBlock(name, index);
+            double[] values = block.values;
+            int offset = index * block.dim;
+            for (int j=0; j<block.dim; j++) {
+                outVec[j] += alpha * values[offset + j];
+            }
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    final public void combineVectorVarByNameIndex(String name, int index, double scale, double alpha,
+                                                  double[] vec) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowWriteLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            VectorBlock block = getVectorBlock(name, index);
+            double[] values = block.values;
+            int offset = index * block.dim;
+            for (int j=0; j<block.dim; j++) {
+                values[offset + j] = scale * values[offset + j] + alpha * vec[j];
+            }
+            dirtyRows.markVectorRow(name, index);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    final public void getScalarVarByNameIndices(String name, int[] indices, double[] outVars) {
+        Lock structLock = getStructureLock();
+        structLock.lock();
+        try {
+            ScalarBlock block = scalarVars.get(name);
+            double[] values = block.values;
+            for (int i=0; i<indices.length; i++) {
+                int index = indices[i];
+                if (index >= block.size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + block.size);
+                }
+                Lock rowLock = getRowReadLock(index);
+                rowLock.lock();
+                try {
+                    outVars[i] = values[index];
+                } finally {
+                    rowLock.unlock();
+                }
+            }
+        } finally {
+            structLock.unlock();
+        }
+    }
+
+    final public void getVectorVarByNameIndices(String name, int[] indices, double[][] outVars) {
+        Lock structLock = getStructureLock();
+        structLock.lock();
+        try {
+            VectorBlock block = vectorVars.get(name);
+            double[] values = block.values;
+            for (int i=0; i<indices.length; i++) {
+                int index = indices[i];
+                if (index >= block.size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + block.size);
+                }
+                Lock rowLock = getRowReadLock(index);
+                rowLock.lock();
+                try {
+                    System.arraycopy(values, index * block.dim, outVars[i], 0, block.dim);
+                } finally {
+                    rowLock.unlock();
+                }
+            }
+        } finally {
+            structLock.unlock();
+        }
+    }
+
+    final public void reduceScalarVarByName(String name, int from, int to, RowAccumulator accumulator) {
+        Lock structLock = getStructureLock();
+        structLock.lock();
+        try {
+            ScalarBlock block = scalarVars.get(name);
+            if (to > block.size) {
+                throw new IndexOutOfBoundsException("Index: " + (to - 1) + ", Size: " + block.size);
+            }
+            double[] values = block.values;
+            for (int i=from; i<to; i++) {
+                Lock rowLock = getRowReadLock(i);
+                rowLock.lock();
+                try {
+                    accumulator.accumulate(i, values[i]);
+                } finally {
+                    rowLock.unlock();
+                }
+            }
+        } finally {
+            structLock.unlock();
+        }
+    }
+
+    final public void reduceVectorVarByName(String name, int from, int to, RowAccumulator accumulator) {
+        Lock structLock = getStructureLock();
+        structLock.lock();
+        try {
+            VectorBlock block = vectorVars.get(name);
+            if (to > block.size) {
+                throw new IndexOutOfBoundsException("Index: " + (to - 1) + ", Size: " + block.size);
+            }
+            double[] values = block.values;
+            for (int i=from; i<to; i++) {
+                Lock rowLock = getRowReadLock(i);
+                rowLock.lock();
+                try {
+                    accumulator.accumulate(i, values, i * block.dim, block.dim);
+                } finally {
+                    rowLock.unlock();
+                }
+            }
+        } finally {
+            structLock.unlock();
+        }
+    }
+
+    public List<String> getAllScalarVarNames() {
+        readLock.lock();
+        try {
+            return new ArrayList<>(scalarVars.keySet());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public List<String> getAllVectorVarNames() {
+        readLock.lock();
+        try {
+            return new ArrayList<>(vectorVars.keySet());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int[] checkpointScalarVar(String name) {
+        return dirtyRows.checkpointScalarVar(name);
+    }
+
+    public int[] checkpointVectorVar(String name) {
+        return dirtyRows.checkpointVectorVar(name);
+    }
+
+    public void freeSpace() {
+        writeLock.lock();
+        try {
+            for (String name : scalarVars.keySet()) {
+                dirtyRows.freeScalarVar(name);
+            }
+            for (String name : vectorVars.keySet()) {
+                dirtyRows.freeVectorVar(name);
+            }
+            scalarVars.clear();
+            vectorVars.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void freeScalarVar(String name) {
+        writeLock.lock();
+        try {
+            scalarVars.remove(name);
+            dirtyRows.freeScalarVar(name);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void freeVectorVar(String name) {
+        writeLock.lock();
+        try {
+            vectorVars.remove(name);
+            dirtyRows.freeVectorVar(name);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        dirtyRows = new DirtyRowTracker();
+    }
+
+    private void writeObject(ObjectOutputStream stream) {
+        writeLock.lock();
+        try {
+            for (ScalarBlock block : scalarVars.values()) {
+                block.values = Arrays.copyOf(block.values, block.size);
+            }
+            for (VectorBlock block : vectorVars.values()) {
+                block.values = Arrays.copyOf(block.values, block.size * block.dim);
+            }
+            stream.defaultWriteObject();
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+/**
+ * Folds the rows of a variable one by one where they are kept, without copying the variable, see
+ * {@link VariableSpace#reduceScalarVarByName(String, int, int, RowAccumulator)}. An accumulator is only used by one
+ * thread, so a parallel reduction gives every thread its own accumulator over a range of rows and combines them after.
+ */
+public interface RowAccumulator {
+    void accumulate(int index, double var);
+
+    /**
+     * @param vars holds the row of the vector variable at the index from offset to offset + dim. It may be the storage
+     *             of the space, so it must neither be changed nor kept after returning.
+     */
+    void accumulate(int index, double[] vars, int offset, int dim);
+}
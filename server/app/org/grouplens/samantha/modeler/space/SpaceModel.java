@@ -25,5 +25,14 @@ package org.grouplens.samantha.modeler.space;
 import java.io.Serializable;
 
 public interface SpaceModel extends Serializable {
+    /**
+     * Publish a new version of the spaces of the model after it is built or loaded.
+     */
     void publishModel();
+
+    /**
+     * Make the writes of an online update visible to the readers of the spaces of the model, which is much cheaper
+     * than {@link #publishModel()}, see {@link VariableSpace#publishWrites()}.
+     */
+    void publishWrites();
 }
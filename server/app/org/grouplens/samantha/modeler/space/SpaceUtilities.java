@@ -22,11 +22,75 @@
 
 package org.grouplens.samantha.modeler.space;
 
+import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class SpaceUtilities {
+    static final public int DEFAULT_NUM_STRIPES = 1024;
+    static final public int REDUCE_CHUNK_SIZE = 256;
+    static final Lock NO_LOCK = new NoLock();
+    static private final ThreadLocal<Boolean> writer = ThreadLocal.withInitial(() -> false);
+
+    private static class NoLock implements Lock, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public void lock() {}
+
+        public void lockInterruptibly() {}
+
+        public boolean tryLock() {
+            return true;
+        }
+
+        public boolean tryLock(long time, TimeUnit unit) {
+            return true;
+        }
+
+        public void unlock() {}
+
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Run the task as a writer of the spaces, e.g. while updating a model, so that the spaces keeping a published
+     * version for serving, see {@link VersionedVariableSpace}, read the rows being written instead of the published
+     * ones for this thread. {@link org.grouplens.samantha.modeler.solver.SolverExecutor} runs the runnables of the
+     * passes submitted by a writer as writers too.
+     */
+    static public void runAsWriter(Runnable task) {
+        boolean previous = writer.get();
+        writer.set(true);
+        try {
+            task.run();
+        } finally {
+            writer.set(previous);
+        }
+    }
+
+    /**
+     * @return whether the current thread is running as a writer of the spaces, see {@link #runAsWriter(Runnable)}.
+     */
+    static public boolean isWriter() {
+        return writer.get();
+    }
+
+    static ReentrantReadWriteLock[] createStripes(int numStripes) {
+        if (numStripes <= 0) {
+            numStripes = DEFAULT_NUM_STRIPES;
+        }
+        ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[numStripes];
+        for (int i=0; i<numStripes; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        return stripes;
+    }
+
     static void fillReadWriteLocks(List<Lock> readLocks,
                                    List<Lock> writeLocks,
                                    int curSize, int size) {
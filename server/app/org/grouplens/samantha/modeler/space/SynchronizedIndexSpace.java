@@ -27,7 +27,9 @@ import org.grouplens.samantha.server.exception.BadRequestException;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -74,6 +76,14 @@ public final class SynchronizedIndexSpace implements IndexSpace {
     }
 
     public int setKey(String name, Object key) {
+        readLock.lock();
+        try {
+            if (keyMap.get(name).containsKey(key)) {
+                return keyMap.get(name).getIndex(key);
+            }
+        } finally {
+            readLock.unlock();
+        }
         writeLock.lock();
         try {
             if (keyMap.get(name).containsKey(key)) {
@@ -113,6 +123,15 @@ public final class SynchronizedIndexSpace implements IndexSpace {
         }
     }
 
+    public List<String> getAllKeyMapNames() {
+        readLock.lock();
+        try {
+            return new ArrayList<>(keyMap.keySet());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     private void writeObject(ObjectOutputStream stream) {
         readLock.lock();
         try {
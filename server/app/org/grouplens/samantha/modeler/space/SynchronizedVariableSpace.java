@@ -23,6 +23,7 @@
 package org.grouplens.samantha.modeler.space;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 
@@ -34,6 +35,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -50,6 +52,10 @@ public final class SynchronizedVariableSpace implements VariableSpace {
     private final Lock writeLock;
     private final List<Lock> readLocks = new ArrayList<>();
     private final List<Lock> writeLocks = new ArrayList<>();
+    private volatile LockMode lockMode = LockMode.ROW;
+    private volatile ReentrantReadWriteLock[] stripes;
+    private int numRows = 0;
+    private transient DirtyRowTracker dirtyRows = new DirtyRowTracker();
 
     @Inject
     public SynchronizedVariableSpace() {
@@ -58,6 +64,60 @@ public final class SynchronizedVariableSpace implements VariableSpace {
         writeLock = rwl.writeLock();
     }
 
+    public void setLockMode(LockMode lockMode, int numStripes) {
+        writeLock.lock();
+        try {
+            if (lockMode == LockMode.ROW) {
+                SpaceUtilities.fillReadWriteLocks(readLocks, writeLocks, readLocks.size(), numRows);
+            } else if (lockMode == LockMode.STRIPED) {
+                stripes = SpaceUtilities.createStripes(numStripes);
+            }
+            this.lockMode = lockMode;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public LockMode getLockMode() {
+        return lockMode;
+    }
+
+    public int getNumStripes() {
+        ReentrantReadWriteLock[] current = stripes;
+        return current == null ? 0 : current.length;
+    }
+
+    private Lock getRowReadLock(int index) {
+        LockMode mode = lockMode;
+        if (mode == LockMode.ROW) {
+            return readLocks.get(index);
+        } else if (mode == LockMode.STRIPED) {
+            ReentrantReadWriteLock[] curStripes = stripes;
+            return curStripes[index % curStripes.length].readLock();
+        } else {
+            return SpaceUtilities.NO_LOCK;
+        }
+    }
+
+    private Lock getRowWriteLock(int index) {
+        LockMode mode = lockMode;
+        if (mode == LockMode.ROW) {
+            return writeLocks.get(index);
+        } else if (mode == LockMode.STRIPED) {
+            ReentrantReadWriteLock[] curStripes = stripes;
+            return curStripes[index % curStripes.length].writeLock();
+        } else {
+            return SpaceUtilities.NO_LOCK;
+        }
+    }
+
+    private void ensureRowLocks(int size) {
+        numRows = Math.max(numRows, size);
+        if (lockMode == LockMode.ROW) {
+            SpaceUtilities.fillReadWriteLocks(readLocks, writeLocks, readLocks.size(), numRows);
+        }
+    }
+
     public void setSpaceState(String spaceName, SpaceMode spaceMode) {}
 
     public void publishSpaceVersion() {}
@@ -103,6 +163,8 @@ public final class SynchronizedVariableSpace implements VariableSpace {
         writeLock.lock();
         try {
             scalarVars.put(name, var);
+            dirtyRows.freeScalarVar(name);
+            dirtyRows.markScalarRows(name, 0, size);
         } finally {
             writeLock.unlock();
         }
@@ -128,9 +190,9 @@ public final class SynchronizedVariableSpace implements VariableSpace {
                 }
                 initializeDoubleList(toAdd, initial, randomize);
                 scalarVars.get(name).addAll(toAdd);
+                dirtyRows.markScalarRows(name, curSize, size);
             }
-            curSize = readLocks.size();
-            SpaceUtilities.fillReadWriteLocks(readLocks, writeLocks, curSize, size);
+            ensureRowLocks(size);
         } finally {
             writeLock.unlock();
         }
@@ -147,6 +209,8 @@ public final class SynchronizedVariableSpace implements VariableSpace {
         writeLock.lock();
         try {
             vectorVars.put(name, var);
+            dirtyRows.freeVectorVar(name);
+            dirtyRows.markVectorRows(name, 0, size);
         } finally {
             writeLock.unlock();
         }
@@ -172,9 +236,9 @@ public final class SynchronizedVariableSpace implements VariableSpace {
                     initializeVector(vec, initial, randomize, normalize);
                     vectorVars.get(name).add(vec);
                 }
+                dirtyRows.markVectorRows(name, curSize, size);
             }
-            curSize = readLocks.size();
-            SpaceUtilities.fillReadWriteLocks(readLocks, writeLocks, curSize, size);
+            ensureRowLocks(size);
         } finally {
             writeLock.unlock();
         }
@@ -205,26 +269,30 @@ public final class SynchronizedVariableSpace implements VariableSpace {
         writeLock.lock();
         try {
             setDoubleList(scalarVars.get(name), vars);
+            dirtyRows.markScalarRows(name, 0, vars.getDimension());
         } finally {
             writeLock.unlock();
         }
     }
 
     final public double getScalarVarByNameIndex(String name, int index) {
-        readLocks.get(index).lock();
+        Lock rowLock = getRowReadLock(index);
+        rowLock.lock();
         try {
             return scalarVars.get(name).getDouble(index);
         } finally {
-            readLocks.get(index).unlock();
+            rowLock.unlock();
         }
     }
 
     final public void setScalarVarByNameIndex(String name, int index, double var) {
-        writeLocks.get(index).lock();
+        Lock rowLock = getRowWriteLock(index);
+        rowLock.lock();
         try {
             scalarVars.get(name).set(index, var);
+            dirtyRows.markScalarRow(name, index);
         } finally {
-            writeLocks.get(index).unlock();
+            rowLock.unlock();
         }
     }
 
@@ -280,20 +348,128 @@ public final class SynchronizedVariableSpace implements VariableSpace {
     }
 
     final public RealVector getVectorVarByNameIndex(String name, int index) {
-        readLocks.get(index).lock();
+        Lock rowLock = getRowReadLock(index);
+        rowLock.lock();
         try {
             return vectorVars.get(name).get(index).copy();
         } finally {
-            readLocks.get(index).unlock();
+            rowLock.unlock();
         }
     }
 
     final public void setVectorVarByNameIndex(String name, int index, RealVector var) {
-        writeLocks.get(index).lock();
+        Lock rowLock = getRowWriteLock(index);
+        rowLock.lock();
         try {
             vectorVars.get(name).get(index).setSubVector(0, var);
+            dirtyRows.markVectorRow(name, index);
+        } finally {
+            rowLock.unlock();
+        }
+    }
+
+    final public void getVectorVarByNameIndex(String name, int index, double[] outVar) {
+        Lock rowLock = getRowReadLock(index);
+        rowLock.lock();
+        try {
+            RealVector var = vectorVars.get(name).get(index);
+            for (int i=0; i<var.getDimension(); i++) {
+                outVar[i] = var.getEntry(i);
+            }
         } finally {
-            writeLocks.get(index).unlock();
+            rowLock.unlock();
+        }
+    }
+
+    final public double dotVectorVarByNameIndex(String name, int index, double[] vec) {
+        Lock rowLock = getRowReadLock(index);
+        rowLock.lock();
+        try {
+            RealVector var = vectorVars.get(name).get(index);
+            double product = 0.0;
+            for (int i=0; i<var.getDimension(); i++) {
+                product += var.getEntry(i) * vec[i];
+            }
+            return product;
+        } finally {
+            rowLock.unlock();
+        }
+    }
+
+    final public void accumulateVectorVarByNameIndex(String name, int index, double alpha, double[] outVec) {
+        Lock rowLock = getRowReadLock(index);
+        rowLock.lock();
+        try {
+            RealVector var = vectorVars.get(name).get(index);
+            for (int i=0; i<var.getDimension(); i++) {
+                outVec[i] += alpha * var.getEntry(i);
+            }
+        } finally {
+            rowLock.unlock();
+        }
+    }
+
+    final public void combineVectorVarByNameIndex(String name, int index, double scale, double alpha,
+                                                  double[] vec) {
+        Lock rowLock = getRowWriteLock(index);
+        rowLock.lock();
+        try {
+            RealVector var = vectorVars.get(name).get(index);
+            for (int i=0; i<var.getDimension(); i++) {
+                var.setEntry(i, scale * var.getEntry(i) + alpha * vec[i]);
+            }
+            dirtyRows.markVectorRow(name, index);
+        } finally {
+            rowLock.unlock();
+        }
+    }
+
+    final public void reduceScalarVarByName(String name, int from, int to, RowAccumulator accumulator) {
+        readLock.lock();
+        try {
+            DoubleList var = scalarVars.get(name);
+            if (to > var.size()) {
+                throw new IndexOutOfBoundsException("Index: " + (to - 1) + ", Size: " + var.size());
+            }
+            for (int i=from; i<to; i++) {
+                Lock rowLock = getRowReadLock(i);
+                rowLock.lock();
+                try {
+                    accumulator.accumulate(i, var.getDouble(i));
+                } finally {
+                    rowLock.unlock();
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final public void reduceVectorVarByName(String name, int from, int to, RowAccumulator accumulator) {
+        readLock.lock();
+        try {
+            List<RealVector> vars = vectorVars.get(name);
+            if (to > vars.size()) {
+                throw new IndexOutOfBoundsException("Index: " + (to - 1) + ", Size: " + vars.size());
+            }
+            for (int i=from; i<to; i++) {
+                Lock rowLock = getRowReadLock(i);
+                rowLock.lock();
+                try {
+                    RealVector var = vars.get(i);
+                    double[] values;
+                    if (var instanceof ArrayRealVector) {
+                        values = ((ArrayRealVector) var).getDataRef();
+                    } else {
+                        values = var.toArray();
+                    }
+                    accumulator.accumulate(i, values, 0, var.getDimension());
+                } finally {
+                    rowLock.unlock();
+                }
+            }
+        } finally {
+            readLock.unlock();
         }
     }
 
@@ -315,12 +491,21 @@ public final class SynchronizedVariableSpace implements VariableSpace {
         }
     }
 
+    public int[] checkpointScalarVar(String name) {
+        return dirtyRows.checkpointScalarVar(name);
+    }
+
+    public int[] checkpointVectorVar(String name) {
+        return dirtyRows.checkpointVectorVar(name);
+    }
+
     public void freeSpace() {}
 
     public void freeScalarVar(String name) {
         writeLock.lock();
         try {
             scalarVars.remove(name);
+            dirtyRows.freeScalarVar(name);
         } finally {
             writeLock.unlock();
         }
@@ -330,11 +515,21 @@ public final class SynchronizedVariableSpace implements VariableSpace {
         writeLock.lock();
         try {
             vectorVars.remove(name);
+            dirtyRows.freeVectorVar(name);
         } finally {
             writeLock.unlock();
         }
     }
 
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        dirtyRows = new DirtyRowTracker();
+        if (lockMode == null) {
+            lockMode = LockMode.ROW;
+            numRows = readLocks.size();
+        }
+    }
+
     private void writeObject(ObjectOutputStream stream) {
         readLock.lock();
         try {
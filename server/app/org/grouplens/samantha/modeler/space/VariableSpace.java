@@ -57,8 +57,34 @@ public interface VariableSpace extends Serializable {
         }
     }
 
+    /**
+     * Switch how the rows of the variables are guarded against concurrent accesses, see {@link LockMode}.
+     * numStripes is only used by {@link LockMode#STRIPED}. Spaces not kept in memory ignore this.
+     */
+    default void setLockMode(LockMode lockMode, int numStripes) {}
+
+    default LockMode getLockMode() {
+        return LockMode.ROW;
+    }
+
+    /**
+     * @return the number of locks shared by the rows with {@link LockMode#STRIPED}, or 0 if there are none.
+     */
+    default int getNumStripes() {
+        return 0;
+    }
+
     void setSpaceState(String spaceName, SpaceMode spaceMode);
     void publishSpaceVersion();
+
+    /**
+     * Make the writes since they were last published visible to the readers, without publishing a new version of the
+     * space as {@link #publishSpaceVersion()} does for building and loading. This is called after every online update,
+     * so it must be cheap. Only the spaces hiding the writes from the readers until then, i.e.
+     * {@link VersionedVariableSpace}, implement it.
+     */
+    default void publishWrites() {}
+
     void requestScalarVar(String name, int size, double initial, boolean randomize);
     boolean hasScalarVar(String name);
     void ensureScalarVar(String name, int size, double initial, boolean randomize);
@@ -83,6 +109,132 @@ public interface VariableSpace extends Serializable {
     RealVector getVectorVarByNameIndex(String name, int index);
     void setVectorVarByNameIndex(String name, int index, RealVector var);
 
+    /**
+     * Copy the vector variable at the index into the caller-supplied array without allocating a new vector.
+     */
+    default void getVectorVarByNameIndex(String name, int index, double[] outVar) {
+        RealVector var = getVectorVarByNameIndex(name, index);
+        for (int i=0; i<var.getDimension(); i++) {
+            outVar[i] = var.getEntry(i);
+        }
+    }
+
+    /**
+     * @return the dot product between the vector variable at the index and vec.
+     */
+    default double dotVectorVarByNameIndex(String name, int index, double[] vec) {
+        RealVector var = getVectorVarByNameIndex(name, index);
+        double product = 0.0;
+        for (int i=0; i<var.getDimension(); i++) {
+            product += var.getEntry(i) * vec[i];
+        }
+        return product;
+    }
+
+    /**
+     * outVec += alpha * var, where var is the vector variable at the index.
+     */
+    default void accumulateVectorVarByNameIndex(String name, int index, double alpha, double[] outVec) {
+        RealVector var = getVectorVarByNameIndex(name, index);
+        for (int i=0; i<var.getDimension(); i++) {
+            outVec[i] += alpha * var.getEntry(i);
+        }
+    }
+
+    /**
+     * var = scale * var + alpha * vec in place, where var is the vector variable at the index.
+     */
+    default void combineVectorVarByNameIndex(String name, int index, double scale, double alpha, double[] vec) {
+        RealVector var = getVectorVarByNameIndex(name, index);
+        for (int i=0; i<var.getDimension(); i++) {
+            var.setEntry(i, scale * var.getEntry(i) + alpha * vec[i]);
+        }
+        setVectorVarByNameIndex(name, index, var);
+    }
+
+    /**
+     * Read the scalar variables at the indices into outVars. Spaces in remote stores read them in one round trip.
+     */
+    default void getScalarVarByNameIndices(String name, int[] indices, double[] outVars) {
+        for (int i=0; i<indices.length; i++) {
+            outVars[i] = getScalarVarByNameIndex(name, indices[i]);
+        }
+    }
+
+    /**
+     * Read the vector variables at the indices into the rows of outVars. Spaces in remote stores read them in one
+     * round trip.
+     */
+    default void getVectorVarByNameIndices(String name, int[] indices, double[][] outVars) {
+        for (int i=0; i<indices.length; i++) {
+            getVectorVarByNameIndex(name, indices[i], outVars[i]);
+        }
+    }
+
+    /**
+     * Feed the rows of the scalar variable from from (inclusive) to to (exclusive) into the accumulator in order,
+     * without copying the whole variable. Spaces in memory read the rows in place, while the others read them in
+     * chunks through {@link #getScalarVarByNameIndices(String, int[], double[])}.
+     */
+    default void reduceScalarVarByName(String name, int from, int to, RowAccumulator accumulator) {
+        int chunk = Math.min(SpaceUtilities.REDUCE_CHUNK_SIZE, Math.max(to - from, 0));
+        int[] indices = new int[chunk];
+        double[] vars = new double[chunk];
+        for (int start=from; start<to; start+=chunk) {
+            int num = Math.min(chunk, to - start);
+            if (num < chunk) {
+                indices = new int[num];
+                vars = new double[num];
+            }
+            for (int i=0; i<num; i++) {
+                indices[i] = start + i;
+            }
+            getScalarVarByNameIndices(name, indices, vars);
+            for (int i=0; i<num; i++) {
+                accumulator.accumulate(indices[i], vars[i]);
+            }
+        }
+    }
+
+    /**
+     * The vector version of {@link #reduceScalarVarByName(String, int, int, RowAccumulator)}.
+     */
+    default void reduceVectorVarByName(String name, int from, int to, RowAccumulator accumulator) {
+        int dim = getVectorVarDimensionByName(name);
+        int chunk = Math.min(SpaceUtilities.REDUCE_CHUNK_SIZE, Math.max(to - from, 0));
+        int[] indices = new int[chunk];
+        double[][] vars = new double[chunk][dim];
+        for (int start=from; start<to; start+=chunk) {
+            int num = Math.min(chunk, to - start);
+            if (num < chunk) {
+                indices = new int[num];
+            }
+            for (int i=0; i<num; i++) {
+                indices[i] = start + i;
+            }
+            getVectorVarByNameIndices(name, indices, vars);
+            for (int i=0; i<num; i++) {
+                accumulator.accumulate(indices[i], vars[i], 0, dim);
+            }
+        }
+    }
+
+    /**
+     * @return the rows of the scalar variable written since the last checkpoint in ascending order, starting a new
+     * checkpoint, or null if the space does not track the written rows, i.e. all the rows need to be written out.
+     * See {@link DirtyRowTracker}.
+     */
+    default int[] checkpointScalarVar(String name) {
+        return null;
+    }
+
+    /**
+     * The same as {@link #checkpointScalarVar(String)} for the vector variable.
+     */
+    default int[] checkpointVectorVar(String name) {
+        return null;
+    }
+
     List<String> getAllScalarVarNames();
     List<String> getAllVectorVarNames();
 }
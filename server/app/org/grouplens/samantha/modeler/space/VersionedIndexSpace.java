@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link IndexSpace} to pair with {@link VersionedVariableSpace}. Since indices are only ever appended, a version
+ * is just the sizes of the key maps when the space is published. Keys set afterwards get their indices right away for
+ * the update setting them, but are hidden from lookups until the space or its writes are published again, so that
+ * the readers never see an index which is not in the published variables yet. The threads running as writers, see
+ * {@link SpaceUtilities#runAsWriter(Runnable)}, see all the keys. Lookups do not lock, see {@link ConcurrentKeyIndex}.
+ */
+public final class VersionedIndexSpace implements IndexSpace {
+    private static final long serialVersionUID = 1L;
+    private final ConcurrentHashMap<String, ConcurrentKeyIndex<Object>> keyMap = new ConcurrentHashMap<>();
+    private volatile Map<String, Integer> publishedSizes = null;
+
+    @Inject
+    public VersionedIndexSpace() {}
+
+    synchronized public void setSpaceState(String spaceName, SpaceMode spaceMode) {
+        if (spaceMode.equals(SpaceMode.BUILDING)) {
+            keyMap.clear();
+            publishedSizes = null;
+        }
+    }
+
+    public void publishSpaceVersion() {
+        publishWrites();
+    }
+
+    synchronized public void publishWrites() {
+        Map<String, Integer> sizes = new HashMap<>();
+        for (Map.Entry<String, ConcurrentKeyIndex<Object>> entry : keyMap.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().size());
+        }
+        publishedSizes = sizes;
+    }
+
+    private ConcurrentKeyIndex<Object> getKeyIndex(String name) {
+        ConcurrentKeyIndex<Object> keyIndex = keyMap.get(name);
+        if (keyIndex == null) {
+            throw new BadRequestException("Key map " + name + " does not exist.");
+        }
+        return keyIndex;
+    }
+
+    private int getVisibleSize(String name, ConcurrentKeyIndex<Object> keyIndex) {
+        Map<String, Integer> sizes = publishedSizes;
+        if (sizes == null || SpaceUtilities.isWriter()) {
+            return keyIndex.size();
+        }
+        return sizes.getOrDefault(name, 0);
+    }
+
+    private int getVisibleIndex(String name, Object key) {
+        ConcurrentKeyIndex<Object> keyIndex = getKeyIndex(name);
+        int index = keyIndex.getIndex(key);
+        if (index >= getVisibleSize(name, keyIndex)) {
+            return -1;
+        }
+        return index;
+    }
+
+    public void requestKeyMap(String name) {
+        keyMap.put(name, new ConcurrentKeyIndex<>());
+    }
+
+    public boolean hasKeyMap(String name) {
+        return keyMap.containsKey(name);
+    }
+
+    public int getKeyMapSize(String name) {
+        return getVisibleSize(name, getKeyIndex(name));
+    }
+
+    public int setKey(String name, Object key) {
+        return getKeyIndex(name).setKey(key);
+    }
+
+    public boolean containsKey(String name, Object key) {
+        return getVisibleIndex(name, key) >= 0;
+    }
+
+    public int getIndexForKey(String name, Object key) {
+        int index = getVisibleIndex(name, key);
+        if (index < 0) {
+            throw new BadRequestException("Key " + key + " does not exist in the key map " + name);
+        }
+        return index;
+    }
+
+    public Object getKeyForIndex(String name, int index) {
+        return getKeyIndex(name).getKey(index);
+    }
+
+    public List<String> getAllKeyMapNames() {
+        return new ArrayList<>(keyMap.keySet());
+    }
+}
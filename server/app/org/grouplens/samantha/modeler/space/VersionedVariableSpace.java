@@ -0,0 +1,726 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.grouplens.samantha.modeler.solver.RandomInitializer;
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory variable space keeping a published version for reading and a private version for writing.
+ *
+ * The variables are stored in pages of rows. All the writes go to the private version, which shares its pages with
+ * the published version and copies a page only the first time one of its rows is written. Publishing the space, or
+ * just its writes after an online update, see {@link #publishWrites()}, atomically swaps in the private version as
+ * the published one and starts a new private version by copying only the page tables, so the readers always see one
+ * consistent snapshot and read it without taking any lock. A replaced version is released by the garbage collector
+ * once the requests still reading it finish. Rows which are not in the published version yet, e.g. the ones ensured
+ * for new keys during an update, are read from the private version.
+ *
+ * Before the space is published for the first time, e.g. in {@link SpaceMode#BUILDING}, reads go to the private
+ * version with the same locking as {@link PrimitiveVariableSpace}. After that, the threads running as writers, see
+ * {@link SpaceUtilities#runAsWriter(Runnable)}, keep reading the private version so that a read-modify-write while
+ * updating sees the previous writes of the update, see
+ * {@link org.grouplens.samantha.server.common.AbstractModelManager#updateModel(org.grouplens.samantha.server.io.RequestContext)}.
+ * To use it for all the in-memory models, set samantha.space.variableSpaceClass and samantha.space.indexSpaceClass
+ * to it and {@link VersionedIndexSpace}, see {@link org.grouplens.samantha.server.space.SpaceModule}.
+ *
+ * The rows written are marked as dirty for the private version and moved to the published version's marks when it is
+ * published, so a checkpoint only reports the rows whose new values are readable.
+ */
+public final class VersionedVariableSpace implements VariableSpace {
+    private static final long serialVersionUID = 1L;
+    static private final int PAGE_SHIFT = 10;
+    static private final int PAGE_ROWS = 1 << PAGE_SHIFT;
+    static private final int PAGE_MASK = PAGE_ROWS - 1;
+
+    private volatile Version published = null;
+    private Version building = new Version();
+    private final Lock readLock;
+    private final Lock writeLock;
+    private volatile LockMode lockMode = LockMode.STRIPED;
+    private transient volatile DirtyRowTracker dirtyRows = new DirtyRowTracker();
+    private transient volatile DirtyRowTracker publishedDirtyRows = new DirtyRowTracker();
+    private volatile ReentrantReadWriteLock[] stripes = SpaceUtilities.createStripes(
+            SpaceUtilities.DEFAULT_NUM_STRIPES);
+
+    private static class Block implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int dim;
+        private volatile int size;
+        private volatile AtomicReferenceArray<double[]> pages;
+        private final double[][] shared;
+
+        private Block(int dim) {
+            this.dim = dim;
+            this.size = 0;
+            this.pages = new AtomicReferenceArray<>(0);
+            this.shared = new double[0][];
+        }
+
+        private Block(Block base) {
+            this.dim = base.dim;
+            this.size = base.size;
+            this.shared = new double[base.pages.length()][];
+            this.pages = new AtomicReferenceArray<>(shared.length);
+            for (int i=0; i<shared.length; i++) {
+                shared[i] = base.pages.get(i);
+                pages.set(i, shared[i]);
+            }
+        }
+
+        private double[] getPage(int index) {
+            return pages.get(index >>> PAGE_SHIFT);
+        }
+
+        private double[] getWritablePage(int index) {
+            int pageIdx = index >>> PAGE_SHIFT;
+            double[] page = pages.get(pageIdx);
+            if (pageIdx < shared.length && page == shared[pageIdx]) {
+                synchronized (this) {
+                    page = pages.get(pageIdx);
+                    if (page == shared[pageIdx]) {
+                        page = page.clone();
+                        pages.set(pageIdx, page);
+                    }
+                }
+            }
+            return page;
+        }
+
+        private void grow(int newSize) {
+            int numPages = (int) (((long) newSize + PAGE_ROWS - 1) >>> PAGE_SHIFT);
+            if (numPages > pages.length()) {
+                AtomicReferenceArray<double[]> newPages = new AtomicReferenceArray<>(numPages);
+                for (int i=0; i<pages.length(); i++) {
+                    newPages.set(i, pages.get(i));
+                }
+                for (int i=pages.length(); i<numPages; i++) {
+                    newPages.set(i, new double[PAGE_ROWS * dim]);
+                }
+                pages = newPages;
+            }
+        }
+    }
+
+    private static class Version implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Map<String, Block> scalarVars = new HashMap<>();
+        private final Map<String, Block> vectorVars = new HashMap<>();
+
+        private Version() {}
+
+        private Version(Version base) {
+            for (Map.Entry<String, Block> entry : base.scalarVars.entrySet()) {
+                scalarVars.put(entry.getKey(), new Block(entry.getValue()));
+            }
+            for (Map.Entry<String, Block> entry : base.vectorVars.entrySet()) {
+                vectorVars.put(entry.getKey(), new Block(entry.getValue()));
+            }
+        }
+    }
+
+    @Inject
+    public VersionedVariableSpace() {
+        ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+        readLock = rwl.readLock();
+        writeLock = rwl.writeLock();
+    }
+
+    public void setLockMode(LockMode lockMode, int numStripes) {
+        writeLock.lock();
+        try {
+            if (lockMode != LockMode.NONE) {
+                stripes = SpaceUtilities.createStripes(numStripes);
+            }
+            this.lockMode = lockMode;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public LockMode getLockMode() {
+        return lockMode;
+    }
+
+    public int getNumStripes() {
+        ReentrantReadWriteLock[] current = stripes;
+        return current == null ? 0 : current.length;
+    }
+
+    public void setSpaceState(String spaceName, SpaceMode spaceMode) {
+        if (spaceMode.equals(SpaceMode.BUILDING)) {
+            writeLock.lock();
+            try {
+                published = null;
+                building = new Version();
+                dirtyRows = new DirtyRowTracker();
+                publishedDirtyRows = new DirtyRowTracker();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    public void publishSpaceVersion() {
+        publishWrites();
+    }
+
+    /**
+     * Publish the building version, which is the same as publishing the space since a version is only the rows
+     * written since the last one.
+     */
+    public void publishWrites() {
+        writeLock.lock();
+        try {
+            published = building;
+            building = new Version(building);
+            dirtyRows.drainTo(publishedDirtyRows);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private Lock getStructureLock() {
+        if (lockMode == LockMode.NONE) {
+            return SpaceUtilities.NO_LOCK;
+        } else {
+            return readLock;
+        }
+    }
+
+    private Lock getRowReadLock(int index) {
+        if (lockMode == LockMode.NONE) {
+            return SpaceUtilities.NO_LOCK;
+        } else {
+            ReentrantReadWriteLock[] curStripes = stripes;
+            return curStripes[index % curStripes.length].readLock();
+        }
+    }
+
+    private Lock getRowWriteLock(int index) {
+        if (lockMode == LockMode.NONE) {
+            return SpaceUtilities.NO_LOCK;
+        } else {
+            ReentrantReadWriteLock[] curStripes = stripes;
+            return curStripes[index % curStripes.length].writeLock();
+        }
+    }
+
+    private static Block getBlock(Map<String, Block> vars, String name, int index) {
+        Block block = vars.get(name);
+        if (index >= block.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + block.size);
+        }
+        return block;
+    }
+
+    /**
+     * @return the block in the published version if it has the row and the current thread is not a writer,
+     * otherwise null.
+     */
+    private static Block getPublishedBlock(Version version, boolean scalar, String name, int index) {
+        if (version == null || SpaceUtilities.isWriter()) {
+            return null;
+        }
+        Block block = scalar ? version.scalarVars.get(name) : version.vectorVars.get(name);
+        if (block == null || index >= block.size) {
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * @return the version holding the variable for reading as a whole, i.e. the published one if the variable is
+     * there and the current thread is not a writer, otherwise the private one, in which case the read lock must be held.
+     */
+    private Version getReadVersion(boolean scalar, String name) {
+        Version version = published;
+        if (version != null && !SpaceUtilities.isWriter() && (scalar ? version.scalarVars : version.vectorVars).containsKey(name)) {
+            return version;
+        }
+        return building;
+    }
+
+    private void initialize(Block block, int from, int to, double initial,
+                            boolean randomize, boolean normalize) {
+        if (!randomize && initial == 0.0) {
+            return;
+        }
+        RandomInitializer randInit = new RandomInitializer();
+        for (int i=from; i<to; i++) {
+            double[] page = block.getWritablePage(i);
+            int offset = (i & PAGE_MASK) * block.dim;
+            if (randomize) {
+                if (block.dim == 1) {
+                    page[offset] = randInit.randInitValue();
+                } else {
+                    randInit.randInitDoubleArray(page, offset, block.dim, normalize);
+                }
+            } else {
+                for (int j=0; j<block.dim; j++) {
+                    page[offset + j] = initial;
+                }
+            }
+        }
+    }
+
+    private void ensureBlock(Block block, int size, double initial, boolean randomize, boolean normalize) {
+        int curSize = block.size;
+        if (curSize < size) {
+            block.grow(size);
+            initialize(block, curSize, size, initial, randomize, normalize);
+            block.size = size;
+        }
+    }
+
+    private RealVector getRow(Block block, int index) {
+        double[] values = new double[block.dim];
+        getRow(block, index, values);
+        return MatrixUtils.createRealVector(values);
+    }
+
+    private void getRow(Block block, int index, double[] outVar) {
+        System.arraycopy(block.getPage(index), (index & PAGE_MASK) * block.dim, outVar, 0, block.dim);
+    }
+
+    private double dotRow(Block block, int index, double[] vec) {
+        double[] page = block.getPage(index);
+        int offset = (index & PAGE_MASK) * block.dim;
+        double product = 0.0;
+        for (int j=0; j<block.dim; j++) {
+            product += page[offset + j] * vec[j];
+        }
+        return product;
+    }
+
+    private void accumulateRow(Block block, int index, double alpha, double[] outVec) {
+        double[] page = block.getPage(index);
+        int offset = (index & PAGE_MASK) * block.dim;
+        for (int j=0; j<block.dim; j++) {
+            outVec[j] += alpha * page[offset + j];
+        }
+    }
+
+    public void requestScalarVar(String name, int size, double initial, boolean randomize) {
+        Block block = new Block(1);
+        ensureBlock(block, size, initial, randomize, false);
+        writeLock.lock();
+        try {
+            building.scalarVars.put(name, block);
+            dirtyRows.freeScalarVar(name);
+            dirtyRows.markScalarRows(name, 0, size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean hasScalarVar(String name) {
+        readLock.lock();
+        try {
+            return building.scalarVars.containsKey(name);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public void ensureScalarVar(String name, int size, double initial, boolean randomize) {
+        writeLock.lock();
+        try {
+            Block block = building.scalarVars.get(name);
+            int curSize = block.size;
+            ensureBlock(block, size, initial, randomize, false);
+            dirtyRows.markScalarRows(name, curSize, size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void requestVectorVar(String name, int size, int dim, double initial,
+                                 boolean randomize, boolean normalize) {
+        Block block = new Block(dim);
+        ensureBlock(block, size, initial, randomize, normalize);
+        writeLock.lock();
+        try {
+            building.vectorVars.put(name, block);
+            dirtyRows.freeVectorVar(name);
+            dirtyRows.markVectorRows(name, 0, size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean hasVectorVar(String name) {
+        readLock.lock();
+        try {
+            return building.vectorVars.containsKey(name);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public void ensureVectorVar(String name, int size, int dim, double initial,
+                                boolean randomize, boolean normalize) {
+        writeLock.lock();
+        try {
+            Block block = building.vectorVars.get(name);
+            int curSize = block.size;
+            ensureBlock(block, size, initial, randomize, normalize);
+            dirtyRows.markVectorRows(name, curSize, size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public RealVector getScalarVarByName(String name) {
+        readLock.lock();
+        try {
+            Block block = getReadVersion(true, name).scalarVars.get(name);
+            double[] values = new double[block.size];
+            for (int i=0; i<block.size; i++) {
+                values[i] = block.getPage(i)[i & PAGE_MASK];
+            }
+            return MatrixUtils.createRealVector(values);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int getScalarVarSizeByName(String name) {
+        readLock.lock();
+        try {
+            return getReadVersion(true, name).scalarVars.get(name).size;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public void setScalarVarByName(String name, RealVector vars) {
+        writeLock.lock();
+        try {
+            Block block = building.scalarVars.get(name);
+            for (int i=0; i<block.size; i++) {
+                block.getWritablePage(i)[i & PAGE_MASK] = vars.getEntry(i);
+            }
+            dirtyRows.markScalarRows(name, 0, block.size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public double getScalarVarByNameIndex(String name, int index) {
+        Block block = getPublishedBlock(published, true, name, index);
+        if (block != null) {
+            return block.getPage(index)[index & PAGE_MASK];
+        }
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            return getBlock(building.scalarVars, name, index).getPage(index)[index & PAGE_MASK];
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    public void setScalarVarByNameIndex(String name, int index, double var) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowWriteLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            getBlock(building.scalarVars, name, index).getWritablePage(index)[index & PAGE_MASK] = var;
+            dirtyRows.markScalarRow(name, index);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    public List<RealVector> getVectorVarByName(String name) {
+        readLock.lock();
+        try {
+            Block block = getReadVersion(false, name).vectorVars.get(name);
+            List<RealVector> vars = new ArrayList<>(block.size);
+            for (int i=0; i<block.size; i++) {
+                vars.add(getRow(block, i));
+            }
+            return vars;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public RealMatrix getMatrixVarByName(String name) {
+        readLock.lock();
+        try {
+            Block block = getReadVersion(false, name).vectorVars.get(name);
+            RealMatrix matrix = MatrixUtils.createRealMatrix(block.size, block.dim);
+            for (int i=0; i<block.size; i++) {
+                matrix.setRowVector(i, getRow(block, i));
+            }
+            return matrix;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int getVectorVarSizeByName(String name) {
+        readLock.lock();
+        try {
+            return getReadVersion(false, name).vectorVars.get(name).size;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int getVectorVarDimensionByName(String name) {
+        readLock.lock();
+        try {
+            return getReadVersion(false, name).vectorVars.get(name).dim;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public RealVector getVectorVarByNameIndex(String name, int index) {
+        Block block = getPublishedBlock(published, false, name, index);
+        if (block != null) {
+            return getRow(block, index);
+        }
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            return getRow(getBlock(building.vectorVars, name, index), index);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    public void setVectorVarByNameIndex(String name, int index, RealVector var) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowWriteLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            Block block = getBlock(building.vectorVars, name, index);
+            double[] page = block.getWritablePage(index);
+            int offset = (index & PAGE_MASK) * block.dim;
+            for (int j=0; j<block.dim; j++) {
+                page[offset + j] = var.getEntry(j);
+            }
+            dirtyRows.markVectorRow(name, index);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    public void getVectorVarByNameIndex(String name, int index, double[] outVar) {
+        Block block = getPublishedBlock(published, false, name, index);
+        if (block != null) {
+            getRow(block, index, outVar);
+            return;
+        }
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            getRow(getBlock(building.vectorVars, name, index), index, outVar);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    public double dotVectorVarByNameIndex(String name, int index, double[] vec) {
+        Block block = getPublishedBlock(published, false, name, index);
+        if (block != null) {
+            return dotRow(block, index, vec);
+        }
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            return dotRow(getBlock(building.vectorVars, name, index), index, vec);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    public void accumulateVectorVarByNameIndex(String name, int index, double alpha, double[] outVec) {
+        Block block = getPublishedBlock(published, false, name, index);
+        if (block != null) {
+            accumulateRow(block, index, alpha, outVec);
+            return;
+        }
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowReadLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            accumulateRow(getBlock(building.vectorVars, name, index), index, alpha, outVec);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    public void combineVectorVarByNameIndex(String name, int index, double scale, double alpha, double[] vec) {
+        Lock structLock = getStructureLock();
+        Lock rowLock = getRowWriteLock(index);
+        structLock.lock();
+        rowLock.lock();
+        try {
+            Block block = getBlock(building.vectorVars, name, index);
+            double[] page = block.getWritablePage(index);
+            int offset = (index & PAGE_MASK) * block.dim;
+            for (int j=0; j<block.dim; j++) {
+                page[offset + j] = scale * page[offset + j] + alpha * vec[j];
+            }
+            dirtyRows.markVectorRow(name, index);
+        } finally {
+            rowLock.unlock();
+            structLock.unlock();
+        }
+    }
+
+    public List<String> getAllScalarVarNames() {
+        readLock.lock();
+        try {
+            return new ArrayList<>(building.scalarVars.keySet());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public List<String> getAllVectorVarNames() {
+        readLock.lock();
+        try {
+            return new ArrayList<>(building.vectorVars.keySet());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Before the space is published for the first time, the rows written are readable right away and reported too.
+     */
+    private DirtyRowTracker getCheckpointRows() {
+        if (published == null) {
+            writeLock.lock();
+            try {
+                if (published == null) {
+                    dirtyRows.drainTo(publishedDirtyRows);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return publishedDirtyRows;
+    }
+
+    public int[] checkpointScalarVar(String name) {
+        return getCheckpointRows().checkpointScalarVar(name);
+    }
+
+    public int[] checkpointVectorVar(String name) {
+        return getCheckpointRows().checkpointVectorVar(name);
+    }
+
+    public void freeSpace() {
+        writeLock.lock();
+        try {
+            for (String name : building.scalarVars.keySet()) {
+                dirtyRows.freeScalarVar(name);
+            }
+            for (String name : building.vectorVars.keySet()) {
+                dirtyRows.freeVectorVar(name);
+            }
+            building.scalarVars.clear();
+            building.vectorVars.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void freeScalarVar(String name) {
+        writeLock.lock();
+        try {
+            building.scalarVars.remove(name);
+            dirtyRows.freeScalarVar(name);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void freeVectorVar(String name) {
+        writeLock.lock();
+        try {
+            building.vectorVars.remove(name);
+            dirtyRows.freeVectorVar(name);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        dirtyRows = new DirtyRowTracker();
+        publishedDirtyRows = new DirtyRowTracker();
+    }
+
+    private void writeObject(ObjectOutputStream stream) {
+        writeLock.lock();
+        try {
+            stream.defaultWriteObject();
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
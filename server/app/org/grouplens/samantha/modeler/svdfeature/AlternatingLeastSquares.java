@@ -0,0 +1,492 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.svdfeature;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.modeler.featurizer.Feature;
+import org.grouplens.samantha.modeler.solver.AbstractOptimizationMethod;
+import org.grouplens.samantha.modeler.solver.L2NormLoss;
+import org.grouplens.samantha.modeler.solver.LearningModel;
+import org.grouplens.samantha.modeler.solver.ObjectiveRunnable;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Alternating least squares for {@link SVDFeature} with the squared loss. A sweep first solves the biases one after
+ * another in closed form, then all the factor rows of the user side with the item side fixed, then the item side with
+ * the user side fixed. Every factor row is a small dense least squares problem over the instances it appears in,
+ * solved by a Cholesky decomposition, and the rows of a side are solved in parallel in blocks on a
+ * {@link SolverExecutor}. When an instance has several factor features on a side, each row is solved with the others
+ * of the side fixed at their values before the sweep.
+ *
+ * With implicit feedback (Hu, Koren and Volinsky 2008), every pair of a user-side and an item-side factor row not in
+ * the data is a negative instance with confidence 1, and an instance in the data has preference 1 if its label is
+ * positive and confidence 1 + alpha * weight * label, which must be positive. The biases are left as they are then and
+ * are not part of the learning objective either, which is the confidence weighted squared error of the factors over
+ * all the pairs, i.e. the one on the instances in the data plus the squared products of the other pairs. The latter is
+ * the inner product of the Gram matrices of the two sides minus the squared products of the instances in the data.
+ *
+ * The instances are read once from the learning data and kept in memory, as are the biases and factors during a sweep.
+ */
+public class AlternatingLeastSquares extends AbstractOptimizationMethod {
+    private static Logger logger = LoggerFactory.getLogger(AlternatingLeastSquares.class);
+    static private final int BLOCK_SIZE = 64;
+
+    final private double l2coef;
+    final private int numThreads;
+    final private boolean implicit;
+    final private double alpha;
+    final private SolverExecutor executor;
+
+    private LearningData loadedData;
+    private Instances instances;
+
+    /**
+     * The instances in columns, with the features of every side in compressed rows.
+     */
+    static private class Instances {
+        private int size;
+        private double[] labels;
+        private double[] weights;
+        private Side biases;
+        private Side users;
+        private Side items;
+    }
+
+    /**
+     * The features of one side of the instances, and the inverted index from the rows of a variable to the
+     * instances they appear in.
+     */
+    static private class Side {
+        private int[] offsets;
+        private int[] indexes;
+        private double[] values;
+        private int[] rows;
+        private int[] rowOffsets;
+        private int[] rowInstances;
+        private double[] rowValues;
+
+        private Side(IntArrayList offsetList, IntArrayList indexList, DoubleArrayList valueList, int numRows) {
+            offsets = offsetList.toIntArray();
+            indexes = indexList.toIntArray();
+            values = valueList.toDoubleArray();
+            rowOffsets = new int[numRows + 1];
+            for (int index : indexes) {
+                rowOffsets[index + 1]++;
+            }
+            IntArrayList rowList = new IntArrayList();
+            for (int i=0; i<numRows; i++) {
+                if (rowOffsets[i + 1] > 0) {
+                    rowList.add(i);
+                }
+                rowOffsets[i + 1] += rowOffsets[i];
+            }
+            rows = rowList.toIntArray();
+            rowInstances = new int[indexes.length];
+            rowValues = new double[indexes.length];
+            int[] next = new int[numRows];
+            System.arraycopy(rowOffsets, 0, next, 0, numRows);
+            for (int n=0; n<offsets.length - 1; n++) {
+                for (int k=offsets[n]; k<offsets[n + 1]; k++) {
+                    int pos = next[indexes[k]]++;
+                    rowInstances[pos] = n;
+                    rowValues[pos] = values[k];
+                }
+            }
+        }
+
+        private void sum(int n, double[] factors, int dim, double[] out) {
+            for (int j=0; j<dim; j++) {
+                out[j] = 0.0;
+            }
+            for (int k=offsets[n]; k<offsets[n + 1]; k++) {
+                int offset = indexes[k] * dim;
+                double value = values[k];
+                for (int j=0; j<dim; j++) {
+                    out[j] += value * factors[offset + j];
+                }
+            }
+        }
+    }
+
+    public AlternatingLeastSquares() {
+        this(10, 2, 0.01, 5.0, Runtime.getRuntime().availableProcessors(), false, 1.0,
+                SolverExecutor.getDefault());
+    }
+
+    /**
+     * @param l2coef the coefficient of the squared L2 norm of the biases and factors in the objective, with the same
+     *               meaning as for the stochastic gradient methods.
+     * @param numThreads the number of runnables solving the rows of a side in parallel.
+     * @param implicit whether the data is implicit feedback, see above.
+     * @param alpha the confidence of the implicit feedback per unit of label.
+     */
+    public AlternatingLeastSquares(int maxIter, int minIter, double l2coef, double tol, int numThreads,
+                                   boolean implicit, double alpha, SolverExecutor executor) {
+        super(tol, maxIter, minIter);
+        this.l2coef = l2coef;
+        this.numThreads = numThreads;
+        this.implicit = implicit;
+        this.alpha = alpha;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the confidence of an instance of implicit feedback.
+     */
+    private double getConfidence(double weight, double label) {
+        return 1.0 + alpha * weight * label;
+    }
+
+    static private void addFeatures(List<Feature> features, IntArrayList offsets, IntArrayList indexes,
+                                    DoubleArrayList values) {
+        for (Feature fea : features) {
+            indexes.add(fea.getIndex());
+            values.add(fea.getValue());
+        }
+        offsets.add(indexes.size());
+    }
+
+    private void load(SVDFeature model, LearningData learningData) {
+        DoubleArrayList labels = new DoubleArrayList();
+        DoubleArrayList weights = new DoubleArrayList();
+        IntArrayList[] offsets = new IntArrayList[3];
+        IntArrayList[] indexes = new IntArrayList[3];
+        DoubleArrayList[] values = new DoubleArrayList[3];
+        for (int i=0; i<3; i++) {
+            offsets[i] = new IntArrayList();
+            offsets[i].add(0);
+            indexes[i] = new IntArrayList();
+            values[i] = new DoubleArrayList();
+        }
+        learningData.startNewIteration();
+        List<LearningInstance> curList;
+        while ((curList = learningData.getLearningInstance()).size() > 0) {
+            for (LearningInstance ins : curList) {
+                SVDFeatureInstance svdIns = (SVDFeatureInstance) ins;
+                if (implicit && !(getConfidence(svdIns.weight, svdIns.label) > 0.0)) {
+                    throw new BadRequestException("The confidence 1 + alpha * weight * label of implicit feedback " +
+                            "must be positive, but is " + getConfidence(svdIns.weight, svdIns.label) +
+                            " with alpha " + alpha + ", weight " + svdIns.weight + " and label " + svdIns.label);
+                }
+                labels.add(svdIns.label);
+                weights.add(svdIns.weight);
+                addFeatures(svdIns.gfeas, offsets[0], indexes[0], values[0]);
+                addFeatures(svdIns.ufeas, offsets[1], indexes[1], values[1]);
+                addFeatures(svdIns.ifeas, offsets[2], indexes[2], values[2]);
+            }
+        }
+        int numBiases = model.getScalarVarSizeByName(SVDFeatureKey.BIASES.get());
+        int numFactors = model.getVectorVarSizeByName(SVDFeatureKey.FACTORS.get());
+        instances = new Instances();
+        instances.size = labels.size();
+        instances.labels = labels.toDoubleArray();
+        instances.weights = weights.toDoubleArray();
+        instances.biases = new Side(offsets[0], indexes[0], values[0], numBiases);
+        instances.users = new Side(offsets[1], indexes[1], values[1], numFactors);
+        instances.items = new Side(offsets[2], indexes[2], values[2], numFactors);
+        loadedData = learningData;
+        logger.info("Loaded {} instances for alternating least squares.", instances.size);
+    }
+
+    /**
+     * Solve a x = b in place for the symmetric positive definite a of size dim by dim in row major order. The
+     * solution is left in b.
+     */
+    static void choleskySolve(double[] a, double[] b, int dim) {
+        for (int j=0; j<dim; j++) {
+            double diag = a[j * dim + j];
+            for (int k=0; k<j; k++) {
+                diag -= a[j * dim + k] * a[j * dim + k];
+            }
+            diag = Math.sqrt(Math.max(diag, 1e-12));
+            a[j * dim + j] = diag;
+            for (int i=j + 1; i<dim; i++) {
+                double val = a[i * dim + j];
+                for (int k=0; k<j; k++) {
+                    val -= a[i * dim + k] * a[j * dim + k];
+                }
+                a[i * dim + j] = val / diag;
+            }
+        }
+        for (int i=0; i<dim; i++) {
+            double val = b[i];
+            for (int k=0; k<i; k++) {
+                val -= a[i * dim + k] * b[k];
+            }
+            b[i] = val / a[i * dim + i];
+        }
+        for (int i=dim - 1; i>=0; i--) {
+            double val = b[i];
+            for (int k=i + 1; k<dim; k++) {
+                val -= a[k * dim + i] * b[k];
+            }
+            b[i] = val / a[i * dim + i];
+        }
+    }
+
+    private double[] getGram(Side side, double[] factors, int dim) {
+        double[] gram = new double[dim * dim];
+        for (int row : side.rows) {
+            int offset = row * dim;
+            for (int i=0; i<dim; i++) {
+                double val = factors[offset + i];
+                for (int j=0; j<dim; j++) {
+                    gram[i * dim + j] += val * factors[offset + j];
+                }
+            }
+        }
+        return gram;
+    }
+
+    private class SolveRunnable implements ObjectiveRunnable {
+        private final Side side;
+        private final Side other;
+        private final double[] factors;
+        private final double[] biasPreds;
+        private final double[] gram;
+        private final double[] solved;
+        private final AtomicInteger nextBlock;
+        private final int dim;
+        private long numInstances = 0L;
+
+        private SolveRunnable(Side side, Side other, double[] factors, double[] biasPreds, double[] gram,
+                              double[] solved, AtomicInteger nextBlock, int dim) {
+            this.side = side;
+            this.other = other;
+            this.factors = factors;
+            this.biasPreds = biasPreds;
+            this.gram = gram;
+            this.solved = solved;
+            this.nextBlock = nextBlock;
+            this.dim = dim;
+        }
+
+        public void run() {
+            double[] a = new double[dim * dim];
+            double[] b = new double[dim];
+            double[] otherSum = new double[dim];
+            double[] sideSum = new double[dim];
+            int block;
+            while ((block = nextBlock.getAndIncrement() * BLOCK_SIZE) < side.rows.length) {
+                SolverExecutor.checkInterrupted();
+                int end = Math.min(block + BLOCK_SIZE, side.rows.length);
+                for (int r=block; r<end; r++) {
+                    solveRow(side.rows[r], a, b, otherSum, sideSum);
+                }
+            }
+        }
+
+        private void solveRow(int row, double[] a, double[] b, double[] otherSum, double[] sideSum) {
+            int offset = row * dim;
+            if (gram != null) {
+                System.arraycopy(gram, 0, a, 0, dim * dim);
+            } else {
+                for (int i=0; i<dim * dim; i++) {
+                    a[i] = 0.0;
+                }
+            }
+            for (int i=0; i<dim; i++) {
+                b[i] = 0.0;
+                a[i * dim + i] += 2 * l2coef;
+            }
+            for (int k=side.rowOffsets[row]; k<side.rowOffsets[row + 1]; k++) {
+                int n = side.rowInstances[k];
+                double value = side.rowValues[k];
+                double weight = instances.weights[n];
+                double label = instances.labels[n];
+                other.sum(n, factors, dim, otherSum);
+                double coef;
+                double target;
+                if (implicit) {
+                    double confidence = getConfidence(weight, label);
+                    coef = (confidence - 1.0) * value * value;
+                    target = label > 0.0 ? confidence * value : 0.0;
+                } else {
+                    side.sum(n, factors, dim, sideSum);
+                    double rest = biasPreds[n];
+                    for (int j=0; j<dim; j++) {
+                        rest += (sideSum[j] - value * factors[offset + j]) * otherSum[j];
+                    }
+                    coef = weight * value * value;
+                    target = weight * value * (label - rest);
+                }
+                for (int i=0; i<dim; i++) {
+                    double val = coef * otherSum[i];
+                    for (int j=0; j<=i; j++) {
+                        a[i * dim + j] += val * otherSum[j];
+                    }
+                    b[i] += target * otherSum[i];
+                }
+                numInstances++;
+            }
+            choleskySolve(a, b, dim);
+            System.arraycopy(b, 0, solved, offset, dim);
+        }
+
+        public double getObjVal() {
+            return 0.0;
+        }
+
+        public long getNumInstances() {
+            return numInstances;
+        }
+    }
+
+    private void solveSide(Side side, Side other, double[] factors, double[] biasPreds, int dim) {
+        double[] gram = implicit ? getGram(other, factors, dim) : null;
+        double[] solved = new double[factors.length];
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        List<ObjectiveRunnable> runnables = new ArrayList<>(numThreads);
+        for (int i=0; i<numThreads; i++) {
+            runnables.add(new SolveRunnable(side, other, factors, biasPreds, gram, solved, nextBlock, dim));
+        }
+        executor.run("solving", runnables);
+        for (int row : side.rows) {
+            System.arraycopy(solved, row * dim, factors, row * dim, dim);
+        }
+    }
+
+    private double[] getFactorPreds(double[] factors, int dim) {
+        double[] preds = new double[instances.size];
+        double[] userSum = new double[dim];
+        double[] itemSum = new double[dim];
+        for (int n=0; n<instances.size; n++) {
+            instances.users.sum(n, factors, dim, userSum);
+            instances.items.sum(n, factors, dim, itemSum);
+            for (int j=0; j<dim; j++) {
+                preds[n] += userSum[j] * itemSum[j];
+            }
+        }
+        return preds;
+    }
+
+    private double[] getBiasPreds(double[] biases) {
+        Side side = instances.biases;
+        double[] preds = new double[instances.size];
+        for (int n=0; n<instances.size; n++) {
+            for (int k=side.offsets[n]; k<side.offsets[n + 1]; k++) {
+                preds[n] += side.values[k] * biases[side.indexes[k]];
+            }
+        }
+        return preds;
+    }
+
+    /**
+     * Solve the biases one after another, keeping the residuals of the instances up to date.
+     */
+    private void solveBiases(double[] biases, double[] factorPreds) {
+        Side side = instances.biases;
+        double[] residuals = getBiasPreds(biases);
+        for (int n=0; n<instances.size; n++) {
+            residuals[n] = instances.labels[n] - residuals[n] - factorPreds[n];
+        }
+        for (int row : side.rows) {
+            double old = biases[row];
+            double num = 0.0;
+            double den = 2 * l2coef;
+            for (int k=side.rowOffsets[row]; k<side.rowOffsets[row + 1]; k++) {
+                int n = side.rowInstances[k];
+                double value = side.rowValues[k];
+                double weight = instances.weights[n];
+                num += weight * value * (residuals[n] + value * old);
+                den += weight * value * value;
+            }
+            double bias = den > 0.0 ? num / den : 0.0;
+            for (int k=side.rowOffsets[row]; k<side.rowOffsets[row + 1]; k++) {
+                residuals[side.rowInstances[k]] -= side.rowValues[k] * (bias - old);
+            }
+            biases[row] = bias;
+        }
+    }
+
+    protected double update(LearningModel learningModel, LearningData learningData) {
+        if (!(learningModel instanceof SVDFeature)) {
+            throw new BadRequestException("Alternating least squares only supports SVDFeature models.");
+        }
+        SVDFeature model = (SVDFeature) learningModel;
+        if (!implicit && !(model.getObjectiveFunction() instanceof L2NormLoss)) {
+            throw new BadRequestException("Alternating least squares only supports the L2NormLoss objective.");
+        }
+        if (learningData != loadedData) {
+            load(model, learningData);
+        }
+        String biasName = SVDFeatureKey.BIASES.get();
+        String factorName = SVDFeatureKey.FACTORS.get();
+        int dim = model.getVectorVarDimensionByName(factorName);
+        double[] biases = model.getScalarVarByName(biasName).toArray();
+        double[] factors = new double[model.getVectorVarSizeByName(factorName) * dim];
+        double[] row = new double[dim];
+        for (int i=0; i<factors.length / dim; i++) {
+            model.getVectorVarByNameIndex(factorName, i, row);
+            System.arraycopy(row, 0, factors, i * dim, dim);
+        }
+        if (!implicit) {
+            solveBiases(biases, getFactorPreds(factors, dim));
+        }
+        double[] biasPreds = getBiasPreds(biases);
+        solveSide(instances.users, instances.items, factors, biasPreds, dim);
+        solveSide(instances.items, instances.users, factors, biasPreds, dim);
+        for (int index : instances.biases.rows) {
+            model.setScalarVarByNameIndex(biasName, index, biases[index]);
+        }
+        for (Side side : new Side[]{instances.users, instances.items}) {
+            for (int index : side.rows) {
+                System.arraycopy(factors, index * dim, row, 0, dim);
+                model.combineVectorVarByNameIndex(factorName, index, 0.0, 1.0, row);
+            }
+        }
+        double[] factorPreds = getFactorPreds(factors, dim);
+        double objVal = 0.0;
+        if (implicit) {
+            double[] userGram = getGram(instances.users, factors, dim);
+            double[] itemGram = getGram(instances.items, factors, dim);
+            for (int i=0; i<dim * dim; i++) {
+                objVal += userGram[i] * itemGram[i];
+            }
+        }
+        for (int n=0; n<instances.size; n++) {
+            double label = instances.labels[n];
+            double weight = instances.weights[n];
+            double err;
+            if (implicit) {
+                err = factorPreds[n] - (label > 0.0 ? 1.0 : 0.0);
+                weight = getConfidence(weight, label);
+                objVal -= factorPreds[n] * factorPreds[n];
+            } else {
+                err = biasPreds[n] + factorPreds[n] - label;
+            }
+            objVal += weight * err * err;
+        }
+        return objVal;
+    }
+}
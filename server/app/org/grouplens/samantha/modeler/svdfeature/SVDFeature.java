@@ -24,10 +24,10 @@ package org.grouplens.samantha.modeler.svdfeature;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealVector;
 
 import org.grouplens.samantha.modeler.common.LearningInstance;
@@ -138,6 +138,17 @@ public class SVDFeature extends AbstractLearningModel implements Featurizer {
         return fea2sup;
     }
 
+    /**
+     * @return the index of the feature in the variable, e.g. {@link SVDFeatureKey#FACTORS}, or -1 if the model does
+     * not have the feature.
+     */
+    public int getFeatureIndex(SVDFeatureKey variable, String feature) {
+        if (indexSpace.containsKey(variable.get(), feature)) {
+            return indexSpace.getIndexForKey(variable.get(), feature);
+        }
+        return -1;
+    }
+
     private List<Feature> getFeatures(List<String> feaNames, Map<String, List<Feature>> feaMap) {
         List<Feature> feaList = new ArrayList<>();
         for (String feaName : feaNames) {
@@ -245,57 +256,62 @@ public class SVDFeature extends AbstractLearningModel implements Featurizer {
     }
 
     private double predict(SVDFeatureInstance ins, StochasticOracle outOrc,
-                          RealVector outUfactSum, RealVector outIfactSum) {
+                          double[] outUfactSum, double[] outIfactSum) {
         double pred = 0.0;
+        int biasesId = outOrc == null ? 0 : StochasticOracle.getVariableId(SVDFeatureKey.BIASES.get());
         for (int i=0; i<ins.gfeas.size(); i++) {
             int ind = ins.gfeas.get(i).getIndex();
             double val = ins.gfeas.get(i).getValue();
             if (outOrc != null) {
-                outOrc.addScalarOracle(SVDFeatureKey.BIASES.get(), ind, val);
+                outOrc.addScalarOracle(biasesId, ind, val);
             }
             pred += getScalarVarByNameIndex(SVDFeatureKey.BIASES.get(), ind) * val;
         }
 
-        outUfactSum.set(0.0);
+        Arrays.fill(outUfactSum, 0.0);
         for (int i=0; i<ins.ufeas.size(); i++) {
             int index = ins.ufeas.get(i).getIndex();
-            outUfactSum.combineToSelf(1.0, ins.ufeas.get(i).getValue(),
-                                      getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), index));
+            accumulateVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), index,
+                                           ins.ufeas.get(i).getValue(), outUfactSum);
         }
 
-        outIfactSum.set(0.0);
+        Arrays.fill(outIfactSum, 0.0);
         for (int i=0; i<ins.ifeas.size(); i++) {
             int index = ins.ifeas.get(i).getIndex();
-            outIfactSum.combineToSelf(1.0, ins.ifeas.get(i).getValue(),
-                                      getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), index));
+            accumulateVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), index,
+                                           ins.ifeas.get(i).getValue(), outIfactSum);
         }
 
-        pred += outUfactSum.dotProduct(outIfactSum);
+        for (int f=0; f<factDim; f++) {
+            pred += outUfactSum[f] * outIfactSum[f];
+        }
         return pred;
     }
 
+    /**
+     * The oracles come from {@link StochasticOraclePool}, with the gradients of the factors of each side in the arena
+     * of the oracle shared by the factors of the side.
+     */
     public List<StochasticOracle> getStochasticOracle(List<LearningInstance> instances) {
-        List<StochasticOracle> oracles = new ArrayList<>(instances.size());
-        for (LearningInstance inIns : instances) {
-            SVDFeatureInstance ins = (SVDFeatureInstance) inIns;
-            StochasticOracle orc = new StochasticOracle();
-            RealVector ufactSum = MatrixUtils.createRealVector(new double[factDim]);
-            RealVector ifactSum = MatrixUtils.createRealVector(new double[factDim]);
+        List<StochasticOracle> oracles = StochasticOraclePool.getThreadPool().getOracles(instances.size());
+        int factorsId = StochasticOracle.getVariableId(SVDFeatureKey.FACTORS.get());
+        double[] ufactSum = new double[factDim];
+        double[] ifactSum = new double[factDim];
+        for (int k=0; k<instances.size(); k++) {
+            SVDFeatureInstance ins = (SVDFeatureInstance) instances.get(k);
+            StochasticOracle orc = oracles.get(k);
             double pred = predict(ins, orc, ufactSum, ifactSum);
-            RealVector leftGrad = ifactSum;
-            RealVector rightGrad = ufactSum;
+            int leftGrad = orc.addVectorGradient(ifactSum);
+            int rightGrad = orc.addVectorGradient(ufactSum);
             for (int i = 0; i < ins.ufeas.size(); i++) {
-                orc.addVectorOracle(SVDFeatureKey.FACTORS.get(),
-                        ins.ufeas.get(i).getIndex(),
-                        leftGrad.mapMultiply(ins.ufeas.get(i).getValue()));
+                orc.addVectorOracle(factorsId, ins.ufeas.get(i).getIndex(),
+                        leftGrad, factDim, ins.ufeas.get(i).getValue());
             }
             for (int i = 0; i < ins.ifeas.size(); i++) {
-                orc.addVectorOracle(SVDFeatureKey.FACTORS.get(),
-                        ins.ifeas.get(i).getIndex(),
-                        rightGrad.mapMultiply(ins.ifeas.get(i).getValue()));
+                orc.addVectorOracle(factorsId, ins.ifeas.get(i).getIndex(),
+                        rightGrad, factDim, ins.ifeas.get(i).getValue());
             }
             orc.setValues(pred, ins.label, ins.weight);
-            oracles.add(orc);
         }
         return oracles;
     }
@@ -320,9 +336,107 @@ public class SVDFeature extends AbstractLearningModel implements Featurizer {
 
     public double predict(LearningInstance ins) {
         SVDFeatureInstance svdIns = (SVDFeatureInstance) ins;
-        RealVector ufactSum = MatrixUtils.createRealVector(new double[factDim]);
-        RealVector ifactSum = MatrixUtils.createRealVector(new double[factDim]);
+        double[] ufactSum = new double[factDim];
+        double[] ifactSum = new double[factDim];
         double output = predict(svdIns, null, ufactSum, ifactSum);
         return objectiveFunction.wrapOutput(output);
     }
+
+    static private void addIndices(List<Feature> feas, IntArrayList indices) {
+        for (Feature fea : feas) {
+            indices.add(fea.getIndex());
+        }
+    }
+
+    static private boolean sameFeatures(List<Feature> feas, List<Feature> others) {
+        if (feas == others) {
+            return true;
+        } else if (feas.size() != others.size()) {
+            return false;
+        }
+        for (int i=0; i<feas.size(); i++) {
+            if (feas.get(i).getIndex() != others.get(i).getIndex() ||
+                    feas.get(i).getValue() != others.get(i).getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of the row of factors after the ones of the features.
+     */
+    private int sumFactors(List<Feature> feas, double[][] factors, int pos, double[] outFactSum) {
+        Arrays.fill(outFactSum, 0.0);
+        for (Feature fea : feas) {
+            double[] factor = factors[pos++];
+            double val = fea.getValue();
+            for (int f=0; f<factDim; f++) {
+                outFactSum[f] += val * factor[f];
+            }
+        }
+        return pos;
+    }
+
+    private double dot(double[] left, double[] right) {
+        double product = 0.0;
+        for (int f=0; f<factDim; f++) {
+            product += left[f] * right[f];
+        }
+        return product;
+    }
+
+    /**
+     * Predict a list of instances, e.g. the candidates of one request. The biases and factors of all the instances are
+     * gathered in the order they are used and read with one batch read per variable, i.e. one round trip each for the
+     * spaces in remote stores. The user side factors are only read and summed again when the user features change from
+     * one instance to the next, so scoring the candidates of one user is one dot product per candidate.
+     */
+    public double[] predict(List<LearningInstance> instances) {
+        IntArrayList biasIndices = new IntArrayList();
+        IntArrayList factIndices = new IntArrayList();
+        boolean[] newUser = new boolean[instances.size()];
+        List<Feature> lastUfeas = null;
+        for (int i=0; i<instances.size(); i++) {
+            SVDFeatureInstance ins = (SVDFeatureInstance) instances.get(i);
+            addIndices(ins.gfeas, biasIndices);
+            if (lastUfeas == null || !sameFeatures(ins.ufeas, lastUfeas)) {
+                newUser[i] = true;
+                addIndices(ins.ufeas, factIndices);
+                lastUfeas = ins.ufeas;
+            }
+            addIndices(ins.ifeas, factIndices);
+        }
+        double[] biases = new double[biasIndices.size()];
+        if (biases.length > 0) {
+            variableSpace.getScalarVarByNameIndices(SVDFeatureKey.BIASES.get(), biasIndices.toIntArray(), biases);
+        }
+        double[][] factors = new double[factIndices.size()][factDim];
+        if (factors.length > 0) {
+            variableSpace.getVectorVarByNameIndices(SVDFeatureKey.FACTORS.get(), factIndices.toIntArray(), factors);
+        }
+        double[] preds = new double[instances.size()];
+        double[] ufactSum = new double[factDim];
+        double[] ifactSum = new double[factDim];
+        int biasPos = 0;
+        int factPos = 0;
+        for (int i=0; i<instances.size(); i++) {
+            SVDFeatureInstance ins = (SVDFeatureInstance) instances.get(i);
+            double pred = 0.0;
+            for (Feature fea : ins.gfeas) {
+                pred += biases[biasPos++] * fea.getValue();
+            }
+            if (newUser[i]) {
+                factPos = sumFactors(ins.ufeas, factors, factPos, ufactSum);
+            }
+            if (ins.ifeas.size() == 1) {
+                pred += ins.ifeas.get(0).getValue() * dot(ufactSum, factors[factPos++]);
+            } else {
+                factPos = sumFactors(ins.ifeas, factors, factPos, ifactSum);
+                pred += dot(ufactSum, ifactSum);
+            }
+            preds[i] = objectiveFunction.wrapOutput(pred);
+        }
+        return preds;
+    }
 }
@@ -24,6 +24,7 @@ package org.grouplens.samantha.modeler.svdfeature;
 
 import org.apache.commons.lang3.StringUtils;
 
+import org.grouplens.samantha.modeler.common.BinaryInstanceFormat;
 import org.grouplens.samantha.modeler.featurizer.AbstractLearningInstance;
 import org.grouplens.samantha.modeler.featurizer.Feature;
 import org.grouplens.samantha.modeler.common.LearningInstance;
@@ -31,6 +32,7 @@ import org.grouplens.samantha.modeler.common.LearningInstance;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -46,8 +48,8 @@ public class SVDFeatureInstance extends AbstractLearningInstance {
     static public double defaultWeight = 1.0;
     static public double defaultLabel = 0.0;
 
-    SVDFeatureInstance(List<Feature> gfeas, List<Feature> ufeas, List<Feature> ifeas,
-                       double label, double weight, String group) {
+    public SVDFeatureInstance(List<Feature> gfeas, List<Feature> ufeas, List<Feature> ifeas,
+                              double label, double weight, String group) {
         super(group);
         this.gfeas = gfeas;
         this.ufeas = ufeas;
@@ -81,6 +83,65 @@ public class SVDFeatureInstance extends AbstractLearningInstance {
         return this.gfeas;
     }
 
+    public List<Feature> getUserFeatures() {
+        return this.ufeas;
+    }
+
+    public List<Feature> getItemFeatures() {
+        return this.ifeas;
+    }
+
+    static private int getBinarySize(List<Feature> feas) {
+        return Integer.BYTES + feas.size() * (Integer.BYTES + Float.BYTES);
+    }
+
+    static private void writeBinary(ByteBuffer buffer, List<Feature> feas) {
+        buffer.putInt(feas.size());
+        for (Feature fea : feas) {
+            buffer.putInt(fea.getIndex());
+            buffer.putFloat((float) fea.getValue());
+        }
+    }
+
+    static private List<Feature> readBinaryFeatures(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        List<Feature> feas = new ArrayList<>(size);
+        for (int i=0; i<size; i++) {
+            feas.add(new Feature(buffer.getInt(), buffer.getFloat()));
+        }
+        return feas;
+    }
+
+    /**
+     * @return the size of the record written by {@link #writeBinary(ByteBuffer)}.
+     */
+    public int getBinarySize() {
+        return 2 * Double.BYTES + BinaryInstanceFormat.getGroupSize(group) +
+                getBinarySize(gfeas) + getBinarySize(ufeas) + getBinarySize(ifeas);
+    }
+
+    /**
+     * Write the instance as a record of {@link BinaryInstanceFormat}, with the feature values as floats.
+     */
+    public void writeBinary(ByteBuffer buffer) {
+        buffer.putDouble(label);
+        buffer.putDouble(weight);
+        BinaryInstanceFormat.putGroup(buffer, group);
+        writeBinary(buffer, gfeas);
+        writeBinary(buffer, ufeas);
+        writeBinary(buffer, ifeas);
+    }
+
+    static public SVDFeatureInstance readBinary(ByteBuffer buffer) {
+        double label = buffer.getDouble();
+        double weight = buffer.getDouble();
+        String group = BinaryInstanceFormat.getGroup(buffer);
+        List<Feature> gfeas = readBinaryFeatures(buffer);
+        List<Feature> ufeas = readBinaryFeatures(buffer);
+        List<Feature> ifeas = readBinaryFeatures(buffer);
+        return new SVDFeatureInstance(gfeas, ufeas, ifeas, label, weight, group);
+    }
+
     public String toString() {
         ArrayList<String> fields = new ArrayList<>(5 + (gfeas.size() + ufeas.size() + ifeas.size()) * 2);
         fields.add(Double.toString(weight));
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.svdfeature;
+
+import org.grouplens.samantha.modeler.featurizer.Feature;
+import org.grouplens.samantha.modeler.featurizer.FeatureExtractorUtilities;
+import org.grouplens.samantha.modeler.knn.TopNHeap;
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A snapshot of the item side of a {@link SVDFeature} model: the factors of the factor features made of exactly the
+ * item attributes, as in {@link org.grouplens.samantha.modeler.knn.FeatureKnnModel}, in one contiguous row-major float
+ * matrix, plus the biases of the same features. Scoring a user against all the items is then one scan of the matrix.
+ * The snapshot does not follow the model, see {@link #isSnapshotOf(SVDFeature)}.
+ */
+public class SVDFeatureItemMatrix {
+    static private final int BLOCK_SIZE = 1024;
+
+    private final SVDFeature model;
+    private final long spaceVersion;
+    private final int factDim;
+    private final List<String> itemKeys = new ArrayList<>();
+    private final float[] factors;
+    private final float[] biases;
+
+    public SVDFeatureItemMatrix(SVDFeature model, List<String> itemAttrs, int minSupport) {
+        this.model = model;
+        this.spaceVersion = model.getSpaceVersion();
+        for (String feature : model.getFactorFeatures(minSupport).keySet()) {
+            Map<String, String> attrVals = FeatureExtractorUtilities.decomposeKey(feature);
+            if (attrVals.size() == itemAttrs.size() && attrVals.keySet().containsAll(itemAttrs)) {
+                itemKeys.add(feature);
+            }
+        }
+        factDim = model.getVectorVarDimensionByName(SVDFeatureKey.FACTORS.get());
+        factors = new float[itemKeys.size() * factDim];
+        biases = new float[itemKeys.size()];
+        double[] row = new double[factDim];
+        for (int i=0; i<itemKeys.size(); i++) {
+            String key = itemKeys.get(i);
+            model.getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(),
+                    model.getFeatureIndex(SVDFeatureKey.FACTORS, key), row);
+            for (int f=0; f<factDim; f++) {
+                factors[i * factDim + f] = (float) row[f];
+            }
+            int biasIdx = model.getFeatureIndex(SVDFeatureKey.BIASES, key);
+            if (biasIdx >= 0) {
+                biases[i] = (float) model.getScalarVarByNameIndex(SVDFeatureKey.BIASES.get(), biasIdx);
+            }
+        }
+    }
+
+    /**
+     * @return whether this is a snapshot of the current version of the model, i.e. it does not need to be taken again.
+     */
+    public boolean isSnapshotOf(SVDFeature model) {
+        return this.model == model && spaceVersion == model.getSpaceVersion();
+    }
+
+    public int getNumItems() {
+        return itemKeys.size();
+    }
+
+    /**
+     * @return the key of the factor feature of the item at the row, see {@link FeatureExtractorUtilities#decomposeKey}.
+     */
+    public String getItemKey(int row) {
+        return itemKeys.get(row);
+    }
+
+    public int getFactorDim() {
+        return factDim;
+    }
+
+    /**
+     * @param withBiases whether to append the bias of every item to its factors, so that the inner product with the
+     *                   user factor sum followed by one is the score of {@link #getTopN}.
+     * @return a copy of the item factors, row-major in the order of the rows.
+     */
+    public float[] getItemVectors(boolean withBiases) {
+        if (!withBiases) {
+            return factors.clone();
+        }
+        int numItems = itemKeys.size();
+        float[] vectors = new float[numItems * (factDim + 1)];
+        for (int i=0; i<numItems; i++) {
+            System.arraycopy(factors, i * factDim, vectors, i * (factDim + 1), factDim);
+            vectors[i * (factDim + 1) + factDim] = biases[i];
+        }
+        return vectors;
+    }
+
+    /**
+     * @return the sum of the factors of the user side features of the instance in the model.
+     */
+    public double[] getUserFactorSum(SVDFeatureInstance ins) {
+        double[] userFactorSum = new double[factDim];
+        for (Feature fea : ins.getUserFeatures()) {
+            model.accumulateVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), fea.getIndex(), fea.getValue(),
+                    userFactorSum);
+        }
+        return userFactorSum;
+    }
+
+    private TopNHeap scan(double[] userFactorSum, int n, int from, int to) {
+        TopNHeap heap = new TopNHeap(n);
+        double[] scores = new double[BLOCK_SIZE];
+        for (int start=from; start<to; start+=BLOCK_SIZE) {
+            int end = Math.min(start + BLOCK_SIZE, to);
+            for (int i=start; i<end; i++) {
+                int offset = i * factDim;
+                double score = biases[i];
+                for (int f=0; f<factDim; f++) {
+                    score += factors[offset + f] * userFactorSum[f];
+                }
+                scores[i - start] = score;
+            }
+            for (int i=start; i<end; i++) {
+                double score = scores[i - start];
+                if (!heap.isFull() || score > heap.getMinScore()) {
+                    heap.offer(i, score);
+                }
+            }
+        }
+        return heap;
+    }
+
+    /**
+     * Find the n items with the largest inner products between their factors and the user factor sum, plus the item
+     * biases, by scanning the matrix in blocks of rows split into up to numThreads parts. The calling thread scans
+     * the first part itself and the others are scanned on the executor.
+     *
+     * @param executor the workers scanning the other parts, or null to scan the matrix in the calling thread only.
+     * @param outRows filled with the rows of the items in the order of descending scores.
+     * @param outScores filled with the scores of the items.
+     * @return the number of items found, which is smaller than n if the model does not have n items.
+     */
+    public int getTopN(double[] userFactorSum, int n, ExecutorService executor, int numThreads,
+                       int[] outRows, double[] outScores) {
+        int numItems = itemKeys.size();
+        if (n <= 0) {
+            return 0;
+        }
+        int numBlocks = (numItems + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int numParts = executor == null ? 1 : Math.max(1, Math.min(numThreads, numBlocks));
+        if (numParts == 1) {
+            return scan(userFactorSum, n, 0, numItems).drainSorted(outRows, outScores);
+        }
+        int partSize = (numBlocks + numParts - 1) / numParts * BLOCK_SIZE;
+        List<Future<TopNHeap>> futures = new ArrayList<>(numParts - 1);
+        try {
+            for (int part=1; part<numParts; part++) {
+                int from = Math.min(part * partSize, numItems);
+                int to = Math.min(from + partSize, numItems);
+                futures.add(executor.submit(() -> scan(userFactorSum, n, from, to)));
+            }
+            TopNHeap heap = scan(userFactorSum, n, 0, Math.min(partSize, numItems));
+            for (Future<TopNHeap> future : futures) {
+                heap.merge(future.get());
+            }
+            return heap.drainSorted(outRows, outScores);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BadRequestException(e);
+        } catch (ExecutionException e) {
+            throw new BadRequestException(e.getCause());
+        } finally {
+            for (Future<TopNHeap> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -67,4 +67,9 @@ abstract public class AbstractDecisionTree implements DecisionTree, Featurizer {
         indexSpace.publishSpaceVersion();
         variableSpace.publishSpaceVersion();
     }
+
+    public void publishWrites() {
+        indexSpace.publishWrites();
+        variableSpace.publishWrites();
+    }
 }
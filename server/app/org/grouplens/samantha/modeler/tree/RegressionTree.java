@@ -101,24 +101,25 @@ public class RegressionTree extends AbstractDecisionTree {
         if (variableSpace.getVectorVarSizeByName(treeName) > 0) {
             StandardLearningInstance ins = (StandardLearningInstance) instance;
             int node = 0;
+            double[] nodeVec = new double[nodeSize];
             do {
-                RealVector nodeVec = variableSpace.getVectorVarByNameIndex(treeName, node);
-                int splitIdx = (int)nodeVec.getEntry(0);
+                variableSpace.getVectorVarByNameIndex(treeName, node, nodeVec);
+                int splitIdx = (int)nodeVec[0];
                 if (splitIdx == -1) {
-                    return nodeVec.getEntry(4);
+                    return nodeVec[4];
                 }
-                double splitVal = nodeVec.getEntry(1);
+                double splitVal = nodeVec[1];
                 double feaVal = 0.0;
                 if (ins.getFeatures().containsKey(splitIdx)) {
                     feaVal = ins.getFeatures().get(splitIdx);
                 }
                 if (feaVal <= splitVal) {
-                    node = (int)nodeVec.getEntry(2);
+                    node = (int)nodeVec[2];
                 } else {
-                    node = (int)nodeVec.getEntry(3);
+                    node = (int)nodeVec[3];
                 }
                 if (node == -1) {
-                    return nodeVec.getEntry(4);
+                    return nodeVec[4];
                 }
             } while (node != -1);
         }
@@ -130,22 +131,23 @@ public class RegressionTree extends AbstractDecisionTree {
         if (variableSpace.getVectorVarSizeByName(treeName) > 0) {
             StandardLearningInstance ins = (StandardLearningInstance) instance;
             int node = 0;
+            double[] nodeVec = new double[nodeSize];
             do {
                 predNode = node;
-                RealVector nodeVec = variableSpace.getVectorVarByNameIndex(treeName, node);
-                int splitIdx = (int)nodeVec.getEntry(0);
+                variableSpace.getVectorVarByNameIndex(treeName, node, nodeVec);
+                int splitIdx = (int)nodeVec[0];
                 if (splitIdx == -1) {
                     return predNode;
                 }
-                double splitVal = nodeVec.getEntry(1);
+                double splitVal = nodeVec[1];
                 double feaVal = 0.0;
                 if (ins.getFeatures().containsKey(splitIdx)) {
                     feaVal = ins.getFeatures().get(splitIdx);
                 }
                 if (feaVal <= splitVal) {
-                    node = (int)nodeVec.getEntry(2);
+                    node = (int)nodeVec[2];
                 } else {
-                    node = (int)nodeVec.getEntry(3);
+                    node = (int)nodeVec[3];
                 }
                 if (node == -1) {
                     return predNode;
@@ -24,14 +24,17 @@ package org.grouplens.samantha.server.common;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
 import org.grouplens.samantha.modeler.space.SpaceMode;
 import org.grouplens.samantha.modeler.space.SpaceModel;
+import org.grouplens.samantha.modeler.space.SpaceUtilities;
 import org.grouplens.samantha.server.config.ConfigKey;
 import org.grouplens.samantha.server.config.SamanthaConfigService;
 import org.grouplens.samantha.server.evaluator.Evaluator;
 import org.grouplens.samantha.server.exception.BadRequestException;
 import org.grouplens.samantha.server.io.IOUtilities;
 import org.grouplens.samantha.server.io.RequestContext;
+import play.Configuration;
 import play.Logger;
 import play.inject.Injector;
 import play.libs.Json;
@@ -135,21 +138,45 @@ abstract public class AbstractModelManager implements ModelManager {
 
     public Object updateModel(RequestContext requestContext) {
         Object model = getOrDefaultModel(requestContext);
-        updateModel(model, requestContext);
+        SpaceUtilities.runAsWriter(() -> updateModel(model, requestContext));
+        if (model instanceof SpaceModel) {
+            ((SpaceModel) model).publishWrites();
+        }
         return model;
     }
 
+    /**
+     * @return the workers of the engine that the snapshots of its models are encoded and decoded on, and that the
+     * managers may build their models on.
+     */
+    protected SolverExecutor getSolverExecutor(RequestContext requestContext) {
+        return injector.instanceOf(SolverExecutorService.class).getExecutor(requestContext.getEngineName());
+    }
+
+    /**
+     * Dump the model into the model file in the format of {@link ModelSnapshot}.
+     */
     public Object dumpModel(RequestContext requestContext) {
         Object model = getOrDefaultModel(requestContext);
-        try {
-            String tmpFile = modelFile + ".tmp";
-            ObjectOutputStream fout = new ObjectOutputStream(new FileOutputStream(tmpFile));
-            fout.writeObject(model);
-            fout.close();
-            File file = new File(tmpFile);
-            file.renameTo(new File(modelFile));
-        } catch (IOException e) {
-            throw new BadRequestException(e);
+        Configuration configuration = injector.instanceOf(Configuration.class);
+        boolean compress = configuration.getBoolean(ConfigKey.MODEL_SNAPSHOT_COMPRESS.get(), false);
+        ModelSnapshot.dump(model, modelFile, compress, getSolverExecutor(requestContext));
+        return model;
+    }
+
+    /**
+     * Dump the changes of the model since it was last dumped or loaded as a delta of the model file, see
+     * {@link ModelSnapshot#dumpDelta(Object, String, boolean, SolverExecutor, int)}. The model is fully dumped instead when a
+     * delta does not apply, which also compacts the deltas.
+     */
+    public Object deltaDumpModel(RequestContext requestContext) {
+        Object model = getOrDefaultModel(requestContext);
+        Configuration configuration = injector.instanceOf(Configuration.class);
+        boolean compress = configuration.getBoolean(ConfigKey.MODEL_SNAPSHOT_COMPRESS.get(), false);
+        int maxDeltas = configuration.getInt(ConfigKey.MODEL_SNAPSHOT_MAX_DELTAS.get(), 16);
+        SolverExecutor executor = getSolverExecutor(requestContext);
+        if (!ModelSnapshot.dumpDelta(model, modelFile, compress, executor, maxDeltas)) {
+            ModelSnapshot.dump(model, modelFile, compress, executor);
         }
         return model;
     }
@@ -159,15 +186,20 @@ abstract public class AbstractModelManager implements ModelManager {
         String engineName = requestContext.getEngineName();
         String toLoadFile = JsonHelpers.getOptionalString(requestContext.getRequestBody(),
                 ConfigKey.MODEL_FILE.get(), modelFile);
-        try {
-            ObjectInputStream fin = new ObjectInputStream(new FileInputStream(toLoadFile));
-            Object model = fin.readObject();
-            fin.close();
-            modelService.setModel(engineName, modelName, model);
-            return model;
-        } catch (IOException | ClassNotFoundException e) {
-            throw new BadRequestException(e);
+        Object model;
+        if (ModelSnapshot.isSnapshot(toLoadFile)) {
+            model = ModelSnapshot.load(toLoadFile, getSolverExecutor(requestContext));
+        } else {
+            try {
+                ObjectInputStream fin = new ObjectInputStream(new FileInputStream(toLoadFile));
+                model = fin.readObject();
+                fin.close();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new BadRequestException(e);
+            }
         }
+        modelService.setModel(engineName, modelName, model);
+        return model;
     }
 
     public Object resetModel(RequestContext requestContext) {
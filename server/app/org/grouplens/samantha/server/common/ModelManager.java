@@ -36,5 +36,6 @@ public interface ModelManager {
     Object updateModel(RequestContext requestContext);
     Object updateModel(Object model, RequestContext requestContext);
     Object dumpModel(RequestContext requestContext);
+    Object deltaDumpModel(RequestContext requestContext);
     Object loadModel(RequestContext requestContext);
 }
@@ -40,6 +40,11 @@ public enum ModelOperation implements ModelOperator {
             return modelManager.dumpModel(requestContext);
         }
     },
+    DELTA_DUMP("DELTA_DUMP") {
+        public Object operate(ModelManager modelManager, RequestContext requestContext) {
+            return modelManager.deltaDumpModel(requestContext);
+        }
+    },
     LOAD("LOAD") {
         public Object operate(ModelManager modelManager, RequestContext requestContext) {
             return modelManager.loadModel(requestContext);
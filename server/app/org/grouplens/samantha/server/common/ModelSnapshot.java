@@ -0,0 +1,1045 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.common;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.modeler.space.ConcurrentIndexSpace;
+import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.LockMode;
+import org.grouplens.samantha.modeler.space.PrimitiveVariableSpace;
+import org.grouplens.samantha.modeler.space.SpaceUtilities;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedVariableSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.grouplens.samantha.modeler.space.VersionedIndexSpace;
+import org.grouplens.samantha.modeler.space.VersionedVariableSpace;
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A versioned binary snapshot format of models for dumping and loading them, in place of writing the whole model with
+ * Java serialization.
+ *
+ * The variable and index spaces kept in memory are taken out of the Java serialization of the model, which then only
+ * has the small parts of the model, i.e. the skeleton. The variables are written as blocks of raw little-endian doubles
+ * and the key maps as blocks of keys in the order of their indices, each block with its CRC32 checksum and optionally
+ * deflate compressed. The blocks are encoded and decoded by parallel workers and written and read with positional IO
+ * on a {@link FileChannel}. The other spaces, e.g. the ones in Redis, only refer to where they are and stay in the
+ * skeleton.
+ *
+ * A snapshot file is the header (magic, format version, flags, position, length and checksum of the table of contents,
+ * id of the base snapshot and sequence of the delta), the blocks and then the table of contents describing the spaces,
+ * their variables and key maps and the blocks.
+ *
+ * Besides the full snapshot as the base, a model can be checkpointed with deltas written next to the base as
+ * base.delta.sequence. A delta only has the rows written since the previous checkpoint (see
+ * {@link VariableSpace#checkpointScalarVar(String)}) and the keys appended since then, so its size follows the rate of
+ * changes instead of the size of the model. Loading the base also applies its deltas in order. Which base and sequence
+ * the spaces of a model were last checkpointed against are remembered here, so a delta is only written when it applies
+ * on top of the files; otherwise a full snapshot is needed.
+ */
+public final class ModelSnapshot {
+    static private final long MAGIC = 0x534d4e5348415053L;
+    static private final int FORMAT_VERSION = 1;
+    static private final int FLAG_DEFLATE = 1;
+    static private final int HEADER_SIZE = 48;
+    static private final int BLOCK_BYTES = 1 << 23;
+    static private final int BLOCK_KEYS = 1 << 16;
+    static private final String DELTA_INFIX = ".delta.";
+    static private final String TMP_SUFFIX = ".tmp";
+
+    static private final byte SKELETON_BLOCK = 0;
+    static private final byte SCALAR_BLOCK = 1;
+    static private final byte VECTOR_BLOCK = 2;
+    static private final byte KEY_BLOCK = 3;
+    static private final byte SCALAR_ROWS_BLOCK = 4;
+    static private final byte VECTOR_ROWS_BLOCK = 5;
+
+    static private final byte STRING_KEY = 0;
+    static private final byte INTEGER_KEY = 1;
+    static private final byte LONG_KEY = 2;
+    static private final byte OBJECT_KEY = 3;
+
+    static private final Set<Class<?>> IN_MEMORY_SPACES = new HashSet<>(Arrays.asList(
+            SynchronizedVariableSpace.class, PrimitiveVariableSpace.class, VersionedVariableSpace.class,
+            SynchronizedIndexSpace.class, ConcurrentIndexSpace.class, VersionedIndexSpace.class));
+
+    static private final Map<Object, Checkpoint> CHECKPOINTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private ModelSnapshot() {}
+
+    /**
+     * Where a space taken out of the skeleton is in the snapshot.
+     */
+    private static class SpaceReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int id;
+
+        private SpaceReference(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * The last checkpoint of a space, i.e. the base snapshot and the sequence of the last delta written or read.
+     */
+    private static class Checkpoint {
+        private final long baseId;
+        private final int spaceId;
+        private final int sequence;
+        private final Map<String, Integer> keyMapSizes;
+
+        private Checkpoint(long baseId, int spaceId, int sequence, Map<String, Integer> keyMapSizes) {
+            this.baseId = baseId;
+            this.spaceId = spaceId;
+            this.sequence = sequence;
+            this.keyMapSizes = keyMapSizes;
+        }
+    }
+
+    private static class Header {
+        private int version;
+        private boolean compressed;
+        private long tocPosition;
+        private int tocLength;
+        private int tocChecksum;
+        private long baseId;
+        private int sequence;
+    }
+
+    private static class SpaceEntry {
+        private final String className;
+        private final String lockMode;
+        private final List<VarEntry> vars = new ArrayList<>();
+        private final List<VarEntry> keyMaps = new ArrayList<>();
+
+        private SpaceEntry(String className, String lockMode) {
+            this.className = className;
+            this.lockMode = lockMode;
+        }
+    }
+
+    /**
+     * A scalar or vector variable (dim is zero for scalar ones) or a key map (dim is not used).
+     */
+    private static class VarEntry {
+        private final String name;
+        private final int size;
+        private final int dim;
+
+        private VarEntry(String name, int size, int dim) {
+            this.name = name;
+            this.size = size;
+            this.dim = dim;
+        }
+    }
+
+    /**
+     * A block of the rows or keys from start on, or of the listed rows for the blocks of a delta.
+     */
+    private static class BlockEntry {
+        private final byte type;
+        private final int spaceId;
+        private final String name;
+        private final int start;
+        private final int count;
+        private int[] rows;
+        private long position;
+        private int storedLength;
+        private int rawLength;
+        private long checksum;
+
+        private BlockEntry(byte type, int spaceId, String name, int start, int count) {
+            this.type = type;
+            this.spaceId = spaceId;
+            this.name = name;
+            this.start = start;
+            this.count = count;
+        }
+    }
+
+    private static class SkeletonOutputStream extends ObjectOutputStream {
+        private final Map<Object, Integer> spaceIds = new IdentityHashMap<>();
+        private final List<Object> spaces = new ArrayList<>();
+
+        private SkeletonOutputStream(ByteArrayOutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        protected Object replaceObject(Object obj) {
+            if (obj == null || !IN_MEMORY_SPACES.contains(obj.getClass())) {
+                return obj;
+            }
+            Integer id = spaceIds.get(obj);
+            if (id == null) {
+                id = spaces.size();
+                spaceIds.put(obj, id);
+                spaces.add(obj);
+            }
+            return new SpaceReference(id);
+        }
+    }
+
+    private static class SkeletonInputStream extends ObjectInputStream {
+        private final List<Object> spaces;
+
+        private SkeletonInputStream(byte[] skeleton, List<Object> spaces) throws IOException {
+            super(new ByteArrayInputStream(skeleton));
+            this.spaces = spaces;
+            enableResolveObject(true);
+        }
+
+        protected Object resolveObject(Object obj) {
+            if (obj instanceof SpaceReference) {
+                return spaces.get(((SpaceReference) obj).id);
+            }
+            return obj;
+        }
+    }
+
+    static private <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BadRequestException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new BadRequestException(e.getCause());
+        }
+    }
+
+    static private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new BadRequestException("Unexpected end of the model snapshot.");
+            }
+            position += read;
+        }
+    }
+
+    static private void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    static private Header readHeader(FileChannel channel, String file) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            throw new BadRequestException(file + " is not a model snapshot.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, buffer, 0);
+        buffer.flip();
+        if (buffer.getLong() != MAGIC) {
+            throw new BadRequestException(file + " is not a model snapshot.");
+        }
+        Header header = new Header();
+        header.version = buffer.getInt();
+        if (header.version != FORMAT_VERSION) {
+            throw new BadRequestException("Model snapshot format version " + header.version + " is not supported.");
+        }
+        header.compressed = (buffer.getInt() & FLAG_DEFLATE) != 0;
+        header.tocPosition = buffer.getLong();
+        header.tocLength = buffer.getInt();
+        header.tocChecksum = buffer.getInt();
+        header.baseId = buffer.getLong();
+        header.sequence = buffer.getInt();
+        return header;
+    }
+
+    static private Header readHeader(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel, path.toString());
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    /**
+     * @return whether the file starts with the header of a snapshot, i.e. otherwise it is a Java serialized model.
+     */
+    static public boolean isSnapshot(String file) {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            if (channel.size() < Long.BYTES) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+            readFully(channel, header, 0);
+            header.flip();
+            return header.getLong() == MAGIC;
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    /**
+     * @return the delta files of the base snapshot file which apply on top of it, in their order.
+     */
+    static public List<Path> getDeltaFiles(String file) {
+        Path base = Paths.get(file).toAbsolutePath();
+        List<Path> deltas = new ArrayList<>();
+        if (!Files.exists(base)) {
+            return deltas;
+        }
+        long baseId = readHeader(base).baseId;
+        int sequence = 1;
+        for (Map.Entry<Integer, Path> entry : listDeltaFiles(base).entrySet()) {
+            if (entry.getKey() != sequence) {
+                break;
+            }
+            Header header = readHeader(entry.getValue());
+            if (header.baseId != baseId || header.sequence != sequence) {
+                break;
+            }
+            deltas.add(entry.getValue());
+            sequence++;
+        }
+        return deltas;
+    }
+
+    static private TreeMap<Integer, Path> listDeltaFiles(Path base) {
+        String prefix = base.getFileName().toString() + DELTA_INFIX;
+        TreeMap<Integer, Path> deltas = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(base.getParent(), prefix + "*")) {
+            for (Path path : stream) {
+                String sequence = path.getFileName().toString().substring(prefix.length());
+                if (sequence.matches("[0-9]+")) {
+                    deltas.put(Integer.parseInt(sequence), path);
+                }
+            }
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+        return deltas;
+    }
+
+    static private void writeKey(DataOutputStream out, Object key) throws IOException {
+        if (key instanceof String) {
+            byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING_KEY);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (key instanceof Integer) {
+            out.writeByte(INTEGER_KEY);
+            out.writeInt((Integer) key);
+        } else if (key instanceof Long) {
+            out.writeByte(LONG_KEY);
+            out.writeLong((Long) key);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream stream = new ObjectOutputStream(bytes);
+            stream.writeObject(key);
+            stream.close();
+            out.writeByte(OBJECT_KEY);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    static private Object readKey(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte type = in.readByte();
+        if (type == STRING_KEY) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } else if (type == INTEGER_KEY) {
+            return in.readInt();
+        } else if (type == LONG_KEY) {
+            return in.readLong();
+        } else {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            return stream.readObject();
+        }
+    }
+
+    static private int getRowIndex(BlockEntry block, int i) {
+        return block.rows == null ? block.start + i : block.rows[i];
+    }
+
+    static private boolean isScalarBlock(BlockEntry block) {
+        return block.type == SCALAR_BLOCK || block.type == SCALAR_ROWS_BLOCK;
+    }
+
+    static private byte[] encodeVars(VariableSpace space, BlockEntry block) {
+        int dim = isScalarBlock(block) ? 1 : space.getVectorVarDimensionByName(block.name);
+        int indexBytes = block.rows == null ? 0 : block.count * Integer.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(indexBytes + block.count * dim * Double.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (block.rows != null) {
+            buffer.asIntBuffer().put(block.rows);
+            buffer.position(indexBytes);
+        }
+        DoubleBuffer doubles = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        if (isScalarBlock(block)) {
+            for (int i=0; i<block.count; i++) {
+                doubles.put(space.getScalarVarByNameIndex(block.name, getRowIndex(block, i)));
+            }
+        } else {
+            double[] row = new double[dim];
+            for (int i=0; i<block.count; i++) {
+                space.getVectorVarByNameIndex(block.name, getRowIndex(block, i), row);
+                doubles.put(row);
+            }
+        }
+        return buffer.array();
+    }
+
+    static private byte[] encodeKeys(IndexSpace space, BlockEntry block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i=0; i<block.count; i++) {
+            writeKey(out, space.getKeyForIndex(block.name, block.start + i));
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static private byte[] finishBlock(BlockEntry block, byte[] raw, boolean compress) {
+        byte[] stored = raw;
+        if (compress) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(raw.length / 2, 64));
+            byte[] buffer = new byte[1 << 16];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            stored = out.toByteArray();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        block.rawLength = raw.length;
+        block.storedLength = stored.length;
+        block.checksum = crc.getValue();
+        return stored;
+    }
+
+    static private int getRowsPerBlock(int dim) {
+        return Math.max(1, BLOCK_BYTES / (Double.BYTES * Math.max(dim, 1)));
+    }
+
+    static private void addBlocks(List<BlockEntry> blocks, byte type, int spaceId, String name,
+                                  int from, int to, int rowsPerBlock) {
+        for (int start=from; start<to; start+=rowsPerBlock) {
+            blocks.add(new BlockEntry(type, spaceId, name, start, Math.min(rowsPerBlock, to - start)));
+        }
+    }
+
+    /**
+     * Add the blocks of the rows written since the last checkpoint, or of all the rows if they are not tracked.
+     */
+    static private void addDirtyBlocks(List<BlockEntry> blocks, byte type, int spaceId, String name,
+                                       int[] dirtyRows, int size, int rowsPerBlock) {
+        if (dirtyRows == null) {
+            addBlocks(blocks, type == SCALAR_ROWS_BLOCK ? SCALAR_BLOCK : VECTOR_BLOCK, spaceId, name,
+                    0, size, rowsPerBlock);
+            return;
+        }
+        int numRows = 0;
+        while (numRows < dirtyRows.length && dirtyRows[numRows] < size) {
+            numRows++;
+        }
+        for (int start=0; start<numRows; start+=rowsPerBlock) {
+            BlockEntry block = new BlockEntry(type, spaceId, name, 0, Math.min(rowsPerBlock, numRows - start));
+            block.rows = Arrays.copyOfRange(dirtyRows, start, start + block.count);
+            blocks.add(block);
+        }
+    }
+
+    static private byte[] writeSkeleton(Object model, List<Object> spaces) throws IOException {
+        ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+        SkeletonOutputStream stream = new SkeletonOutputStream(skeleton);
+        stream.writeObject(model);
+        stream.close();
+        spaces.addAll(stream.spaces);
+        return skeleton.toByteArray();
+    }
+
+    /**
+     * Describe the spaces and their blocks, taking the checkpoints of the spaces before reading them, so that the
+     * rows written concurrently go into the next delta if they are missed by this one.
+     *
+     * @param checkpoints the last checkpoints of the spaces for a delta, or null for a full snapshot.
+     */
+    static private void describeSpaces(List<Object> spaces, List<Checkpoint> checkpoints, List<SpaceEntry> entries,
+                                       List<BlockEntry> blocks, List<Map<String, Integer>> keyMapSizes) {
+        for (int id=0; id<spaces.size(); id++) {
+            Object space = spaces.get(id);
+            Map<String, Integer> sizes = new HashMap<>();
+            if (space instanceof VariableSpace) {
+                VariableSpace variableSpace = (VariableSpace) space;
+                SpaceEntry entry = new SpaceEntry(space.getClass().getName(), variableSpace.getLockMode().name());
+                for (String name : variableSpace.getAllScalarVarNames()) {
+                    int[] dirtyRows = variableSpace.checkpointScalarVar(name);
+                    int size = variableSpace.getScalarVarSizeByName(name);
+                    entry.vars.add(new VarEntry(name, size, 0));
+                    if (checkpoints == null) {
+                        addBlocks(blocks, SCALAR_BLOCK, id, name, 0, size, getRowsPerBlock(1));
+                    } else {
+                        addDirtyBlocks(blocks, SCALAR_ROWS_BLOCK, id, name, dirtyRows, size, getRowsPerBlock(1));
+                    }
+                }
+                for (String name : variableSpace.getAllVectorVarNames()) {
+                    int[] dirtyRows = variableSpace.checkpointVectorVar(name);
+                    int size = variableSpace.getVectorVarSizeByName(name);
+                    int dim = variableSpace.getVectorVarDimensionByName(name);
+                    entry.vars.add(new VarEntry(name, size, dim));
+                    if (checkpoints == null) {
+                        addBlocks(blocks, VECTOR_BLOCK, id, name, 0, size, getRowsPerBlock(dim));
+                    } else {
+                        addDirtyBlocks(blocks, VECTOR_ROWS_BLOCK, id, name, dirtyRows, size, getRowsPerBlock(dim));
+                    }
+                }
+                entries.add(entry);
+            } else {
+                IndexSpace indexSpace = (IndexSpace) space;
+                SpaceEntry entry = new SpaceEntry(space.getClass().getName(), "");
+                for (String name : indexSpace.getAllKeyMapNames()) {
+                    int size = indexSpace.getKeyMapSize(name);
+                    int from = 0;
+                    if (checkpoints != null) {
+                        from = Math.min(checkpoints.get(id).keyMapSizes.getOrDefault(name, 0), size);
+                    }
+                    entry.keyMaps.add(new VarEntry(name, size, 0));
+                    addBlocks(blocks, KEY_BLOCK, id, name, from, size, BLOCK_KEYS);
+                    sizes.put(name, size);
+                }
+                entries.add(entry);
+            }
+            keyMapSizes.add(sizes);
+        }
+    }
+
+    /**
+     * Write the snapshot into a temporary file and atomically move it into place once it is complete.
+     */
+    static private void writeSnapshot(String file, byte[] skeleton, List<Object> spaces, List<SpaceEntry> entries,
+                                      List<BlockEntry> blocks, long baseId, int sequence,
+                                      boolean compress, SolverExecutor executor) {
+        Path path = Paths.get(file);
+        Path tmpPath = Paths.get(file + TMP_SUFFIX);
+        BlockEntry skeletonBlock = new BlockEntry(SKELETON_BLOCK, -1, "", 0, 0);
+        blocks.add(skeletonBlock);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int numPending = 2 * executor.getNumThreads();
+            long position = HEADER_SIZE;
+            int next = 0;
+            for (BlockEntry block : blocks) {
+                pending.add(executor.submit(() -> {
+                    byte[] raw;
+                    if (block.type == SKELETON_BLOCK) {
+                        raw = skeleton;
+                    } else if (block.type == KEY_BLOCK) {
+                        raw = encodeKeys((IndexSpace) spaces.get(block.spaceId), block);
+                    } else {
+                        raw = encodeVars((VariableSpace) spaces.get(block.spaceId), block);
+                    }
+                    return finishBlock(block, raw, compress);
+                }));
+                while (pending.size() >= numPending || (pending.size() > 0 && block == skeletonBlock)) {
+                    byte[] stored = getResult(pending.poll());
+                    BlockEntry written = blocks.get(next++);
+                    written.position = position;
+                    writeFully(channel, ByteBuffer.wrap(stored), position);
+                    position += stored.length;
+                }
+            }
+
+            byte[] toc = writeTableOfContents(entries, blocks);
+            writeFully(channel, ByteBuffer.wrap(toc), position);
+            CRC32 crc = new CRC32();
+            crc.update(toc);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putInt(FORMAT_VERSION).putInt(compress ? FLAG_DEFLATE : 0)
+                    .putLong(position).putInt(toc.length).putInt((int) crc.getValue())
+                    .putLong(baseId).putInt(sequence);
+            header.clear();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+        }
+        try {
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    static private void setCheckpoints(List<Object> spaces, long baseId, int sequence,
+                                       List<Map<String, Integer>> keyMapSizes) {
+        for (int id=0; id<spaces.size(); id++) {
+            CHECKPOINTS.put(spaces.get(id), new Checkpoint(baseId, id, sequence, keyMapSizes.get(id)));
+        }
+    }
+
+    /**
+     * Write the model into the file as a full snapshot, which becomes the new base of the deltas. The deltas of the
+     * previous base are deleted.
+     *
+     * @param compress whether to deflate the blocks, which saves space for sparse or low precision variables but
+     *                 costs more time than the disk for dense ones.
+     * @param executor the workers encoding the blocks, e.g. the {@link SolverExecutor} of the engine.
+     */
+    static public void dump(Object model, String file, boolean compress, SolverExecutor executor) {
+        List<Object> spaces = new ArrayList<>();
+        List<SpaceEntry> entries = new ArrayList<>();
+        List<BlockEntry> blocks = new ArrayList<>();
+        List<Map<String, Integer>> keyMapSizes = new ArrayList<>();
+        try {
+            byte[] skeleton = writeSkeleton(model, spaces);
+            for (Object space : spaces) {
+                CHECKPOINTS.remove(space);
+            }
+            describeSpaces(spaces, null, entries, blocks, keyMapSizes);
+            long baseId = ThreadLocalRandom.current().nextLong();
+            writeSnapshot(file, skeleton, spaces, entries, blocks, baseId, 0, compress, executor);
+            for (Path delta : listDeltaFiles(Paths.get(file).toAbsolutePath()).values()) {
+                Files.deleteIfExists(delta);
+            }
+            setCheckpoints(spaces, baseId, 0, keyMapSizes);
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    /**
+     * Write the changes of the model since its last checkpoint as the next delta of the base snapshot file.
+     *
+     * @param maxDeltas the maximum number of deltas of a base snapshot, after which a full snapshot is needed instead.
+     * @return false if a full snapshot is needed instead, i.e. when the model was not last dumped or loaded with the
+     * base snapshot file in this process or the base already has maxDeltas deltas.
+     */
+    static public boolean dumpDelta(Object model, String file, boolean compress, SolverExecutor executor,
+                                    int maxDeltas) {
+        if (!Files.exists(Paths.get(file)) || !isSnapshot(file)) {
+            return false;
+        }
+        long baseId = readHeader(Paths.get(file)).baseId;
+        int sequence = getDeltaFiles(file).size();
+        if (sequence >= maxDeltas) {
+            return false;
+        }
+        List<Object> spaces = new ArrayList<>();
+        List<SpaceEntry> entries = new ArrayList<>();
+        List<BlockEntry> blocks = new ArrayList<>();
+        List<Map<String, Integer>> keyMapSizes = new ArrayList<>();
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        try {
+            byte[] skeleton = writeSkeleton(model, spaces);
+            for (int id=0; id<spaces.size(); id++) {
+                Checkpoint checkpoint = CHECKPOINTS.get(spaces.get(id));
+                if (checkpoint == null || checkpoint.baseId != baseId || checkpoint.spaceId != id ||
+                        checkpoint.sequence != sequence) {
+                    return false;
+                }
+                checkpoints.add(checkpoint);
+            }
+            for (Object space : spaces) {
+                CHECKPOINTS.remove(space);
+            }
+            describeSpaces(spaces, checkpoints, entries, blocks, keyMapSizes);
+            writeSnapshot(file + DELTA_INFIX + (sequence + 1), skeleton, spaces, entries, blocks,
+                    baseId, sequence + 1, compress, executor);
+            setCheckpoints(spaces, baseId, sequence + 1, keyMapSizes);
+            return true;
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    static private byte[] writeTableOfContents(List<SpaceEntry> spaces, List<BlockEntry> blocks)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(spaces.size());
+        for (SpaceEntry space : spaces) {
+            out.writeUTF(space.className);
+            out.writeUTF(space.lockMode);
+            for (List<VarEntry> vars : Arrays.asList(space.vars, space.keyMaps)) {
+                out.writeInt(vars.size());
+                for (VarEntry var : vars) {
+                    out.writeUTF(var.name);
+                    out.writeInt(var.size);
+                    out.writeInt(var.dim);
+                }
+            }
+        }
+        out.writeInt(blocks.size());
+        for (BlockEntry block : blocks) {
+            out.writeByte(block.type);
+            out.writeInt(block.spaceId);
+            out.writeUTF(block.name);
+            out.writeInt(block.start);
+            out.writeInt(block.count);
+            out.writeLong(block.position);
+            out.writeInt(block.storedLength);
+            out.writeInt(block.rawLength);
+            out.writeLong(block.checksum);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static private List<VarEntry> readVarEntries(DataInputStream in) throws IOException {
+        int numVars = in.readInt();
+        List<VarEntry> vars = new ArrayList<>(numVars);
+        for (int i=0; i<numVars; i++) {
+            vars.add(new VarEntry(in.readUTF(), in.readInt(), in.readInt()));
+        }
+        return vars;
+    }
+
+    static private byte[] readBlock(FileChannel channel, BlockEntry block, boolean compressed) throws IOException {
+        ByteBuffer stored = ByteBuffer.allocate(block.storedLength);
+        readFully(channel, stored, block.position);
+        CRC32 crc = new CRC32();
+        crc.update(stored.array());
+        if (crc.getValue() != block.checksum) {
+            throw new BadRequestException("Checksum of the block of " + block.name + " starting at " + block.start +
+                    " does not match in the model snapshot.");
+        }
+        if (!compressed) {
+            return stored.array();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored.array());
+            byte[] raw = new byte[block.rawLength];
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+            }
+            if (length != raw.length) {
+                throw new BadRequestException("Block of " + block.name + " is truncated in the model snapshot.");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new BadRequestException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static private void decodeVars(VariableSpace space, BlockEntry block, byte[] raw) {
+        ByteBuffer buffer = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        if (block.type == SCALAR_ROWS_BLOCK || block.type == VECTOR_ROWS_BLOCK) {
+            IntBuffer indices = buffer.asIntBuffer();
+            block.rows = new int[block.count];
+            indices.get(block.rows);
+            buffer.position(block.count * Integer.BYTES);
+        }
+        DoubleBuffer doubles = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        if (isScalarBlock(block)) {
+            for (int i=0; i<block.count; i++) {
+                space.setScalarVarByNameIndex(block.name, getRowIndex(block, i), doubles.get());
+            }
+        } else {
+            double[] row = new double[space.getVectorVarDimensionByName(block.name)];
+            ArrayRealVector var = new ArrayRealVector(row, false);
+            for (int i=0; i<block.count; i++) {
+                doubles.get(row);
+                space.setVectorVarByNameIndex(block.name, getRowIndex(block, i), var);
+            }
+        }
+    }
+
+    /**
+     * The keys of a delta may overlap with the ones already there, which then must have the same indices.
+     */
+    static private void decodeKeys(IndexSpace space, BlockEntry block, byte[] raw)
+            throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        for (int i=0; i<block.count; i++) {
+            int index = space.setKey(block.name, readKey(in));
+            if (index != block.start + i) {
+                throw new BadRequestException("Key map " + block.name + " is not consistent in the model snapshot.");
+            }
+        }
+    }
+
+    /**
+     * Make the variables and key maps of the space as described, i.e. create or resize the variables and free the
+     * ones which are not there any more.
+     */
+    static private void prepareSpace(Object space, List<VarEntry> vars, List<VarEntry> keyMaps) {
+        if (space instanceof VariableSpace) {
+            VariableSpace variableSpace = (VariableSpace) space;
+            Set<String> scalarNames = new HashSet<>();
+            Set<String> vectorNames = new HashSet<>();
+            for (VarEntry var : vars) {
+                if (var.dim == 0) {
+                    scalarNames.add(var.name);
+                    if (!variableSpace.hasScalarVar(var.name) ||
+                            variableSpace.getScalarVarSizeByName(var.name) > var.size) {
+                        variableSpace.requestScalarVar(var.name, 0, 0.0, false);
+                    }
+                    variableSpace.ensureScalarVar(var.name, var.size, 0.0, false);
+                } else {
+                    vectorNames.add(var.name);
+                    if (!variableSpace.hasVectorVar(var.name) ||
+                            variableSpace.getVectorVarSizeByName(var.name) > var.size ||
+                            variableSpace.getVectorVarDimensionByName(var.name) != var.dim) {
+                        variableSpace.requestVectorVar(var.name, 0, var.dim, 0.0, false, false);
+                    }
+                    variableSpace.ensureVectorVar(var.name, var.size, var.dim, 0.0, false, false);
+                }
+            }
+            for (String name : variableSpace.getAllScalarVarNames()) {
+                if (!scalarNames.contains(name)) {
+                    variableSpace.freeScalarVar(name);
+                }
+            }
+            for (String name : variableSpace.getAllVectorVarNames()) {
+                if (!vectorNames.contains(name)) {
+                    variableSpace.freeVectorVar(name);
+                }
+            }
+        } else {
+            IndexSpace indexSpace = (IndexSpace) space;
+            for (VarEntry keyMap : keyMaps) {
+                if (!indexSpace.hasKeyMap(keyMap.name)) {
+                    indexSpace.requestKeyMap(keyMap.name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a base snapshot (creating the spaces) or a delta (on top of the spaces) and publish the spaces.
+     *
+     * @return the skeleton of the model in the file.
+     */
+    static private byte[] applySnapshot(FileChannel channel, Header header, List<Object> spaces,
+                                        SolverExecutor executor)
+            throws IOException, ReflectiveOperationException {
+        ByteBuffer toc = ByteBuffer.allocate(header.tocLength);
+        readFully(channel, toc, header.tocPosition);
+        CRC32 crc = new CRC32();
+        crc.update(toc.array());
+        if ((int) crc.getValue() != header.tocChecksum) {
+            throw new BadRequestException("Checksum of the table of contents does not match in the model snapshot.");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(toc.array()));
+        int numSpaces = in.readInt();
+        boolean isBase = spaces.isEmpty();
+        if (!isBase && numSpaces != spaces.size()) {
+            throw new BadRequestException("Model snapshot delta does not match its base.");
+        }
+        for (int i=0; i<numSpaces; i++) {
+            String className = in.readUTF();
+            String lockMode = in.readUTF();
+            List<VarEntry> vars = readVarEntries(in);
+            List<VarEntry> keyMaps = readVarEntries(in);
+            Object space;
+            if (isBase) {
+                space = Class.forName(className).getDeclaredConstructor().newInstance();
+                if (space instanceof VariableSpace) {
+                    ((VariableSpace) space).setLockMode(LockMode.valueOf(lockMode),
+                            SpaceUtilities.DEFAULT_NUM_STRIPES);
+                }
+                spaces.add(space);
+            } else {
+                space = spaces.get(i);
+                if (!space.getClass().getName().equals(className)) {
+                    throw new BadRequestException("Model snapshot delta does not match its base.");
+                }
+            }
+            prepareSpace(space, vars, keyMaps);
+        }
+        int numBlocks = in.readInt();
+        List<BlockEntry> blocks = new ArrayList<>(numBlocks);
+        for (int i=0; i<numBlocks; i++) {
+            BlockEntry block = new BlockEntry(in.readByte(), in.readInt(), in.readUTF(),
+                    in.readInt(), in.readInt());
+            block.position = in.readLong();
+            block.storedLength = in.readInt();
+            block.rawLength = in.readInt();
+            block.checksum = in.readLong();
+            blocks.add(block);
+        }
+
+        BlockEntry skeletonBlock = null;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        Map<String, List<BlockEntry>> keyBlocks = new LinkedHashMap<>();
+        for (BlockEntry block : blocks) {
+            if (block.type == SKELETON_BLOCK) {
+                skeletonBlock = block;
+            } else if (block.type == KEY_BLOCK) {
+                keyBlocks.computeIfAbsent(block.spaceId + "\1" + block.name, k -> new ArrayList<>()).add(block);
+            } else {
+                tasks.add(() -> {
+                    decodeVars((VariableSpace) spaces.get(block.spaceId), block,
+                            readBlock(channel, block, header.compressed));
+                    return null;
+                });
+            }
+        }
+        for (List<BlockEntry> keyMapBlocks : keyBlocks.values()) {
+            Collections.sort(keyMapBlocks, (a, b) -> Integer.compare(a.start, b.start));
+            tasks.add(() -> {
+                for (BlockEntry block : keyMapBlocks) {
+                    decodeKeys((IndexSpace) spaces.get(block.spaceId), block,
+                            readBlock(channel, block, header.compressed));
+                }
+                return null;
+            });
+        }
+        List<Future<Void>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                getResult(future);
+            }
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+        for (Object space : spaces) {
+            if (space instanceof VariableSpace) {
+                ((VariableSpace) space).publishSpaceVersion();
+            } else {
+                ((IndexSpace) space).publishSpaceVersion();
+            }
+        }
+        if (skeletonBlock == null) {
+            throw new BadRequestException("Model snapshot does not have the model.");
+        }
+        return readBlock(channel, skeletonBlock, header.compressed);
+    }
+
+    /**
+     * Read the model from a snapshot file and apply its deltas in order. The spaces kept in memory are created with
+     * the same classes as when the model was dumped and published. The loaded model is checkpointed, so the deltas
+     * dumped later apply on top of the files.
+     *
+     * @param executor the workers reading and decoding the blocks, e.g. the {@link SolverExecutor} of the engine.
+     */
+    static public Object load(String file, SolverExecutor executor) {
+        List<Path> files = new ArrayList<>();
+        files.add(Paths.get(file));
+        files.addAll(getDeltaFiles(file));
+        List<Object> spaces = new ArrayList<>();
+        byte[] skeleton = null;
+        long baseId = 0;
+        int sequence = 0;
+        try {
+            for (Path path : files) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    Header header = readHeader(channel, path.toString());
+                    skeleton = applySnapshot(channel, header, spaces, executor);
+                    baseId = header.baseId;
+                    sequence = header.sequence;
+                }
+            }
+            SkeletonInputStream skeletonStream = new SkeletonInputStream(skeleton, spaces);
+            Object model = skeletonStream.readObject();
+            skeletonStream.close();
+            List<Map<String, Integer>> keyMapSizes = new ArrayList<>();
+            for (Object space : spaces) {
+                Map<String, Integer> sizes = new HashMap<>();
+                if (space instanceof VariableSpace) {
+                    VariableSpace variableSpace = (VariableSpace) space;
+                    for (String name : variableSpace.getAllScalarVarNames()) {
+                        variableSpace.checkpointScalarVar(name);
+                    }
+                    for (String name : variableSpace.getAllVectorVarNames()) {
+                        variableSpace.checkpointVectorVar(name);
+                    }
+                } else {
+                    IndexSpace indexSpace = (IndexSpace) space;
+                    for (String name : indexSpace.getAllKeyMapNames()) {
+                        sizes.put(name, indexSpace.getKeyMapSize(name));
+                    }
+                }
+                keyMapSizes.add(sizes);
+            }
+            setCheckpoints(spaces, baseId, sequence, keyMapSizes);
+            return model;
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new BadRequestException(e);
+        }
+    }
+}
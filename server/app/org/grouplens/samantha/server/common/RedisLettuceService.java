@@ -25,13 +25,17 @@ package org.grouplens.samantha.server.common;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.lambdaworks.redis.KeyScanCursor;
 import com.lambdaworks.redis.LettuceFutures;
 import com.lambdaworks.redis.RedisClient;
 import com.lambdaworks.redis.RedisFuture;
 import com.lambdaworks.redis.RedisURI;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
 import com.lambdaworks.redis.api.StatefulRedisConnection;
 import com.lambdaworks.redis.api.async.RedisAsyncCommands;
 import com.lambdaworks.redis.api.sync.RedisCommands;
+import com.lambdaworks.redis.codec.ByteArrayCodec;
 import org.grouplens.samantha.server.config.ConfigKey;
 import org.grouplens.samantha.server.exception.BadRequestException;
 import play.Configuration;
@@ -42,6 +46,7 @@ import play.libs.Json;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -51,6 +56,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Singleton
 public class RedisLettuceService implements RedisService {
+    static private final long SCAN_COUNT = 1000;
     private final String cfgHost;
     private final Integer cfgPort;
     private final Integer cfgDb;
@@ -64,6 +70,10 @@ public class RedisLettuceService implements RedisService {
     private StatefulRedisConnection<String, String> asyncConnection = null;
     private RedisCommands syncCommands = null;
     private RedisAsyncCommands asyncCommands = null;
+    private StatefulRedisConnection<byte[], byte[]> binaryConnection = null;
+    private StatefulRedisConnection<byte[], byte[]> binaryAsyncConnection = null;
+    private RedisCommands<byte[], byte[]> binarySyncCommands = null;
+    private RedisAsyncCommands<byte[], byte[]> binaryAsyncCommands = null;
 
     @Inject
     private RedisLettuceService(Configuration configuration, ApplicationLifecycle lifecycle) {
@@ -96,11 +106,19 @@ public class RedisLettuceService implements RedisService {
         syncCommands = connection.sync();
         asyncCommands = asyncConnection.async();
         asyncConnection.setAutoFlushCommands(false);
+        binaryConnection = client.connect(new ByteArrayCodec());
+        binaryAsyncConnection = client.connect(new ByteArrayCodec());
+        binarySyncCommands = binaryConnection.sync();
+        binaryAsyncCommands = binaryAsyncConnection.async();
+        binaryAsyncConnection.setAutoFlushCommands(false);
 
         Logger.info("Connected to a redis client");
     }
 
     private void shutDown() {
+        binaryAsyncConnection.close();
+        binaryConnection.close();
+        asyncConnection.close();
         connection.close();
         client.shutdown();
     }
@@ -135,6 +153,22 @@ public class RedisLettuceService implements RedisService {
         }
     }
 
+    public void discard() {
+        try {
+            syncCommands.discard();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void unwatch() {
+        try {
+            syncCommands.unwatch();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     public Long incre(String prefix, String key) {
         readLock.lock();
         try {
@@ -217,14 +251,122 @@ public class RedisLettuceService implements RedisService {
         if (key != null) {
             pattern = RedisService.composeKey(prefix, key);
         }
+        ScanArgs scanArgs = ScanArgs.Builder.matches(pattern + "*").limit(SCAN_COUNT);
+        List<String> keys = new ArrayList<>();
+        readLock.lock();
+        try {
+            KeyScanCursor<String> cursor = syncCommands.scan(scanArgs);
+            keys.addAll(cursor.getKeys());
+            while (!cursor.isFinished()) {
+                cursor = syncCommands.scan(cursor, scanArgs);
+                keys.addAll(cursor.getKeys());
+            }
+            return keys;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    static private byte[] toBytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String hget(String prefix, String key, String field) {
+        readLock.lock();
+        try {
+            return (String) syncCommands.hget(RedisService.composeKey(prefix, key), field);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public void hset(String prefix, String key, String field, String value) {
         readLock.lock();
         try {
-            return syncCommands.keys(pattern + "*");
+            syncCommands.hset(RedisService.composeKey(prefix, key), field, value);
         } finally {
             readLock.unlock();
         }
     }
 
+    public void hsetWithoutLock(String prefix, String key, String field, String value) {
+        syncCommands.hset(RedisService.composeKey(prefix, key), field, value);
+    }
+
+    public void hdel(String prefix, String key, String field) {
+        readLock.lock();
+        try {
+            syncCommands.hdel(RedisService.composeKey(prefix, key), field);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public Map<String, String> hgetAll(String prefix, String key) {
+        readLock.lock();
+        try {
+            return syncCommands.hgetall(RedisService.composeKey(prefix, key));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public byte[] hgetBinary(String prefix, String key, String field) {
+        return binarySyncCommands.hget(toBytes(RedisService.composeKey(prefix, key)), toBytes(field));
+    }
+
+    public void hsetBinary(String prefix, String key, String field, byte[] value) {
+        binarySyncCommands.hset(toBytes(RedisService.composeKey(prefix, key)), toBytes(field), value);
+    }
+
+    private <T> List<T> awaitAll(List<RedisFuture<T>> futures) {
+        binaryAsyncConnection.flushCommands();
+        LettuceFutures.awaitAll(1, TimeUnit.MINUTES, futures.toArray(new RedisFuture[futures.size()]));
+        List<T> results = new ArrayList<>(futures.size());
+        for (RedisFuture<T> future : futures) {
+            try {
+                results.add(future.get(5, TimeUnit.SECONDS));
+            } catch (ExecutionException | TimeoutException | InterruptedException e) {
+                throw new BadRequestException(e);
+            }
+        }
+        return results;
+    }
+
+    public List<byte[]> bulkHmgetBinary(String prefix, List<String> keys, List<List<String>> fields) {
+        List<RedisFuture<List<byte[]>>> futures = new ArrayList<>(keys.size());
+        for (int i=0; i<keys.size(); i++) {
+            List<String> keyFields = fields.get(i);
+            byte[][] fieldBytes = new byte[keyFields.size()][];
+            for (int j=0; j<fieldBytes.length; j++) {
+                fieldBytes[j] = toBytes(keyFields.get(j));
+            }
+            futures.add(binaryAsyncCommands.hmget(toBytes(RedisService.composeKey(prefix, keys.get(i))),
+                    fieldBytes));
+        }
+        List<byte[]> values = new ArrayList<>();
+        for (List<byte[]> keyValues : awaitAll(futures)) {
+            values.addAll(keyValues);
+        }
+        return values;
+    }
+
+    public List<Map<String, byte[]>> bulkHgetAllBinary(String prefix, List<String> keys) {
+        List<RedisFuture<Map<byte[], byte[]>>> futures = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            futures.add(binaryAsyncCommands.hgetall(toBytes(RedisService.composeKey(prefix, key))));
+        }
+        List<Map<String, byte[]>> results = new ArrayList<>(keys.size());
+        for (Map<byte[], byte[]> keyValues : awaitAll(futures)) {
+            Map<String, byte[]> result = new HashMap<>(keyValues.size());
+            for (Map.Entry<byte[], byte[]> entry : keyValues.entrySet()) {
+                result.put(new String(entry.getKey(), StandardCharsets.UTF_8), entry.getValue());
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
     public List<JsonNode> bulkGet(List<String> keys) {
         readLock.lock();
         try {
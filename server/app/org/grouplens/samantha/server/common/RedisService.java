@@ -30,6 +30,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @ImplementedBy(RedisLettuceService.class)
 public interface RedisService {
@@ -45,9 +46,23 @@ public interface RedisService {
         return StringUtils.join(keys, "\t");
     }
 
+    /**
+     * Begin an optimistic transaction, which holds the lock of the service until {@link #exec()}, {@link #discard()}
+     * or {@link #unwatch()} ends it. The code in between must end it in a finally block.
+     */
     void watch(String prefix, String key);
     void multi(boolean lock);
     List<Object> exec();
+
+    /**
+     * End the transaction after {@link #multi(boolean)} without running the commands queued, and release the lock.
+     */
+    void discard();
+
+    /**
+     * End the transaction after {@link #watch(String, String)} without {@link #multi(boolean)}, and release the lock.
+     */
+    void unwatch();
     String get(String prefix, String key);
     Long incre(String prefix, String key);
     Long increWithoutLock(String prefix, String key);
@@ -57,8 +72,29 @@ public interface RedisService {
     void delWithKey(String key);
     JsonNode getValue(String prefix, String key);
     void setValue(String prefix, String key, JsonNode value);
+    /**
+     * Iterate through the keys with SCAN so that a large key space does not block the server as KEYS does.
+     */
     List<String> keysWithPrefixPattern(String prefix, String key);
     List<JsonNode> bulkGet(List<String> keys);
+    String hget(String prefix, String key, String field);
+    void hset(String prefix, String key, String field, String value);
+    void hsetWithoutLock(String prefix, String key, String field, String value);
+    void hdel(String prefix, String key, String field);
+    Map<String, String> hgetAll(String prefix, String key);
+    byte[] hgetBinary(String prefix, String key, String field);
+    void hsetBinary(String prefix, String key, String field, byte[] value);
+
+    /**
+     * HMGET the fields of every key in one pipelined round trip.
+     * @return the values of the fields in the order of the keys and then the fields, null if a field does not exist.
+     */
+    List<byte[]> bulkHmgetBinary(String prefix, List<String> keys, List<List<String>> fields);
+
+    /**
+     * HGETALL every key in one pipelined round trip.
+     */
+    List<Map<String, byte[]>> bulkHgetAllBinary(String prefix, List<String> keys);
     void indexIntoSortedSet(String prefix, String key, String scoreAttr, JsonNode data);
     void bulkIndexIntoSortedSet(String prefix, List<String> keyAttrs, String scoreAttr, JsonNode data);
     void bulkIndexIntoHashSet(String prefix, List<String> keyAttrs, List<String> hashAttrs, JsonNode data);
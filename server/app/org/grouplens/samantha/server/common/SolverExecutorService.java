@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.server.config.ConfigKey;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import play.Configuration;
+import play.libs.Json;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link SolverExecutor}s of the engines, one per engine created when the engine first trains a model.
+ *
+ * The number of workers of an engine is samantha.ENGINE.solverExecutor.numThreads if set and otherwise
+ * samantha.solverExecutor.numThreads, where a value not positive means one per processor.
+ */
+@Singleton
+public class SolverExecutorService {
+    private final Configuration configuration;
+    private final Map<String, SolverExecutor> executors = new ConcurrentHashMap<>();
+
+    @Inject
+    public SolverExecutorService(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    private SolverExecutor createExecutor(String engineName) {
+        int numThreads = configuration.getInt(ConfigKey.SOLVER_EXECUTOR_NUM_THREADS.get(), 0);
+        String engineKey = ConfigKey.SAMANTHA_BASE.get() + "." + engineName + "." +
+                ConfigKey.ENGINE_SOLVER_EXECUTOR_NUM_THREADS.get();
+        numThreads = configuration.getInt(engineKey, numThreads);
+        if (numThreads <= 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        }
+        return new SolverExecutor(engineName, numThreads);
+    }
+
+    public SolverExecutor getExecutor(String engineName) {
+        return executors.computeIfAbsent(engineName, this::createExecutor);
+    }
+
+    private SolverExecutor getExistingExecutor(String engineName) {
+        SolverExecutor executor = executors.get(engineName);
+        if (executor == null) {
+            throw new BadRequestException("Engine " + engineName + " has not trained any model yet.");
+        }
+        return executor;
+    }
+
+    /**
+     * @return whether there was a running pass of the engine to cancel.
+     */
+    public boolean cancel(String engineName) {
+        return getExistingExecutor(engineName).cancel();
+    }
+
+    public void throttle(String engineName, int numThreads) {
+        if (numThreads <= 0) {
+            throw new BadRequestException("The number of solver threads must be positive.");
+        }
+        getExistingExecutor(engineName).setNumThreads(numThreads);
+    }
+
+    public JsonNode getStats() {
+        ObjectNode stats = Json.newObject();
+        for (Map.Entry<String, SolverExecutor> entry : executors.entrySet()) {
+            SolverExecutor executor = entry.getValue();
+            ObjectNode executorStats = Json.newObject();
+            executorStats.put("numThreads", executor.getNumThreads());
+            executorStats.put("activeWorkers", executor.getActiveWorkers());
+            executorStats.put("queueDepth", executor.getQueueDepth());
+            executorStats.put("lastPass", executor.getLastPass());
+            executorStats.put("lastPassInstances", executor.getLastPassInstances());
+            executorStats.put("lastPassInstancesPerSec", executor.getLastPassInstancesPerSec());
+            stats.set(entry.getKey(), executorStats);
+        }
+        return stats;
+    }
+}
@@ -31,6 +31,15 @@ public enum ConfigKey {
     REDIS_HOST("samantha.redis.host"),
     REDIS_PORT("samantha.redis.port"),
     REDIS_DBID("samantha.redis.dbid"),
+    REDIS_SPACE_CACHE_MAX_BYTES("samantha.redis.spaceCache.maxBytes"),
+    REDIS_SPACE_CACHE_EXPIRE_AFTER_WRITE("samantha.redis.spaceCache.expireAfterWrite"),
+    MAPPED_SPACE_DIR("samantha.mappedSpace.dir"),
+    SPACE_INDEX_SPACE_CLASS("samantha.space.indexSpaceClass"),
+    SPACE_VARIABLE_SPACE_CLASS("samantha.space.variableSpaceClass"),
+    MODEL_SNAPSHOT_COMPRESS("samantha.modelSnapshot.compress"),
+    MODEL_SNAPSHOT_MAX_DELTAS("samantha.modelSnapshot.maxDeltas"),
+    SOLVER_EXECUTOR_NUM_THREADS("samantha.solverExecutor.numThreads"),
+    ENGINE_SOLVER_EXECUTOR_NUM_THREADS("solverExecutor.numThreads"),
     ENGINES_ENABLED("samantha.engines.enabled"),
     CSV_FILE_SERVICE_SEPARATOR("samantha.csvFileService.separator"),
     CSV_FILE_SERVICE_DATA_DIRS("samantha.csvFileService.dataDirs"),
@@ -68,6 +77,9 @@ public enum ConfigKey {
     MODEL_EVALUATING_PREFIX("evaluatingModel"),
     METHOD_CLASS("methodClass"),
     OBJECTIVE_CLASS("objectiveClass"),
+    PACK_LEARNING_DATA("packLearningData"),
+    PREFETCH_LEARNING_DATA("prefetchLearningData"),
+    PREFETCH_NUM_THREADS("prefetchNumThreads"),
     DATA_SUBSCRIBERS("dataSubscribers")
     ;
     private final String key;
@@ -65,6 +65,10 @@ public class ArrayItemId2InfoExpander implements EntityExpander {
         public Object dumpModel(RequestContext requestContext) {
             throw new BadRequestException("Dumping model is not supported in this expander.");
         }
+
+        public Object deltaDumpModel(RequestContext requestContext) {
+            throw new BadRequestException("Dumping model is not supported in this expander.");
+        }
     }
 
     public static EntityExpander getExpander(Configuration expanderConfig,
@@ -67,12 +67,10 @@ public class PredictiveModelBasedPredictor extends AbstractPredictor {
         for (JsonNode entity : entityList) {
             instanceList.add(featurizer.featurize(entity, false));
         }
+        double[] scores = predictiveModel.predict(instanceList);
         List<Prediction> results = new ArrayList<>(entityList.size());
         for (int i=0; i<entityList.size(); i++) {
-            ObjectNode entity = entityList.get(i);
-            LearningInstance ins = instanceList.get(i);
-            double score = predictiveModel.predict(ins);
-            results.add(new Prediction(entity, ins, score));
+            results.add(new Prediction(entityList.get(i), instanceList.get(i), scores[i]));
         }
         return results;
     }
@@ -28,6 +28,7 @@ import org.grouplens.samantha.modeler.common.LearningMethod;
 import org.grouplens.samantha.modeler.dao.EntityDAO;
 import org.grouplens.samantha.modeler.featurizer.Featurizer;
 import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.common.PackedLearningData;
 import org.grouplens.samantha.modeler.solver.ObjectiveFunction;
 import org.grouplens.samantha.server.common.JsonHelpers;
 import org.grouplens.samantha.server.config.ConfigKey;
@@ -36,6 +37,8 @@ import org.grouplens.samantha.server.exception.BadRequestException;
 import org.grouplens.samantha.server.expander.EntityExpander;
 import org.grouplens.samantha.server.expander.ExpanderUtilities;
 import org.grouplens.samantha.server.io.RequestContext;
+import org.grouplens.samantha.server.predictor.learning.EntityListConverter;
+import org.grouplens.samantha.server.predictor.learning.PrefetchingLearningData;
 import org.grouplens.samantha.server.predictor.learning.SyncDeserializedLearningData;
 import org.grouplens.samantha.server.predictor.learning.SyncFeaturizedLearningData;
 import play.Configuration;
@@ -48,8 +51,16 @@ import java.util.List;
 
 public class PredictorUtilities {
 
+    static private final int PREFETCH_BATCH_SIZE = 128;
+
     private PredictorUtilities() {}
 
+    /**
+     * With packLearningData true in the request, the data is featurized once and kept in memory for all the passes
+     * of the learning method, see {@link PackedLearningData}. The instances are shuffled in every pass if they are
+     * used for updating the model. With prefetchLearningData true, the entities are read and featurized ahead of the
+     * learning method by prefetchNumThreads featurizer threads, see {@link PrefetchingLearningData}.
+     */
     static public LearningData getLearningData(Featurizer model, RequestContext requestContext,
                                                JsonNode daoConfig, Configuration entityDaoConfigs,
                                                List<Configuration> expandersConfig, Injector injector,
@@ -57,15 +68,33 @@ public class PredictorUtilities {
                                                String labelAttr, String weightAttr, List<String> groupKeys) {
         EntityDAO entityDAO = EntityDAOUtilities.getEntityDAO(entityDaoConfigs, requestContext,
                 daoConfig, injector);
-        boolean serialized = JsonHelpers.getOptionalBoolean(requestContext.getRequestBody(), serializedKey, false);
+        JsonNode reqBody = requestContext.getRequestBody();
+        boolean serialized = JsonHelpers.getOptionalBoolean(reqBody, serializedKey, false);
+        LearningData data;
+        EntityListConverter converter;
         if (serialized) {
-            return new SyncDeserializedLearningData(entityDAO, insAttr, groupKeys, labelAttr, weightAttr);
+            SyncDeserializedLearningData deserialized = new SyncDeserializedLearningData(entityDAO, insAttr,
+                    groupKeys, labelAttr, weightAttr);
+            data = deserialized;
+            converter = deserialized;
         } else {
             List<EntityExpander> entityExpanders = ExpanderUtilities.getEntityExpanders(requestContext,
                     expandersConfig, injector);
-            return new SyncFeaturizedLearningData(entityDAO, groupKeys, entityExpanders,
-                    model, requestContext, update);
+            SyncFeaturizedLearningData featurized = new SyncFeaturizedLearningData(entityDAO, groupKeys,
+                    entityExpanders, model, requestContext, update);
+            data = featurized;
+            converter = featurized;
+        }
+        if (JsonHelpers.getOptionalBoolean(reqBody, ConfigKey.PREFETCH_LEARNING_DATA.get(), false)) {
+            int numThreads = JsonHelpers.getOptionalInt(reqBody, ConfigKey.PREFETCH_NUM_THREADS.get(),
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            data = new PrefetchingLearningData(entityDAO, groupKeys, converter, numThreads,
+                    PREFETCH_BATCH_SIZE, 2 * numThreads);
+        }
+        if (JsonHelpers.getOptionalBoolean(reqBody, ConfigKey.PACK_LEARNING_DATA.get(), false)) {
+            data = new PackedLearningData(data, update, 0L);
         }
+        return data;
     }
 
     static public List<Prediction> predictFromRequest(Predictor predictor, RequestContext requestContext,
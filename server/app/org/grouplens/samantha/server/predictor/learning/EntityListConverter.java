@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.predictor.learning;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+
+import java.util.List;
+
+/**
+ * Turns a list of entities read from an {@link org.grouplens.samantha.modeler.dao.EntityDAO EntityDAO}, e.g. a
+ * group, into learning instances. It is called by many threads at the same time, see
+ * {@link PrefetchingLearningData}.
+ */
+public interface EntityListConverter {
+    /**
+     * @return the learning instances of the entities, which can be empty if none of them makes an instance.
+     */
+    List<LearningInstance> toLearningInstances(List<ObjectNode> entityList);
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.predictor.learning;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.modeler.dao.EntityDAO;
+import org.grouplens.samantha.modeler.featurizer.GroupedEntityList;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A learning data reading and featurizing ahead of the optimizer threads in a pipeline, instead of every optimizer
+ * thread reading from the {@link EntityDAO} under its lock and then featurizing by itself. A reader thread reads the
+ * entities, or the groups of them, in batches into a bounded queue. Featurizer threads turn the batches into batches
+ * of learning instances with an {@link EntityListConverter} and put them into a second bounded queue, which the
+ * optimizer threads take them from. A full queue blocks the stage before it, so at most a few batches are held in
+ * memory whatever the speed of the optimizer.
+ *
+ * The instances of a group stay together, but the featurizer threads make the order of the instances differ from the
+ * order in the DAO. The throughput and the time each stage spends blocked are logged after every iteration, see also
+ * {@link #getStats()}.
+ */
+public class PrefetchingLearningData implements LearningData {
+    private static Logger logger = LoggerFactory.getLogger(PrefetchingLearningData.class);
+    private static final List<List<ObjectNode>> END_OF_ENTITIES = new ArrayList<>(0);
+    private static final List<List<LearningInstance>> END_OF_INSTANCES = new ArrayList<>(0);
+    private static final long POLL_MILLIS = 100L;
+
+    private final EntityDAO entityDAO;
+    private final GroupedEntityList groupedEntityList;
+    private final EntityListConverter converter;
+    private final int numFeaturizers;
+    private final int batchSize;
+    private final int queueSize;
+    private volatile Pipeline pipeline;
+
+    private final AtomicLong numEntities = new AtomicLong(0L);
+    private final AtomicLong readNanos = new AtomicLong(0L);
+    private final AtomicLong readerBlockedNanos = new AtomicLong(0L);
+    private final AtomicLong numInstances = new AtomicLong(0L);
+    private final AtomicLong featurizeNanos = new AtomicLong(0L);
+    private final AtomicLong featurizerBlockedNanos = new AtomicLong(0L);
+    private final AtomicLong consumerBlockedNanos = new AtomicLong(0L);
+
+    private static class Batch {
+        private List<List<LearningInstance>> units = new ArrayList<>(0);
+        private int idx = 0;
+        private boolean ended = false;
+    }
+
+    private class Pipeline {
+        private final BlockingQueue<List<List<ObjectNode>>> entityQueue = new ArrayBlockingQueue<>(queueSize);
+        private final BlockingQueue<List<List<LearningInstance>>> instanceQueue =
+                new ArrayBlockingQueue<>(queueSize);
+        private final AtomicInteger numRunning = new AtomicInteger(numFeaturizers);
+        private final ThreadLocal<Batch> batches = ThreadLocal.withInitial(Batch::new);
+        private final List<Thread> threads = new ArrayList<>(numFeaturizers + 1);
+        private final long startNanos = System.nanoTime();
+        private volatile Throwable error = null;
+
+        private Pipeline() {
+            threads.add(newThread(this::read, "samantha-prefetch-reader"));
+            for (int i=0; i<numFeaturizers; i++) {
+                threads.add(newThread(this::featurize, "samantha-prefetch-featurizer-" + i));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+        }
+
+        private Thread newThread(Runnable runnable, String name) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private <T> void put(BlockingQueue<T> queue, T item, AtomicLong blockedNanos) throws InterruptedException {
+            if (!queue.offer(item)) {
+                long start = System.nanoTime();
+                queue.put(item);
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        private List<ObjectNode> readUnit() {
+            if (groupedEntityList != null) {
+                List<ObjectNode> group = groupedEntityList.getNextGroup();
+                if (group.size() == 0) {
+                    groupedEntityList.close();
+                    return null;
+                }
+                return group;
+            } else if (entityDAO.hasNextEntity()) {
+                List<ObjectNode> unit = new ArrayList<>(1);
+                unit.add(entityDAO.getNextEntity());
+                return unit;
+            } else {
+                entityDAO.close();
+                return null;
+            }
+        }
+
+        private void read() {
+            try {
+                List<List<ObjectNode>> batch = new ArrayList<>(batchSize);
+                List<ObjectNode> unit;
+                long start = System.nanoTime();
+                while ((unit = readUnit()) != null) {
+                    numEntities.addAndGet(unit.size());
+                    batch.add(unit);
+                    if (batch.size() >= batchSize) {
+                        readNanos.addAndGet(System.nanoTime() - start);
+                        put(entityQueue, batch, readerBlockedNanos);
+                        batch = new ArrayList<>(batchSize);
+                        start = System.nanoTime();
+                    }
+                }
+                readNanos.addAndGet(System.nanoTime() - start);
+                if (batch.size() > 0) {
+                    put(entityQueue, batch, readerBlockedNanos);
+                }
+                for (int i=0; i<numFeaturizers; i++) {
+                    put(entityQueue, END_OF_ENTITIES, readerBlockedNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        private void featurize() {
+            try {
+                List<List<ObjectNode>> entities;
+                while ((entities = entityQueue.take()) != END_OF_ENTITIES) {
+                    long start = System.nanoTime();
+                    List<List<LearningInstance>> units = new ArrayList<>(entities.size());
+                    long num = 0L;
+                    for (List<ObjectNode> entityList : entities) {
+                        List<LearningInstance> instances = converter.toLearningInstances(entityList);
+                        if (instances.size() > 0) {
+                            units.add(instances);
+                            num += instances.size();
+                        }
+                    }
+                    numInstances.addAndGet(num);
+                    featurizeNanos.addAndGet(System.nanoTime() - start);
+                    put(instanceQueue, units, featurizerBlockedNanos);
+                }
+                if (numRunning.decrementAndGet() == 0) {
+                    put(instanceQueue, END_OF_INSTANCES, featurizerBlockedNanos);
+                    logStats(startNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        private List<List<LearningInstance>> take() {
+            long start = System.nanoTime();
+            try {
+                List<List<LearningInstance>> units;
+                while ((units = instanceQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    if (error != null) {
+                        stop();
+                        throw new BadRequestException(error);
+                    }
+                }
+                if (units == END_OF_INSTANCES) {
+                    instanceQueue.offer(END_OF_INSTANCES);
+                }
+                return units;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BadRequestException(e);
+            } finally {
+                consumerBlockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        private List<LearningInstance> next() {
+            Batch batch = batches.get();
+            while (batch.idx >= batch.units.size()) {
+                if (batch.ended) {
+                    return new ArrayList<>(0);
+                }
+                List<List<LearningInstance>> units = take();
+                batch.ended = units == END_OF_INSTANCES;
+                batch.units = units;
+                batch.idx = 0;
+            }
+            return batch.units.get(batch.idx++);
+        }
+
+        private void stop() {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BadRequestException(e);
+            }
+        }
+    }
+
+    /**
+     * @param groupKeys the keys of the groups of entities which make one list of learning instances. If null or
+     *                  empty, every entity is one list.
+     * @param numFeaturizers the number of featurizer threads.
+     * @param batchSize the number of entity lists in a batch handed from a stage to the next.
+     * @param queueSize the number of batches a queue between two stages holds before it blocks the stage before it.
+     */
+    public PrefetchingLearningData(EntityDAO entityDAO, List<String> groupKeys, EntityListConverter converter,
+                                   int numFeaturizers, int batchSize, int queueSize) {
+        this.entityDAO = entityDAO;
+        this.converter = converter;
+        this.numFeaturizers = numFeaturizers;
+        this.batchSize = batchSize;
+        this.queueSize = queueSize;
+        if (groupKeys != null && groupKeys.size() > 0) {
+            groupedEntityList = new GroupedEntityList(groupKeys, entityDAO);
+        } else {
+            groupedEntityList = null;
+        }
+    }
+
+    private void logStats(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("Prefetched {} entities into {} learning instances in {} seconds: " +
+                        "reading {} entities/sec, featurizing {} instances/sec per thread, " +
+                        "blocked reader {}s, featurizers {}s, consumers {}s.",
+                numEntities.get(), numInstances.get(), seconds,
+                (long) (numEntities.get() / Math.max(readNanos.get() / 1e9, 1e-9)),
+                (long) (numInstances.get() / Math.max(featurizeNanos.get() / 1e9 / numFeaturizers, 1e-9)),
+                readerBlockedNanos.get() / 1e9, featurizerBlockedNanos.get() / 1e9,
+                consumerBlockedNanos.get() / 1e9);
+    }
+
+    /**
+     * @return the counters of the current iteration: the entities read and the instances made, and the seconds the
+     * reader and the featurizers spent working and blocked on a full queue and the optimizer threads spent waiting.
+     */
+    public String getStats() {
+        return String.format("entities=%d instances=%d readSeconds=%.3f readerBlockedSeconds=%.3f " +
+                        "featurizeSeconds=%.3f featurizerBlockedSeconds=%.3f consumerBlockedSeconds=%.3f",
+                numEntities.get(), numInstances.get(), readNanos.get() / 1e9, readerBlockedNanos.get() / 1e9,
+                featurizeNanos.get() / 1e9, featurizerBlockedNanos.get() / 1e9, consumerBlockedNanos.get() / 1e9);
+    }
+
+    private synchronized Pipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = new Pipeline();
+        }
+        return pipeline;
+    }
+
+    public List<LearningInstance> getLearningInstance() {
+        Pipeline cur = pipeline;
+        if (cur == null) {
+            cur = getPipeline();
+        }
+        return cur.next();
+    }
+
+    synchronized public void startNewIteration() {
+        if (pipeline != null) {
+            pipeline.stop();
+            pipeline = null;
+        }
+        if (groupedEntityList == null) {
+            entityDAO.restart();
+        } else {
+            groupedEntityList.restart();
+        }
+        numEntities.set(0L);
+        readNanos.set(0L);
+        readerBlockedNanos.set(0L);
+        numInstances.set(0L);
+        featurizeNanos.set(0L);
+        featurizerBlockedNanos.set(0L);
+        consumerBlockedNanos.set(0L);
+    }
+}
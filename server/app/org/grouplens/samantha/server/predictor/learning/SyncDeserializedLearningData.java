@@ -36,7 +36,7 @@ import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
 
-public class SyncDeserializedLearningData implements LearningData {
+public class SyncDeserializedLearningData implements LearningData, EntityListConverter {
     private final EntityDAO entityDAO;
     private final GroupedEntityList groupedEntityList;
     private final String insAttr;
@@ -75,7 +75,7 @@ public class SyncDeserializedLearningData implements LearningData {
         }
     }
 
-    private List<LearningInstance> deserializeEntityList(List<ObjectNode> entityList) {
+    public List<LearningInstance> toLearningInstances(List<ObjectNode> entityList) {
         List<LearningInstance> instances = new ArrayList<>(entityList.size());
         for (ObjectNode entity : entityList) {
             instances.add(deserializeLearningInstance(entity));
@@ -105,7 +105,7 @@ public class SyncDeserializedLearningData implements LearningData {
             synchronized (groupedEntityList) {
                 entityList = groupedEntityList.getNextGroup();
             }
-            instances = deserializeEntityList(entityList);
+            instances = toLearningInstances(entityList);
             entityList.clear();
             return instances;
         }
@@ -36,7 +36,7 @@ import org.grouplens.samantha.server.io.RequestContext;
 import java.util.ArrayList;
 import java.util.List;
 
-public class SyncFeaturizedLearningData implements LearningData {
+public class SyncFeaturizedLearningData implements LearningData, EntityListConverter {
     private final EntityDAO entityDAO;
     private final GroupedEntityList groupedEntityList;
     private final List<EntityExpander> entityExpanders;
@@ -62,6 +62,14 @@ public class SyncFeaturizedLearningData implements LearningData {
         }
     }
 
+    public List<LearningInstance> toLearningInstances(List<ObjectNode> entityList) {
+        List<ObjectNode> expanded = ExpanderUtilities.expand(entityList, entityExpanders, requestContext);
+        if (expanded.size() == 0) {
+            return new ArrayList<>(0);
+        }
+        return FeaturizerUtilities.featurize(expanded, featurizer, update);
+    }
+
     public List<LearningInstance> getLearningInstance() {
         List<LearningInstance> instances;
         List<ObjectNode> curList;
@@ -23,6 +23,7 @@
 package org.grouplens.samantha.server.retriever;
 
 import org.grouplens.samantha.modeler.knn.FeatureKnnModel;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
 import org.grouplens.samantha.modeler.space.IndexSpace;
 import org.grouplens.samantha.modeler.space.SpaceMode;
 import org.grouplens.samantha.modeler.space.SpaceProducer;
@@ -44,11 +45,13 @@ public class FeatureKnnModelManager extends AbstractModelManager {
     private final int numNeighbors;
     private final boolean reverse;
     private final int minSupport;
+    private final double changeThreshold;
 
     public FeatureKnnModelManager(String modelName, String modelFile, Injector injector,
                                   String svdfeaPredictorName,
                                   String svdfeaModelName, List<String> itemAttrs,
-                                  int numNeighbors, boolean reverse, int minSupport) {
+                                  int numNeighbors, boolean reverse, int minSupport,
+                                  double changeThreshold) {
         super(injector, modelName, modelFile, new ArrayList<>());
         this.svdfeaModelName = svdfeaModelName;
         this.svdfeaPredictorName = svdfeaPredictorName;
@@ -56,15 +59,20 @@ public class FeatureKnnModelManager extends AbstractModelManager {
         this.numNeighbors = numNeighbors;
         this.reverse = reverse;
         this.minSupport = minSupport;
+        this.changeThreshold = changeThreshold;
     }
 
-    public Object createModel(RequestContext requestContext, SpaceMode spaceMode) {
+    private SVDFeature getSVDFeature(RequestContext requestContext) {
         String engineName = requestContext.getEngineName();
         SamanthaConfigService configService = injector.instanceOf(SamanthaConfigService.class);
         configService.getPredictor(svdfeaPredictorName, requestContext);
         ModelService modelService = injector.instanceOf(ModelService.class);
-        SVDFeature svdFeature = (SVDFeature) modelService.getModel(engineName,
+        return (SVDFeature) modelService.getModel(engineName,
                 svdfeaModelName);
+    }
+
+    public Object createModel(RequestContext requestContext, SpaceMode spaceMode) {
+        SVDFeature svdFeature = getSVDFeature(requestContext);
         SpaceProducer spaceProducer = injector.instanceOf(SpaceProducer.class);
         IndexSpace indexSpace = spaceProducer.getIndexSpace(modelName, spaceMode);
         VariableSpace variableSpace = spaceProducer.getVariableSpace(modelName, spaceMode);
@@ -75,7 +83,18 @@ public class FeatureKnnModelManager extends AbstractModelManager {
 
     public Object buildModel(Object model, RequestContext requestContext) {
         FeatureKnnModel knnModel = (FeatureKnnModel) model;
-        knnModel.buildModel();
+        knnModel.buildModel(getSolverExecutor(requestContext));
+        return model;
+    }
+
+    /**
+     * Refresh the neighbors of only the items that are new or changed in the SVDFeature model, see
+     * {@link FeatureKnnModel#updateModel(SVDFeature, double, SolverExecutor)}. The items are compared on the
+     * solver executor of the engine.
+     */
+    public Object updateModel(Object model, RequestContext requestContext) {
+        FeatureKnnModel knnModel = (FeatureKnnModel) model;
+        knnModel.updateModel(getSVDFeature(requestContext), changeThreshold, getSolverExecutor(requestContext));
         return model;
     }
 }
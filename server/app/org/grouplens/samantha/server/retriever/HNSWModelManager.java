@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.retriever;
+
+import org.grouplens.samantha.modeler.knn.HNSWIndex;
+import org.grouplens.samantha.modeler.knn.SimilarityMetric;
+import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.SpaceMode;
+import org.grouplens.samantha.modeler.space.SpaceProducer;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeature;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureItemMatrix;
+import org.grouplens.samantha.server.common.AbstractModelManager;
+import org.grouplens.samantha.server.common.ModelService;
+import org.grouplens.samantha.server.config.SamanthaConfigService;
+import org.grouplens.samantha.server.io.RequestContext;
+import play.Logger;
+import play.inject.Injector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a {@link HNSWIndex} over the factors of the items of a SVDFeature model, as in
+ * {@link FeatureKnnModelManager}. With {@link SimilarityMetric#INNER_PRODUCT}, the item biases are appended to the
+ * factors so that the index ranks the items as the model does for a query of the user factor sum followed by one.
+ */
+public class HNSWModelManager extends AbstractModelManager {
+    private final String svdfeaPredictorName;
+    private final String svdfeaModelName;
+    private final List<String> itemAttrs;
+    private final int minSupport;
+    private final SimilarityMetric metric;
+    private final int maxNeighbors;
+    private final int efConstruction;
+    private final int numThreads;
+
+    public HNSWModelManager(String modelName, String modelFile, Injector injector,
+                            String svdfeaPredictorName, String svdfeaModelName, List<String> itemAttrs,
+                            int minSupport, SimilarityMetric metric, int maxNeighbors, int efConstruction,
+                            int numThreads) {
+        super(injector, modelName, modelFile, new ArrayList<>());
+        this.svdfeaPredictorName = svdfeaPredictorName;
+        this.svdfeaModelName = svdfeaModelName;
+        this.itemAttrs = itemAttrs;
+        this.minSupport = minSupport;
+        this.metric = metric;
+        this.maxNeighbors = maxNeighbors;
+        this.efConstruction = efConstruction;
+        this.numThreads = numThreads;
+    }
+
+    public Object createModel(RequestContext requestContext, SpaceMode spaceMode) {
+        SpaceProducer spaceProducer = injector.instanceOf(SpaceProducer.class);
+        IndexSpace indexSpace = spaceProducer.getIndexSpace(modelName, spaceMode);
+        VariableSpace variableSpace = spaceProducer.getVariableSpace(modelName, spaceMode);
+        return new HNSWIndex(modelName, metric, maxNeighbors, efConstruction, 0L, indexSpace, variableSpace);
+    }
+
+    public Object buildModel(Object model, RequestContext requestContext) {
+        String engineName = requestContext.getEngineName();
+        SamanthaConfigService configService = injector.instanceOf(SamanthaConfigService.class);
+        configService.getPredictor(svdfeaPredictorName, requestContext);
+        ModelService modelService = injector.instanceOf(ModelService.class);
+        SVDFeature svdFeature = (SVDFeature) modelService.getModel(engineName, svdfeaModelName);
+        SVDFeatureItemMatrix itemMatrix = new SVDFeatureItemMatrix(svdFeature, itemAttrs, minSupport);
+        List<String> keys = new ArrayList<>(itemMatrix.getNumItems());
+        for (int i=0; i<itemMatrix.getNumItems(); i++) {
+            keys.add(itemMatrix.getItemKey(i));
+        }
+        boolean withBiases = metric == SimilarityMetric.INNER_PRODUCT;
+        int dim = itemMatrix.getFactorDim() + (withBiases ? 1 : 0);
+        long start = System.currentTimeMillis();
+        HNSWIndex index = (HNSWIndex) model;
+        index.build(keys, itemMatrix.getItemVectors(withBiases), dim, numThreads,
+                getSolverExecutor(requestContext));
+        Logger.info("Built the index {} of {} items in {} ms.", modelName, keys.size(),
+                System.currentTimeMillis() - start);
+        return model;
+    }
+}
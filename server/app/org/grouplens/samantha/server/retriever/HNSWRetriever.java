@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.retriever;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.grouplens.samantha.modeler.featurizer.Feature;
+import org.grouplens.samantha.modeler.featurizer.FeatureExtractorUtilities;
+import org.grouplens.samantha.modeler.knn.HNSWIndex;
+import org.grouplens.samantha.modeler.knn.SimilarityMetric;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeature;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureInstance;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureKey;
+import org.grouplens.samantha.server.expander.EntityExpander;
+import org.grouplens.samantha.server.expander.ExpanderUtilities;
+import org.grouplens.samantha.server.io.RequestContext;
+import play.Configuration;
+import play.Logger;
+import play.libs.Json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Retrieves the maxHits items most similar to the user factor sum of the request in a {@link HNSWIndex} built by
+ * {@link HNSWModelManager}, i.e. the approximate version of {@link SVDFeatureMIPSRetriever}.
+ */
+public class HNSWRetriever extends AbstractRetriever {
+    private final SVDFeature svdFeature;
+    private final HNSWIndex index;
+    private final List<String> itemAttrs;
+    private final String scoreAttr;
+    private final int maxHits;
+    private final int efSearch;
+    private final List<EntityExpander> expanders;
+
+    public HNSWRetriever(SVDFeature svdFeature, HNSWIndex index, List<String> itemAttrs, String scoreAttr,
+                         int maxHits, int efSearch, List<EntityExpander> expanders, Configuration config) {
+        super(config);
+        this.svdFeature = svdFeature;
+        this.index = index;
+        this.itemAttrs = itemAttrs;
+        this.scoreAttr = scoreAttr;
+        this.maxHits = maxHits;
+        this.efSearch = efSearch;
+        this.expanders = expanders;
+    }
+
+    public RetrievedResult retrieve(RequestContext requestContext) {
+        long start = System.currentTimeMillis();
+        SVDFeatureInstance ins = (SVDFeatureInstance) svdFeature.featurize(requestContext.getRequestBody(), false);
+        double[] query = new double[index.getDimension()];
+        for (Feature fea : ins.getUserFeatures()) {
+            svdFeature.accumulateVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), fea.getIndex(), fea.getValue(),
+                    query);
+        }
+        if (index.getMetric() == SimilarityMetric.INNER_PRODUCT && query.length > 0) {
+            query[query.length - 1] = 1.0;
+        }
+        int[] indices = new int[maxHits];
+        double[] scores = new double[maxHits];
+        int num = index.search(query, maxHits, efSearch, indices, scores);
+        Logger.debug("Searching time of {} items: {}", index.getIndexSize(), System.currentTimeMillis() - start);
+        List<ObjectNode> results = new ArrayList<>(num);
+        for (int i=0; i<num; i++) {
+            ObjectNode one = Json.newObject();
+            Map<String, String> keys = FeatureExtractorUtilities.decomposeKey(index.getKeyByIndex(indices[i]));
+            for (String attr : itemAttrs) {
+                one.put(attr, keys.get(attr));
+            }
+            if (scoreAttr != null) {
+                one.put(scoreAttr, scores[i]);
+            }
+            results.add(one);
+        }
+        results = ExpanderUtilities.expand(results, expanders, requestContext);
+        return new RetrievedResult(results, index.getIndexSize());
+    }
+}
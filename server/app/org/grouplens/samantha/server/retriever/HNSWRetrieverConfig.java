@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.retriever;
+
+import org.grouplens.samantha.modeler.knn.HNSWIndex;
+import org.grouplens.samantha.modeler.knn.SimilarityMetric;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeature;
+import org.grouplens.samantha.server.common.AbstractComponentConfig;
+import org.grouplens.samantha.server.common.ModelManager;
+import org.grouplens.samantha.server.common.ModelService;
+import org.grouplens.samantha.server.config.SamanthaConfigService;
+import org.grouplens.samantha.server.expander.EntityExpander;
+import org.grouplens.samantha.server.expander.ExpanderUtilities;
+import org.grouplens.samantha.server.io.RequestContext;
+import play.Configuration;
+import play.inject.Injector;
+
+import java.util.List;
+
+public class HNSWRetrieverConfig extends AbstractComponentConfig implements RetrieverConfig {
+    final private String svdfeaPredictorName;
+    final private String svdfeaModelName;
+    final private String modelName;
+    final private String modelFile;
+    final private List<String> itemAttrs;
+    final private String scoreAttr;
+    final private int maxHits;
+    final private int minSupport;
+    final private SimilarityMetric metric;
+    final private int maxNeighbors;
+    final private int efConstruction;
+    final private int efSearch;
+    final private int numThreads;
+    final private Injector injector;
+
+    private HNSWRetrieverConfig(String svdfeaPredictorName, String svdfeaModelName, String modelName,
+                                String modelFile, List<String> itemAttrs, String scoreAttr, int maxHits,
+                                int minSupport, SimilarityMetric metric, int maxNeighbors, int efConstruction,
+                                int efSearch, int numThreads, Injector injector, Configuration config) {
+        super(config);
+        this.svdfeaPredictorName = svdfeaPredictorName;
+        this.svdfeaModelName = svdfeaModelName;
+        this.modelName = modelName;
+        this.modelFile = modelFile;
+        this.itemAttrs = itemAttrs;
+        this.scoreAttr = scoreAttr;
+        this.maxHits = maxHits;
+        this.minSupport = minSupport;
+        this.metric = metric;
+        this.maxNeighbors = maxNeighbors;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.numThreads = numThreads;
+        this.injector = injector;
+    }
+
+    public static RetrieverConfig getRetrieverConfig(Configuration retrieverConfig,
+                                                     Injector injector) {
+        String scoreAttr = null;
+        if (retrieverConfig.asMap().containsKey("scoreAttr")) {
+            scoreAttr = retrieverConfig.getString("scoreAttr");
+        }
+        int minSupport = 0;
+        if (retrieverConfig.asMap().containsKey("minSupport")) {
+            minSupport = retrieverConfig.getInt("minSupport");
+        }
+        SimilarityMetric metric = SimilarityMetric.INNER_PRODUCT;
+        if (retrieverConfig.asMap().containsKey("metric")) {
+            metric = SimilarityMetric.valueOf(retrieverConfig.getString("metric"));
+        }
+        int maxNeighbors = 16;
+        if (retrieverConfig.asMap().containsKey("maxNeighbors")) {
+            maxNeighbors = retrieverConfig.getInt("maxNeighbors");
+        }
+        int efConstruction = 200;
+        if (retrieverConfig.asMap().containsKey("efConstruction")) {
+            efConstruction = retrieverConfig.getInt("efConstruction");
+        }
+        int efSearch = 100;
+        if (retrieverConfig.asMap().containsKey("efSearch")) {
+            efSearch = retrieverConfig.getInt("efSearch");
+        }
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        if (retrieverConfig.asMap().containsKey("numThreads")) {
+            numThreads = retrieverConfig.getInt("numThreads");
+        }
+        return new HNSWRetrieverConfig(retrieverConfig.getString("svdfeaPredictorName"),
+                retrieverConfig.getString("svdfeaModelName"),
+                retrieverConfig.getString("modelName"),
+                retrieverConfig.getString("modelFile"),
+                retrieverConfig.getStringList("itemAttrs"),
+                scoreAttr, retrieverConfig.getInt("maxHits"), minSupport, metric, maxNeighbors,
+                efConstruction, efSearch, numThreads, injector, retrieverConfig);
+    }
+
+    public Retriever getRetriever(RequestContext requestContext) {
+        SamanthaConfigService configService = injector.instanceOf(SamanthaConfigService.class);
+        configService.getPredictor(svdfeaPredictorName, requestContext);
+        ModelService modelService = injector.instanceOf(ModelService.class);
+        SVDFeature svdFeature = (SVDFeature) modelService.getModel(requestContext.getEngineName(),
+                svdfeaModelName);
+        ModelManager modelManager = new HNSWModelManager(modelName, modelFile, injector, svdfeaPredictorName,
+                svdfeaModelName, itemAttrs, minSupport, metric, maxNeighbors, efConstruction, numThreads);
+        HNSWIndex index = (HNSWIndex) modelManager.manage(requestContext);
+        List<EntityExpander> expanders = ExpanderUtilities.getEntityExpanders(requestContext,
+                expandersConfig, injector);
+        return new HNSWRetriever(svdFeature, index, itemAttrs, scoreAttr, maxHits, efSearch, expanders, config);
+    }
+}
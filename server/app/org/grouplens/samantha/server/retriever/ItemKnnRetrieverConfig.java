@@ -45,12 +45,13 @@ public class ItemKnnRetrieverConfig extends AbstractComponentConfig implements R
     final private List<String> itemAttrs;
     final private int numNeighbors;
     final private int minSupport;
+    final private double changeThreshold;
     final private String svdfeaPredictorName;
     final private String svdfeaModelName;
     final private Injector injector;
 
     private ItemKnnRetrieverConfig(String retrieverName, String knnModelName, String kdnModelName,
-                                   String knnModelFile, String kdnModelFile, int minSupport,
+                                   String knnModelFile, String kdnModelFile, int minSupport, double changeThreshold,
                                    String weightAttr, String scoreAttr, List<String> itemAttrs, int numNeighbors,
                                    String svdfeaPredictorName, String svdfeaModelName, Injector injector,
                                    Configuration config) {
@@ -62,6 +63,7 @@ public class ItemKnnRetrieverConfig extends AbstractComponentConfig implements R
         this.kdnModelFile = kdnModelFile;
         this.weightAttr = weightAttr;
         this.minSupport = minSupport;
+        this.changeThreshold = changeThreshold;
         this.scoreAttr = scoreAttr;
         this.itemAttrs = itemAttrs;
         this.injector = injector;
@@ -72,12 +74,16 @@ public class ItemKnnRetrieverConfig extends AbstractComponentConfig implements R
 
     public static RetrieverConfig getRetrieverConfig(Configuration retrieverConfig,
                                                      Injector injector) {
+        double changeThreshold = 0.05;
+        if (retrieverConfig.asMap().containsKey("changeThreshold")) {
+            changeThreshold = retrieverConfig.getDouble("changeThreshold");
+        }
         return new ItemKnnRetrieverConfig(retrieverConfig.getString("userInterRetrieverName"),
                 retrieverConfig.getString("knnModelName"),
                 retrieverConfig.getString("kdnModelName"),
                 retrieverConfig.getString("knnModelFile"),
                 retrieverConfig.getString("kdnModelFile"),
-                retrieverConfig.getInt("minSupport"),
+                retrieverConfig.getInt("minSupport"), changeThreshold,
                 retrieverConfig.getString("weightAttr"),
                 retrieverConfig.getString("scoreAttr"),
                 retrieverConfig.getStringList("itemAttrs"),
@@ -93,10 +99,12 @@ public class ItemKnnRetrieverConfig extends AbstractComponentConfig implements R
         Retriever retriever = configService.getRetriever(retrieverName, requestContext);
         List<EntityExpander> expanders = ExpanderUtilities.getEntityExpanders(requestContext, expandersConfig, injector);
         ModelManager knnModelManager = new FeatureKnnModelManager(knnModelName, knnModelFile, injector,
-                svdfeaPredictorName, svdfeaModelName, itemAttrs, numNeighbors, false, minSupport);
+                svdfeaPredictorName, svdfeaModelName, itemAttrs, numNeighbors, false, minSupport,
+                changeThreshold);
         FeatureKnnModel knnModel = (FeatureKnnModel) knnModelManager.manage(requestContext);
         ModelManager kdnModelManager = new FeatureKnnModelManager(kdnModelName, kdnModelFile, injector,
-                svdfeaPredictorName, svdfeaModelName, itemAttrs, numNeighbors, true, minSupport);
+                svdfeaPredictorName, svdfeaModelName, itemAttrs, numNeighbors, true, minSupport,
+                changeThreshold);
         FeatureKnnModel kdnModel = (FeatureKnnModel) kdnModelManager.manage(requestContext);
         KnnModelFeatureTrigger trigger = new KnnModelFeatureTrigger(knnModel, kdnModel,
                 itemAttrs, weightAttr, scoreAttr);
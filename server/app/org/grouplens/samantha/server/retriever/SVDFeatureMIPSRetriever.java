@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.retriever;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.grouplens.samantha.modeler.featurizer.FeatureExtractorUtilities;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeature;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureInstance;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureItemMatrix;
+import org.grouplens.samantha.server.expander.EntityExpander;
+import org.grouplens.samantha.server.expander.ExpanderUtilities;
+import org.grouplens.samantha.server.io.RequestContext;
+import play.Configuration;
+import play.Logger;
+import play.libs.Json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Retrieves the maxHits items of the largest SVDFeature scores for the user of the request by scanning all the items
+ * of a {@link SVDFeatureItemMatrix}, i.e. the exact maximum inner product search over the item factors plus the item
+ * biases. The global and user biases are left out since they do not change the order.
+ */
+public class SVDFeatureMIPSRetriever extends AbstractRetriever {
+    private final SVDFeature svdFeature;
+    private final SVDFeatureItemMatrix itemMatrix;
+    private final List<String> itemAttrs;
+    private final String scoreAttr;
+    private final int maxHits;
+    private final ExecutorService executor;
+    private final int numThreads;
+    private final List<EntityExpander> expanders;
+
+    public SVDFeatureMIPSRetriever(SVDFeature svdFeature, SVDFeatureItemMatrix itemMatrix, List<String> itemAttrs,
+                                   String scoreAttr, int maxHits, ExecutorService executor, int numThreads,
+                                   List<EntityExpander> expanders, Configuration config) {
+        super(config);
+        this.svdFeature = svdFeature;
+        this.itemMatrix = itemMatrix;
+        this.itemAttrs = itemAttrs;
+        this.scoreAttr = scoreAttr;
+        this.maxHits = maxHits;
+        this.executor = executor;
+        this.numThreads = numThreads;
+        this.expanders = expanders;
+    }
+
+    public RetrievedResult retrieve(RequestContext requestContext) {
+        long start = System.currentTimeMillis();
+        SVDFeatureInstance ins = (SVDFeatureInstance) svdFeature.featurize(requestContext.getRequestBody(), false);
+        double[] userFactorSum = itemMatrix.getUserFactorSum(ins);
+        int[] rows = new int[maxHits];
+        double[] scores = new double[maxHits];
+        int num = itemMatrix.getTopN(userFactorSum, maxHits, executor, numThreads, rows, scores);
+        Logger.debug("Scanning time of {} items: {}", itemMatrix.getNumItems(), System.currentTimeMillis() - start);
+        List<ObjectNode> results = new ArrayList<>(num);
+        for (int i=0; i<num; i++) {
+            ObjectNode one = Json.newObject();
+            Map<String, String> keys = FeatureExtractorUtilities.decomposeKey(itemMatrix.getItemKey(rows[i]));
+            for (String attr : itemAttrs) {
+                one.put(attr, keys.get(attr));
+            }
+            if (scoreAttr != null) {
+                one.put(scoreAttr, scores[i]);
+            }
+            results.add(one);
+        }
+        results = ExpanderUtilities.expand(results, expanders, requestContext);
+        return new RetrievedResult(results, itemMatrix.getNumItems());
+    }
+}
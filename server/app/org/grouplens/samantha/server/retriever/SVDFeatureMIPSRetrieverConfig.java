@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.retriever;
+
+import org.grouplens.samantha.modeler.svdfeature.SVDFeature;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureItemMatrix;
+import org.grouplens.samantha.server.common.AbstractComponentConfig;
+import org.grouplens.samantha.server.common.ModelService;
+import org.grouplens.samantha.server.config.SamanthaConfigService;
+import org.grouplens.samantha.server.expander.EntityExpander;
+import org.grouplens.samantha.server.expander.ExpanderUtilities;
+import org.grouplens.samantha.server.io.RequestContext;
+import play.Configuration;
+import play.Logger;
+import play.inject.Injector;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SVDFeatureMIPSRetrieverConfig extends AbstractComponentConfig implements RetrieverConfig {
+    final private String svdfeaPredictorName;
+    final private String svdfeaModelName;
+    final private String modelName;
+    final private List<String> itemAttrs;
+    final private String scoreAttr;
+    final private int maxHits;
+    final private int minSupport;
+    final private int numThreads;
+    final private ExecutorService executor;
+    final private Injector injector;
+
+    private SVDFeatureMIPSRetrieverConfig(String svdfeaPredictorName, String svdfeaModelName, String modelName,
+                                          List<String> itemAttrs, String scoreAttr, int maxHits, int minSupport,
+                                          int numThreads, Injector injector, Configuration config) {
+        super(config);
+        this.svdfeaPredictorName = svdfeaPredictorName;
+        this.svdfeaModelName = svdfeaModelName;
+        this.modelName = modelName;
+        this.itemAttrs = itemAttrs;
+        this.scoreAttr = scoreAttr;
+        this.maxHits = maxHits;
+        this.minSupport = minSupport;
+        this.numThreads = numThreads;
+        this.executor = getExecutor(modelName, numThreads);
+        this.injector = injector;
+    }
+
+    /**
+     * The workers scanning the parts of the item matrix other than the one scanned by the thread of the request, or
+     * null if numThreads is not more than one. The workers are shared by the requests, so that the threads of
+     * scanning are bounded by numThreads - 1 however many requests come in.
+     */
+    static private ExecutorService getExecutor(String modelName, int numThreads) {
+        if (numThreads <= 1) {
+            return null;
+        }
+        AtomicInteger threadCnt = new AtomicInteger(0);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "samantha-mips-" + modelName + "-" + threadCnt.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads - 1, numThreads - 1, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static RetrieverConfig getRetrieverConfig(Configuration retrieverConfig,
+                                                     Injector injector) {
+        String scoreAttr = null;
+        if (retrieverConfig.asMap().containsKey("scoreAttr")) {
+            scoreAttr = retrieverConfig.getString("scoreAttr");
+        }
+        int minSupport = 0;
+        if (retrieverConfig.asMap().containsKey("minSupport")) {
+            minSupport = retrieverConfig.getInt("minSupport");
+        }
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        if (retrieverConfig.asMap().containsKey("numThreads")) {
+            numThreads = retrieverConfig.getInt("numThreads");
+        }
+        return new SVDFeatureMIPSRetrieverConfig(retrieverConfig.getString("svdfeaPredictorName"),
+                retrieverConfig.getString("svdfeaModelName"),
+                retrieverConfig.getString("modelName"),
+                retrieverConfig.getStringList("itemAttrs"),
+                scoreAttr, retrieverConfig.getInt("maxHits"), minSupport, numThreads,
+                injector, retrieverConfig);
+    }
+
+    /**
+     * The snapshot of the item factors is kept in {@link ModelService} under modelName and taken again once the
+     * SVDFeature model is rebuilt or updated.
+     */
+    synchronized private SVDFeatureItemMatrix getItemMatrix(String engineName, SVDFeature svdFeature) {
+        ModelService modelService = injector.instanceOf(ModelService.class);
+        if (modelService.hasModel(engineName, modelName)) {
+            SVDFeatureItemMatrix itemMatrix = (SVDFeatureItemMatrix) modelService.getModel(engineName, modelName);
+            if (itemMatrix.isSnapshotOf(svdFeature)) {
+                return itemMatrix;
+            }
+        }
+        long start = System.currentTimeMillis();
+        SVDFeatureItemMatrix itemMatrix = new SVDFeatureItemMatrix(svdFeature, itemAttrs, minSupport);
+        Logger.info("Took the snapshot {} of {} items in {} ms.", modelName, itemMatrix.getNumItems(),
+                System.currentTimeMillis() - start);
+        modelService.setModel(engineName, modelName, itemMatrix);
+        return itemMatrix;
+    }
+
+    public Retriever getRetriever(RequestContext requestContext) {
+        SamanthaConfigService configService = injector.instanceOf(SamanthaConfigService.class);
+        configService.getPredictor(svdfeaPredictorName, requestContext);
+        ModelService modelService = injector.instanceOf(ModelService.class);
+        String engineName = requestContext.getEngineName();
+        SVDFeature svdFeature = (SVDFeature) modelService.getModel(engineName, svdfeaModelName);
+        SVDFeatureItemMatrix itemMatrix = getItemMatrix(engineName, svdFeature);
+        List<EntityExpander> expanders = ExpanderUtilities.getEntityExpanders(requestContext,
+                expandersConfig, injector);
+        return new SVDFeatureMIPSRetriever(svdFeature, itemMatrix, itemAttrs, scoreAttr, maxHits, executor,
+                numThreads, expanders, config);
+    }
+}
@@ -47,12 +47,13 @@ public class UserKnnRetrieverConfig extends AbstractComponentConfig implements R
     final private List<String> userAttrs;
     final private int numNeighbors;
     final private int minSupport;
+    final private double changeThreshold;
     final private String svdfeaPredictorName;
     final private String svdfeaModelName;
     final private Injector injector;
 
     private UserKnnRetrieverConfig(String retrieverName, String knnModelName, String kdnModelName,
-                                   String knnModelFile, String kdnModelFile, int minSupport,
+                                   String knnModelFile, String kdnModelFile, int minSupport, double changeThreshold,
                                    String weightAttr, String scoreAttr, List<String> itemAttrs, List<String> userAttrs,
                                    int numNeighbors, String svdfeaPredictorName, String svdfeaModelName, Injector injector,
                                    Configuration config) {
@@ -64,6 +65,7 @@ public class UserKnnRetrieverConfig extends AbstractComponentConfig implements R
         this.kdnModelFile = kdnModelFile;
         this.weightAttr = weightAttr;
         this.minSupport = minSupport;
+        this.changeThreshold = changeThreshold;
         this.scoreAttr = scoreAttr;
         this.itemAttrs = itemAttrs;
         this.userAttrs = userAttrs;
@@ -75,12 +77,16 @@ public class UserKnnRetrieverConfig extends AbstractComponentConfig implements R
 
     public static RetrieverConfig getRetrieverConfig(Configuration retrieverConfig,
                                                      Injector injector) {
+        double changeThreshold = 0.05;
+        if (retrieverConfig.asMap().containsKey("changeThreshold")) {
+            changeThreshold = retrieverConfig.getDouble("changeThreshold");
+        }
         return new UserKnnRetrieverConfig(retrieverConfig.getString("userInterRetrieverName"),
                 retrieverConfig.getString("knnModelName"),
                 retrieverConfig.getString("kdnModelName"),
                 retrieverConfig.getString("knnModelFile"),
                 retrieverConfig.getString("kdnModelFile"),
-                retrieverConfig.getInt("minSupport"),
+                retrieverConfig.getInt("minSupport"), changeThreshold,
                 retrieverConfig.getString("weightAttr"),
                 retrieverConfig.getString("scoreAttr"),
                 retrieverConfig.getStringList("itemAttrs"),
@@ -95,10 +101,12 @@ public class UserKnnRetrieverConfig extends AbstractComponentConfig implements R
     public Retriever getRetriever(RequestContext requestContext) {
         SamanthaConfigService configService = injector.instanceOf(SamanthaConfigService.class);
         ModelManager knnModelManager = new FeatureKnnModelManager(knnModelName, knnModelFile, injector,
-                svdfeaPredictorName, svdfeaModelName, userAttrs, numNeighbors, false, minSupport);
+                svdfeaPredictorName, svdfeaModelName, userAttrs, numNeighbors, false, minSupport,
+                changeThreshold);
         FeatureKnnModel knnModel = (FeatureKnnModel) knnModelManager.manage(requestContext);
         ModelManager kdnModelManager = new FeatureKnnModelManager(kdnModelName, kdnModelFile, injector,
-                svdfeaPredictorName, svdfeaModelName, userAttrs, numNeighbors, true, minSupport);
+                svdfeaPredictorName, svdfeaModelName, userAttrs, numNeighbors, true, minSupport,
+                changeThreshold);
         FeatureKnnModel kdnModel = (FeatureKnnModel) kdnModelManager.manage(requestContext);
         Retriever retriever = configService.getRetriever(retrieverName, requestContext);
         List<EntityExpander> expanders = ExpanderUtilities.getEntityExpanders(requestContext, expandersConfig, injector);
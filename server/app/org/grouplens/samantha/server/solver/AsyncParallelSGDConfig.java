@@ -25,6 +25,10 @@ package org.grouplens.samantha.server.solver;
 import org.grouplens.samantha.modeler.common.LearningMethod;
 import org.grouplens.samantha.modeler.solver.AsyncParallelSGD;
 import org.grouplens.samantha.modeler.solver.OnlineOptimizationMethod;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.modeler.space.LockMode;
+import org.grouplens.samantha.server.common.SolverExecutorService;
+import org.grouplens.samantha.server.exception.BadRequestException;
 import org.grouplens.samantha.server.io.RequestContext;
 import play.Configuration;
 import play.inject.Injector;
@@ -32,6 +36,18 @@ import play.inject.Injector;
 public class AsyncParallelSGDConfig implements LearningMethodConfig {
     private AsyncParallelSGDConfig() {}
 
+    /**
+     * @param value the key of the {@link LockMode}, e.g. striped, in any case.
+     */
+    static private LockMode getLockMode(String value) {
+        for (LockMode lockMode : LockMode.values()) {
+            if (lockMode.get().equalsIgnoreCase(value)) {
+                return lockMode;
+            }
+        }
+        throw new BadRequestException("Unknown lockMode " + value + " for AsyncParallelSGD.");
+    }
+
     public static LearningMethod getLearningMethod(Configuration methodConfig,
                                                    Injector injector,
                                                    RequestContext requestContext) {
@@ -51,9 +67,20 @@ public class AsyncParallelSGDConfig implements LearningMethodConfig {
         if (methodConfig.asMap().containsKey("numProcessors")) {
             num = methodConfig.getInt("numProcessors");
         }
+        LockMode lockMode = null;
+        if (methodConfig.asMap().containsKey("lockMode")) {
+            lockMode = getLockMode(methodConfig.getString("lockMode"));
+        }
+        int numStripes = 0;
+        if (methodConfig.asMap().containsKey("numStripes")) {
+            numStripes = methodConfig.getInt("numStripes");
+        }
+        SolverExecutor executor = injector.instanceOf(SolverExecutorService.class)
+                .getExecutor(requestContext.getEngineName());
         OnlineOptimizationMethod onlineMethod = new AsyncParallelSGD(
                 maxIter, minIter, methodConfig.getDouble("l2coef"),
-                methodConfig.getDouble("learningRate"), tol, num
+                methodConfig.getDouble("learningRate"), tol, num,
+                lockMode, numStripes, executor
         );
         return onlineMethod;
     }
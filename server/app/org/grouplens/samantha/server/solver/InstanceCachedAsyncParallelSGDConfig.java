@@ -25,6 +25,8 @@ package org.grouplens.samantha.server.solver;
 import org.grouplens.samantha.modeler.common.LearningMethod;
 import org.grouplens.samantha.modeler.solver.InstanceCachedAsyncParallelSGD;
 import org.grouplens.samantha.modeler.solver.OptimizationMethod;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.server.common.SolverExecutorService;
 import org.grouplens.samantha.server.io.RequestContext;
 import play.Configuration;
 import play.inject.Injector;
@@ -52,12 +54,18 @@ public class InstanceCachedAsyncParallelSGDConfig {
         if (methodConfig.asMap().containsKey("numProcessors")) {
             num = methodConfig.getInt("numProcessors");
         }
+        boolean shuffle = true;
+        if (methodConfig.asMap().containsKey("shuffle")) {
+            shuffle = methodConfig.getBoolean("shuffle");
+        }
+        SolverExecutor executor = injector.instanceOf(SolverExecutorService.class)
+                .getExecutor(requestContext.getEngineName());
         OptimizationMethod optMethod = new InstanceCachedAsyncParallelSGD(
                 maxIter, minIter,
                 methodConfig.getDouble("l2coef"),
                 methodConfig.getDouble("learningRate"),
                 tol, num,
-                methodConfig.getString("cachePath")
+                methodConfig.getString("cachePath"), shuffle, executor
         );
         return optMethod;
     }
@@ -25,6 +25,8 @@ package org.grouplens.samantha.server.solver;
 import org.grouplens.samantha.modeler.common.LearningMethod;
 import org.grouplens.samantha.modeler.solver.OptimizationMethod;
 import org.grouplens.samantha.modeler.solver.ProximalGradientMethod;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.server.common.SolverExecutorService;
 import org.grouplens.samantha.server.io.RequestContext;
 import play.Configuration;
 import play.inject.Injector;
@@ -47,9 +49,16 @@ public class ProximalGradientMethodConfig {
         if (methodConfig.asMap().containsKey("maxIter")) {
             maxIter = methodConfig.getInt("maxIter");
         }
+        int num = Math.min(Runtime.getRuntime().availableProcessors(), ProximalGradientMethod.DEFAULT_MAX_THREADS);
+        if (methodConfig.asMap().containsKey("numProcessors")) {
+            num = methodConfig.getInt("numProcessors");
+        }
+        SolverExecutor executor = injector.instanceOf(SolverExecutorService.class)
+                .getExecutor(requestContext.getEngineName());
         OptimizationMethod onlineMethod = new ProximalGradientMethod(
                 maxIter, minIter, tol, methodConfig.getDouble("l1coef"),
-                methodConfig.getDouble("l2coef"), methodConfig.getDouble("ro")
+                methodConfig.getDouble("l2coef"), methodConfig.getDouble("ro"),
+                num, executor
         );
         return onlineMethod;
     }
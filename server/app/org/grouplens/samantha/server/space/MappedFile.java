@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.space;
+
+import org.grouplens.samantha.server.exception.BadRequestException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only file mapped into memory in chunks so that it can be larger than 2GB. The chunk size is a multiple
+ * of eight bytes so that the ints, longs and doubles written by {@link Writer} never straddle two chunks.
+ * Absolute reads do not touch the position of the buffers and hence the reads are thread-safe.
+ */
+final class MappedFile {
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    static private final int CHUNK_SHIFT = 30;
+    static private final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    static private final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+
+    MappedFile(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            length = channel.size();
+            int numChunks = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+            chunks = new MappedByteBuffer[numChunks];
+            for (int i=0; i<numChunks; i++) {
+                long start = ((long) i) << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+                chunks[i].order(BYTE_ORDER);
+            }
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    double getDouble(long index) {
+        long pos = index << 3;
+        return chunks[(int) (pos >>> CHUNK_SHIFT)].getDouble((int) (pos & CHUNK_MASK));
+    }
+
+    long getLong(long index) {
+        long pos = index << 3;
+        return chunks[(int) (pos >>> CHUNK_SHIFT)].getLong((int) (pos & CHUNK_MASK));
+    }
+
+    int getInt(long index) {
+        long pos = index << 2;
+        return chunks[(int) (pos >>> CHUNK_SHIFT)].getInt((int) (pos & CHUNK_MASK));
+    }
+
+    byte getByte(long pos) {
+        return chunks[(int) (pos >>> CHUNK_SHIFT)].get((int) (pos & CHUNK_MASK));
+    }
+
+    /**
+     * Sequentially writes a file to be mapped by {@link MappedFile} through a direct buffer.
+     */
+    static final class Writer implements Closeable {
+        static private final int BUFFER_SIZE = 1 << 16;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(BYTE_ORDER);
+
+        Writer(File file) {
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new BadRequestException(e);
+            }
+        }
+
+        private void ensureRemaining(int bytes) {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new BadRequestException(e);
+            }
+            buffer.clear();
+        }
+
+        void putDouble(double value) {
+            ensureRemaining(8);
+            buffer.putDouble(value);
+        }
+
+        void putLong(long value) {
+            ensureRemaining(8);
+            buffer.putLong(value);
+        }
+
+        void putInt(int value) {
+            ensureRemaining(4);
+            buffer.putInt(value);
+        }
+
+        void putBytes(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensureRemaining(1);
+                int len = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, len);
+                offset += len;
+            }
+        }
+
+        public void close() {
+            flush();
+            try {
+                channel.force(true);
+                channel.close();
+            } catch (IOException e) {
+                throw new BadRequestException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.space;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.server.config.ConfigKey;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import play.Configuration;
+import play.libs.Json;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link IndexSpace} backed by a {@link SynchronizedIndexSpace} while it is being built or updated and by memory
+ * mapped files in read-only mode once it is published, see {@link MappedSpace}. Only string keys are supported. Each key map
+ * is flushed into the UTF-8 bytes of the keys, the offsets of the keys and an open addressing hash table from keys to
+ * indices, so looking up a key probes the mapped table and compares the bytes without loading the keys onto the heap.
+ */
+public class MappedIndexSpace extends MappedSpace implements IndexSpace {
+    private static final long serialVersionUID = 1L;
+    static private final int EMPTY_SLOT = -1;
+
+    private transient volatile SynchronizedIndexSpace writable;
+    private transient volatile List<String> keyMapNames = new ArrayList<>();
+    private transient volatile Map<String, MappedKeyMap> keyMaps = new HashMap<>();
+
+    private static class MappedKeyMap {
+        private final int size;
+        private final int mask;
+        private final MappedFile keys;
+        private final MappedFile offsets;
+        private final MappedFile slots;
+
+        private MappedKeyMap(int size, int capacity, MappedFile keys, MappedFile offsets, MappedFile slots) {
+            this.size = size;
+            this.mask = capacity - 1;
+            this.keys = keys;
+            this.offsets = offsets;
+            this.slots = slots;
+        }
+
+        private boolean equalsKey(int index, byte[] key) {
+            long start = offsets.getLong(index);
+            long end = offsets.getLong(index + 1);
+            if (end - start != key.length) {
+                return false;
+            }
+            for (int i=0; i<key.length; i++) {
+                if (keys.getByte(start + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int getIndex(Object key) {
+            byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+            int slot = hash(bytes) & mask;
+            int index;
+            while ((index = slots.getInt(slot)) != EMPTY_SLOT) {
+                if (equalsKey(index, bytes)) {
+                    return index;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return EMPTY_SLOT;
+        }
+
+        private String getKey(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            long start = offsets.getLong(index);
+            byte[] bytes = new byte[(int) (offsets.getLong(index + 1) - start)];
+            for (int i=0; i<bytes.length; i++) {
+                bytes[i] = keys.getByte(start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Inject
+    public MappedIndexSpace(Configuration configuration) {
+        super(configuration.getString(ConfigKey.MAPPED_SPACE_DIR.get()), SpaceType.INDEX);
+    }
+
+    public MappedIndexSpace(String root) {
+        super(root, SpaceType.INDEX);
+    }
+
+    static private int hash(byte[] bytes) {
+        int h = 1;
+        for (byte b : bytes) {
+            h = 31 * h + b;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    static private int getCapacity(int size) {
+        int capacity = 2;
+        while (capacity < size * 2) {
+            if (capacity >= (1 << 30)) {
+                throw new BadRequestException("Too many keys in one key map: " + size);
+            }
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    protected void createSpace() {
+        keyMapNames = new ArrayList<>();
+        writable = new SynchronizedIndexSpace();
+    }
+
+    protected boolean isWritable() {
+        return writable != null;
+    }
+
+    protected void copySpace() {
+        SynchronizedIndexSpace space = new SynchronizedIndexSpace();
+        List<String> names = new ArrayList<>(keyMapNames);
+        for (String name : names) {
+            MappedKeyMap keyMap = keyMaps.get(name);
+            space.requestKeyMap(name);
+            for (int i=0; i<keyMap.size; i++) {
+                space.setKey(name, keyMap.getKey(i));
+            }
+        }
+        keyMapNames = names;
+        writable = space;
+    }
+
+    private SynchronizedIndexSpace getWritable() {
+        SynchronizedIndexSpace space = writable;
+        if (space == null) {
+            ensureWritable();
+            space = writable;
+        }
+        return space;
+    }
+
+    private void flushKeyMap(SynchronizedIndexSpace space, String name, String fileName, int size, int capacity,
+                             File dir) {
+        int[] table = new int[capacity];
+        for (int i=0; i<capacity; i++) {
+            table[i] = EMPTY_SLOT;
+        }
+        long offset = 0L;
+        try (MappedFile.Writer keyWriter = new MappedFile.Writer(new File(dir, fileName + ".keys"));
+             MappedFile.Writer offsetWriter = new MappedFile.Writer(new File(dir, fileName + ".offsets"))) {
+            for (int i=0; i<size; i++) {
+                Object key = space.getKeyForIndex(name, i);
+                if (!(key instanceof String)) {
+                    throw new BadRequestException("Only string keys can be memory mapped: " + key);
+                }
+                byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+                int slot = hash(bytes) & (capacity - 1);
+                while (table[slot] != EMPTY_SLOT) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                table[slot] = i;
+                offsetWriter.putLong(offset);
+                keyWriter.putBytes(bytes);
+                offset += bytes.length;
+            }
+            offsetWriter.putLong(offset);
+        }
+        try (MappedFile.Writer slotWriter = new MappedFile.Writer(new File(dir, fileName + ".slots"))) {
+            for (int slot : table) {
+                slotWriter.putInt(slot);
+            }
+        }
+    }
+
+    protected void flushSpace(File dir) {
+        SynchronizedIndexSpace space = writable;
+        ObjectNode meta = Json.newObject();
+        ArrayNode maps = meta.putArray("keyMaps");
+        List<String> names = keyMapNames;
+        for (int i=0; i<names.size(); i++) {
+            String name = names.get(i);
+            String fileName = "K_" + i;
+            int size = space.getKeyMapSize(name);
+            int capacity = getCapacity(size);
+            flushKeyMap(space, name, fileName, size, capacity, dir);
+            ObjectNode map = maps.addObject();
+            map.put("name", name);
+            map.put("file", fileName);
+            map.put("size", size);
+            map.put("capacity", capacity);
+        }
+        try {
+            Files.write(new File(dir, META_FILE).toPath(), meta.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    protected void openSpace(File dir) {
+        JsonNode meta;
+        try {
+            meta = Json.parse(new String(Files.readAllBytes(new File(dir, META_FILE).toPath()),
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+        Map<String, MappedKeyMap> maps = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (JsonNode map : meta.get("keyMaps")) {
+            String name = map.get("name").asText();
+            String fileName = map.get("file").asText();
+            maps.put(name, new MappedKeyMap(map.get("size").asInt(), map.get("capacity").asInt(),
+                    new MappedFile(new File(dir, fileName + ".keys")),
+                    new MappedFile(new File(dir, fileName + ".offsets")),
+                    new MappedFile(new File(dir, fileName + ".slots"))));
+            names.add(name);
+        }
+        keyMaps = maps;
+        keyMapNames = names;
+        writable = null;
+    }
+
+    synchronized public void requestKeyMap(String name) {
+        SynchronizedIndexSpace space = getWritable();
+        space.requestKeyMap(name);
+        if (!keyMapNames.contains(name)) {
+            keyMapNames.add(name);
+        }
+    }
+
+    public boolean hasKeyMap(String name) {
+        SynchronizedIndexSpace space = writable;
+        if (space != null) {
+            return space.hasKeyMap(name);
+        }
+        return keyMaps.containsKey(name);
+    }
+
+    public int setKey(String name, Object key) {
+        SynchronizedIndexSpace space = writable;
+        if (space != null) {
+            return space.setKey(name, key);
+        }
+        int index = keyMaps.get(name).getIndex(key);
+        if (index == EMPTY_SLOT) {
+            return getWritable().setKey(name, key);
+        }
+        return index;
+    }
+
+    public boolean containsKey(String name, Object key) {
+        SynchronizedIndexSpace space = writable;
+        if (space != null) {
+            return space.containsKey(name, key);
+        }
+        return keyMaps.get(name).getIndex(key) != EMPTY_SLOT;
+    }
+
+    public int getIndexForKey(String name, Object key) {
+        SynchronizedIndexSpace space = writable;
+        if (space != null) {
+            return space.getIndexForKey(name, key);
+        }
+        int index = keyMaps.get(name).getIndex(key);
+        if (index == EMPTY_SLOT) {
+            throw new BadRequestException("Key " + key + " does not exist in the key map " + name);
+        }
+        return index;
+    }
+
+    public Object getKeyForIndex(String name, int index) {
+        SynchronizedIndexSpace space = writable;
+        if (space != null) {
+            return space.getKeyForIndex(name, index);
+        }
+        return keyMaps.get(name).getKey(index);
+    }
+
+    public int getKeyMapSize(String name) {
+        SynchronizedIndexSpace space = writable;
+        if (space != null) {
+            return space.getKeyMapSize(name);
+        }
+        return keyMaps.get(name).size;
+    }
+
+    public List<String> getAllKeyMapNames() {
+        return new ArrayList<>(keyMapNames);
+    }
+
+    synchronized private void writeObject(ObjectOutputStream stream) {
+        try {
+            stream.defaultWriteObject();
+            stream.writeObject(writable);
+            stream.writeObject(writable == null ? null : new ArrayList<>(keyMapNames));
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream stream) {
+        try {
+            stream.defaultReadObject();
+            writable = (SynchronizedIndexSpace) stream.readObject();
+            List<String> names = (List<String>) stream.readObject();
+            keyMapNames = names == null ? new ArrayList<>() : names;
+            keyMaps = new HashMap<>();
+            if (spaceVersion != null) {
+                holdVersion();
+                if (writable == null) {
+                    openSpace(getVersionDir());
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new BadRequestException(e);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.space;
+
+import org.apache.commons.io.FileUtils;
+import org.grouplens.samantha.modeler.space.SpaceMode;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import play.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A space kept in memory while it is being built and flushed into files under a versioned directory when published,
+ * i.e. root/spaceName_type/version. The published version is recorded in the file root/spaceName_type/default.
+ * Opening a published version only memory maps the files in read-only mode, so starting up does not depend on the
+ * size of the space and the operating system page cache shares the pages among the JVMs on the same machine.
+ *
+ * The first update to a published space copies it back onto the heap as a new version being built, which serves the
+ * reads and the updates until it is published in turn, see {@link #ensureWritable()}.
+ *
+ * Every JVM holds a shared lock on the file {@link #LOCK_FILE} of each version it has open or is building. Publishing
+ * a version deletes the older versions that nobody holds a lock on any more.
+ */
+abstract public class MappedSpace implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static private final String DEFAULT_POINTER = "default";
+    static protected final String META_FILE = "meta.json";
+    static private final String LOCK_FILE = "lock";
+    static private final Map<String, VersionLock> heldLocks = new HashMap<>();
+
+    protected final String root;
+    protected SpaceMode spaceMode;
+    protected String spaceVersion;
+    protected String spaceName;
+    protected SpaceType spaceType;
+    private transient File heldDir;
+
+    /**
+     * The shared lock on a version directory taken once per JVM, since file locks are held by the whole JVM.
+     */
+    private static class VersionLock {
+        private final FileChannel channel;
+        private final FileLock lock;
+        private int count = 1;
+
+        private VersionLock(FileChannel channel, FileLock lock) {
+            this.channel = channel;
+            this.lock = lock;
+        }
+    }
+
+    public MappedSpace(String root, SpaceType spaceType) {
+        this.root = root;
+        this.spaceType = spaceType;
+    }
+
+    /**
+     * Start a new empty version of the space that accepts updates.
+     */
+    abstract protected void createSpace();
+
+    /**
+     * Write the space into the files under dir. The file {@link #META_FILE} must be written at last.
+     */
+    abstract protected void flushSpace(File dir);
+
+    /**
+     * Map the files under dir in read-only mode and drop the space being built if any.
+     */
+    abstract protected void openSpace(File dir);
+
+    abstract protected boolean isWritable();
+
+    /**
+     * Copy the content of the mapped version into a new space that accepts updates.
+     */
+    abstract protected void copySpace();
+
+    /**
+     * @return false if the directory does not exist any more, i.e. the version was deleted as a stale one.
+     */
+    static private boolean acquireVersion(File dir) {
+        String key = dir.getAbsolutePath();
+        synchronized (heldLocks) {
+            VersionLock held = heldLocks.get(key);
+            if (held != null) {
+                held.count++;
+                return true;
+            }
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(new File(dir, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                heldLocks.put(key, new VersionLock(channel, channel.lock(0L, Long.MAX_VALUE, true)));
+                return true;
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (IOException e) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {}
+                }
+                throw new BadRequestException(e);
+            }
+        }
+    }
+
+    static private void releaseVersion(File dir) {
+        String key = dir.getAbsolutePath();
+        synchronized (heldLocks) {
+            VersionLock held = heldLocks.get(key);
+            if (held != null && --held.count == 0) {
+                heldLocks.remove(key);
+                try {
+                    held.lock.release();
+                    held.channel.close();
+                } catch (IOException e) {
+                    Logger.warn("Can not release the lock of {}: {}", key, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Hold the lock of the current version instead of the one held before if any.
+     *
+     * @return false if the current version was deleted as a stale one.
+     */
+    protected boolean holdVersion() {
+        File dir = getVersionDir();
+        if (dir.equals(heldDir)) {
+            return true;
+        }
+        if (!acquireVersion(dir)) {
+            return false;
+        }
+        releaseHeldVersion();
+        heldDir = dir;
+        return true;
+    }
+
+    protected void releaseHeldVersion() {
+        if (heldDir != null) {
+            releaseVersion(heldDir);
+            heldDir = null;
+        }
+    }
+
+    /**
+     * Delete the versions older than the published one that are neither held in this JVM nor locked by other JVMs.
+     */
+    private void removeStaleVersions() {
+        File typeDir = getTypeDir();
+        int published = Integer.parseInt(spaceVersion);
+        String[] names = typeDir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (!name.matches("[0-9]+") || Integer.parseInt(name) >= published) {
+                continue;
+            }
+            File dir = new File(typeDir, name);
+            synchronized (heldLocks) {
+                if (heldLocks.containsKey(dir.getAbsolutePath())) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(new File(dir, LOCK_FILE).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.tryLock();
+                    if (lock != null) {
+                        FileUtils.deleteDirectory(dir);
+                    }
+                } catch (IOException | OverlappingFileLockException e) {
+                    Logger.warn("Can not remove the stale version {}: {}", dir.getAbsolutePath(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    protected File getVersionDir() {
+        return new File(getTypeDir(), spaceVersion);
+    }
+
+    private File getTypeDir() {
+        return new File(root, spaceName + "_" + spaceType.get());
+    }
+
+    private String getPublishedVersion() {
+        Path pointer = new File(getTypeDir(), DEFAULT_POINTER).toPath();
+        if (!Files.exists(pointer)) {
+            return null;
+        }
+        try {
+            String version = new String(Files.readAllBytes(pointer), StandardCharsets.UTF_8).trim();
+            if (new File(new File(getTypeDir(), version), META_FILE).exists()) {
+                return version;
+            } else {
+                return null;
+            }
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    private String allocateVersion() {
+        File typeDir = getTypeDir();
+        if (!typeDir.isDirectory() && !typeDir.mkdirs() && !typeDir.isDirectory()) {
+            throw new BadRequestException("Can not create the space directory " + typeDir.getAbsolutePath());
+        }
+        while (true) {
+            int version = 0;
+            String[] names = typeDir.list();
+            if (names != null) {
+                for (String name : names) {
+                    if (name.matches("[0-9]+")) {
+                        version = Math.max(version, Integer.parseInt(name));
+                    }
+                }
+            }
+            String next = Integer.valueOf(version + 1).toString();
+            try {
+                Files.createDirectory(new File(typeDir, next).toPath());
+                return next;
+            } catch (FileAlreadyExistsException e) {
+                //another builder took this version, try the next one
+            } catch (IOException e) {
+                throw new BadRequestException(e);
+            }
+        }
+    }
+
+    synchronized public void setSpaceState(String spaceName, SpaceMode spaceMode) {
+        this.spaceName = spaceName;
+        this.spaceMode = spaceMode;
+        String version = null;
+        if (spaceMode.equals(SpaceMode.DEFAULT)) {
+            while ((version = getPublishedVersion()) != null) {
+                spaceVersion = version;
+                if (holdVersion() && new File(getVersionDir(), META_FILE).exists()) {
+                    break;
+                }
+            }
+        }
+        if (version != null) {
+            openSpace(getVersionDir());
+        } else {
+            spaceVersion = allocateVersion();
+            holdVersion();
+            createSpace();
+        }
+    }
+
+    /**
+     * Make the space accept updates. A published space is copied into a new version being built.
+     */
+    synchronized protected void ensureWritable() {
+        if (isWritable()) {
+            return;
+        }
+        spaceVersion = allocateVersion();
+        holdVersion();
+        copySpace();
+    }
+
+    synchronized public void publishSpaceVersion() {
+        if (!isWritable()) {
+            spaceMode = SpaceMode.DEFAULT;
+            return;
+        }
+        File dir = getVersionDir();
+        flushSpace(dir);
+        Path typeDir = getTypeDir().toPath();
+        Path tmp = typeDir.resolve(DEFAULT_POINTER + "." + spaceVersion + ".tmp");
+        try {
+            Files.write(tmp, spaceVersion.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, typeDir.resolve(DEFAULT_POINTER), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+        openSpace(dir);
+        spaceMode = SpaceMode.DEFAULT;
+        removeStaleVersions();
+    }
+}
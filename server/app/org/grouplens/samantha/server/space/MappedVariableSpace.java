@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.space;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.grouplens.samantha.modeler.space.PrimitiveVariableSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.grouplens.samantha.server.config.ConfigKey;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import play.Configuration;
+import play.libs.Json;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link VariableSpace} backed by a {@link PrimitiveVariableSpace} while it is being built or updated and by memory
+ * mapped files in read-only mode once it is published, see {@link MappedSpace}. Serializing a published space only
+ * writes down where its files are.
+ */
+public class MappedVariableSpace extends MappedSpace implements VariableSpace {
+    private static final long serialVersionUID = 1L;
+
+    private transient volatile PrimitiveVariableSpace writable;
+    private transient volatile Map<String, MappedVar> scalarVars = new HashMap<>();
+    private transient volatile Map<String, MappedVar> vectorVars = new HashMap<>();
+
+    private static class MappedVar {
+        private final int size;
+        private final int dim;
+        private final MappedFile file;
+
+        private MappedVar(int size, int dim, MappedFile file) {
+            this.size = size;
+            this.dim = dim;
+            this.file = file;
+        }
+    }
+
+    @Inject
+    public MappedVariableSpace(Configuration configuration) {
+        super(configuration.getString(ConfigKey.MAPPED_SPACE_DIR.get()), SpaceType.VARIABLE);
+    }
+
+    public MappedVariableSpace(String root) {
+        super(root, SpaceType.VARIABLE);
+    }
+
+    protected void createSpace() {
+        writable = new PrimitiveVariableSpace();
+    }
+
+    protected boolean isWritable() {
+        return writable != null;
+    }
+
+    protected void copySpace() {
+        PrimitiveVariableSpace space = new PrimitiveVariableSpace();
+        for (Map.Entry<String, MappedVar> entry : scalarVars.entrySet()) {
+            String name = entry.getKey();
+            space.requestScalarVar(name, 0, 0.0, false);
+            space.ensureScalarVar(name, entry.getValue().size, 0.0, false);
+            for (int i=0; i<entry.getValue().size; i++) {
+                space.setScalarVarByNameIndex(name, i, entry.getValue().file.getDouble(i));
+            }
+        }
+        for (Map.Entry<String, MappedVar> entry : vectorVars.entrySet()) {
+            String name = entry.getKey();
+            MappedVar var = entry.getValue();
+            space.requestVectorVar(name, 0, var.dim, 0.0, false, false);
+            space.ensureVectorVar(name, var.size, var.dim, 0.0, false, false);
+            double[] row = new double[var.dim];
+            for (int i=0; i<var.size; i++) {
+                getVectorVarByNameIndex(name, i, row);
+                space.combineVectorVarByNameIndex(name, i, 0.0, 1.0, row);
+            }
+        }
+        writable = space;
+    }
+
+    protected void flushSpace(File dir) {
+        PrimitiveVariableSpace space = writable;
+        ObjectNode meta = Json.newObject();
+        ArrayNode scalars = meta.putArray("scalars");
+        List<String> names = space.getAllScalarVarNames();
+        for (int i=0; i<names.size(); i++) {
+            String name = names.get(i);
+            String fileName = "S_" + i;
+            RealVector values = space.getScalarVarByName(name);
+            try (MappedFile.Writer writer = new MappedFile.Writer(new File(dir, fileName))) {
+                for (int j=0; j<values.getDimension(); j++) {
+                    writer.putDouble(values.getEntry(j));
+                }
+            }
+            ObjectNode scalar = scalars.addObject();
+            scalar.put("name", name);
+            scalar.put("file", fileName);
+            scalar.put("size", values.getDimension());
+        }
+        ArrayNode vectors = meta.putArray("vectors");
+        names = space.getAllVectorVarNames();
+        for (int i=0; i<names.size(); i++) {
+            String name = names.get(i);
+            String fileName = "V_" + i;
+            int size = space.getVectorVarSizeByName(name);
+            int dim = space.getVectorVarDimensionByName(name);
+            double[] row = new double[dim];
+            try (MappedFile.Writer writer = new MappedFile.Writer(new File(dir, fileName))) {
+                for (int j=0; j<size; j++) {
+                    space.getVectorVarByNameIndex(name, j, row);
+                    for (int k=0; k<dim; k++) {
+                        writer.putDouble(row[k]);
+                    }
+                }
+            }
+            ObjectNode vector = vectors.addObject();
+            vector.put("name", name);
+            vector.put("file", fileName);
+            vector.put("size", size);
+            vector.put("dim", dim);
+        }
+        try {
+            Files.write(new File(dir, META_FILE).toPath(), meta.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    protected void openSpace(File dir) {
+        JsonNode meta;
+        try {
+            meta = Json.parse(new String(Files.readAllBytes(new File(dir, META_FILE).toPath()),
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+        Map<String, MappedVar> scalars = new HashMap<>();
+        for (JsonNode scalar : meta.get("scalars")) {
+            scalars.put(scalar.get("name").asText(), new MappedVar(scalar.get("size").asInt(), 1,
+                    new MappedFile(new File(dir, scalar.get("file").asText()))));
+        }
+        Map<String, MappedVar> vectors = new HashMap<>();
+        for (JsonNode vector : meta.get("vectors")) {
+            vectors.put(vector.get("name").asText(), new MappedVar(vector.get("size").asInt(),
+                    vector.get("dim").asInt(), new MappedFile(new File(dir, vector.get("file").asText()))));
+        }
+        scalarVars = scalars;
+        vectorVars = vectors;
+        writable = null;
+    }
+
+    private PrimitiveVariableSpace getWritable() {
+        PrimitiveVariableSpace space = writable;
+        if (space == null) {
+            ensureWritable();
+            space = writable;
+        }
+        return space;
+    }
+
+    private MappedVar getMappedVar(Map<String, MappedVar> vars, String name, int index) {
+        MappedVar var = vars.get(name);
+        if (index >= var.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + var.size);
+        }
+        return var;
+    }
+
+    public void requestScalarVar(String name, int size, double initial, boolean randomize) {
+        getWritable().requestScalarVar(name, size, initial, randomize);
+    }
+
+    public boolean hasScalarVar(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.hasScalarVar(name);
+        }
+        return scalarVars.containsKey(name);
+    }
+
+    public void ensureScalarVar(String name, int size, double initial, boolean randomize) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            space.ensureScalarVar(name, size, initial, randomize);
+        } else if (scalarVars.get(name).size < size) {
+            getWritable().ensureScalarVar(name, size, initial, randomize);
+        }
+    }
+
+    public void requestVectorVar(String name, int size, int dim, double initial,
+                                 boolean randomize, boolean normalize) {
+        getWritable().requestVectorVar(name, size, dim, initial, randomize, normalize);
+    }
+
+    public boolean hasVectorVar(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.hasVectorVar(name);
+        }
+        return vectorVars.containsKey(name);
+    }
+
+    public void ensureVectorVar(String name, int size, int dim, double initial,
+                                boolean randomize, boolean normalize) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            space.ensureVectorVar(name, size, dim, initial, randomize, normalize);
+        } else if (vectorVars.get(name).size < size) {
+            getWritable().ensureVectorVar(name, size, dim, initial, randomize, normalize);
+        }
+    }
+
+    public RealVector getScalarVarByName(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getScalarVarByName(name);
+        }
+        MappedVar var = scalarVars.get(name);
+        double[] values = new double[var.size];
+        for (int i=0; i<var.size; i++) {
+            values[i] = var.file.getDouble(i);
+        }
+        return MatrixUtils.createRealVector(values);
+    }
+
+    public int getScalarVarSizeByName(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getScalarVarSizeByName(name);
+        }
+        return scalarVars.get(name).size;
+    }
+
+    public void setScalarVarByName(String name, RealVector vars) {
+        getWritable().setScalarVarByName(name, vars);
+    }
+
+    public double getScalarVarByNameIndex(String name, int index) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getScalarVarByNameIndex(name, index);
+        }
+        return getMappedVar(scalarVars, name, index).file.getDouble(index);
+    }
+
+    public void setScalarVarByNameIndex(String name, int index, double var) {
+        getWritable().setScalarVarByNameIndex(name, index, var);
+    }
+
+    public List<RealVector> getVectorVarByName(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getVectorVarByName(name);
+        }
+        MappedVar var = vectorVars.get(name);
+        List<RealVector> vars = new ArrayList<>(var.size);
+        for (int i=0; i<var.size; i++) {
+            vars.add(getVectorVarByNameIndex(name, i));
+        }
+        return vars;
+    }
+
+    public RealMatrix getMatrixVarByName(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getMatrixVarByName(name);
+        }
+        MappedVar var = vectorVars.get(name);
+        RealMatrix matrix = MatrixUtils.createRealMatrix(var.size, var.dim);
+        for (int i=0; i<var.size; i++) {
+            matrix.setRowVector(i, getVectorVarByNameIndex(name, i));
+        }
+        return matrix;
+    }
+
+    public int getVectorVarSizeByName(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getVectorVarSizeByName(name);
+        }
+        return vectorVars.get(name).size;
+    }
+
+    public int getVectorVarDimensionByName(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getVectorVarDimensionByName(name);
+        }
+        return vectorVars.get(name).dim;
+    }
+
+    public RealVector getVectorVarByNameIndex(String name, int index) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getVectorVarByNameIndex(name, index);
+        }
+        MappedVar var = getMappedVar(vectorVars, name, index);
+        double[] values = new double[var.dim];
+        getVectorVarByNameIndex(name, index, values);
+        return MatrixUtils.createRealVector(values);
+    }
+
+    public void setVectorVarByNameIndex(String name, int index, RealVector var) {
+        getWritable().setVectorVarByNameIndex(name, index, var);
+    }
+
+    public void getVectorVarByNameIndex(String name, int index, double[] outVar) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            space.getVectorVarByNameIndex(name, index, outVar);
+            return;
+        }
+        MappedVar var = getMappedVar(vectorVars, name, index);
+        long offset = ((long) index) * var.dim;
+        for (int i=0; i<var.dim; i++) {
+            outVar[i] = var.file.getDouble(offset + i);
+        }
+    }
+
+    public double dotVectorVarByNameIndex(String name, int index, double[] vec) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.dotVectorVarByNameIndex(name, index, vec);
+        }
+        MappedVar var = getMappedVar(vectorVars, name, index);
+        long offset = ((long) index) * var.dim;
+        double product = 0.0;
+        for (int i=0; i<var.dim; i++) {
+            product += var.file.getDouble(offset + i) * vec[i];
+        }
+        return product;
+    }
+
+    public void accumulateVectorVarByNameIndex(String name, int index, double alpha, double[] outVec) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            space.accumulateVectorVarByNameIndex(name, index, alpha, outVec);
+            return;
+        }
+        MappedVar var = getMappedVar(vectorVars, name, index);
+        long offset = ((long) index) * var.dim;
+        for (int i=0; i<var.dim; i++) {
+            outVec[i] += alpha * var.file.getDouble(offset + i);
+        }
+    }
+
+    public void combineVectorVarByNameIndex(String name, int index, double scale, double alpha, double[] vec) {
+        getWritable().combineVectorVarByNameIndex(name, index, scale, alpha, vec);
+    }
+
+    public List<String> getAllScalarVarNames() {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getAllScalarVarNames();
+        }
+        return new ArrayList<>(scalarVars.keySet());
+    }
+
+    public List<String> getAllVectorVarNames() {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            return space.getAllVectorVarNames();
+        }
+        return new ArrayList<>(vectorVars.keySet());
+    }
+
+    /**
+     * The files of the version are deleted once a newer version is published and no JVM holds this one any more.
+     */
+    synchronized public void freeSpace() {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            space.freeSpace();
+        }
+        scalarVars = new HashMap<>();
+        vectorVars = new HashMap<>();
+        releaseHeldVersion();
+    }
+
+    synchronized public void freeScalarVar(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            space.freeScalarVar(name);
+        } else {
+            Map<String, MappedVar> scalars = new HashMap<>(scalarVars);
+            scalars.remove(name);
+            scalarVars = scalars;
+        }
+    }
+
+    synchronized public void freeVectorVar(String name) {
+        PrimitiveVariableSpace space = writable;
+        if (space != null) {
+            space.freeVectorVar(name);
+        } else {
+            Map<String, MappedVar> vectors = new HashMap<>(vectorVars);
+            vectors.remove(name);
+            vectorVars = vectors;
+        }
+    }
+
+    synchronized private void writeObject(ObjectOutputStream stream) {
+        try {
+            stream.defaultWriteObject();
+            stream.writeObject(writable);
+        } catch (IOException e) {
+            throw new BadRequestException(e);
+        }
+    }
+
+    private void readObject(ObjectInputStream stream) {
+        try {
+            stream.defaultReadObject();
+            writable = (PrimitiveVariableSpace) stream.readObject();
+            scalarVars = new HashMap<>();
+            vectorVars = new HashMap<>();
+            if (spaceVersion != null) {
+                holdVersion();
+                if (writable == null) {
+                    openSpace(getVersionDir());
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new BadRequestException(e);
+        }
+    }
+}
@@ -25,22 +25,33 @@ package org.grouplens.samantha.server.space;
 import org.grouplens.samantha.modeler.space.IndexSpace;
 import org.grouplens.samantha.modeler.space.SpaceMode;
 import org.grouplens.samantha.server.common.RedisService;
+import org.grouplens.samantha.server.exception.BadRequestException;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
+/**
+ * Each key map is stored as a counter of its size under the key map name, the hash name_K2I from keys to indices and
+ * hashes name_I2K_bucket from indices to keys with {@link #BUCKET_SIZE} indices per hash. Since the index of a key never
+ * changes within a version, the existing keys and indices are kept in the {@link RedisSpaceCache}.
+ */
 public class RedisIndexSpace extends RedisSpace implements IndexSpace {
     private static final long serialVersionUID = 1L;
+    static private final int BUCKET_SIZE = 1024;
+    static private final Pattern HASH_KEY_PATTERN = Pattern.compile(".*_(K2I|I2K_[0-9]+)");
 
     @Inject
-    public RedisIndexSpace(RedisService redisService) {
-        super(redisService);
+    public RedisIndexSpace(RedisService redisService, RedisSpaceCache spaceCache) {
+        super(redisService, spaceCache);
     }
 
     synchronized public void setSpaceState(String spaceName, SpaceMode spaceMode) {
+        boolean existing = false;
         if (spaceMode.equals(SpaceMode.DEFAULT)) {
             spaceVersion = redisService.get(spaceName + "_" + SpaceType.INDEX.get(), spaceMode.get());
+            existing = spaceVersion != null;
         }
         if (spaceVersion == null) {
             spaceVersion = redisService.incre(spaceName, SpaceType.INDEX.get()).toString();
@@ -50,10 +61,54 @@ public class RedisIndexSpace extends RedisSpace implements IndexSpace {
         this.spaceName = spaceName;
         this.spaceType = SpaceType.INDEX;
         this.spaceIdentifier = RedisService.composeKey(spaceName + "_" + spaceType.get(), spaceVersion);
+        if (existing) {
+            checkLayout();
+        }
+        if (spaceMode.equals(SpaceMode.DEFAULT)) {
+            spaceCache.invalidateOtherVersions(spaceName + "_" + spaceType.get(), spaceIdentifier);
+        }
+    }
+
+    /**
+     * The old layout kept the index of every key under its own key composed of the key map name and the key.
+     */
+    protected boolean hasOldLayout() {
+        return !redisService.keysWithPrefixPattern(spaceIdentifier, RedisService.composeKey("*", "")).isEmpty();
+    }
+
+    static private String getKey2IndexKey(String name) {
+        return name + "_K2I";
+    }
+
+    static private String getIndex2KeyKey(String name, int index) {
+        return name + "_I2K_" + Integer.valueOf(index / BUCKET_SIZE).toString();
+    }
+
+    static private String getKeyCacheKey(String name, Object key) {
+        return RedisService.composeKey("K2I_" + name, (String) key);
+    }
+
+    static private String getIndexCacheKey(String name, int index) {
+        return RedisService.composeKey("I2K_" + name, Integer.valueOf(index).toString());
+    }
+
+    private String getIndexString(String name, Object key) {
+        String cacheKey = getKeyCacheKey(name, key);
+        Integer index = (Integer) spaceCache.get(spaceIdentifier, cacheKey);
+        if (index != null) {
+            return index.toString();
+        }
+        String value = redisService.hget(spaceIdentifier, getKey2IndexKey(name), (String) key);
+        if (value != null) {
+            spaceCache.put(spaceIdentifier, cacheKey, Integer.parseInt(value));
+        }
+        return value;
     }
 
     public void requestKeyMap(String name) {
-        redisService.set(spaceIdentifier, name, "-1");
+        redisService.set(spaceIdentifier, name, "0");
+        spaceCache.invalidatePrefix(spaceIdentifier, "K2I_" + name + "\1");
+        spaceCache.invalidatePrefix(spaceIdentifier, "I2K_" + name + "\1");
     }
 
     public boolean hasKeyMap(String name) {
@@ -65,29 +120,52 @@ public class RedisIndexSpace extends RedisSpace implements IndexSpace {
         }
     }
 
+    /**
+     * A new key optimistically takes the current size as its index with WATCH/MULTI on the key to index hash, which
+     * every new key of the key map modifies, so the indices stay contiguous. The transaction is discarded on any
+     * error so that the lock of the Redis service is not left held.
+     */
     public int setKey(String name, Object key) {
-        String watchKey = RedisService.composeKey(name, (String) key);
-        String value = redisService.get(spaceIdentifier, watchKey);
-        if (value != null) {
-            return Integer.parseInt(value);
-        }
-        int index = Integer.parseInt(redisService.get(spaceIdentifier, name));
-        index += 1;
-        String idxStr = RedisService.composeKey(name + "_IDX_", Integer.valueOf(index).toString());
-        redisService.watch(spaceIdentifier, watchKey);
-        redisService.multi(false);
-        redisService.setWithoutLock(spaceIdentifier, watchKey, Integer.valueOf(index).toString());
-        redisService.increWithoutLock(spaceIdentifier, name);
-        redisService.setWithoutLock(spaceIdentifier, idxStr, (String) key);
-        List<Object> resps = redisService.exec();
-        if (resps.get(0) == null) {
-            index = getIndexForKey(name, key);
+        String k2i = getKey2IndexKey(name);
+        String value = getIndexString(name, key);
+        while (value == null) {
+            redisService.watch(spaceIdentifier, k2i);
+            boolean ended = false;
+            boolean queued = false;
+            try {
+                value = redisService.hget(spaceIdentifier, k2i, (String) key);
+                if (value != null) {
+                    break;
+                }
+                String index = redisService.get(spaceIdentifier, name);
+                if (index == null) {
+                    throw new BadRequestException("Key map " + name + " does not exist.");
+                }
+                int newIndex = Integer.parseInt(index);
+                redisService.multi(false);
+                queued = true;
+                redisService.hsetWithoutLock(spaceIdentifier, k2i, (String) key, index);
+                redisService.hsetWithoutLock(spaceIdentifier, getIndex2KeyKey(name, newIndex),
+                        index, (String) key);
+                redisService.increWithoutLock(spaceIdentifier, name);
+                ended = true;
+                redisService.exec();
+            } finally {
+                if (!ended) {
+                    if (queued) {
+                        redisService.discard();
+                    } else {
+                        redisService.unwatch();
+                    }
+                }
+            }
+            value = redisService.hget(spaceIdentifier, k2i, (String) key);
         }
-        return index;
+        return Integer.parseInt(value);
     }
 
     public boolean containsKey(String name, Object key) {
-        String value = redisService.get(spaceIdentifier, RedisService.composeKey(name, (String) key));
+        String value = getIndexString(name, key);
         if (value != null) {
             return true;
         } else {
@@ -96,16 +174,35 @@ public class RedisIndexSpace extends RedisSpace implements IndexSpace {
     }
 
     public int getIndexForKey(String name, Object key) {
-        return Integer.parseInt(redisService.get(spaceIdentifier, RedisService.composeKey(name, (String) key)));
+        return Integer.parseInt(getIndexString(name, key));
     }
 
     public Object getKeyForIndex(String name, int index) {
-        String idxStr = RedisService.composeKey(RedisService.composeKey(name, "index"),
-                Integer.valueOf(index).toString());
-        return redisService.get(spaceIdentifier, idxStr);
+        String cacheKey = getIndexCacheKey(name, index);
+        String key = (String) spaceCache.get(spaceIdentifier, cacheKey);
+        if (key == null) {
+            key = redisService.hget(spaceIdentifier, getIndex2KeyKey(name, index), Integer.valueOf(index).toString());
+            spaceCache.put(spaceIdentifier, cacheKey, key);
+        }
+        return key;
     }
 
     public int getKeyMapSize(String name) {
         return Integer.parseInt(redisService.get(spaceIdentifier, name));
     }
+
+    /**
+     * The key maps are the counters among the keys of the space, i.e. the keys other than the hashes.
+     */
+    public List<String> getAllKeyMapNames() {
+        String prefix = RedisService.composeKey(spaceIdentifier, "");
+        List<String> names = new ArrayList<>();
+        for (String key : redisService.keysWithPrefixPattern(spaceIdentifier, null)) {
+            String name = key.substring(prefix.length());
+            if (!HASH_KEY_PATTERN.matcher(name).matches()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
 }
@@ -24,6 +24,7 @@ package org.grouplens.samantha.server.space;
 
 import org.grouplens.samantha.modeler.space.SpaceMode;
 import org.grouplens.samantha.server.common.RedisService;
+import org.grouplens.samantha.server.exception.BadRequestException;
 
 abstract public class RedisSpace {
     protected SpaceMode spaceMode;
@@ -32,14 +33,33 @@ abstract public class RedisSpace {
     protected SpaceType spaceType;
     protected String spaceIdentifier;
     protected final RedisService redisService;
+    protected final RedisSpaceCache spaceCache;
 
-    public RedisSpace(RedisService redisService) {
+    public RedisSpace(RedisService redisService, RedisSpaceCache spaceCache) {
         this.redisService = redisService;
+        this.spaceCache = spaceCache;
+    }
+
+    /**
+     * @return whether the current version of the space is stored in the layout before the bucketed hashes.
+     */
+    abstract protected boolean hasOldLayout();
+
+    /**
+     * Reject a version stored in the old layout, which the space can not read, instead of serving it as empty.
+     */
+    protected void checkLayout() {
+        if (hasOldLayout()) {
+            throw new BadRequestException("Version " + spaceVersion + " of the Redis space " + spaceName + "_" +
+                    spaceType.get() + " is stored in the old layout of one key per variable or key. " +
+                    "Rebuild the model to store it in the bucketed hashes.");
+        }
     }
 
     synchronized public void publishSpaceVersion() {
         redisService.set(spaceName + "_" + spaceType.get(), SpaceMode.DEFAULT.get(), spaceVersion);
         redisService.del(spaceName + "_" + spaceType.get(), SpaceMode.BUILDING.get());
         spaceMode = SpaceMode.DEFAULT;
+        spaceCache.invalidateOtherVersions(spaceName + "_" + spaceType.get(), spaceIdentifier);
     }
 }
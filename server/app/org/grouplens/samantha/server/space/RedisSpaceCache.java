@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.space;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import org.grouplens.samantha.server.common.RedisService;
+import org.grouplens.samantha.server.config.ConfigKey;
+import play.Configuration;
+import play.libs.Json;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process cache shared by the Redis spaces so that serving reads of hot rows and keys mostly stay local.
+ *
+ * The entries are keyed by the space identifier, which includes the space version, so the entries of a newly
+ * published version never collide with the old ones, and the old ones are invalidated when the new version is
+ * published or picked up. The cache is bounded by an estimate of its size in bytes with least recently used eviction.
+ * Rows updated in place by another server are only refreshed after samantha.redis.spaceCache.expireAfterWrite seconds,
+ * 60 in the default configuration, and never if it is 0, which only suits a version updated online by this server.
+ * Setting maxBytes to 0 disables the cache.
+ */
+@Singleton
+public class RedisSpaceCache {
+    static private final int ENTRY_OVERHEAD = 64;
+    private final Cache<String, Object> cache;
+
+    static private int weigh(String key, Object value) {
+        int weight = ENTRY_OVERHEAD + key.length() * 2;
+        if (value instanceof byte[]) {
+            weight += ((byte[]) value).length + 16;
+        } else if (value instanceof String) {
+            weight += ((String) value).length() * 2 + 40;
+        } else {
+            weight += 16;
+        }
+        return weight;
+    }
+
+    @Inject
+    public RedisSpaceCache(Configuration configuration) {
+        Long maxBytes = configuration.getBytes(ConfigKey.REDIS_SPACE_CACHE_MAX_BYTES.get(), 0L);
+        Long expireAfterWrite = configuration.getLong(ConfigKey.REDIS_SPACE_CACHE_EXPIRE_AFTER_WRITE.get(), 0L);
+        if (maxBytes > 0) {
+            CacheBuilder<String, Object> builder = CacheBuilder.newBuilder()
+                    .maximumWeight(maxBytes)
+                    .weigher((Weigher<String, Object>) RedisSpaceCache::weigh)
+                    .recordStats();
+            if (expireAfterWrite > 0) {
+                builder.expireAfterWrite(expireAfterWrite, TimeUnit.SECONDS);
+            }
+            cache = builder.build();
+        } else {
+            cache = null;
+        }
+    }
+
+    public Object get(String spaceIdentifier, String key) {
+        if (cache == null) {
+            return null;
+        }
+        return cache.getIfPresent(RedisService.composeKey(spaceIdentifier, key));
+    }
+
+    public void put(String spaceIdentifier, String key, Object value) {
+        if (cache != null && value != null) {
+            cache.put(RedisService.composeKey(spaceIdentifier, key), value);
+        }
+    }
+
+    public void invalidate(String spaceIdentifier, String key) {
+        if (cache != null) {
+            cache.invalidate(RedisService.composeKey(spaceIdentifier, key));
+        }
+    }
+
+    /**
+     * Invalidate all the entries of the space identifier with the key prefix.
+     */
+    public void invalidatePrefix(String spaceIdentifier, String keyPrefix) {
+        if (cache != null) {
+            String prefix = RedisService.composeKey(spaceIdentifier, keyPrefix);
+            cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Invalidate the entries of all the versions of the space other than the one of spaceIdentifier.
+     * @param spacePrefix the space name and type, i.e. spaceName_spaceType.
+     */
+    public void invalidateOtherVersions(String spacePrefix, String spaceIdentifier) {
+        if (cache != null) {
+            String prefix = RedisService.composeKey(spacePrefix, "");
+            String current = RedisService.composeKey(spaceIdentifier, "");
+            cache.asMap().keySet().removeIf(key -> key.startsWith(prefix) && !key.startsWith(current));
+        }
+    }
+
+    public JsonNode getStats() {
+        ObjectNode stats = Json.newObject();
+        stats.put("enabled", cache != null);
+        if (cache != null) {
+            CacheStats cacheStats = cache.stats();
+            stats.put("size", cache.size());
+            stats.put("hitCount", cacheStats.hitCount());
+            stats.put("missCount", cacheStats.missCount());
+            stats.put("hitRate", cacheStats.hitRate());
+            stats.put("evictionCount", cacheStats.evictionCount());
+        }
+        return stats;
+    }
+}
@@ -23,7 +23,6 @@
 package org.grouplens.samantha.server.space;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -31,24 +30,40 @@ import org.apache.commons.math3.linear.RealVector;
 import org.grouplens.samantha.modeler.space.SpaceMode;
 import org.grouplens.samantha.modeler.space.VariableSpace;
 import org.grouplens.samantha.server.common.RedisService;
-import org.grouplens.samantha.server.io.IOUtilities;
 import play.libs.Json;
 
 import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * The variables are stored as packed little-endian doubles, one hash field per row, in hashes of
+ * {@link #BUCKET_SIZE} rows, i.e. the row index of a variable is in the hash IDX_S_name_bucket or IDX_V_name_bucket.
+ * The variables' meta data, e.g. size and dimension, are in the hash META. So reading a whole variable or a batch of
+ * rows is one pipelined round trip of HGETALL/HMGET on the buckets and no key pattern scan is needed.
+ * Rows never written are initialized on reading according to the meta data. The rows read and written and the meta
+ * data are kept in the {@link RedisSpaceCache}.
+ */
 public class RedisVariableSpace extends RedisSpace implements VariableSpace {
     private static final long serialVersionUID = 1L;
+    static private final int BUCKET_SIZE = 1024;
+    static private final String META = "META";
 
     @Inject
-    public RedisVariableSpace(RedisService redisService) {
-        super(redisService);
+    public RedisVariableSpace(RedisService redisService, RedisSpaceCache spaceCache) {
+        super(redisService, spaceCache);
     }
 
     synchronized public void setSpaceState(String spaceName, SpaceMode spaceMode) {
+        boolean existing = false;
         if (spaceMode.equals(SpaceMode.DEFAULT)) {
-            spaceVersion = redisService.get(spaceName + "_" + SpaceType.INDEX.get(), spaceMode.get());
+            spaceVersion = redisService.get(spaceName + "_" + SpaceType.VARIABLE.get(), spaceMode.get());
+            existing = spaceVersion != null;
         }
         if (spaceVersion == null) {
             spaceVersion = redisService.incre(spaceName, SpaceType.VARIABLE.get()).toString();
@@ -58,6 +73,243 @@ public class RedisVariableSpace extends RedisSpace implements VariableSpace {
         this.spaceName = spaceName;
         this.spaceType = SpaceType.VARIABLE;
         this.spaceIdentifier = RedisService.composeKey(spaceName + "_" + spaceType.get(), spaceVersion);
+        if (existing) {
+            checkLayout();
+        }
+        if (spaceMode.equals(SpaceMode.DEFAULT)) {
+            spaceCache.invalidateOtherVersions(spaceName + "_" + spaceType.get(), spaceIdentifier);
+        }
+    }
+
+    /**
+     * The old layout kept the meta data of every variable under its own key S_name or V_name instead of in META.
+     */
+    protected boolean hasOldLayout() {
+        return redisService.hgetAll(spaceIdentifier, META).isEmpty() &&
+                (!redisService.keysWithPrefixPattern(spaceIdentifier, "S_").isEmpty() ||
+                        !redisService.keysWithPrefixPattern(spaceIdentifier, "V_").isEmpty());
+    }
+
+    static private String getBucketKey(String varName, int index) {
+        return "IDX_" + varName + "_" + Integer.valueOf(index / BUCKET_SIZE).toString();
+    }
+
+    static private int getNumBuckets(int size) {
+        return (size + BUCKET_SIZE - 1) / BUCKET_SIZE;
+    }
+
+    static private byte[] toBytes(double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (double value : values) {
+            buffer.putDouble(value);
+        }
+        return buffer.array();
+    }
+
+    static private void fromBytes(byte[] bytes, double[] outValues) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i=0; i<outValues.length; i++) {
+            outValues[i] = buffer.getDouble(i * 8);
+        }
+    }
+
+    static private String getRowCacheKey(String varName, int index) {
+        return "IDX_" + varName + "_" + Integer.valueOf(index).toString();
+    }
+
+    private JsonNode getMetaFromRedis(String varName) {
+        String val = redisService.hget(spaceIdentifier, META, varName);
+        if (val == null) {
+            return null;
+        } else {
+            return Json.parse(val);
+        }
+    }
+
+    private JsonNode getMeta(String varName) {
+        String cacheKey = RedisService.composeKey(META, varName);
+        String val = (String) spaceCache.get(spaceIdentifier, cacheKey);
+        if (val == null) {
+            val = redisService.hget(spaceIdentifier, META, varName);
+            spaceCache.put(spaceIdentifier, cacheKey, val);
+        }
+        if (val == null) {
+            return null;
+        } else {
+            return Json.parse(val);
+        }
+    }
+
+    private void invalidateMeta(String varName) {
+        spaceCache.invalidate(spaceIdentifier, RedisService.composeKey(META, varName));
+    }
+
+    private byte[] getRowBytes(String varName, int index) {
+        String cacheKey = getRowCacheKey(varName, index);
+        byte[] value = (byte[]) spaceCache.get(spaceIdentifier, cacheKey);
+        if (value == null) {
+            value = redisService.hgetBinary(spaceIdentifier, getBucketKey(varName, index),
+                    Integer.valueOf(index).toString());
+            spaceCache.put(spaceIdentifier, cacheKey, value);
+        }
+        return value;
+    }
+
+    private void initializeRow(JsonNode meta, double[] outValues) {
+        if (outValues.length == 1 && !meta.has("dim")) {
+            outValues[0] = initialScalarVar(meta.get("initial").asDouble(), meta.get("randomize").asBoolean());
+        } else {
+            RealVector var = MatrixUtils.createRealVector(outValues);
+            initializeVector(var, meta.get("initial").asDouble(), meta.get("randomize").asBoolean(),
+                    meta.get("normalize").asBoolean());
+            for (int i=0; i<outValues.length; i++) {
+                outValues[i] = var.getEntry(i);
+            }
+        }
+    }
+
+    private void getRow(String varName, int index, double[] outValues) {
+        byte[] value = getRowBytes(varName, index);
+        if (value != null) {
+            fromBytes(value, outValues);
+        } else {
+            initializeRow(getMeta(varName), outValues);
+        }
+    }
+
+    private void setRow(String varName, int index, double[] values) {
+        byte[] value = toBytes(values);
+        redisService.hsetBinary(spaceIdentifier, getBucketKey(varName, index),
+                Integer.valueOf(index).toString(), value);
+        spaceCache.put(spaceIdentifier, getRowCacheKey(varName, index), value);
+    }
+
+    /**
+     * Read the rows at the indices not in the cache with one pipelined HMGET per bucket.
+     */
+    private void getRows(String varName, int[] indices, double[][] outValues) {
+        byte[][] values = new byte[indices.length][];
+        Map<String, List<String>> bucket2fields = new LinkedHashMap<>();
+        for (int i=0; i<indices.length; i++) {
+            values[i] = (byte[]) spaceCache.get(spaceIdentifier, getRowCacheKey(varName, indices[i]));
+            if (values[i] == null) {
+                bucket2fields.computeIfAbsent(getBucketKey(varName, indices[i]), k -> new ArrayList<>())
+                        .add(Integer.valueOf(indices[i]).toString());
+            }
+        }
+        if (bucket2fields.size() > 0) {
+            List<byte[]> fetched = redisService.bulkHmgetBinary(spaceIdentifier,
+                    new ArrayList<>(bucket2fields.keySet()), new ArrayList<>(bucket2fields.values()));
+            Map<String, byte[]> field2value = new HashMap<>(fetched.size());
+            int j = 0;
+            for (List<String> fields : bucket2fields.values()) {
+                for (String field : fields) {
+                    field2value.put(field, fetched.get(j++));
+                }
+            }
+            for (int i=0; i<indices.length; i++) {
+                if (values[i] == null) {
+                    values[i] = field2value.get(Integer.valueOf(indices[i]).toString());
+                    spaceCache.put(spaceIdentifier, getRowCacheKey(varName, indices[i]), values[i]);
+                }
+            }
+        }
+        JsonNode meta = null;
+        for (int i=0; i<indices.length; i++) {
+            byte[] value = values[i];
+            if (value != null) {
+                fromBytes(value, outValues[i]);
+            } else {
+                if (meta == null) {
+                    meta = getMeta(varName);
+                }
+                initializeRow(meta, outValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Read the whole variable with one pipelined HGETALL per bucket.
+     */
+    private double[][] getAllRows(String varName, JsonNode meta, int dim) {
+        int size = meta.get("size").asInt();
+        double[][] rows = new double[size][dim];
+        for (int i=0; i<size; i++) {
+            initializeRow(meta, rows[i]);
+        }
+        List<String> buckets = new ArrayList<>();
+        for (int i=0; i<getNumBuckets(size); i++) {
+            buckets.add(getBucketKey(varName, i * BUCKET_SIZE));
+        }
+        for (Map<String, byte[]> bucket : redisService.bulkHgetAllBinary(spaceIdentifier, buckets)) {
+            for (Map.Entry<String, byte[]> entry : bucket.entrySet()) {
+                int index = Integer.parseInt(entry.getKey());
+                if (index < size) {
+                    fromBytes(entry.getValue(), rows[index]);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Sizes only grow so the meta data are updated optimistically with WATCH/MULTI until the size is large enough.
+     * The transaction is discarded on any error so that the lock of the Redis service is not left held.
+     */
+    private void ensureVar(ObjectNode obj, String varName, int size) {
+        while (true) {
+            redisService.watch(spaceIdentifier, META);
+            boolean ended = false;
+            boolean queued = false;
+            try {
+                JsonNode val = getMetaFromRedis(varName);
+                boolean grow = val == null || size > val.get("size").asInt();
+                redisService.multi(false);
+                queued = true;
+                if (grow) {
+                    obj.put("size", size);
+                    redisService.hsetWithoutLock(spaceIdentifier, META, varName, obj.toString());
+                }
+                ended = true;
+                redisService.exec();
+            } finally {
+                if (!ended) {
+                    if (queued) {
+                        redisService.discard();
+                    } else {
+                        redisService.unwatch();
+                    }
+                }
+            }
+            JsonNode val = getMetaFromRedis(varName);
+            if (val != null && val.get("size").asInt() >= size) {
+                invalidateMeta(varName);
+                return;
+            }
+        }
+    }
+
+    private void freeVar(String varName) {
+        JsonNode meta = getMeta(varName);
+        if (meta != null) {
+            int size = meta.get("size").asInt();
+            for (int i=0; i<getNumBuckets(size); i++) {
+                redisService.del(spaceIdentifier, getBucketKey(varName, i * BUCKET_SIZE));
+            }
+            redisService.hdel(spaceIdentifier, META, varName);
+        }
+        invalidateMeta(varName);
+        spaceCache.invalidatePrefix(spaceIdentifier, "IDX_" + varName + "_");
+    }
+
+    private List<String> getAllVarNames(String label) {
+        List<String> names = new ArrayList<>();
+        for (String varName : redisService.hgetAll(spaceIdentifier, META).keySet()) {
+            if (varName.startsWith(label)) {
+                names.add(varName.substring(label.length()));
+            }
+        }
+        return names;
     }
 
     public void requestScalarVar(String name, int size, double initial, boolean randomize) {
@@ -66,25 +318,20 @@ public class RedisVariableSpace extends RedisSpace implements VariableSpace {
         val.put("size", size);
         val.put("initial", initial);
         val.put("randomize", randomize);
-        redisService.set(spaceIdentifier, "S_" + name, val.toString());
+        redisService.hset(spaceIdentifier, META, "S_" + name, val.toString());
+        invalidateMeta("S_" + name);
     }
 
     public boolean hasScalarVar(String name) {
-        String val = redisService.get(spaceIdentifier, "S_" + name);
-        if (val != null) {
-            return true;
-        } else {
-            return false;
-        }
+        return getMeta("S_" + name) != null;
     }
 
     public void ensureScalarVar(String name, int size, double initial, boolean randomize) {
-        String varName = "S_" + name;
         ObjectNode obj = Json.newObject();
         obj.put("name", name);
         obj.put("initial", initial);
         obj.put("randomize", randomize);
-        ensureVar(obj, varName, size);
+        ensureVar(obj, "S_" + name, size);
     }
 
     public void requestVectorVar(String name, int size, int dim, double initial,
@@ -96,69 +343,36 @@ public class RedisVariableSpace extends RedisSpace implements VariableSpace {
         val.put("initial", initial);
         val.put("randomize", randomize);
         val.put("normalize", normalize);
-        redisService.set(spaceIdentifier, "V_" + name, val.toString());
+        redisService.hset(spaceIdentifier, META, "V_" + name, val.toString());
+        invalidateMeta("V_" + name);
     }
 
     public boolean hasVectorVar(String name) {
-        String val = redisService.get(spaceIdentifier, "V_" + name);
-        if (val != null) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    private void ensureVar(ObjectNode obj, String varName, int size) {
-        List<Object> resps;
-        do {
-            JsonNode val = redisService.getValue(spaceIdentifier, varName);
-            redisService.watch(spaceIdentifier, varName);
-            redisService.multi(false);
-            if (val != null) {
-                IOUtilities.parseEntityFromJsonNode(val, obj);
-                if (size > obj.get("size").asInt()) {
-                    obj.put("size", size);
-                    redisService.setWithoutLock(spaceIdentifier, varName, obj.toString());
-                }
-            } else {
-                obj.put("size", size);
-                redisService.setWithoutLock(spaceIdentifier, varName, obj.toString());
-            }
-            resps = redisService.exec();
-        } while (resps.size() > 0 && resps.get(0) == null);
+        return getMeta("V_" + name) != null;
     }
 
     public void ensureVectorVar(String name, int size, int dim, double initial,
                                 boolean randomize, boolean normalize) {
-        String varName = "V_" + name;
         ObjectNode obj = Json.newObject();
         obj.put("name", name);
-        obj.put("dim", size);
+        obj.put("dim", dim);
         obj.put("initial", initial);
         obj.put("randomize", randomize);
         obj.put("normalize", normalize);
-        ensureVar(obj, varName, size);
+        ensureVar(obj, "V_" + name, size);
     }
 
     public RealVector getScalarVarByName(String name) {
-        String varName = "S_" + name;
-        JsonNode obj = redisService.getValue(spaceIdentifier, varName);
-        String varIdxName = "IDX_S_" + name + "_";
-        List<String> keys = redisService.keysWithPrefixPattern(spaceIdentifier, varIdxName);
-        int size = obj.get("size").asInt();
-        RealVector vars = MatrixUtils.createRealVector(new double[size]);
-        initializeVector(vars, obj.get("initial").asDouble(), obj.get("randomize").asBoolean(), false);
-        List<JsonNode> values = redisService.bulkGet(keys);
-        for (JsonNode one : values) {
-            vars.setEntry(one.get(0).asInt(), one.get(1).asDouble());
+        double[][] rows = getAllRows("S_" + name, getMeta("S_" + name), 1);
+        double[] values = new double[rows.length];
+        for (int i=0; i<rows.length; i++) {
+            values[i] = rows[i][0];
         }
-        return vars;
+        return MatrixUtils.createRealVector(values);
     }
 
     public int getScalarVarSizeByName(String name) {
-        String varName = "S_" + name;
-        JsonNode obj = redisService.getValue(spaceIdentifier, varName);
-        return obj.get("size").asInt();
+        return getMeta("S_" + name).get("size").asInt();
     }
 
     public void setScalarVarByName(String name, RealVector vars) {
@@ -168,118 +382,71 @@ public class RedisVariableSpace extends RedisSpace implements VariableSpace {
     }
 
     public double getScalarVarByNameIndex(String name, int index) {
-        String varIdxName = "IDX_S_" + name + "_" + Integer.valueOf(index).toString();
-        JsonNode value = redisService.getValue(spaceIdentifier, varIdxName);
-        if (value != null) {
-            return value.get(1).asDouble();
-        } else {
-            JsonNode obj = redisService.getValue(spaceIdentifier, "S_" + name);
-            double init = initialScalarVar(obj.get("initial").asDouble(), obj.get("randomize").asBoolean());
-            return init;
-        }
+        double[] value = new double[1];
+        getRow("S_" + name, index, value);
+        return value[0];
     }
 
     public void setScalarVarByNameIndex(String name, int index, double var) {
-        String varIdxName = "IDX_S_" + name + "_" + Integer.valueOf(index).toString();
-        ArrayNode values = Json.newArray();
-        values.add(index);
-        values.add(var);
-        redisService.setValue(spaceIdentifier, varIdxName, values);
+        setRow("S_" + name, index, new double[] {var});
     }
 
-    private void setValue(RealVector var, JsonNode one, int dim) {
-        for (int i=0; i<dim; i++) {
-            var.setEntry(i, one.get(i + 1).asDouble());
+    public void getScalarVarByNameIndices(String name, int[] indices, double[] outVars) {
+        double[][] values = new double[indices.length][1];
+        getRows("S_" + name, indices, values);
+        for (int i=0; i<indices.length; i++) {
+            outVars[i] = values[i][0];
         }
     }
 
-    private void setValue(List<RealVector> vars, JsonNode one, int dim) {
-        RealVector chosen = vars.get(one.get(0).asInt());
-        setValue(chosen, one, dim);
-    }
-
     public List<RealVector> getVectorVarByName(String name) {
-        String varName = "V_" + name;
-        JsonNode obj = redisService.getValue(spaceIdentifier, varName);
-        int size = obj.get("size").asInt();
-        int dim = obj.get("dim").asInt();
-        double initial = obj.get("initial").asDouble();
-        boolean randomize = obj.get("randomize").asBoolean();
-        boolean normalize = obj.get("normalize").asBoolean();
-        List<RealVector> vars = new ArrayList<>(size);
-        for (int i=0; i<size; i++) {
-            RealVector var = MatrixUtils.createRealVector(new double[dim]);
-            initializeVector(var, initial, randomize, normalize);
-            vars.add(var);
-        }
-        String varIdxName = "IDX_V_" + name + "_";
-        List<String> keys = redisService.keysWithPrefixPattern(spaceIdentifier, varIdxName);
-        List<JsonNode> values = redisService.bulkGet(keys);
-        for (JsonNode one : values) {
-            setValue(vars, one, dim);
+        JsonNode meta = getMeta("V_" + name);
+        double[][] rows = getAllRows("V_" + name, meta, meta.get("dim").asInt());
+        List<RealVector> vars = new ArrayList<>(rows.length);
+        for (double[] row : rows) {
+            vars.add(MatrixUtils.createRealVector(row));
         }
         return vars;
     }
 
     public RealMatrix getMatrixVarByName(String name) {
-        String varName = "V_" + name;
-        JsonNode obj = redisService.getValue(spaceIdentifier, varName);
-        int size = obj.get("size").asInt();
-        int dim = obj.get("dim").asInt();
-        RealMatrix matrix = MatrixUtils.createRealMatrix(size, dim);
-        for (int i=0; i<size; i++) {
-            matrix.setRowVector(i, getVectorVarByNameIndex(name, i));
-        }
-        return matrix;
+        JsonNode meta = getMeta("V_" + name);
+        return MatrixUtils.createRealMatrix(getAllRows("V_" + name, meta, meta.get("dim").asInt()));
     }
 
     public int getVectorVarSizeByName(String name) {
-        String varName = "V_" + name;
-        JsonNode obj = redisService.getValue(spaceIdentifier, varName);
-        return obj.get("size").asInt();
+        return getMeta("V_" + name).get("size").asInt();
     }
 
     public int getVectorVarDimensionByName(String name) {
-        String varName = "V_" + name;
-        JsonNode obj = redisService.getValue(spaceIdentifier, varName);
-        return obj.get("dim").asInt();
+        return getMeta("V_" + name).get("dim").asInt();
     }
 
     public RealVector getVectorVarByNameIndex(String name, int index) {
-        String varIdxName = "IDX_V_" + name + "_" + Integer.valueOf(index).toString();
-        JsonNode value = redisService.getValue(spaceIdentifier, varIdxName);
+        String varName = "V_" + name;
+        byte[] value = getRowBytes(varName, index);
+        double[] values;
         if (value != null) {
-            int dim = value.size() - 1;
-            RealVector var = MatrixUtils.createRealVector(new double[dim]);
-            setValue(var, value, dim);
-            return var;
+            values = new double[value.length / 8];
+            fromBytes(value, values);
         } else {
-            JsonNode obj = redisService.getValue(spaceIdentifier, "V_" + name);
-            RealVector var = MatrixUtils.createRealVector(new double[obj.get("dim").asInt()]);
-            initializeVector(var, obj.get("initial").asDouble(), obj.get("randomize").asBoolean(),
-                    obj.get("normalize").asBoolean());
-            return var;
+            JsonNode meta = getMeta(varName);
+            values = new double[meta.get("dim").asInt()];
+            initializeRow(meta, values);
         }
+        return MatrixUtils.createRealVector(values);
+    }
+
+    public void getVectorVarByNameIndex(String name, int index, double[] outVar) {
+        getRow("V_" + name, index, outVar);
     }
 
     public void setVectorVarByNameIndex(String name, int index, RealVector var) {
-        String varIdxName = "IDX_V_" + name + "_" + Integer.valueOf(index).toString();
-        ArrayNode values = Json.newArray();
-        values.add(index);
-        for (int i=0; i<var.getDimension(); i++) {
-            values.add(var.getEntry(i));
-        }
-        redisService.setValue(spaceIdentifier, varIdxName, values);
+        setRow("V_" + name, index, var.toArray());
     }
 
-    private List<String> getAllVarNames(String label) {
-        List<String> names = new ArrayList<>();
-        List<String> keys = redisService.keysWithPrefixPattern(spaceIdentifier, label);
-        List<JsonNode> values = redisService.bulkGet(keys);
-        for (JsonNode val : values) {
-            names.add(val.get("name").asText());
-        }
-        return names;
+    public void getVectorVarByNameIndices(String name, int[] indices, double[][] outVars) {
+        getRows("V_" + name, indices, outVars);
     }
 
     public List<String> getAllScalarVarNames() {
@@ -291,23 +458,18 @@ public class RedisVariableSpace extends RedisSpace implements VariableSpace {
     }
 
     public void freeSpace() {
-        List<String> keys = redisService.keysWithPrefixPattern(spaceIdentifier, null);
-        for (String key : keys) {
-            redisService.delWithKey(key);
+        for (String varName : redisService.hgetAll(spaceIdentifier, META).keySet()) {
+            freeVar(varName);
         }
+        redisService.del(spaceIdentifier, META);
+        spaceCache.invalidatePrefix(spaceIdentifier, "");
     }
 
     public void freeScalarVar(String name) {
-        List<String> keys = redisService.keysWithPrefixPattern(spaceIdentifier, "S_" + name);
-        for (String key : keys) {
-            redisService.delWithKey(key);
-        }
+        freeVar("S_" + name);
     }
 
     public void freeVectorVar(String name) {
-        List<String> keys = redisService.keysWithPrefixPattern(spaceIdentifier, "V_" + name);
-        for (String key : keys) {
-            redisService.delWithKey(key);
-        }
+        freeVar("V_" + name);
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.space;
+
+import com.google.inject.AbstractModule;
+import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.grouplens.samantha.server.config.ConfigKey;
+import org.grouplens.samantha.server.exception.ConfigurationException;
+import play.Configuration;
+import play.Environment;
+
+/**
+ * Binds the {@link IndexSpace} and the {@link VariableSpace} that the models are built in to the classes configured
+ * by samantha.space.indexSpaceClass and samantha.space.variableSpaceClass, e.g. {@link MappedIndexSpace} and
+ * {@link MappedVariableSpace}. Without these keys, the defaults of {@link com.google.inject.ImplementedBy} apply.
+ */
+public class SpaceModule extends AbstractModule {
+    private final Configuration configuration;
+
+    public SpaceModule(Environment environment, Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Class<? extends T> getSpaceClass(ConfigKey key, Class<T> spaceInterface) {
+        String className = configuration.getString(key.get());
+        if (className == null) {
+            return null;
+        }
+        try {
+            Class<?> spaceClass = Class.forName(className);
+            if (!spaceInterface.isAssignableFrom(spaceClass)) {
+                throw new ConfigurationException(className + " is not a " + spaceInterface.getSimpleName());
+            }
+            return (Class<? extends T>) spaceClass;
+        } catch (ClassNotFoundException e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    protected void configure() {
+        Class<? extends IndexSpace> indexSpaceClass = getSpaceClass(ConfigKey.SPACE_INDEX_SPACE_CLASS,
+                IndexSpace.class);
+        if (indexSpaceClass != null) {
+            bind(IndexSpace.class).to(indexSpaceClass);
+        }
+        Class<? extends VariableSpace> variableSpaceClass = getSpaceClass(ConfigKey.SPACE_VARIABLE_SPACE_CLASS,
+                VariableSpace.class);
+        if (variableSpaceClass != null) {
+            bind(VariableSpace.class).to(variableSpaceClass);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.knn;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.math3.linear.RealVector;
+import org.grouplens.samantha.modeler.featurizer.FeatureExtractorUtilities;
+import org.grouplens.samantha.modeler.solver.L2NormLoss;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedVariableSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeature;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureKey;
+import org.junit.Test;
+import play.libs.Json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FeatureKnnModelTest {
+    // more items than a row block and a column tile, so that the blocks and tiles have remainders
+    private static final int NUM_ITEMS = 700;
+    private static final int FACT_DIM = 8;
+    private static final int NUM_NEIGHBORS = 10;
+
+    private final SolverExecutor executor = new SolverExecutor("knn-test", 3);
+
+    private static String getItemKey(int item) {
+        return FeatureExtractorUtilities.composeKey("item", Integer.toString(item));
+    }
+
+    /**
+     * @param numSupported the number of items with support, i.e. in the knn model, the others not until their
+     *                     support is set.
+     */
+    private static SVDFeature createSVDFeature(int numItems, int numSupported, int factDim, Random random) {
+        IndexSpace indexSpace = new SynchronizedIndexSpace();
+        indexSpace.requestKeyMap(SVDFeatureKey.BIASES.get());
+        indexSpace.requestKeyMap(SVDFeatureKey.FACTORS.get());
+        for (int i=0; i<numItems; i++) {
+            indexSpace.setKey(SVDFeatureKey.BIASES.get(), getItemKey(i));
+            indexSpace.setKey(SVDFeatureKey.FACTORS.get(), getItemKey(i));
+        }
+        VariableSpace variableSpace = new SynchronizedVariableSpace();
+        variableSpace.requestScalarVar(SVDFeatureKey.BIASES.get(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(SVDFeatureKey.BIASES.get(), numItems, 0.0, false);
+        variableSpace.requestScalarVar(SVDFeatureKey.SUPPORT.get(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(SVDFeatureKey.SUPPORT.get(), numItems, 0.0, false);
+        variableSpace.requestVectorVar(SVDFeatureKey.FACTORS.get(), 0, factDim, 0.0, false, false);
+        variableSpace.ensureVectorVar(SVDFeatureKey.FACTORS.get(), numItems, factDim, 0.0, false, false);
+        List<String> empty = new ArrayList<>();
+        SVDFeature svdFeature = new SVDFeature(empty, empty, empty, "rating", "weight", null, new ArrayList<>(),
+                factDim, new L2NormLoss(), indexSpace, variableSpace);
+        for (int i=0; i<numItems; i++) {
+            if (random != null) {
+                setRandomFactor(svdFeature, i, random);
+            }
+            if (i < numSupported) {
+                addSupport(svdFeature, i);
+            }
+        }
+        return svdFeature;
+    }
+
+    private static void addSupport(SVDFeature svdFeature, int item) {
+        svdFeature.setScalarVarByNameIndex(SVDFeatureKey.SUPPORT.get(),
+                svdFeature.getFeatureIndex(SVDFeatureKey.BIASES, getItemKey(item)), 1.0);
+    }
+
+    private static void setItemFactor(SVDFeature svdFeature, int item, double[] factor) {
+        svdFeature.combineVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(),
+                svdFeature.getFeatureIndex(SVDFeatureKey.FACTORS, getItemKey(item)), 0.0, 1.0, factor);
+    }
+
+    private static void setRandomFactor(SVDFeature svdFeature, int item, Random random) {
+        double[] factor = new double[FACT_DIM];
+        for (int f=0; f<FACT_DIM; f++) {
+            factor[f] = random.nextGaussian();
+        }
+        setItemFactor(svdFeature, item, factor);
+    }
+
+    private static double getCosine(SVDFeature svdFeature, int left, int right) {
+        RealVector leftVec = svdFeature.getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(),
+                svdFeature.getFeatureIndex(SVDFeatureKey.FACTORS, getItemKey(left)));
+        RealVector rightVec = svdFeature.getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(),
+                svdFeature.getFeatureIndex(SVDFeatureKey.FACTORS, getItemKey(right)));
+        return leftVec.cosine(rightVec);
+    }
+
+    private static FeatureKnnModel createKnnModel(SVDFeature svdFeature, int numNeighbors, boolean reverse) {
+        return new FeatureKnnModel("knn", Arrays.asList("item"), numNeighbors, reverse, 1, svdFeature,
+                new SynchronizedIndexSpace(), new SynchronizedVariableSpace());
+    }
+
+    /**
+     * Check that the neighbors of every item are the most similar, or dissimilar if reverse, other items by brute
+     * force, comparing the similarities since the order of near ties may differ in float.
+     */
+    private static void assertExactNeighbors(FeatureKnnModel knnModel, SVDFeature svdFeature, int numItems,
+                                             int numNeighbors, boolean reverse) {
+        double sign = reverse ? -1.0 : 1.0;
+        for (int i=0; i<numItems; i++) {
+            double[] expected = new double[numItems - 1];
+            int num = 0;
+            for (int j=0; j<numItems; j++) {
+                if (j != i) {
+                    expected[num++] = -sign * getCosine(svdFeature, i, j);
+                }
+            }
+            Arrays.sort(expected);
+            RealVector neighbors = knnModel.getKeyVector(getItemKey(i));
+            for (int k=numItems - 1; k<numNeighbors; k++) {
+                assertEquals(-1, (int) neighbors.getEntry(2 * k));
+            }
+            for (int k=0; k<numNeighbors; k++) {
+                int idx = (int) neighbors.getEntry(2 * k);
+                double sim = neighbors.getEntry(2 * k + 1);
+                if (k >= numItems - 1) {
+                    break;
+                }
+                assertEquals(-sign * expected[k], sim, 1e-5);
+                String key = knnModel.getKeyByIndex(idx);
+                assertNotEquals(getItemKey(i), key);
+                int neighbor = Integer.parseInt(FeatureExtractorUtilities.decomposeKey(key).get("item"));
+                assertEquals(getCosine(svdFeature, i, neighbor), sim, 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testBuildMatchesBruteForce() {
+        SVDFeature svdFeature = createSVDFeature(NUM_ITEMS, NUM_ITEMS, FACT_DIM, new Random(1L));
+        FeatureKnnModel knnModel = createKnnModel(svdFeature, NUM_NEIGHBORS, false).buildModel(executor);
+        assertEquals(NUM_ITEMS, knnModel.getIndexSize());
+        assertExactNeighbors(knnModel, svdFeature, NUM_ITEMS, NUM_NEIGHBORS, false);
+    }
+
+    @Test
+    public void testReverseBuildMatchesBruteForce() {
+        SVDFeature svdFeature = createSVDFeature(NUM_ITEMS, NUM_ITEMS, FACT_DIM, new Random(2L));
+        FeatureKnnModel knnModel = createKnnModel(svdFeature, NUM_NEIGHBORS, true).buildModel(executor);
+        assertExactNeighbors(knnModel, svdFeature, NUM_ITEMS, NUM_NEIGHBORS, true);
+    }
+
+    @Test
+    public void testBuildDoesNotDependOnNumThreads() {
+        SVDFeature svdFeature = createSVDFeature(NUM_ITEMS, NUM_ITEMS, FACT_DIM, new Random(3L));
+        FeatureKnnModel parallel = createKnnModel(svdFeature, NUM_NEIGHBORS, false).buildModel(executor);
+        FeatureKnnModel serial = createKnnModel(svdFeature, NUM_NEIGHBORS, false)
+                .buildModel(new SolverExecutor("knn-test-serial", 1));
+        for (int i=0; i<NUM_ITEMS; i++) {
+            assertEquals(serial.getKeyVector(getItemKey(i)), parallel.getKeyVector(getItemKey(i)));
+        }
+    }
+
+    @Test
+    public void testUpdateMatchesRebuild() {
+        Random random = new Random(4L);
+        int numNew = 50;
+        SVDFeature svdFeature = createSVDFeature(NUM_ITEMS + numNew, NUM_ITEMS, FACT_DIM, random);
+        FeatureKnnModel knnModel = createKnnModel(svdFeature, NUM_NEIGHBORS, false).buildModel(executor);
+        for (int i=0; i<NUM_ITEMS; i+=20) {
+            setRandomFactor(svdFeature, i, random);
+        }
+        for (int i=NUM_ITEMS; i<NUM_ITEMS + numNew; i++) {
+            addSupport(svdFeature, i);
+        }
+        knnModel.updateModel(svdFeature, 0.0, executor);
+        assertEquals(NUM_ITEMS + numNew, knnModel.getIndexSize());
+        assertExactNeighbors(knnModel, svdFeature, NUM_ITEMS + numNew, NUM_NEIGHBORS, false);
+    }
+
+    @Test
+    public void testReverseUpdateMatchesRebuild() {
+        Random random = new Random(5L);
+        SVDFeature svdFeature = createSVDFeature(NUM_ITEMS, NUM_ITEMS, FACT_DIM, random);
+        FeatureKnnModel knnModel = createKnnModel(svdFeature, NUM_NEIGHBORS, true).buildModel(executor);
+        for (int i=0; i<NUM_ITEMS; i+=7) {
+            setRandomFactor(svdFeature, i, random);
+        }
+        knnModel.updateModel(svdFeature, 0.0, executor);
+        assertExactNeighbors(knnModel, svdFeature, NUM_ITEMS, NUM_NEIGHBORS, true);
+    }
+
+    @Test
+    public void testUnfilledNeighborsAndItemZero() {
+        SVDFeature svdFeature = createSVDFeature(4, 4, 2, null);
+        setItemFactor(svdFeature, 0, new double[] {1.0, 0.0});
+        setItemFactor(svdFeature, 1, new double[] {0.0, 1.0});
+        setItemFactor(svdFeature, 2, new double[] {1.0, 1.0});
+        setItemFactor(svdFeature, 3, new double[] {-1.0, 2.0});
+        FeatureKnnModel knnModel = createKnnModel(svdFeature, 5, false).buildModel(executor);
+        assertExactNeighbors(knnModel, svdFeature, 4, 5, false);
+        // the unfilled neighbors are not taken as item 0
+        ObjectNode base = Json.newObject();
+        base.put("item", "1");
+        List<ObjectNode> triggered = new KnnModelFeatureTrigger(knnModel, null, Arrays.asList("item"),
+                "weight", "score").getTriggeredFeatures(Arrays.asList(base));
+        assertEquals(3, triggered.size());
+        for (ObjectNode item : triggered) {
+            int neighbor = Integer.parseInt(item.get("item").asText());
+            assertEquals(getCosine(svdFeature, 1, neighbor), item.get("score").asDouble(), 1e-5);
+        }
+
+        // item 0 is a neighbor of item 1 with a similarity of exactly zero, and a changed neighbor dropping below it
+        // must neither drop item 0 as unfilled nor leave item 1 short of it
+        FeatureKnnModel fullModel = createKnnModel(svdFeature, 3, false).buildModel(executor);
+        RealVector neighbors = fullModel.getKeyVector(getItemKey(1));
+        assertEquals(fullModel.getIndexByKey(getItemKey(0)), (int) neighbors.getEntry(4));
+        assertEquals(0.0, neighbors.getEntry(5), 0.0);
+        setItemFactor(svdFeature, 3, new double[] {0.0, -1.0});
+        fullModel.updateModel(svdFeature, 0.0, executor);
+        assertExactNeighbors(fullModel, svdFeature, 4, 3, false);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.knn;
+
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedVariableSpace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the recall@k and the latency of the searches of a {@link HNSWIndex} against the exact search by scanning
+ * all the vectors, on synthetic clustered vectors, for both {@link SimilarityMetric}s and a range of efSearch.
+ *
+ * Run with: activator "test:runMain org.grouplens.samantha.modeler.knn.HNSWIndexBenchmark
+ * [numItems dim numQueries k]".
+ */
+public class HNSWIndexBenchmark {
+    private HNSWIndexBenchmark() {}
+
+    private static float[] generateVectors(int num, int dim, Random random) {
+        int numClusters = 64;
+        float[] centers = new float[numClusters * dim];
+        for (int i=0; i<centers.length; i++) {
+            centers[i] = (float) random.nextGaussian();
+        }
+        float[] vectors = new float[num * dim];
+        for (int i=0; i<num; i++) {
+            int cluster = random.nextInt(numClusters);
+            for (int f=0; f<dim; f++) {
+                vectors[i * dim + f] = centers[cluster * dim + f] + 0.5f * (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    private static int exactSearch(SimilarityMetric metric, float[] vectors, int dim, double[] query, int k,
+                                   int[] outIds) {
+        TopNHeap heap = new TopNHeap(k);
+        int num = vectors.length / dim;
+        for (int i=0; i<num; i++) {
+            double product = 0.0;
+            double norm = 0.0;
+            for (int f=0; f<dim; f++) {
+                product += vectors[i * dim + f] * query[f];
+                norm += vectors[i * dim + f] * vectors[i * dim + f];
+            }
+            if (metric == SimilarityMetric.COSINE && norm > 0.0) {
+                product /= Math.sqrt(norm);
+            }
+            if (!heap.isFull() || product > heap.getMinScore()) {
+                heap.offer(i, product);
+            }
+        }
+        return heap.drainSorted(outIds, new double[k]);
+    }
+
+    private static void run(SimilarityMetric metric, float[] vectors, int dim, List<double[]> queries, int k) {
+        int numItems = vectors.length / dim;
+        List<String> keys = new ArrayList<>(numItems);
+        for (int i=0; i<numItems; i++) {
+            keys.add(Integer.toString(i));
+        }
+        HNSWIndex index = new HNSWIndex("hnsw", metric, 16, 200, 0L,
+                new SynchronizedIndexSpace(), new SynchronizedVariableSpace());
+        long start = System.nanoTime();
+        index.build(keys, vectors, dim, Runtime.getRuntime().availableProcessors(), SolverExecutor.getDefault());
+        System.out.println(String.format("metric=%s items=%d build seconds=%.1f",
+                metric.get(), numItems, (System.nanoTime() - start) / 1e9));
+
+        List<int[]> truths = new ArrayList<>(queries.size());
+        start = System.nanoTime();
+        for (double[] query : queries) {
+            int[] ids = new int[k];
+            exactSearch(metric, vectors, dim, query, k, ids);
+            truths.add(ids);
+        }
+        System.out.println(String.format("metric=%s exact ms/query=%.3f",
+                metric.get(), (System.nanoTime() - start) / 1e6 / queries.size()));
+
+        int[] ids = new int[k];
+        double[] scores = new double[k];
+        for (int efSearch=k; efSearch<=16*k; efSearch*=2) {
+            int hits = 0;
+            start = System.nanoTime();
+            for (int q=0; q<queries.size(); q++) {
+                int num = index.search(queries.get(q), k, efSearch, ids, scores);
+                int[] truth = truths.get(q);
+                for (int i=0; i<num; i++) {
+                    for (int t : truth) {
+                        if (ids[i] == t) {
+                            hits++;
+                            break;
+                        }
+                    }
+                }
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / queries.size();
+            System.out.println(String.format("metric=%s efSearch=%d recall@%d=%.4f ms/query=%.3f",
+                    metric.get(), efSearch, k, hits / (double) (queries.size() * k), millis));
+        }
+    }
+
+    public static void main(String[] args) {
+        int numItems = 100000;
+        int dim = 32;
+        int numQueries = 200;
+        int k = 100;
+        if (args.length == 4) {
+            numItems = Integer.parseInt(args[0]);
+            dim = Integer.parseInt(args[1]);
+            numQueries = Integer.parseInt(args[2]);
+            k = Integer.parseInt(args[3]);
+        }
+        Random random = new Random(0L);
+        float[] vectors = generateVectors(numItems, dim, random);
+        List<double[]> queries = new ArrayList<>(numQueries);
+        float[] queryVectors = generateVectors(numQueries, dim, random);
+        for (int q=0; q<numQueries; q++) {
+            double[] query = new double[dim];
+            for (int f=0; f<dim; f++) {
+                query[f] = queryVectors[q * dim + f];
+            }
+            queries.add(query);
+        }
+        for (SimilarityMetric metric : SimilarityMetric.values()) {
+            run(metric, vectors, dim, queries, k);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.modeler.space.LockMode;
+import org.grouplens.samantha.modeler.space.PrimitiveVariableSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeature;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureKey;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AsyncParallelSGDTest {
+    private final SolverExecutor executor = new SolverExecutor("sgd-test", 2);
+
+    /**
+     * No instances, only recording the lock mode of the model while the pass goes through it.
+     */
+    private static class LockModeRecorder implements LearningData {
+        private final LearningModel model;
+        private LockMode lockMode;
+        private int numStripes;
+
+        private LockModeRecorder(LearningModel model) {
+            this.model = model;
+        }
+
+        synchronized public List<LearningInstance> getLearningInstance() {
+            lockMode = model.getLockMode();
+            numStripes = model.getNumStripes();
+            return new ArrayList<>();
+        }
+
+        public void startNewIteration() {}
+    }
+
+    private static SVDFeature createModel() {
+        VariableSpace variableSpace = new PrimitiveVariableSpace();
+        variableSpace.requestScalarVar(SVDFeatureKey.BIASES.get(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(SVDFeatureKey.BIASES.get(), 3, 0.0, false);
+        variableSpace.requestVectorVar(SVDFeatureKey.FACTORS.get(), 0, 2, 0.0, true, false);
+        variableSpace.ensureVectorVar(SVDFeatureKey.FACTORS.get(), 2, 2, 0.0, true, false);
+        List<String> empty = new ArrayList<>();
+        return new SVDFeature(empty, empty, empty, "rating", "weight", null, new ArrayList<>(),
+                2, new L2NormLoss(), new SynchronizedIndexSpace(), variableSpace);
+    }
+
+    @Test
+    public void testRestripesAndRestoresStripes() {
+        SVDFeature model = createModel();
+        model.setLockMode(LockMode.STRIPED, 8);
+        LockModeRecorder data = new LockModeRecorder(model);
+        new AsyncParallelSGD(1, 1, 0.0, 0.01, 0.0, 2, LockMode.STRIPED, 32, executor).update(model, data);
+        assertEquals(LockMode.STRIPED, data.lockMode);
+        assertEquals(32, data.numStripes);
+        assertEquals(LockMode.STRIPED, model.getLockMode());
+        assertEquals(8, model.getNumStripes());
+    }
+
+    @Test
+    public void testRestoresPreviousMode() {
+        SVDFeature model = createModel();
+        model.setLockMode(LockMode.STRIPED, 8);
+        LockModeRecorder data = new LockModeRecorder(model);
+        new AsyncParallelSGD(1, 1, 0.0, 0.01, 0.0, 2, LockMode.NONE, 0, executor).update(model, data);
+        assertEquals(LockMode.NONE, data.lockMode);
+        assertEquals(LockMode.STRIPED, model.getLockMode());
+        assertEquals(8, model.getNumStripes());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.solver;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.modeler.featurizer.Feature;
+import org.grouplens.samantha.modeler.featurizer.StandardLearningInstance;
+import org.grouplens.samantha.modeler.svdfeature.SVDFeatureInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryInstanceLearningDataTest {
+    // enough instances for the cache file to have several blocks
+    private static final int NUM_INSTANCES = 200000;
+    private File file;
+
+    static private class LabeledInstance implements LearningInstance {
+        private static final long serialVersionUID = 1L;
+        private double label;
+        private double weight;
+
+        private LabeledInstance(double label, double weight) {
+            this.label = label;
+            this.weight = weight;
+        }
+
+        public double getLabel() {
+            return label;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public void setLabel(double label) {
+            this.label = label;
+        }
+
+        public void setWeight(double weight) {
+            this.weight = weight;
+        }
+
+        public LearningInstance newInstanceWithLabel(double label) {
+            return new LabeledInstance(label, weight);
+        }
+    }
+
+    static private LearningInstance createInstance(int id) {
+        String group = id % 5 == 0 ? null : "group" + (id % 7);
+        if (id % 3 == 0) {
+            return new SVDFeatureInstance(
+                    Arrays.asList(new Feature(id, 1.0)),
+                    Arrays.asList(new Feature(id % 100, 0.5), new Feature(id % 1000, 0.25)),
+                    new ArrayList<>(), id, 2.0, group);
+        } else if (id % 3 == 1) {
+            Int2DoubleMap features = new Int2DoubleOpenHashMap();
+            features.put(id, 1.5);
+            features.put(-1, 3.0);
+            return new StandardLearningInstance(features, id, 0.5, group);
+        } else {
+            return new LabeledInstance(id, 4.0);
+        }
+    }
+
+    static private void assertInstance(LearningInstance instance) {
+        int id = (int) instance.getLabel();
+        LearningInstance expected = createInstance(id);
+        assertEquals(expected.getClass(), instance.getClass());
+        assertEquals(expected.getWeight(), instance.getWeight(), 0.0);
+        if (instance instanceof SVDFeatureInstance) {
+            SVDFeatureInstance expectedIns = (SVDFeatureInstance) expected;
+            SVDFeatureInstance actualIns = (SVDFeatureInstance) instance;
+            assertEquals(expected.getGroup(), instance.getGroup());
+            assertFeatures(expectedIns.getBiasFeatures(), actualIns.getBiasFeatures());
+            assertFeatures(expectedIns.getUserFeatures(), actualIns.getUserFeatures());
+            assertFeatures(expectedIns.getItemFeatures(), actualIns.getItemFeatures());
+        } else if (instance instanceof StandardLearningInstance) {
+            assertEquals(expected.getGroup(), instance.getGroup());
+            assertEquals(((StandardLearningInstance) expected).getFeatures(),
+                    ((StandardLearningInstance) instance).getFeatures());
+        }
+    }
+
+    static private void assertFeatures(List<Feature> expected, List<Feature> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i=0; i<expected.size(); i++) {
+            assertEquals(expected.get(i).getIndex(), actual.get(i).getIndex());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), 0.0);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("instances", ".bin");
+        try (BinaryInstanceWriter writer = new BinaryInstanceWriter(file.getPath())) {
+            for (int i=0; i<NUM_INSTANCES; i++) {
+                writer.write(createInstance(i));
+            }
+        }
+        assertTrue(file.length() > 2 * BinaryInstanceWriter.BLOCK_BYTES);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * @return the ids of the instances in the order of one pass, checking every instance read.
+     */
+    static private int[] readPass(BinaryInstanceLearningData data) {
+        int[] ids = new int[NUM_INSTANCES];
+        int num = 0;
+        List<LearningInstance> instances;
+        while ((instances = data.getLearningInstance()).size() > 0) {
+            for (LearningInstance instance : instances) {
+                assertTrue(num < NUM_INSTANCES);
+                assertInstance(instance);
+                ids[num++] = (int) instance.getLabel();
+            }
+        }
+        assertEquals(NUM_INSTANCES, num);
+        return ids;
+    }
+
+    @Test
+    public void testRoundTripInOrder() {
+        BinaryInstanceLearningData data = new BinaryInstanceLearningData(file.getPath(), false, 0L);
+        for (int pass=0; pass<2; pass++) {
+            int[] ids = readPass(data);
+            for (int i=0; i<NUM_INSTANCES; i++) {
+                assertEquals(i, ids[i]);
+            }
+            data.startNewIteration();
+        }
+    }
+
+    @Test
+    public void testShuffleReturnsEachInstanceOncePerPass() {
+        BinaryInstanceLearningData data = new BinaryInstanceLearningData(file.getPath(), true, 7L);
+        int[] previous = null;
+        for (int pass=0; pass<3; pass++) {
+            int[] ids = readPass(data);
+            boolean[] seen = new boolean[NUM_INSTANCES];
+            for (int id : ids) {
+                assertFalse(seen[id]);
+                seen[id] = true;
+            }
+            if (previous != null) {
+                assertFalse(Arrays.equals(previous, ids));
+            }
+            previous = ids;
+            data.startNewIteration();
+        }
+        BinaryInstanceLearningData same = new BinaryInstanceLearningData(file.getPath(), true, 7L);
+        int[] first = readPass(same);
+        BinaryInstanceLearningData again = new BinaryInstanceLearningData(file.getPath(), true, 7L);
+        assertArrayEquals(first, readPass(again));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentKeyIndexTest {
+    private static final int NUM_WRITERS = 8;
+    private static final int KEYS_PER_WRITER = 50000;
+
+    @Test
+    public void testSizeOnlyCountsStoredKeys() throws InterruptedException {
+        ConcurrentKeyIndex<String> keyIndex = new ConcurrentKeyIndex<>();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger missing = new AtomicInteger(0);
+        Thread reader = new Thread(() -> {
+            int checked = 0;
+            while (writing.get()) {
+                int size = keyIndex.size();
+                for (int i = checked; i < size; i++) {
+                    if (keyIndex.getKey(i) == null) {
+                        missing.incrementAndGet();
+                    }
+                }
+                checked = size;
+            }
+        });
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < NUM_WRITERS; w++) {
+            int first = (w / 2) * KEYS_PER_WRITER;
+            writers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // every two writers set the same keys so that a key is also set concurrently by both
+                for (int i = first; i < first + KEYS_PER_WRITER; i++) {
+                    keyIndex.setKey(Integer.toString(i));
+                }
+            }));
+        }
+        reader.start();
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        reader.join();
+        assertEquals(0, missing.get());
+
+        int numKeys = NUM_WRITERS / 2 * KEYS_PER_WRITER;
+        assertEquals(numKeys, keyIndex.size());
+        Set<String> stored = new HashSet<>();
+        for (int i = 0; i < numKeys; i++) {
+            String key = keyIndex.getKey(i);
+            assertEquals(i, keyIndex.getIndex(key));
+            stored.add(key);
+        }
+        assertEquals(numKeys, stored.size());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.space;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.grouplens.samantha.modeler.solver.ObjectiveRunnable;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VersionedVariableSpaceTest {
+    private VersionedVariableSpace space;
+
+    @Before
+    public void setUp() {
+        space = new VersionedVariableSpace();
+        space.setSpaceState("test", SpaceMode.BUILDING);
+        space.requestScalarVar("biases", 10, 0.0, false);
+        space.requestVectorVar("factors", 10, 2, 0.0, false, false);
+        space.publishSpaceVersion();
+    }
+
+    private void increment(int index) {
+        space.setScalarVarByNameIndex("biases", index, space.getScalarVarByNameIndex("biases", index) + 1.0);
+        space.combineVectorVarByNameIndex("factors", index, 1.0, 1.0, new double[] {1.0, 2.0});
+    }
+
+    @Test
+    public void testWriterReadsItsOwnWrites() {
+        SpaceUtilities.runAsWriter(() -> {
+            for (int i=0; i<5; i++) {
+                increment(3);
+            }
+            assertEquals(5.0, space.getScalarVarByNameIndex("biases", 3), 0.0);
+            assertEquals(5.0, space.getScalarVarByName("biases").getEntry(3), 0.0);
+            assertEquals(10.0, space.getVectorVarByNameIndex("factors", 3).getEntry(1), 0.0);
+        });
+        assertEquals(0.0, space.getScalarVarByNameIndex("biases", 3), 0.0);
+        assertEquals(0.0, space.getVectorVarByNameIndex("factors", 3).getEntry(1), 0.0);
+        space.publishSpaceVersion();
+        assertEquals(5.0, space.getScalarVarByNameIndex("biases", 3), 0.0);
+        assertEquals(10.0, space.getVectorVarByNameIndex("factors", 3).getEntry(1), 0.0);
+    }
+
+    @Test
+    public void testWriterSeesEnsuredRows() {
+        SpaceUtilities.runAsWriter(() -> {
+            space.ensureScalarVar("biases", 20, 1.0, false);
+            assertEquals(20, space.getScalarVarSizeByName("biases"));
+            assertEquals(1.0, space.getScalarVarByNameIndex("biases", 15), 0.0);
+        });
+        assertEquals(10, space.getScalarVarSizeByName("biases"));
+    }
+
+    @Test
+    public void testSolverExecutorRunsPassesOfWritersAsWriters() {
+        SolverExecutor executor = new SolverExecutor("test", 2);
+        List<ObjectiveRunnable> runnables = new ArrayList<>();
+        for (int i=0; i<4; i++) {
+            int index = i;
+            runnables.add(new ObjectiveRunnable() {
+                public void run() {
+                    for (int j=0; j<5; j++) {
+                        increment(index);
+                    }
+                }
+
+                public double getObjVal() {
+                    return 0.0;
+                }
+
+                public long getNumInstances() {
+                    return 5L;
+                }
+            });
+        }
+        SpaceUtilities.runAsWriter(() -> executor.run("learning", runnables));
+        space.publishSpaceVersion();
+        for (int i=0; i<4; i++) {
+            assertEquals(5.0, space.getScalarVarByNameIndex("biases", i), 0.0);
+        }
+    }
+
+    @Test
+    public void testPublishWritesOfModel() {
+        VersionedIndexSpace indexSpace = new VersionedIndexSpace();
+        indexSpace.setSpaceState("test", SpaceMode.BUILDING);
+        space.setSpaceState("test", SpaceMode.BUILDING);
+        IndexedVectorModel model = new IndexedVectorModel("model", 0, 2, indexSpace, space);
+        model.ensureKey("a");
+        model.publishModel();
+        SpaceUtilities.runAsWriter(() -> {
+            model.setKeyVector("a", new ArrayRealVector(new double[] {1.0, 2.0}));
+            model.setIndexVector(model.ensureKey("b"), new ArrayRealVector(new double[] {3.0, 4.0}));
+        });
+        assertFalse(model.hasKey("b"));
+        assertEquals(0.0, model.getKeyVector("a").getEntry(0), 0.0);
+        model.publishWrites();
+        assertEquals(2, model.getIndexSize());
+        assertEquals(1.0, model.getKeyVector("a").getEntry(0), 0.0);
+        assertEquals(4.0, model.getKeyVector("b").getEntry(1), 0.0);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.svdfeature;
+
+import org.grouplens.samantha.modeler.featurizer.Feature;
+import org.grouplens.samantha.modeler.solver.L2NormLoss;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedVariableSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class AlternatingLeastSquaresTest {
+    private static final int NUM_USERS = 20;
+    private static final int NUM_ITEMS = 30;
+    private static final int FACT_DIM = 3;
+
+    private final SolverExecutor executor = new SolverExecutor("als-test", 2);
+
+    private static SVDFeature createModel() {
+        VariableSpace variableSpace = new SynchronizedVariableSpace();
+        variableSpace.requestScalarVar(SVDFeatureKey.BIASES.get(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(SVDFeatureKey.BIASES.get(), 1 + NUM_USERS + NUM_ITEMS, 0.0, false);
+        variableSpace.requestVectorVar(SVDFeatureKey.FACTORS.get(), 0, FACT_DIM, 0.0, true, false);
+        variableSpace.ensureVectorVar(SVDFeatureKey.FACTORS.get(), NUM_USERS + NUM_ITEMS, FACT_DIM, 0.0,
+                true, false);
+        List<String> empty = new ArrayList<>();
+        return new SVDFeature(empty, empty, empty, "rating", "weight", null, new ArrayList<>(),
+                FACT_DIM, new L2NormLoss(), new SynchronizedIndexSpace(), variableSpace);
+    }
+
+    private static SVDFeatureInstance createInstance(int user, int item, double label) {
+        List<Feature> gfeas = Arrays.asList(new Feature(0, 1.0), new Feature(1 + user, 1.0),
+                new Feature(1 + NUM_USERS + item, 1.0));
+        return new SVDFeatureInstance(gfeas, Arrays.asList(new Feature(user, 1.0)),
+                Arrays.asList(new Feature(NUM_USERS + item, 1.0)), label, 1.0, null);
+    }
+
+    private static double dotFactors(SVDFeature model, int user, int item) {
+        double[] userFactor = new double[FACT_DIM];
+        double[] itemFactor = new double[FACT_DIM];
+        model.getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), user, userFactor);
+        model.getVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), NUM_USERS + item, itemFactor);
+        double product = 0.0;
+        for (int j=0; j<FACT_DIM; j++) {
+            product += userFactor[j] * itemFactor[j];
+        }
+        return product;
+    }
+
+    private static double getSquaredError(SVDFeature model, List<SVDFeatureInstance> insList) {
+        double sse = 0.0;
+        for (SVDFeatureInstance ins : insList) {
+            double err = model.predict(ins) - ins.getLabel();
+            sse += err * err;
+        }
+        return sse;
+    }
+
+    @Test
+    public void testCholeskySolve() {
+        // only the lower triangle is read
+        double[] a = new double[] {4.0, 0.0, 0.0, 2.0, 3.0, 0.0, -2.0, 1.0, 5.0};
+        double[] b = new double[] {2.0, 6.0, 4.0};
+        AlternatingLeastSquares.choleskySolve(a, b, 3);
+        double[][] full = new double[][] {{4.0, 2.0, -2.0}, {2.0, 3.0, 1.0}, {-2.0, 1.0, 5.0}};
+        double[] expected = new double[] {2.0, 6.0, 4.0};
+        for (int i=0; i<3; i++) {
+            double sum = 0.0;
+            for (int j=0; j<3; j++) {
+                sum += full[i][j] * b[j];
+            }
+            assertEquals(expected[i], sum, 1e-10);
+        }
+    }
+
+    @Test
+    public void testExplicitFitsLowRankRatings() {
+        Random random = new Random(1L);
+        double[][] userTrue = new double[NUM_USERS][2];
+        double[][] itemTrue = new double[NUM_ITEMS][2];
+        for (double[] factor : userTrue) {
+            factor[0] = random.nextGaussian();
+            factor[1] = random.nextGaussian();
+        }
+        for (double[] factor : itemTrue) {
+            factor[0] = random.nextGaussian();
+            factor[1] = random.nextGaussian();
+        }
+        List<SVDFeatureInstance> insList = new ArrayList<>();
+        for (int u=0; u<NUM_USERS; u++) {
+            for (int i=0; i<NUM_ITEMS; i++) {
+                double label = 3.0 + 0.1 * u - 0.05 * i + userTrue[u][0] * itemTrue[i][0] +
+                        userTrue[u][1] * itemTrue[i][1];
+                insList.add(createInstance(u, i, label));
+            }
+        }
+        SVDFeatureInstanceList data = new SVDFeatureInstanceList(insList);
+        SVDFeature model = createModel();
+        AlternatingLeastSquares als = new AlternatingLeastSquares(30, 1, 1e-6, 0.0, 2, false, 1.0, executor);
+        double initial = getSquaredError(model, insList);
+        double previous = initial;
+        for (int iter=0; iter<10; iter++) {
+            double objVal = als.update(model, data);
+            assertTrue(objVal <= previous + 1e-8 * initial);
+            previous = objVal;
+        }
+        double sse = getSquaredError(model, insList);
+        assertEquals(previous, sse, 1e-8 * initial);
+        assertTrue(sse < 1e-6 * initial);
+    }
+
+    @Test
+    public void testImplicitObjectiveLeavesOutBiases() {
+        Random random = new Random(2L);
+        List<SVDFeatureInstance> insList = new ArrayList<>();
+        for (int u=0; u<NUM_USERS; u++) {
+            for (int i=0; i<NUM_ITEMS; i++) {
+                if (random.nextDouble() < 0.2) {
+                    insList.add(createInstance(u, i, 1.0 + random.nextInt(3)));
+                }
+            }
+        }
+        SVDFeatureInstanceList data = new SVDFeatureInstanceList(insList);
+        SVDFeature model = createModel();
+        for (int i=0; i<1 + NUM_USERS + NUM_ITEMS; i++) {
+            model.setScalarVarByNameIndex(SVDFeatureKey.BIASES.get(), i, 0.5 + i);
+        }
+        double alpha = 2.0;
+        AlternatingLeastSquares als = new AlternatingLeastSquares(10, 1, 0.01, 0.0, 2, true, alpha, executor);
+        double objVal = 0.0;
+        for (int iter=0; iter<5; iter++) {
+            objVal = als.update(model, data);
+        }
+        Set<Integer> users = new HashSet<>();
+        Set<Integer> items = new HashSet<>();
+        Map<Integer, Double> confidences = new HashMap<>();
+        for (SVDFeatureInstance ins : insList) {
+            int user = ins.getUserFeatures().get(0).getIndex();
+            int item = ins.getItemFeatures().get(0).getIndex() - NUM_USERS;
+            users.add(user);
+            items.add(item);
+            confidences.put(user * NUM_ITEMS + item, 1.0 + alpha * ins.getWeight() * ins.getLabel());
+        }
+        // the pairs not in the data are negatives with confidence one
+        double expected = 0.0;
+        for (int user : users) {
+            for (int item : items) {
+                double product = dotFactors(model, user, item);
+                Double confidence = confidences.get(user * NUM_ITEMS + item);
+                if (confidence != null) {
+                    expected += confidence * (product - 1.0) * (product - 1.0);
+                } else {
+                    expected += product * product;
+                }
+            }
+        }
+        assertEquals(expected, objVal, 1e-8 * Math.max(1.0, expected));
+        for (int i=0; i<1 + NUM_USERS + NUM_ITEMS; i++) {
+            assertEquals(0.5 + i, model.getScalarVarByNameIndex(SVDFeatureKey.BIASES.get(), i), 0.0);
+        }
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testImplicitRejectsNonPositiveConfidence() {
+        List<SVDFeatureInstance> insList = new ArrayList<>();
+        insList.add(createInstance(0, 0, 1.0));
+        insList.add(createInstance(1, 1, -0.5));
+        AlternatingLeastSquares als = new AlternatingLeastSquares(10, 1, 0.01, 0.0, 2, true, 2.0, executor);
+        als.update(createModel(), new SVDFeatureInstanceList(insList));
+    }
+}
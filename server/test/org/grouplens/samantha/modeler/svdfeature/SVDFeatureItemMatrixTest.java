@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.svdfeature;
+
+import org.grouplens.samantha.modeler.featurizer.FeatureExtractorUtilities;
+import org.grouplens.samantha.modeler.solver.L2NormLoss;
+import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedVariableSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class SVDFeatureItemMatrixTest {
+    // more items than a few blocks of rows, so that the parts have remainders
+    private static final int NUM_ITEMS = 3500;
+    private static final int FACT_DIM = 4;
+    private static final int N = 50;
+
+    private static SVDFeatureItemMatrix createItemMatrix(Random random) {
+        IndexSpace indexSpace = new SynchronizedIndexSpace();
+        indexSpace.requestKeyMap(SVDFeatureKey.BIASES.get());
+        indexSpace.requestKeyMap(SVDFeatureKey.FACTORS.get());
+        VariableSpace variableSpace = new SynchronizedVariableSpace();
+        variableSpace.requestScalarVar(SVDFeatureKey.BIASES.get(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(SVDFeatureKey.BIASES.get(), NUM_ITEMS, 0.0, false);
+        variableSpace.requestScalarVar(SVDFeatureKey.SUPPORT.get(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(SVDFeatureKey.SUPPORT.get(), NUM_ITEMS, 0.0, false);
+        variableSpace.requestVectorVar(SVDFeatureKey.FACTORS.get(), 0, FACT_DIM, 0.0, false, false);
+        variableSpace.ensureVectorVar(SVDFeatureKey.FACTORS.get(), NUM_ITEMS, FACT_DIM, 0.0, false, false);
+        for (int i=0; i<NUM_ITEMS; i++) {
+            String key = FeatureExtractorUtilities.composeKey("item", Integer.toString(i));
+            indexSpace.setKey(SVDFeatureKey.BIASES.get(), key);
+            indexSpace.setKey(SVDFeatureKey.FACTORS.get(), key);
+            variableSpace.setScalarVarByNameIndex(SVDFeatureKey.BIASES.get(), i, random.nextGaussian());
+            double[] factor = new double[FACT_DIM];
+            for (int f=0; f<FACT_DIM; f++) {
+                factor[f] = random.nextGaussian();
+            }
+            variableSpace.combineVectorVarByNameIndex(SVDFeatureKey.FACTORS.get(), i, 0.0, 1.0, factor);
+        }
+        List<String> empty = new ArrayList<>();
+        SVDFeature svdFeature = new SVDFeature(empty, empty, empty, "rating", "weight", null, new ArrayList<>(),
+                FACT_DIM, new L2NormLoss(), indexSpace, variableSpace);
+        return new SVDFeatureItemMatrix(svdFeature, Arrays.asList("item"), 0);
+    }
+
+    private static double[] getScores(SVDFeatureItemMatrix itemMatrix, double[] userFactorSum) {
+        float[] vectors = itemMatrix.getItemVectors(true);
+        double[] scores = new double[itemMatrix.getNumItems()];
+        for (int i=0; i<scores.length; i++) {
+            double score = vectors[i * (FACT_DIM + 1) + FACT_DIM];
+            for (int f=0; f<FACT_DIM; f++) {
+                score += vectors[i * (FACT_DIM + 1) + f] * userFactorSum[f];
+            }
+            scores[i] = score;
+        }
+        return scores;
+    }
+
+    private static void assertTopN(double[] scores, ExecutorService executor, int numThreads,
+                                   SVDFeatureItemMatrix itemMatrix, double[] userFactorSum) {
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        int[] rows = new int[N];
+        double[] topScores = new double[N];
+        assertEquals(N, itemMatrix.getTopN(userFactorSum, N, executor, numThreads, rows, topScores));
+        for (int i=0; i<N; i++) {
+            assertEquals(sorted[sorted.length - 1 - i], topScores[i], 1e-6);
+            assertEquals(scores[rows[i]], topScores[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void testTopNOfParts() {
+        Random random = new Random(0L);
+        SVDFeatureItemMatrix itemMatrix = createItemMatrix(random);
+        assertEquals(NUM_ITEMS, itemMatrix.getNumItems());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round=0; round<5; round++) {
+                double[] userFactorSum = new double[FACT_DIM];
+                for (int f=0; f<FACT_DIM; f++) {
+                    userFactorSum[f] = random.nextGaussian();
+                }
+                double[] scores = getScores(itemMatrix, userFactorSum);
+                assertTopN(scores, null, 3, itemMatrix, userFactorSum);
+                assertTopN(scores, executor, 1, itemMatrix, userFactorSum);
+                assertTopN(scores, executor, 3, itemMatrix, userFactorSum);
+                // more threads than blocks of rows
+                assertTopN(scores, executor, 16, itemMatrix, userFactorSum);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.svdfeature;
+
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.modeler.featurizer.Feature;
+import org.grouplens.samantha.modeler.solver.L2NormLoss;
+import org.grouplens.samantha.modeler.space.PrimitiveVariableSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedVariableSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the requests/sec of scoring the candidates of one user with {@link SVDFeature}, one candidate at a time
+ * through {@link SVDFeature#predict(LearningInstance)} against all of them at once through
+ * {@link SVDFeature#predict(List)}, on a randomly initialized model of the size of MovieLens 1M. The same few
+ * requests are scored again and again, so the time is the scoring rather than cache misses on the instances.
+ *
+ * This is a plain main rather than a JMH benchmark, since the build has no JMH dependency or sbt-jmh plugin and they
+ * cannot be fetched where the benchmarks are run. It does what JMH would do for this comparison by hand: both ways
+ * of scoring go through {@link #NUM_WARMUP_ROUNDS} untimed rounds first so that they are compiled before they are
+ * timed, each space gets its own fresh model, and the sums of the predictions are compared and printed so that the
+ * scoring cannot be dropped as dead code.
+ *
+ * Run with: activator "test:runMain org.grouplens.samantha.modeler.svdfeature.SVDFeaturePredictBenchmark
+ * [numUsers numItems numCandidates factDim]".
+ */
+public class SVDFeaturePredictBenchmark {
+    private static final int NUM_REQUESTS = 20;
+    private static final int NUM_REPEATS = 50;
+    private static final int NUM_WARMUP_ROUNDS = 5;
+    private static final int NUM_ROUNDS = 5;
+
+    private SVDFeaturePredictBenchmark() {}
+
+    private static List<Feature> singleFeature(int index) {
+        List<Feature> features = new ArrayList<>(1);
+        features.add(new Feature(index, 1.0));
+        return features;
+    }
+
+    /**
+     * The candidates of one user, whose user side is the user factor plus the factors of numUserFeas - 1 rated items
+     * as in SVD++.
+     */
+    private static List<LearningInstance> generateRequest(Random random, int numUsers, int numItems,
+                                                          int numCandidates, int numUserFeas) {
+        int user = random.nextInt(numUsers);
+        List<Feature> ufeas = new ArrayList<>(numUserFeas);
+        ufeas.add(new Feature(user, 1.0));
+        for (int i=1; i<numUserFeas; i++) {
+            ufeas.add(new Feature(numUsers + random.nextInt(numItems), 1.0 / Math.sqrt(numUserFeas - 1)));
+        }
+        List<LearningInstance> instances = new ArrayList<>(numCandidates);
+        for (int i=0; i<numCandidates; i++) {
+            int item = random.nextInt(numItems);
+            List<Feature> gfeas = new ArrayList<>(3);
+            gfeas.add(new Feature(0, 1.0));
+            gfeas.add(new Feature(1 + user, 1.0));
+            gfeas.add(new Feature(1 + numUsers + item, 1.0));
+            instances.add(new SVDFeatureInstance(gfeas, new ArrayList<>(ufeas), singleFeature(numUsers + item),
+                    0.0, SVDFeatureInstance.defaultWeight, null));
+        }
+        return instances;
+    }
+
+    private static SVDFeature createModel(VariableSpace variableSpace, int numUsers, int numItems, int factDim) {
+        variableSpace.requestScalarVar(SVDFeatureKey.BIASES.get(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(SVDFeatureKey.BIASES.get(), 1 + numUsers + numItems, 0.0, true);
+        variableSpace.requestVectorVar(SVDFeatureKey.FACTORS.get(), 0, factDim, 0.0, true, false);
+        variableSpace.ensureVectorVar(SVDFeatureKey.FACTORS.get(), numUsers + numItems, factDim, 0.0, true, false);
+        List<String> empty = new ArrayList<>();
+        return new SVDFeature(empty, empty, empty, "rating", "weight", null, new ArrayList<>(),
+                factDim, new L2NormLoss(), new SynchronizedIndexSpace(), variableSpace);
+    }
+
+    private static double predictOneByOne(SVDFeature model, List<LearningInstance> instances) {
+        double sum = 0.0;
+        for (LearningInstance ins : instances) {
+            sum += model.predict(ins);
+        }
+        return sum;
+    }
+
+    private static double predictBatch(SVDFeature model, List<LearningInstance> instances) {
+        double sum = 0.0;
+        for (double pred : model.predict(instances)) {
+            sum += pred;
+        }
+        return sum;
+    }
+
+    private static void run(String spaceName, List<List<LearningInstance>> requests, int numUserFeas,
+                            int numUsers, int numItems, int factDim) {
+        VariableSpace variableSpace;
+        if ("primitive".equals(spaceName)) {
+            variableSpace = new PrimitiveVariableSpace();
+        } else {
+            variableSpace = new SynchronizedVariableSpace();
+        }
+        SVDFeature model = createModel(variableSpace, numUsers, numItems, factDim);
+        double warmupSum = 0.0;
+        for (int round=0; round<NUM_WARMUP_ROUNDS; round++) {
+            for (List<LearningInstance> request : requests) {
+                warmupSum += predictOneByOne(model, request) - predictBatch(model, request);
+            }
+        }
+        System.out.println(String.format("space=%s userFeatures=%d warmup rounds=%d sumDiff=%.2e", spaceName,
+                numUserFeas, NUM_WARMUP_ROUNDS, Math.abs(warmupSum)));
+        for (int round=0; round<NUM_ROUNDS; round++) {
+            long start = System.nanoTime();
+            double oneSum = 0.0;
+            for (int rep=0; rep<NUM_REPEATS; rep++) {
+                for (List<LearningInstance> request : requests) {
+                    oneSum += predictOneByOne(model, request);
+                }
+            }
+            double oneSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            double batchSum = 0.0;
+            for (int rep=0; rep<NUM_REPEATS; rep++) {
+                for (List<LearningInstance> request : requests) {
+                    batchSum += predictBatch(model, request);
+                }
+            }
+            double batchSeconds = (System.nanoTime() - start) / 1e9;
+            int numRequests = requests.size() * NUM_REPEATS;
+            System.out.println(String.format("space=%s userFeatures=%d round=%d oneByOne requests/sec=%.0f " +
+                            "batch requests/sec=%.0f speedup=%.2f sumDiff=%.2e", spaceName, numUserFeas, round,
+                    numRequests / oneSeconds, numRequests / batchSeconds, oneSeconds / batchSeconds,
+                    Math.abs(oneSum - batchSum)));
+        }
+    }
+
+    public static void main(String[] args) {
+        int numUsers = 6040;
+        int numItems = 3706;
+        int numCandidates = 1000;
+        int factDim = 30;
+        if (args.length == 4) {
+            numUsers = Integer.parseInt(args[0]);
+            numItems = Integer.parseInt(args[1]);
+            numCandidates = Integer.parseInt(args[2]);
+            factDim = Integer.parseInt(args[3]);
+        }
+        for (int numUserFeas : new int[] {1, 10}) {
+            Random random = new Random(0L);
+            List<List<LearningInstance>> requests = new ArrayList<>();
+            for (int i=0; i<NUM_REQUESTS; i++) {
+                requests.add(generateRequest(random, numUsers, numItems, numCandidates, numUserFeas));
+            }
+            run("synchronized", requests, numUserFeas, numUsers, numItems, factDim);
+            run("primitive", requests, numUserFeas, numUsers, numItems, factDim);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.modeler.svdfeature;
+
+import org.grouplens.samantha.modeler.common.LearningData;
+import org.grouplens.samantha.modeler.common.LearningInstance;
+import org.grouplens.samantha.modeler.featurizer.Feature;
+import org.grouplens.samantha.modeler.solver.AsyncParallelSGD;
+import org.grouplens.samantha.modeler.solver.L2NormLoss;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.modeler.space.LockMode;
+import org.grouplens.samantha.modeler.space.PrimitiveVariableSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedIndexSpace;
+import org.grouplens.samantha.modeler.space.SynchronizedVariableSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the instances/sec of one epoch of {@link AsyncParallelSGD} on a synthetic SVDFeature job of the size of
+ * MovieLens 1M, from one thread up to all the available processors, for the different {@link LockMode}s.
+ *
+ * Run with: activator "test:runMain org.grouplens.samantha.modeler.svdfeature.SVDFeatureSGDBenchmark
+ * [numUsers numItems numRatings factDim]".
+ */
+public class SVDFeatureSGDBenchmark {
+    private SVDFeatureSGDBenchmark() {}
+
+    private static class SyncInstanceList implements LearningData {
+        private final SVDFeatureInstanceList instanceList;
+
+        private SyncInstanceList(List<SVDFeatureInstance> instances) {
+            this.instanceList = new SVDFeatureInstanceList(instances);
+        }
+
+        synchronized public List<LearningInstance> getLearningInstance() {
+            return instanceList.getLearningInstance();
+        }
+
+        synchronized public void startNewIteration() {
+            instanceList.startNewIteration();
+        }
+    }
+
+    private static List<Feature> singleFeature(int index) {
+        List<Feature> features = new ArrayList<>(1);
+        features.add(new Feature(index, 1.0));
+        return features;
+    }
+
+    private static List<SVDFeatureInstance> generateInstances(int numUsers, int numItems, int numRatings) {
+        Random random = new Random(0L);
+        List<SVDFeatureInstance> instances = new ArrayList<>(numRatings);
+        for (int i=0; i<numRatings; i++) {
+            int user = random.nextInt(numUsers);
+            int item = random.nextInt(numItems);
+            List<Feature> gfeas = new ArrayList<>(3);
+            gfeas.add(new Feature(0, 1.0));
+            gfeas.add(new Feature(1 + user, 1.0));
+            gfeas.add(new Feature(1 + numUsers + item, 1.0));
+            double label = 1.0 + random.nextInt(5);
+            instances.add(new SVDFeatureInstance(gfeas, singleFeature(user), singleFeature(numUsers + item),
+                    label, SVDFeatureInstance.defaultWeight, null));
+        }
+        return instances;
+    }
+
+    private static SVDFeature createModel(VariableSpace variableSpace, int numUsers, int numItems, int factDim) {
+        int biasSize = 1 + numUsers + numItems;
+        int factSize = numUsers + numItems;
+        variableSpace.requestScalarVar(SVDFeatureKey.BIASES.get(), 0, 0.0, false);
+        variableSpace.ensureScalarVar(SVDFeatureKey.BIASES.get(), biasSize, 0.0, false);
+        variableSpace.requestVectorVar(SVDFeatureKey.FACTORS.get(), 0, factDim, 0.0, true, false);
+        variableSpace.ensureVectorVar(SVDFeatureKey.FACTORS.get(), factSize, factDim, 0.0, true, false);
+        List<String> empty = new ArrayList<>();
+        return new SVDFeature(empty, empty, empty, "rating", "weight", null, new ArrayList<>(),
+                factDim, new L2NormLoss(), new SynchronizedIndexSpace(), variableSpace);
+    }
+
+    private static void run(String spaceName, LockMode lockMode, int numThreads, List<SVDFeatureInstance> instances,
+                            int numUsers, int numItems, int factDim) {
+        VariableSpace variableSpace;
+        if ("primitive".equals(spaceName)) {
+            variableSpace = new PrimitiveVariableSpace();
+        } else {
+            variableSpace = new SynchronizedVariableSpace();
+        }
+        SVDFeature model = createModel(variableSpace, numUsers, numItems, factDim);
+        AsyncParallelSGD sgd = new AsyncParallelSGD(1, 1, 0.001, 0.01, 0.0, numThreads, lockMode, 0,
+                SolverExecutor.getDefault());
+        LearningData data = new SyncInstanceList(instances);
+        sgd.update(model, data);
+        long start = System.nanoTime();
+        double objVal = sgd.update(model, data);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("space=%s lockMode=%s threads=%d instances/sec=%.0f objVal=%.2f",
+                spaceName, lockMode.get(), numThreads, instances.size() / seconds, objVal));
+    }
+
+    public static void main(String[] args) {
+        int numUsers = 6040;
+        int numItems = 3706;
+        int numRatings = 1000209;
+        int factDim = 30;
+        if (args.length == 4) {
+            numUsers = Integer.parseInt(args[0]);
+            numItems = Integer.parseInt(args[1]);
+            numRatings = Integer.parseInt(args[2]);
+            factDim = Integer.parseInt(args[3]);
+        }
+        List<SVDFeatureInstance> instances = generateInstances(numUsers, numItems, numRatings);
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int numThreads=1; numThreads<=maxThreads; numThreads*=2) {
+            run("synchronized", LockMode.ROW, numThreads, instances, numUsers, numItems, factDim);
+            run("synchronized", LockMode.STRIPED, numThreads, instances, numUsers, numItems, factDim);
+            run("primitive", LockMode.STRIPED, numThreads, instances, numUsers, numItems, factDim);
+            run("primitive", LockMode.NONE, numThreads, instances, numUsers, numItems, factDim);
+        }
+    }
+}
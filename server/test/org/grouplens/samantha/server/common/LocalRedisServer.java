@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.common;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * A Redis-compatible server in the test process speaking the protocol for the commands {@link RedisLettuceService}
+ * uses on the spaces, so that the round trips through the client, e.g. pipelined HMGET and HGETALL and SCAN, are
+ * tested without a Redis server. Values are kept as ISO-8859-1 strings, which map bytes one to one. WATCH never
+ * aborts a transaction since {@link RedisLettuceService} holds its lock from WATCH to EXEC.
+ */
+public class LocalRedisServer implements AutoCloseable {
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private final ServerSocket serverSocket;
+    private final Map<String, Object> data = new TreeMap<>();
+    private final List<Socket> sockets = new ArrayList<>();
+
+    public LocalRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "local-redis-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Store a plain string value, e.g. to set up data in a layout the clients no longer write.
+     */
+    synchronized public void set(String key, String value) {
+        data.put(key, value);
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                synchronized (sockets) {
+                    sockets.add(socket);
+                }
+                Thread handler = new Thread(() -> serve(socket), "local-redis-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        List<List<String>> queued = null;
+        try (InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = socket.getOutputStream()) {
+            List<String> command;
+            while ((command = readCommand(in)) != null) {
+                String name = command.get(0).toUpperCase();
+                ByteArrayOutputStream reply = new ByteArrayOutputStream();
+                if (name.equals("MULTI")) {
+                    queued = new ArrayList<>();
+                    writeSimple(reply, "OK");
+                } else if (name.equals("EXEC")) {
+                    writeArrayHeader(reply, queued.size());
+                    synchronized (this) {
+                        for (List<String> each : queued) {
+                            execute(each, reply);
+                        }
+                    }
+                    queued = null;
+                } else if (name.equals("DISCARD")) {
+                    queued = null;
+                    writeSimple(reply, "OK");
+                } else if (queued != null && !name.equals("WATCH")) {
+                    queued.add(command);
+                    writeSimple(reply, "QUEUED");
+                } else {
+                    synchronized (this) {
+                        execute(command, reply);
+                    }
+                }
+                out.write(reply.toByteArray());
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // closed by the client or the server
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                return null;
+            }
+            line.append((char) c);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        int num = Integer.parseInt(header.substring(1));
+        List<String> command = new ArrayList<>(num);
+        for (int i=0; i<num; i++) {
+            int len = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = new byte[len];
+            int read = 0;
+            while (read < len) {
+                read += in.read(bytes, read, len - read);
+            }
+            readLine(in);
+            command.add(new String(bytes, StandardCharsets.ISO_8859_1));
+        }
+        return command;
+    }
+
+    private static void writeSimple(ByteArrayOutputStream out, String value) {
+        out.write('+');
+        out.write(value.getBytes(StandardCharsets.ISO_8859_1), 0, value.length());
+        out.write(CRLF, 0, 2);
+    }
+
+    private static void writeInteger(ByteArrayOutputStream out, long value) {
+        writeLine(out, ":" + value);
+    }
+
+    private static void writeLine(ByteArrayOutputStream out, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(bytes, 0, bytes.length);
+        out.write(CRLF, 0, 2);
+    }
+
+    private static void writeBulk(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeLine(out, "$-1");
+        } else {
+            writeLine(out, "$" + value.length());
+            writeLine(out, value);
+        }
+    }
+
+    private static void writeArrayHeader(ByteArrayOutputStream out, int size) {
+        writeLine(out, "*" + size);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> getHash(String key, boolean create) {
+        Object value = data.get(key);
+        if (value == null && create) {
+            value = new LinkedHashMap<String, String>();
+            data.put(key, value);
+        }
+        return (Map<String, String>) value;
+    }
+
+    private static Pattern toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(Character.toString(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private void execute(List<String> command, ByteArrayOutputStream out) {
+        String name = command.get(0).toUpperCase();
+        switch (name) {
+            case "PING":
+                writeSimple(out, "PONG");
+                break;
+            case "SELECT":
+            case "WATCH":
+            case "UNWATCH":
+                writeSimple(out, "OK");
+                break;
+            case "GET":
+                writeBulk(out, (String) data.get(command.get(1)));
+                break;
+            case "SET":
+                data.put(command.get(1), command.get(2));
+                writeSimple(out, "OK");
+                break;
+            case "INCR": {
+                String value = (String) data.get(command.get(1));
+                long next = (value == null ? 0L : Long.parseLong(value)) + 1L;
+                data.put(command.get(1), Long.toString(next));
+                writeInteger(out, next);
+                break;
+            }
+            case "DEL": {
+                int removed = 0;
+                for (String key : command.subList(1, command.size())) {
+                    if (data.remove(key) != null) {
+                        removed++;
+                    }
+                }
+                writeInteger(out, removed);
+                break;
+            }
+            case "HGET": {
+                Map<String, String> hash = getHash(command.get(1), false);
+                writeBulk(out, hash == null ? null : hash.get(command.get(2)));
+                break;
+            }
+            case "HSET": {
+                Map<String, String> hash = getHash(command.get(1), true);
+                writeInteger(out, hash.put(command.get(2), command.get(3)) == null ? 1 : 0);
+                break;
+            }
+            case "HDEL": {
+                Map<String, String> hash = getHash(command.get(1), false);
+                writeInteger(out, hash != null && hash.remove(command.get(2)) != null ? 1 : 0);
+                if (hash != null && hash.isEmpty()) {
+                    data.remove(command.get(1));
+                }
+                break;
+            }
+            case "HMGET": {
+                Map<String, String> hash = getHash(command.get(1), false);
+                writeArrayHeader(out, command.size() - 2);
+                for (String field : command.subList(2, command.size())) {
+                    writeBulk(out, hash == null ? null : hash.get(field));
+                }
+                break;
+            }
+            case "HGETALL": {
+                Map<String, String> hash = getHash(command.get(1), false);
+                if (hash == null) {
+                    writeArrayHeader(out, 0);
+                } else {
+                    writeArrayHeader(out, hash.size() * 2);
+                    for (Map.Entry<String, String> entry : hash.entrySet()) {
+                        writeBulk(out, entry.getKey());
+                        writeBulk(out, entry.getValue());
+                    }
+                }
+                break;
+            }
+            case "HVALS": {
+                Map<String, String> hash = getHash(command.get(1), false);
+                List<String> values = hash == null ? new ArrayList<>() : new ArrayList<>(hash.values());
+                writeArrayHeader(out, values.size());
+                for (String value : values) {
+                    writeBulk(out, value);
+                }
+                break;
+            }
+            case "SCAN": {
+                int cursor = Integer.parseInt(command.get(1));
+                Pattern pattern = null;
+                int count = 10;
+                for (int i=2; i<command.size(); i+=2) {
+                    if (command.get(i).equalsIgnoreCase("MATCH")) {
+                        pattern = toRegex(command.get(i + 1));
+                    } else if (command.get(i).equalsIgnoreCase("COUNT")) {
+                        count = Integer.parseInt(command.get(i + 1));
+                    }
+                }
+                List<String> keys = new ArrayList<>(data.keySet());
+                int end = Math.min(cursor + count, keys.size());
+                List<String> matched = new ArrayList<>();
+                for (String key : keys.subList(Math.min(cursor, end), end)) {
+                    if (pattern == null || pattern.matcher(key).matches()) {
+                        matched.add(key);
+                    }
+                }
+                writeArrayHeader(out, 2);
+                writeBulk(out, Integer.toString(end < keys.size() ? end : 0));
+                writeArrayHeader(out, matched.size());
+                for (String key : matched) {
+                    writeBulk(out, key);
+                }
+                break;
+            }
+            default:
+                writeLine(out, "-ERR unknown command '" + name + "'");
+        }
+    }
+}
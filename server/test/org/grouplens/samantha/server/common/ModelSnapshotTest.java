@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.common;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.grouplens.samantha.modeler.solver.SolverExecutor;
+import org.grouplens.samantha.modeler.space.ConcurrentIndexSpace;
+import org.grouplens.samantha.modeler.space.IndexSpace;
+import org.grouplens.samantha.modeler.space.IndexedVectorModel;
+import org.grouplens.samantha.modeler.space.PrimitiveVariableSpace;
+import org.grouplens.samantha.modeler.space.VariableSpace;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ModelSnapshotTest {
+    // more rows than fit in one block of the biases
+    private static final int NUM_KEYS = 5000;
+    private static final int DIM = 3;
+
+    private final SolverExecutor executor = new SolverExecutor("snapshot-test", 2);
+    private final Random random = new Random(0L);
+    private File root;
+    private String file;
+
+    /**
+     * An indexed vector model with a scalar variable too, exposing its spaces to compare them.
+     */
+    static private class SnapshotModel extends IndexedVectorModel {
+        private static final long serialVersionUID = 1L;
+
+        private SnapshotModel(IndexSpace indexSpace, VariableSpace variableSpace) {
+            super("model", 0, DIM, indexSpace, variableSpace);
+            variableSpace.requestScalarVar("biases", 0, 0.0, false);
+        }
+
+        private VariableSpace getVariableSpace() {
+            return variableSpace;
+        }
+
+        private IndexSpace getIndexSpace() {
+            return indexSpace;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("model-snapshot").toFile();
+        file = new File(root, "model.bin").getAbsolutePath();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    private void setRow(SnapshotModel model, String key) {
+        int index = model.ensureKey(key);
+        VariableSpace variableSpace = model.getVariableSpace();
+        variableSpace.ensureScalarVar("biases", index + 1, 0.0, false);
+        variableSpace.setScalarVarByNameIndex("biases", index, random.nextGaussian());
+        model.setIndexVector(index, new ArrayRealVector(new double[] {
+                random.nextGaussian(), random.nextGaussian(), random.nextGaussian()}));
+    }
+
+    private SnapshotModel createModel() {
+        SnapshotModel model = new SnapshotModel(new ConcurrentIndexSpace(), new PrimitiveVariableSpace());
+        for (int i=0; i<NUM_KEYS; i++) {
+            setRow(model, "key" + i);
+        }
+        return model;
+    }
+
+    private void assertSameModel(SnapshotModel expected, Object loaded) {
+        assertTrue(loaded instanceof SnapshotModel);
+        SnapshotModel actual = (SnapshotModel) loaded;
+        assertNotSame(expected.getVariableSpace(), actual.getVariableSpace());
+        int size = expected.getIndexSize();
+        assertEquals(size, actual.getIndexSize());
+        assertEquals(size, actual.getIndexSpace().getKeyMapSize("model"));
+        assertEquals(size, actual.getVariableSpace().getScalarVarSizeByName("biases"));
+        for (int i=0; i<size; i++) {
+            String key = expected.getKeyByIndex(i);
+            assertEquals(key, actual.getKeyByIndex(i));
+            assertEquals(i, actual.getIndexByKey(key));
+            assertEquals(expected.getIndexVector(i), actual.getIndexVector(i));
+            assertEquals(expected.getVariableSpace().getScalarVarByNameIndex("biases", i),
+                    actual.getVariableSpace().getScalarVarByNameIndex("biases", i), 0.0);
+        }
+    }
+
+    private void updateRows(SnapshotModel model, int numUpdated, int numAdded) {
+        for (int i=0; i<numUpdated; i++) {
+            setRow(model, model.getKeyByIndex(random.nextInt(model.getIndexSize())));
+        }
+        int size = model.getIndexSize();
+        for (int i=0; i<numAdded; i++) {
+            setRow(model, "key" + (size + i));
+        }
+    }
+
+    private void flipByte(String path, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xff);
+        }
+    }
+
+    @Test
+    public void testDumpAndLoad() {
+        SnapshotModel model = createModel();
+        ModelSnapshot.dump(model, file, false, executor);
+        assertTrue(ModelSnapshot.isSnapshot(file));
+        assertSameModel(model, ModelSnapshot.load(file, executor));
+    }
+
+    @Test
+    public void testCompressedDumpAndLoad() {
+        SnapshotModel model = createModel();
+        ModelSnapshot.dump(model, file, true, executor);
+        assertSameModel(model, ModelSnapshot.load(file, executor));
+    }
+
+    private void assertChecksumMismatch(String what) {
+        try {
+            ModelSnapshot.load(file, executor);
+            fail("Loading a corrupted snapshot should fail.");
+        } catch (BadRequestException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum of the " + what));
+        }
+    }
+
+    @Test
+    public void testCorruptedBlock() throws IOException {
+        ModelSnapshot.dump(createModel(), file, false, executor);
+        // the blocks start right after the header
+        flipByte(file, 64);
+        assertChecksumMismatch("block");
+    }
+
+    @Test
+    public void testCorruptedTableOfContents() throws IOException {
+        ModelSnapshot.dump(createModel(), file, false, executor);
+        // the table of contents is at the end
+        flipByte(file, new File(file).length() - 1);
+        assertChecksumMismatch("table of contents");
+    }
+
+    @Test
+    public void testDeltasAndLoad() throws IOException {
+        SnapshotModel model = createModel();
+        ModelSnapshot.dump(model, file, false, executor);
+        long baseLength = new File(file).length();
+        for (int i=0; i<3; i++) {
+            updateRows(model, 100, 10);
+            assertTrue(ModelSnapshot.dumpDelta(model, file, false, executor, 3));
+            assertTrue(new File(file + ".delta." + (i + 1)).length() < baseLength / 4);
+        }
+        assertEquals(3, ModelSnapshot.getDeltaFiles(file).size());
+        SnapshotModel loaded = (SnapshotModel) ModelSnapshot.load(file, executor);
+        assertSameModel(model, loaded);
+        // the loaded model is checkpointed against the same base and deltas
+        updateRows(loaded, 100, 10);
+        assertTrue(ModelSnapshot.dumpDelta(loaded, file, true, executor, 4));
+        assertSameModel(loaded, ModelSnapshot.load(file, executor));
+    }
+
+    @Test
+    public void testDeltaWithoutCheckpoint() {
+        SnapshotModel model = createModel();
+        assertFalse(ModelSnapshot.dumpDelta(model, file, false, executor, 3));
+        ModelSnapshot.dump(createModel(), file, false, executor);
+        assertFalse(ModelSnapshot.dumpDelta(model, file, false, executor, 3));
+        assertFalse(new File(file + ".delta.1").exists());
+    }
+
+    @Test
+    public void testDeltaOfOlderBaseIsIgnored() throws IOException {
+        SnapshotModel model = createModel();
+        ModelSnapshot.dump(model, file, false, executor);
+        updateRows(model, 100, 10);
+        assertTrue(ModelSnapshot.dumpDelta(model, file, false, executor, 3));
+        Path delta = Paths.get(file + ".delta.1");
+        Path stale = Paths.get(file + ".stale");
+        Files.copy(delta, stale);
+        // the rows written after the delta would be reverted by it if it applied on the new base
+        updateRows(model, 500, 10);
+        ModelSnapshot.dump(model, file, false, executor);
+        assertFalse(Files.exists(delta));
+        Files.move(stale, delta, StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(ModelSnapshot.getDeltaFiles(file).isEmpty());
+        assertSameModel(model, ModelSnapshot.load(file, executor));
+    }
+
+    @Test
+    public void testCompactionAtMaxDeltas() {
+        SnapshotModel model = createModel();
+        ModelSnapshot.dump(model, file, false, executor);
+        for (int i=0; i<2; i++) {
+            updateRows(model, 100, 10);
+            assertTrue(ModelSnapshot.dumpDelta(model, file, false, executor, 2));
+        }
+        updateRows(model, 100, 10);
+        assertFalse(ModelSnapshot.dumpDelta(model, file, false, executor, 2));
+        assertFalse(new File(file + ".delta.3").exists());
+        // what the model manager falls back to
+        ModelSnapshot.dump(model, file, false, executor);
+        assertTrue(ModelSnapshot.getDeltaFiles(file).isEmpty());
+        assertFalse(new File(file + ".delta.1").exists());
+        assertSameModel(model, ModelSnapshot.load(file, executor));
+        updateRows(model, 100, 10);
+        assertTrue(ModelSnapshot.dumpDelta(model, file, false, executor, 2));
+        assertSameModel(model, ModelSnapshot.load(file, executor));
+    }
+}
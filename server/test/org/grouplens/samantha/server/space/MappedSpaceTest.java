@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.space;
+
+import org.grouplens.samantha.modeler.space.SpaceMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import static org.junit.Assert.*;
+
+public class MappedSpaceTest {
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("mapped-space").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    private MappedVariableSpace buildVariableSpace() {
+        MappedVariableSpace space = new MappedVariableSpace(root.getAbsolutePath());
+        space.setSpaceState("test", SpaceMode.BUILDING);
+        space.requestScalarVar("biases", 0, 0.0, false);
+        space.ensureScalarVar("biases", 3, 0.0, false);
+        space.setScalarVarByNameIndex("biases", 1, 1.5);
+        space.requestVectorVar("factors", 0, 2, 0.0, false, false);
+        space.ensureVectorVar("factors", 2, 2, 0.0, false, false);
+        space.combineVectorVarByNameIndex("factors", 1, 0.0, 1.0, new double[] {2.0, 3.0});
+        space.publishSpaceVersion();
+        return space;
+    }
+
+    private File getVersionDir(String version) {
+        return new File(new File(root, "test_" + SpaceType.VARIABLE.get()), version);
+    }
+
+    @Test
+    public void testUpdateAfterPublish() {
+        MappedVariableSpace space = buildVariableSpace();
+        assertEquals(1.5, space.getScalarVarByNameIndex("biases", 1), 0.0);
+        space.setScalarVarByNameIndex("biases", 1, 2.5);
+        space.ensureVectorVar("factors", 3, 2, 0.0, false, false);
+        space.combineVectorVarByNameIndex("factors", 2, 0.0, 1.0, new double[] {4.0, 5.0});
+        assertEquals(2.5, space.getScalarVarByNameIndex("biases", 1), 0.0);
+        assertEquals(3.0, space.getVectorVarByNameIndex("factors", 1).getEntry(1), 0.0);
+        space.publishSpaceVersion();
+        MappedVariableSpace reader = new MappedVariableSpace(root.getAbsolutePath());
+        reader.setSpaceState("test", SpaceMode.DEFAULT);
+        assertEquals(2.5, reader.getScalarVarByNameIndex("biases", 1), 0.0);
+        assertEquals(3, reader.getVectorVarSizeByName("factors"));
+        assertEquals(5.0, reader.getVectorVarByNameIndex("factors", 2).getEntry(1), 0.0);
+        reader.freeSpace();
+        space.freeSpace();
+    }
+
+    @Test
+    public void testRemoveStaleVersions() {
+        MappedVariableSpace space = buildVariableSpace();
+        MappedVariableSpace reader = new MappedVariableSpace(root.getAbsolutePath());
+        reader.setSpaceState("test", SpaceMode.DEFAULT);
+        space.setScalarVarByNameIndex("biases", 0, 1.0);
+        space.publishSpaceVersion();
+        assertTrue(getVersionDir("1").isDirectory());
+        reader.freeSpace();
+        space.setScalarVarByNameIndex("biases", 0, 2.0);
+        space.publishSpaceVersion();
+        assertFalse(getVersionDir("1").exists());
+        assertFalse(getVersionDir("2").exists());
+        assertTrue(getVersionDir("3").isDirectory());
+        space.freeSpace();
+    }
+
+    @Test
+    public void testIndexSpaceUpdateAfterPublish() {
+        MappedIndexSpace space = new MappedIndexSpace(root.getAbsolutePath());
+        space.setSpaceState("test", SpaceMode.BUILDING);
+        space.requestKeyMap("items");
+        space.setKey("items", "a");
+        space.setKey("items", "b");
+        space.publishSpaceVersion();
+        assertEquals(1, space.setKey("items", "b"));
+        assertEquals(2, space.setKey("items", "c"));
+        assertEquals("c", space.getKeyForIndex("items", 2));
+        space.publishSpaceVersion();
+        MappedIndexSpace reader = new MappedIndexSpace(root.getAbsolutePath());
+        reader.setSpaceState("test", SpaceMode.DEFAULT);
+        assertEquals(3, reader.getKeyMapSize("items"));
+        assertEquals(2, reader.getIndexForKey("items", "c"));
+    }
+}
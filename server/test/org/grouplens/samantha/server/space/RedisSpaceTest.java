@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) [2016-2017] [University of Minnesota]
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.grouplens.samantha.server.space;
+
+import com.typesafe.config.ConfigFactory;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealVector;
+import org.grouplens.samantha.modeler.space.SpaceMode;
+import org.grouplens.samantha.server.common.LocalRedisServer;
+import org.grouplens.samantha.server.common.RedisLettuceService;
+import org.grouplens.samantha.server.common.RedisService;
+import org.grouplens.samantha.server.config.ConfigKey;
+import org.grouplens.samantha.server.exception.BadRequestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Configuration;
+import play.inject.ApplicationLifecycle;
+import play.libs.F;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RedisSpaceTest {
+    private LocalRedisServer server;
+    private RedisService redisService;
+    private final List<Callable<F.Promise<Void>>> stopHooks = new ArrayList<>();
+
+    private Configuration getConfiguration(long cacheBytes) {
+        Map<String, Object> config = new HashMap<>();
+        config.put(ConfigKey.REDIS_HOST.get(), "127.0.0.1");
+        config.put(ConfigKey.REDIS_PORT.get(), server.getPort());
+        config.put(ConfigKey.REDIS_DBID.get(), 0);
+        config.put(ConfigKey.REDIS_SPACE_CACHE_MAX_BYTES.get(), cacheBytes);
+        return new Configuration(ConfigFactory.parseMap(config));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalRedisServer();
+        ApplicationLifecycle lifecycle = stopHooks::add;
+        Constructor<RedisLettuceService> constructor = RedisLettuceService.class.getDeclaredConstructor(
+                Configuration.class, ApplicationLifecycle.class);
+        constructor.setAccessible(true);
+        redisService = constructor.newInstance(getConfiguration(0L), lifecycle);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Callable<F.Promise<Void>> hook : stopHooks) {
+            hook.call();
+        }
+        server.close();
+    }
+
+    private RedisVariableSpace createVariableSpace(SpaceMode spaceMode) {
+        RedisVariableSpace space = new RedisVariableSpace(redisService,
+                new RedisSpaceCache(getConfiguration(0L)));
+        space.setSpaceState("test", spaceMode);
+        return space;
+    }
+
+    private RedisIndexSpace createIndexSpace(SpaceMode spaceMode) {
+        RedisIndexSpace space = new RedisIndexSpace(redisService,
+                new RedisSpaceCache(getConfiguration(0L)));
+        space.setSpaceState("test", spaceMode);
+        return space;
+    }
+
+    @Test
+    public void testVariableRoundTrip() {
+        RedisVariableSpace space = createVariableSpace(SpaceMode.BUILDING);
+        int size = 2500;
+        space.requestScalarVar("biases", size, 0.5, false);
+        space.requestVectorVar("factors", size, 3, 0.0, false, false);
+        for (int i=0; i<size; i+=7) {
+            space.setScalarVarByNameIndex("biases", i, i * 0.25);
+            space.setVectorVarByNameIndex("factors", i,
+                    MatrixUtils.createRealVector(new double[] {i, -i, i * 1e-300}));
+        }
+        space.publishSpaceVersion();
+
+        RedisVariableSpace serving = createVariableSpace(SpaceMode.DEFAULT);
+        RealVector biases = serving.getScalarVarByName("biases");
+        List<RealVector> factors = serving.getVectorVarByName("factors");
+        assertEquals(size, biases.getDimension());
+        assertEquals(size, factors.size());
+        int[] indices = new int[] {2499, 0, 1024, 7, 3, 2048, 1029};
+        double[] scalars = new double[indices.length];
+        double[][] vectors = new double[indices.length][3];
+        serving.getScalarVarByNameIndices("biases", indices, scalars);
+        serving.getVectorVarByNameIndices("factors", indices, vectors);
+        for (int i=0; i<size; i++) {
+            double bias = i % 7 == 0 ? i * 0.25 : 0.5;
+            assertEquals(bias, biases.getEntry(i), 0.0);
+            assertEquals(bias, serving.getScalarVarByNameIndex("biases", i), 0.0);
+            double[] factor = i % 7 == 0 ? new double[] {i, -i, i * 1e-300} : new double[3];
+            assertArrayEquals(factor, factors.get(i).toArray(), 0.0);
+        }
+        for (int i=0; i<indices.length; i++) {
+            int index = indices[i];
+            assertEquals(biases.getEntry(index), scalars[i], 0.0);
+            assertArrayEquals(factors.get(index).toArray(), vectors[i], 0.0);
+        }
+        List<String> names = serving.getAllVectorVarNames();
+        assertEquals(Collections.singletonList("factors"), names);
+    }
+
+    @Test
+    public void testEnsureAndFreeVariable() {
+        RedisVariableSpace space = createVariableSpace(SpaceMode.BUILDING);
+        space.requestVectorVar("factors", 10, 2, 1.0, false, false);
+        space.ensureVectorVar("factors", 1500, 2, 1.0, false, false);
+        assertEquals(1500, space.getVectorVarSizeByName("factors"));
+        assertEquals(2, space.getVectorVarDimensionByName("factors"));
+        space.setVectorVarByNameIndex("factors", 1400, MatrixUtils.createRealVector(new double[] {3.0, 4.0}));
+        assertArrayEquals(new double[] {3.0, 4.0},
+                space.getVectorVarByNameIndex("factors", 1400).toArray(), 0.0);
+        assertArrayEquals(new double[] {1.0, 1.0},
+                space.getVectorVarByNameIndex("factors", 1399).toArray(), 0.0);
+        space.freeVectorVar("factors");
+        assertFalse(space.hasVectorVar("factors"));
+    }
+
+    @Test
+    public void testIndexRoundTrip() {
+        RedisIndexSpace space = createIndexSpace(SpaceMode.BUILDING);
+        space.requestKeyMap("items");
+        space.requestKeyMap("users");
+        int size = 2100;
+        for (int i=0; i<size; i++) {
+            assertEquals(i, space.setKey("items", "item" + i));
+        }
+        assertEquals(0, space.setKey("users", "user0"));
+        assertEquals(5, space.setKey("items", "item5"));
+        space.publishSpaceVersion();
+
+        RedisIndexSpace serving = createIndexSpace(SpaceMode.DEFAULT);
+        assertEquals(size, serving.getKeyMapSize("items"));
+        for (int i=0; i<size; i++) {
+            assertEquals(i, serving.getIndexForKey("items", "item" + i));
+            assertEquals("item" + i, serving.getKeyForIndex("items", i));
+        }
+        assertFalse(serving.containsKey("items", "item" + size));
+        List<String> names = serving.getAllKeyMapNames();
+        Collections.sort(names);
+        assertEquals(2, names.size());
+        assertEquals("items", names.get(0));
+        assertEquals("users", names.get(1));
+    }
+
+    @Test
+    public void testScanIteratesAllKeys() {
+        for (int i=0; i<2500; i++) {
+            redisService.set("scan", "key" + i, "value");
+        }
+        redisService.set("other", "key", "value");
+        assertEquals(2500, redisService.keysWithPrefixPattern("scan", null).size());
+        // key1, key10 to key19, key100 to key199 and key1000 to key1999
+        assertEquals(1111, redisService.keysWithPrefixPattern("scan", "key1").size());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testRejectOldVariableLayout() {
+        redisService.set("test_" + SpaceType.VARIABLE.get(), SpaceMode.DEFAULT.get(), "7");
+        server.set(RedisService.composeKey(RedisService.composeKey("test_" + SpaceType.VARIABLE.get(), "7"),
+                "S_biases"), "{\"name\":\"biases\",\"size\":10}");
+        createVariableSpace(SpaceMode.DEFAULT);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testRejectOldIndexLayout() {
+        redisService.set("test_" + SpaceType.INDEX.get(), SpaceMode.DEFAULT.get(), "7");
+        String spaceIdentifier = RedisService.composeKey("test_" + SpaceType.INDEX.get(), "7");
+        server.set(RedisService.composeKey(spaceIdentifier, "items"), "0");
+        server.set(RedisService.composeKey(spaceIdentifier, RedisService.composeKey("items", "item0")), "0");
+        createIndexSpace(SpaceMode.DEFAULT);
+    }
+
+    @Test
+    public void testFailedSetKeyReleasesLock() throws Exception {
+        RedisIndexSpace space = createIndexSpace(SpaceMode.BUILDING);
+        space.requestKeyMap("items");
+        try {
+            space.setKey("missing", "item0");
+            fail("Setting a key of a missing key map should fail.");
+        } catch (BadRequestException e) {
+            // the transaction is ended
+        }
+        // the lock of the service is taken by other threads, which would wait forever if it was left held
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(0, (int) other.submit(() -> space.setKey("items", "item0")).get(10, TimeUnit.SECONDS));
+            assertEquals(1, (int) other.submit(() -> space.setKey("items", "item1")).get(10, TimeUnit.SECONDS));
+        } finally {
+            other.shutdownNow();
+        }
+        assertEquals(1, space.setKey("items", "item1"));
+        assertEquals(2, space.getKeyMapSize("items"));
+    }
+}